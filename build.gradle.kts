@@ -12,6 +12,7 @@ val lwjglNatives = "natives-windows"
 plugins {
     application
     id("java")
+    id("me.champeau.jmh") version "0.7.2"
 }
 
 application {
@@ -125,4 +126,20 @@ dependencies {
 
 tasks.test {
     useJUnitPlatform()
-}
\ No newline at end of file
+}
+
+// Converts a mesh into the game's mesh format, e.g. ./gradlew convertMesh --args="model.obj model.mesh"
+tasks.register<JavaExec>("convertMesh") {
+    classpath = sourceSets["main"].runtimeClasspath
+    mainClass.set("assets.MeshConverter")
+}
+
+// Benchmarks live in src/jmh/java, run them with ./gradlew jmh
+// None of them create a GL context, so they run on headless machines too
+jmh {
+    jmhVersion.set("1.37")
+    warmupIterations.set(3)
+    iterations.set(5)
+    fork.set(1)
+    resultFormat.set("JSON")
+}
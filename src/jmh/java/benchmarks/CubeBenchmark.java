@@ -0,0 +1,64 @@
+package benchmarks;
+
+import org.joml.Matrix4f;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+import rendering.RecordingRenderBackend;
+import shapes.Cube;
+import shapes.CubeBatch;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Cube geometry generation, and keeping a {@link CubeBatch} of moving cubes up to date.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class CubeBenchmark {
+    @Param({"1000", "10000"})
+    public int cubes;
+
+    private CubeBatch batch;
+    private int[] ids;
+    private final Matrix4f model = new Matrix4f();
+    private float time;
+
+    @Setup
+    public void setup() {
+        batch = new CubeBatch(new RecordingRenderBackend());
+        ids = new int[cubes];
+        for (int i = 0; i < cubes; i++) {
+            ids[i] = batch.add(i % 100, 0.0f, -(float) (i / 100), 0.5f);
+        }
+        batch.draw();
+    }
+
+    @Benchmark
+    public void createVerticesAndIndices(Blackhole blackhole) {
+        blackhole.consume(Cube.createVertices(1.0f, 2.0f, 3.0f, 0.5f));
+        blackhole.consume(Cube.createIndices());
+    }
+
+    /**
+     * Move every cube and upload the batch, as a scene full of moving cubes would each frame.
+     */
+    @Benchmark
+    public void updateAllAndDraw() {
+        time += 0.016f;
+        for (int i = 0; i < cubes; i++) {
+            batch.update(ids[i], model.translation(i % 100, (float) Math.sin(time + i), -(float) (i / 100)));
+        }
+        batch.draw();
+    }
+
+    /**
+     * Move a single cube, only its instance should be uploaded.
+     */
+    @Benchmark
+    public void updateOneAndDraw() {
+        time += 0.016f;
+        batch.update(ids[cubes / 2], 0.0f, time, 0.0f, 0.5f);
+        batch.draw();
+    }
+}
@@ -0,0 +1,60 @@
+package benchmarks;
+
+import org.joml.FrustumIntersection;
+import org.joml.Matrix4f;
+import org.openjdk.jmh.annotations.*;
+import scene.SceneIndex;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Frustum culling a field of small objects through the {@link SceneIndex}.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class CullingBenchmark {
+    @Param({"10000", "100000"})
+    public int objects;
+
+    private SceneIndex index;
+    private int[] ids;
+    private final FrustumIntersection frustum = new FrustumIntersection();
+    private final Matrix4f viewProjection = new Matrix4f();
+    private final Random random = new Random(42);
+    private float yaw;
+
+    @Setup
+    public void setup() {
+        index = new SceneIndex(32.0f);
+        ids = new int[objects];
+        for (int i = 0; i < objects; i++) {
+            float x = random.nextFloat() * 1000 - 500;
+            float y = random.nextFloat() * 50;
+            float z = random.nextFloat() * 1000 - 500;
+            ids[i] = index.add(x, y, z, x + 1, y + 1, z + 1);
+        }
+    }
+
+    @Benchmark
+    public int cull() {
+        yaw += 0.01f;
+        viewProjection.setPerspective((float) Math.toRadians(60.0f), 1.0f, 0.1f, 300.0f).rotateY(yaw);
+        return index.cull(frustum.set(viewProjection));
+    }
+
+    /**
+     * Move 1% of the objects, then cull.
+     */
+    @Benchmark
+    public int moveAndCull() {
+        for (int i = 0; i < objects / 100; i++) {
+            int id = ids[random.nextInt(objects)];
+            float x = random.nextFloat() * 1000 - 500;
+            float z = random.nextFloat() * 1000 - 500;
+            index.update(id, x, 0, z, x + 1, 1, z + 1);
+        }
+        return cull();
+    }
+}
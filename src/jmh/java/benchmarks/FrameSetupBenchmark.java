@@ -0,0 +1,59 @@
+package benchmarks;
+
+import org.joml.FrustumIntersection;
+import org.joml.Matrix4f;
+import org.lwjgl.BufferUtils;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.nio.FloatBuffer;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The per-frame CPU work around the draw calls in Game: building the camera matrices, getting them into a buffer
+ * for upload, and formatting the FPS for the window title.
+ * <p>
+ * The "allocating" variants are how the render loop used to do it, kept as a baseline.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class FrameSetupBenchmark {
+    private final Matrix4f projection = new Matrix4f().perspective((float) Math.toRadians(60.0f), 1.0f, 0.1f, 100.0f);
+    private final Matrix4f view = new Matrix4f();
+    private final Matrix4f viewProjection = new Matrix4f();
+    private final FrustumIntersection frustum = new FrustumIntersection();
+    private final FloatBuffer scratch = BufferUtils.createFloatBuffer(16);
+    private float yaw;
+    private double fps = 59.94;
+
+    @Benchmark
+    public FloatBuffer matrixUploadAllocating() {
+        FloatBuffer buffer = BufferUtils.createFloatBuffer(16);
+        projection.get(buffer);
+        return buffer;
+    }
+
+    @Benchmark
+    public FloatBuffer matrixUploadReused() {
+        projection.get(scratch);
+        return scratch;
+    }
+
+    /**
+     * Rebuild the view, view-projection and frustum, as the camera does after it moves.
+     */
+    @Benchmark
+    public FrustumIntersection cameraUpdate() {
+        yaw += 0.01f;
+        view.identity().rotateX(0.1f).rotateY(yaw).translate(-1.0f, -2.0f, -3.0f);
+        projection.mul(view, viewProjection);
+        return frustum.set(viewProjection);
+    }
+
+    @Benchmark
+    public void titleFormatting(Blackhole blackhole) {
+        fps += 0.01;
+        blackhole.consume("FPS: %.2f".formatted(fps));
+    }
+}
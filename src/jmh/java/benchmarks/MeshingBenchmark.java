@@ -0,0 +1,48 @@
+package benchmarks;
+
+import org.openjdk.jmh.annotations.*;
+import voxel.Chunk;
+import voxel.ChunkMesh;
+import voxel.GreedyMesher;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Greedy meshing of a single chunk, for a flat, a hilly and a noisy chunk.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class MeshingBenchmark {
+    @Param({"flat", "hills", "noise"})
+    public String terrain;
+
+    private final GreedyMesher mesher = new GreedyMesher();
+    private short[] snapshot;
+
+    @Setup
+    public void setup() {
+        int size = Chunk.PADDED_SIZE;
+        snapshot = new short[size * size * size];
+        Random random = new Random(7);
+        for (int z = 0; z < size; z++) {
+            for (int x = 0; x < size; x++) {
+                int height = switch (terrain) {
+                    case "flat" -> 8;
+                    case "hills" -> 8 + (int) Math.round(4 * Math.sin(x * 0.4) * Math.cos(z * 0.4));
+                    default -> 0;
+                };
+                for (int y = 0; y < size; y++) {
+                    boolean solid = terrain.equals("noise") ? random.nextBoolean() : y <= height;
+                    snapshot[x + (y + z * size) * size] = solid ? (short) 1 : Chunk.AIR;
+                }
+            }
+        }
+    }
+
+    @Benchmark
+    public ChunkMesh mesh() {
+        return mesher.mesh(snapshot, 0L, 0, 0, 0, 0);
+    }
+}
@@ -0,0 +1,90 @@
+package benchmarks;
+
+import org.openjdk.jmh.annotations.*;
+import physics.Broadphase;
+import physics.OverlapBatch;
+import physics.PhysicsWorld;
+import physics.RayBatch;
+import voxel.World;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Collision and picking queries over a field of small objects above a voxel floor, as a frame would run them.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class PhysicsBenchmark {
+    private static final int QUERIES = 1024;
+
+    @Param({"10000", "100000"})
+    public int objects;
+
+    private final Random random = new Random(42);
+    private Broadphase broadphase;
+    private PhysicsWorld physics;
+    private final RayBatch rays = new RayBatch(QUERIES);
+    private final OverlapBatch boxes = new OverlapBatch(QUERIES, 16);
+    private float extent;
+
+    @Setup
+    public void setup() {
+        World world = new World();
+        for (int x = -64; x < 64; x++) {
+            for (int z = -64; z < 64; z++) {
+                world.setBlock(x, -1, z, (short) 1);
+            }
+        }
+        // About 1.5% of the space is filled, whatever the number of objects
+        extent = (float) Math.cbrt(objects) * 4.0f;
+        broadphase = new Broadphase(4.0f);
+        for (int i = 0; i < objects; i++) {
+            float x = random.nextFloat() * extent - extent / 2;
+            float y = random.nextFloat() * extent;
+            float z = random.nextFloat() * extent - extent / 2;
+            float size = 0.5f + random.nextFloat() * 1.5f;
+            broadphase.add(x, y, z, x + size, y + size, z + size);
+        }
+        physics = new PhysicsWorld(world, broadphase);
+        broadphase.rebuild();
+
+        for (int i = 0; i < QUERIES; i++) {
+            rays.add(random.nextFloat() * extent - extent / 2, random.nextFloat() * extent,
+                    random.nextFloat() * extent - extent / 2, (float) random.nextGaussian(),
+                    (float) random.nextGaussian(), (float) random.nextGaussian(), 32.0f);
+            float x = random.nextFloat() * extent - extent / 2;
+            float y = random.nextFloat() * extent;
+            float z = random.nextFloat() * extent - extent / 2;
+            boxes.add(x, y, z, x + 1.0f, y + 1.0f, z + 1.0f);
+        }
+    }
+
+    /**
+     * Move 1% of the objects, then rebuild and find every overlapping pair.
+     */
+    @Benchmark
+    public int moveAndFindPairs() {
+        for (int i = 0; i < objects / 100; i++) {
+            int id = random.nextInt(objects);
+            float x = random.nextFloat() * extent - extent / 2;
+            float y = random.nextFloat() * extent;
+            float z = random.nextFloat() * extent - extent / 2;
+            broadphase.update(id, x, y, z, x + 1.0f, y + 1.0f, z + 1.0f);
+        }
+        return broadphase.findPairs();
+    }
+
+    @Benchmark
+    public RayBatch raycastBatch() {
+        physics.raycast(rays);
+        return rays;
+    }
+
+    @Benchmark
+    public OverlapBatch queryBatch() {
+        physics.query(boxes);
+        return boxes;
+    }
+}
@@ -0,0 +1,26 @@
+package benchmarks;
+
+import org.openjdk.jmh.annotations.*;
+import profiling.FrameProfiler;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The overhead the profiler adds to every frame.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class ProfilerBenchmark {
+    private final FrameProfiler profiler = new FrameProfiler(4096, "events", "upload", "culling", "draw", "swap");
+
+    @Benchmark
+    public void frameWithFivePhases() {
+        profiler.beginFrame();
+        for (int phase = 0; phase < 5; phase++) {
+            profiler.begin(phase);
+            profiler.end(phase);
+        }
+        profiler.endFrame();
+    }
+}
@@ -0,0 +1,52 @@
+package benchmarks;
+
+import org.lwjgl.opengl.GL11;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+import rendering.RecordingRenderBackend;
+import rendering.RenderQueue;
+import rendering.StateTracker;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Filling, sorting and submitting a frame's worth of draws, spread over a few programs and many vertex arrays.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class RenderQueueBenchmark {
+    @Param({"256", "4096"})
+    public int draws;
+
+    private final RenderQueue queue = new RenderQueue();
+    private final RecordingRenderBackend backend = new RecordingRenderBackend();
+    private final StateTracker tracker = new StateTracker(backend);
+    private int[] programs;
+    private int[] vertexArrays;
+    private float[] depths;
+
+    @Setup
+    public void setup() {
+        Random random = new Random(42);
+        programs = new int[draws];
+        vertexArrays = new int[draws];
+        depths = new float[draws];
+        for (int i = 0; i < draws; i++) {
+            programs[i] = 1 + random.nextInt(4);
+            vertexArrays[i] = 1 + random.nextInt(draws / 4);
+            depths[i] = random.nextFloat() * 100.0f;
+        }
+    }
+
+    @Benchmark
+    public void fillSortAndSubmit(Blackhole blackhole) {
+        for (int i = 0; i < draws; i++) {
+            queue.add(programs[i], vertexArrays[i], 0, depths[i], GL11.GL_TRIANGLES, 36, GL11.GL_UNSIGNED_INT, 0);
+        }
+        tracker.beginFrame();
+        queue.submit(tracker);
+        blackhole.consume(tracker.getStateChangesSkipped());
+    }
+}
@@ -0,0 +1,52 @@
+package benchmarks;
+
+import org.joml.Quaternionf;
+import org.lwjgl.BufferUtils;
+import org.openjdk.jmh.annotations.*;
+import scene.TransformStore;
+
+import java.nio.FloatBuffer;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Recomputing the model matrices of a large {@link TransformStore}, with a part or all of it moving each frame.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class TransformBenchmark {
+    @Param({"100000"})
+    public int entities;
+
+    // One in this many entities moves each frame
+    @Param({"1", "10", "1000"})
+    public int moveEvery;
+
+    private final TransformStore transforms = new TransformStore();
+    private final Quaternionf rotation = new Quaternionf();
+    private FloatBuffer matrices;
+    private int[] ids;
+    private float time;
+
+    @Setup
+    public void setup() {
+        matrices = BufferUtils.createFloatBuffer(entities * 16);
+        ids = new int[entities];
+        for (int i = 0; i < entities; i++) {
+            ids[i] = transforms.create();
+            transforms.setPosition(ids[i], i % 316, 0.0f, -(float) (i / 316));
+            transforms.setScale(ids[i], 0.5f);
+        }
+        transforms.update(matrices);
+    }
+
+    @Benchmark
+    public int moveAndUpdate() {
+        time += 0.016f;
+        rotation.rotationY(time);
+        for (int i = 0; i < entities; i += moveEvery) {
+            transforms.setRotation(ids[i], rotation);
+        }
+        return transforms.update(matrices);
+    }
+}
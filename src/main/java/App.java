@@ -1,12 +1,168 @@
+import capture.CaptureReader;
+import memory.Memory;
+import memory.StandardAllocator;
+import overlay.OverlayRenderer;
+import physics.RayHit;
+import rendering.RecordingRenderBackend;
+import rendering.TextureManager;
+import simulation.SimulationRunner;
+import voxel.ChunkRenderer;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Locale;
+
 import static java.lang.System.out;
 
 public class App {
+    private static final int HEADLESS_FRAMES = 10_000;
+    private static final String PROFILE_OPTION = "--profile=";
+    private static final String ALLOCATOR_OPTION = "--allocator=";
+    private static final String CAPTURE_OPTION = "--capture=";
+    private static final String REPLAY_OPTION = "--replay=";
+    private static final String REPLAY_CSV_OPTION = "--replay-csv=";
+
     public static void main(String[] args) {
         try {
-            new Game().run();
+            // Pick the native allocator (system, jemalloc or rpmalloc) before anything is allocated
+            for (String arg : args) {
+                if (arg.startsWith(ALLOCATOR_OPTION)) {
+                    String name = arg.substring(ALLOCATOR_OPTION.length());
+                    Memory.setAllocator(StandardAllocator.valueOf(name.toUpperCase(Locale.ROOT)));
+                }
+            }
+
+            Game game;
+            String replay = option(args, REPLAY_OPTION);
+            if (replay != null) {
+                String csv = option(args, REPLAY_CSV_OPTION);
+                game = runReplay(Path.of(replay), csv == null ? null : Path.of(csv));
+            } else if (Arrays.asList(args).contains("--headless")) {
+                game = runHeadless();
+            } else {
+                game = new Game();
+                // Record the session to replay later, with each frame's render command counts to check replays with
+                String capture = option(args, CAPTURE_OPTION);
+                if (capture != null) {
+                    game.setCapture(Path.of(capture), Arrays.asList(args).contains("--capture-commands"));
+                }
+                game.run();
+            }
+
+            // Optionally write the timings of the last frames to a CSV file
+            for (String arg : args) {
+                if (arg.startsWith(PROFILE_OPTION)) {
+                    Path path = Path.of(arg.substring(PROFILE_OPTION.length()));
+                    game.getProfiler().exportCsv(path);
+                    out.println("Wrote frame timings to " + path);
+                }
+            }
         } catch (Exception e) {
             out.println("An error occurred");
             throw new RuntimeException(e);
         }
     }
+
+    /**
+     * @return the value of the last option starting with the prefix, or null if there is none
+     */
+    private static String option(String[] args, String prefix) {
+        String value = null;
+        for (String arg : args) {
+            if (arg.startsWith(prefix)) {
+                value = arg.substring(prefix.length());
+            }
+        }
+        return value;
+    }
+
+    /**
+     * Replay a captured session without a window or GPU, and report what each of its frames cost on the CPU.
+     *
+     * @param capture The capture to replay
+     * @param csv     The file to write the time of each frame to, or null
+     */
+    private static Game runReplay(Path capture, Path csv) throws IOException {
+        RecordingRenderBackend backend = new RecordingRenderBackend();
+        Game game = new Game(backend);
+        try (CaptureReader reader = new CaptureReader(capture)) {
+            long[] frameTimes = new long[Math.toIntExact(reader.getFrameCount())];
+            int diverged = game.runReplay(reader, frameTimes);
+            long elapsed = 0;
+            for (long frameTime : frameTimes) {
+                elapsed += frameTime;
+            }
+            double seconds = elapsed / 1_000_000_000.0;
+            out.printf("Replayed %d frames in %.3f s (%.0f FPS)\n", frameTimes.length, seconds,
+                    frameTimes.length / seconds);
+            out.printf("Diverged from the capture: %d frames%s\n", diverged,
+                    reader.hasCommands() ? "" : ", by camera only, render commands weren't captured");
+            out.print(game.getProfiler().summary());
+
+            if (csv != null) {
+                try (BufferedWriter writer = Files.newBufferedWriter(csv)) {
+                    writer.write("frame,cpu_ms");
+                    writer.newLine();
+                    for (int i = 0; i < frameTimes.length; i++) {
+                        writer.write(String.format(Locale.ROOT, "%d,%.4f", i, frameTimes[i] / 1e6));
+                        writer.newLine();
+                    }
+                }
+                out.println("Wrote replay frame times to " + csv);
+            }
+        }
+        return game;
+    }
+
+    /**
+     * Run the game without a window or GPU, and report what the render loop cost on the CPU.
+     */
+    private static Game runHeadless() {
+        RecordingRenderBackend backend = new RecordingRenderBackend();
+        Game game = new Game(backend);
+        long elapsed = game.runHeadless(HEADLESS_FRAMES);
+        double seconds = elapsed / 1_000_000_000.0;
+        out.printf("Rendered %d frames in %.3f s (%.0f FPS)\n", HEADLESS_FRAMES, seconds, HEADLESS_FRAMES / seconds);
+        out.printf("Calls: %d, draw calls: %d, state changes: %d (%d redundant), bytes uploaded: %d\n",
+                backend.getCalls(), backend.getDrawCalls(), backend.getStateChanges(),
+                backend.getRedundantStateChanges(), backend.getBytesUploaded());
+        out.printf("Last frame: %d draw calls, %d binds, %d redundant binds skipped\n",
+                game.getStateTracker().getDrawCalls(), game.getStateTracker().getStateChanges(),
+                game.getStateTracker().getStateChangesSkipped());
+        ChunkRenderer chunks = game.getChunkRenderer();
+        out.printf("Chunks drawn: %d, outside the frustum: %d, occluded: %d (%d occluder triangles)\n",
+                chunks.getVisibleCount(), chunks.getCulledCount(), chunks.getOccludedCount(),
+                chunks.getOccluderTriangleCount());
+        out.printf("Chunks drawn at each level of detail: %d, %d, %d\n",
+                chunks.getLevelCount(0), chunks.getLevelCount(1), chunks.getLevelCount(2));
+        TextureManager textures = game.getTextures();
+        out.printf("Textures: %d loaded, at most %d of %d bytes resident, levels changed %d times\n",
+                textures.getLoadedCount(), textures.getPeakResidentBytes(), textures.getBudget(),
+                textures.getRebuildCount());
+        OverlayRenderer overlay = game.getOverlay();
+        out.printf("Overlay: %d quads in one draw call, rebuilt %d times\n", overlay.getQuadCount(),
+                overlay.getBuildCount());
+        SimulationRunner simulation = game.getSimulation();
+        out.printf("Simulation: %d ticks, %d dropped\n", simulation.getTick(), simulation.getDroppedTicks());
+        RayHit lookedAt = game.getLookedAt();
+        if (lookedAt.isBlock()) {
+            out.printf("Looking at block %d, %d, %d, %.2f away\n", lookedAt.getBlockX(), lookedAt.getBlockY(),
+                    lookedAt.getBlockZ(), lookedAt.getDistance());
+        } else if (lookedAt.isHit()) {
+            out.printf("Looking at object %d, %.2f away\n", lookedAt.getObject(), lookedAt.getDistance());
+        } else {
+            out.println("Looking at nothing");
+        }
+        out.printf("Shader programs: %d loaded from the cache, %d compiled\n",
+                game.getShaderManager().getCacheHits(), game.getShaderManager().getCacheMisses());
+        out.printf("Models: %d drawn, %d failed to load\n", game.getModels().getModelCount(),
+                game.getModels().getFailedCount());
+        out.print(game.getProfiler().summary());
+        out.print(game.getResources().summary());
+        out.print(Memory.summary());
+        return game;
+    }
 }
@@ -1,6 +1,28 @@
+import org.joml.FrustumIntersection;
+import org.joml.Matrix4f;
+import org.joml.Vector3f;
+import physics.PhysicsWorld;
+
 public class Camera {
+    // Half the size of the box the camera collides as
+    private static final float COLLISION_RADIUS = 0.2f;
+
     private float x, y, z; // Position
-    private float pitch, yaw, roll; // Rotation
+    private float pitch, yaw, roll; // Rotation, in radians
+    private float fieldOfView, aspectRatio, nearPlane, farPlane; // Projection
+
+    /*
+     The matrices and frustum are only rebuilt when something they depend on has changed,
+     and only once someone asks for them.
+    */
+    private final Matrix4f viewMatrix = new Matrix4f();
+    private final Matrix4f projectionMatrix = new Matrix4f();
+    private final Matrix4f viewProjectionMatrix = new Matrix4f();
+    private final FrustumIntersection frustum = new FrustumIntersection();
+    private boolean viewDirty = true;
+    private boolean projectionDirty = true;
+    private int version;
+    private final Vector3f movement = new Vector3f();
 
     /**
      * Create a new camera.
@@ -12,6 +34,10 @@ public class Camera {
         pitch = 0.0f;
         yaw = 0.0f;
         roll = 0.0f;
+        fieldOfView = (float) Math.toRadians(60.0f);
+        aspectRatio = 1.0f;
+        nearPlane = 0.1f;
+        farPlane = 100.0f;
     }
 
     /*
@@ -21,6 +47,17 @@ public class Camera {
         x += dx;
         y += dy;
         z += dz;
+        viewDirty = true;
+    }
+
+    /*
+     * Move the camera, stopping at anything solid in the way.
+     * The camera collides as a small box around its position, and slides along whatever it runs into.
+     */
+    public void move(float dx, float dy, float dz, PhysicsWorld physics) {
+        physics.sweep(x - COLLISION_RADIUS, y - COLLISION_RADIUS, z - COLLISION_RADIUS,
+                x + COLLISION_RADIUS, y + COLLISION_RADIUS, z + COLLISION_RADIUS, dx, dy, dz, movement);
+        move(movement.x, movement.y, movement.z);
     }
 
     /*
@@ -30,6 +67,97 @@ public class Camera {
         pitch += dPitch;
         yaw += dYaw;
         roll += dRoll;
+        viewDirty = true;
+    }
+
+    /*
+     * Set the camera's perspective projection.
+     * The field of view is vertical, in radians.
+     */
+    public void setPerspective(float fieldOfView, float aspectRatio, float nearPlane, float farPlane) {
+        this.fieldOfView = fieldOfView;
+        this.aspectRatio = aspectRatio;
+        this.nearPlane = nearPlane;
+        this.farPlane = farPlane;
+        projectionDirty = true;
+    }
+
+    /*
+     * Rebuild whatever is out of date.
+     */
+    private void update() {
+        if (!viewDirty && !projectionDirty) {
+            return;
+        }
+        if (viewDirty) {
+            viewMatrix.identity()
+                    .rotateZ(roll)
+                    .rotateX(pitch)
+                    .rotateY(yaw)
+                    .translate(-x, -y, -z);
+        }
+        if (projectionDirty) {
+            projectionMatrix.setPerspective(fieldOfView, aspectRatio, nearPlane, farPlane);
+        }
+        projectionMatrix.mul(viewMatrix, viewProjectionMatrix);
+        frustum.set(viewProjectionMatrix);
+        viewDirty = false;
+        projectionDirty = false;
+        version++;
+    }
+
+    /*
+     * Get the view matrix, which takes world space to camera space.
+     * The returned matrix is owned by the camera and must not be modified.
+     */
+    public Matrix4f getViewMatrix() {
+        update();
+        return viewMatrix;
+    }
+
+    /*
+     * Get the projection matrix.
+     * The returned matrix is owned by the camera and must not be modified.
+     */
+    public Matrix4f getProjectionMatrix() {
+        update();
+        return projectionMatrix;
+    }
+
+    /*
+     * Get the combined projection * view matrix, which takes world space to clip space.
+     * The returned matrix is owned by the camera and must not be modified.
+     */
+    public Matrix4f getViewProjectionMatrix() {
+        update();
+        return viewProjectionMatrix;
+    }
+
+    /*
+     * Get the view frustum, for culling.
+     * The returned frustum is owned by the camera and must not be modified.
+     */
+    public FrustumIntersection getFrustum() {
+        update();
+        return frustum;
+    }
+
+    /*
+     * Get the direction the camera is looking in, as a unit vector in world space.
+     */
+    public Vector3f getDirection(Vector3f direction) {
+        update();
+        // The view matrix takes this direction to -z, straight ahead in camera space
+        return viewMatrix.positiveZ(direction).negate();
+    }
+
+    /*
+     * Get the version of the camera's matrices.
+     * It changes every time they are rebuilt, so anything derived from them only needs redoing when it changes.
+     */
+    public int getVersion() {
+        update();
+        return version;
     }
 
     /*
@@ -43,7 +171,10 @@ public class Camera {
      * Set the camera's x position.
      */
     public void setX(float x) {
-        this.x = x;
+        if (this.x != x) {
+            this.x = x;
+            viewDirty = true;
+        }
     }
 
     /*
@@ -57,7 +188,10 @@ public class Camera {
      * Set the camera's y position.
      */
     public void setY(float y) {
-        this.y = y;
+        if (this.y != y) {
+            this.y = y;
+            viewDirty = true;
+        }
     }
 
     /*
@@ -71,7 +205,10 @@ public class Camera {
      * Set the camera's z position.
      */
     public void setZ(float z) {
-        this.z = z;
+        if (this.z != z) {
+            this.z = z;
+            viewDirty = true;
+        }
     }
 
     /*
@@ -85,7 +222,10 @@ public class Camera {
      * Set the camera's pitch.
      */
     public void setPitch(float pitch) {
-        this.pitch = pitch;
+        if (this.pitch != pitch) {
+            this.pitch = pitch;
+            viewDirty = true;
+        }
     }
 
     /*
@@ -99,7 +239,10 @@ public class Camera {
      * Set the camera's yaw.
      */
     public void setYaw(float yaw) {
-        this.yaw = yaw;
+        if (this.yaw != yaw) {
+            this.yaw = yaw;
+            viewDirty = true;
+        }
     }
 
     /*
@@ -113,6 +256,9 @@ public class Camera {
      * Set the camera's roll.
      */
     public void setRoll(float roll) {
-        this.roll = roll;
+        if (this.roll != roll) {
+            this.roll = roll;
+            viewDirty = true;
+        }
     }
-}
\ No newline at end of file
+}
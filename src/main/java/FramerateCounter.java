@@ -14,18 +14,21 @@ public class FramerateCounter {
 
     /**
      * Update the frames per second counter
+     * @return true if the frames per second value changed, which happens about once a second
      */
-    public void update() {
+    public boolean update() {
         long currentTime = System.nanoTime();
         long elapsedTimeNanos = currentTime - lastTime;
+        boolean updated = false;
         if (elapsedTimeNanos >= NANOSECONDS_PER_SECOND) {
             double elapsedTimeSeconds = (double) elapsedTimeNanos / NANOSECONDS_PER_SECOND;
             fps = frames / elapsedTimeSeconds;
-            System.out.printf("FPS: %.2f\n", fps);
             lastTime = currentTime;
             frames = 0;
+            updated = true;
         }
         frames++;
+        return updated;
     }
 
     /**
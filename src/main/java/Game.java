@@ -1,27 +1,194 @@
+import assets.MeshLoader;
+import assets.TextureData;
+import assets.TextureDecoder;
+import assets.TextureFormat;
+import capture.CaptureReader;
+import capture.CaptureWriter;
+import capture.CapturedFrame;
+import capture.Replayer;
+import memory.LinearArena;
+import memory.Memory;
 import org.joml.Matrix4f;
-import org.lwjgl.BufferUtils;
+import org.joml.Quaternionf;
+import org.joml.Vector3f;
 import org.lwjgl.glfw.GLFW;
 import org.lwjgl.opengl.*;
-import shapes.Cube;
+import overlay.GlyphAtlas;
+import overlay.OverlayRenderer;
+import overlay.StatsOverlay;
+import physics.Broadphase;
+import physics.PhysicsWorld;
+import physics.RayHit;
+import profiling.FrameProfiler;
+import rendering.GLRenderBackend;
+import rendering.GpuResources;
+import rendering.ModelRenderer;
+import rendering.RecordingRenderBackend;
+import rendering.RenderBackend;
+import rendering.RenderQueue;
+import rendering.StateTracker;
+import rendering.StreamingBuffer;
+import rendering.TextureManager;
+import rendering.VertexLayout;
+import scene.TransformStore;
+import shapes.CubeBatch;
+import simulation.Simulation;
+import simulation.SimulationRunner;
+import voxel.ChunkMesher;
+import voxel.ChunkRenderer;
+import voxel.World;
 
-import java.io.File;
 import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.DirectoryStream;
 import java.nio.FloatBuffer;
 import java.nio.file.Files;
-import java.nio.file.Paths;
-
-import static java.util.Objects.requireNonNull;
+import java.nio.file.Path;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.locks.LockSupport;
 
 @SuppressWarnings("unused")
 public class Game {
-
-    private int vaoId;
-    private int vboId;
+    // Spread the upload of freshly meshed chunks over several frames
+    private static final int MAX_CHUNK_UPLOADS_PER_FRAME = 4;
+
+    // Phases of a frame timed by the profiler
+    static final int PHASE_EVENTS = 0;
+    static final int PHASE_SIMULATION = 1;
+    static final int PHASE_UPLOAD = 2;
+    static final int PHASE_CULLING = 3;
+    static final int PHASE_DRAW = 4;
+    static final int PHASE_OVERLAY = 5;
+    static final int PHASE_SWAP = 6;
+    private static final String[] PHASE_NAMES = {"events", "simulation", "upload", "culling", "draw", "overlay",
+            "swap"};
+    // Keep individual timings for the last minute or so at 60 FPS
+    private static final int PROFILER_HISTORY_FRAMES = 4096;
+
+    // The simulation runs at a fixed rate, whatever the frame rate
+    private static final double SIMULATION_TICKS_PER_SECOND = 60.0;
+    // After a long stall, catch up at most this many ticks at once and skip the rest
+    private static final int MAX_SIMULATION_TICKS_PER_UPDATE = 5;
+    // Headless frames are this far apart on the clock the simulation is stepped by, however fast they really run
+    private static final long HEADLESS_FRAME_NANOS = 16_666_667L;
+
+    // Where the shaders are edited, relative to the project, watched while the window is open
+    private static final Path SHADER_SOURCES = Path.of("src", "main", "resources", "Shaders");
+    // Meshes converted with MeshConverter, loaded in the background and drawn where they were modelled
+    private static final Path MODELS = Path.of("src", "main", "resources", "Models");
+
+    // The frame arena grows in blocks of this size, until it holds the most a frame has needed
+    private static final long FRAME_ARENA_BLOCK_BYTES = 1024 * 1024;
+
+    // Objects are about a block in size, so cells of a few blocks hold a handful each
+    private static final float OBJECT_CELL_SIZE = 4.0f;
+    // How far away the camera can tell what it is looking at, and how fast it flies, in blocks per second
+    private static final float PICK_DISTANCE = 64.0f;
+    private static final float CAMERA_SPEED = 5.0f;
+
+    // GPU memory textures may take up, beyond it the least recently drawn ones lose their finest mip levels
+    private static final long TEXTURE_BUDGET_BYTES = 64 * 1024 * 1024;
+    // Block textures repeat once a block, and share arrays of a few layers
+    private static final int BLOCK_TEXTURE_SIZE = 256;
+    private static final int BLOCK_TEXTURES_PER_ARRAY = 8;
+    // Changed cube instances are staged in a ring of this many frames, each with room for this many bytes
+    private static final int INSTANCE_STREAM_FRAMES = 3;
+    private static final int INSTANCE_STREAM_BYTES = 256 * 1024;
+
+    private static final int WINDOW_WIDTH = 800;
+    private static final int WINDOW_HEIGHT = 800;
+
+    private final RenderBackend backend;
+    private final FrameProfiler profiler = new FrameProfiler(PROFILER_HISTORY_FRAMES, PHASE_NAMES);
+    private final RenderQueue renderQueue = new RenderQueue();
+    private final StateTracker stateTracker;
+    private final GpuResources resources;
+    // Memory that lives until the end of the frame it was allocated in
+    private LinearArena frameArena;
+    private final Path shaderCacheDirectory;
+    private ShaderManager shaderManager;
+    // Handles of the quad's vertex array and buffer
+    private int quadVao;
+    private int quadVbo;
     private ShaderProgram shaderProgram;
     private Camera camera;
-    private Cube cube;
-    private Matrix4f projectionMatrix;
-    private Matrix4f modelMatrix;
+    // The camera version and program reload count the view-projection uniforms were last set for
+    private int uniformCameraVersion = -1;
+    private int uniformReloads = -1;
+    private CubeBatch cubes;
+    private StreamingBuffer instanceStream;
+    private ShaderProgram chunkShaderProgram;
+    private World world;
+    private ChunkMesher chunkMesher;
+    private ChunkRenderer chunkRenderer;
+    private MeshLoader meshLoader;
+    private ModelRenderer models;
+    // The texture the terrain is drawn with
+    private TextureManager textures;
+    private int terrainTexture;
+    // The transforms of the cubes, one entity per cube
+    private final TransformStore transforms = new TransformStore();
+    private final Quaternionf rotation = new Quaternionf();
+    private int cubeEntity;
+    // The cube's box, for rays and collisions
+    private final Broadphase objects = new Broadphase(OBJECT_CELL_SIZE);
+    private PhysicsWorld physics;
+    private int cubeObject;
+    // What is in the middle of the screen, found every frame
+    private final RayHit lookedAt = new RayHit();
+    private final Vector3f direction = new Vector3f();
+    private SimulationRunner simulation;
+    private float[] simulationState;
+    // On-screen stats, drawn over the scene
+    private OverlayRenderer overlay;
+    private ShaderProgram overlayShaderProgram;
+    private final Matrix4f overlayProjection = new Matrix4f().setOrtho2D(0.0f, WINDOW_WIDTH, WINDOW_HEIGHT, 0.0f);
+    private StatsOverlay stats;
+    private final FramerateCounter fpsCounter = new FramerateCounter();
+    // Where to capture the session to, if anywhere
+    private Path capturePath;
+    private boolean captureCommands;
+
+    /**
+     * Create a game that renders with OpenGL.
+     */
+    public Game() {
+        this(GLRenderBackend.INSTANCE);
+    }
+
+    /**
+     * Create a game that issues all of its graphics calls through the given backend.
+     *
+     * @param backend The backend to render with
+     */
+    public Game(RenderBackend backend) {
+        this(backend, Path.of(System.getProperty("java.io.tmpdir"), "lwjgl-boredom", "shader-cache"));
+    }
+
+    /**
+     * Create a game that issues all of its graphics calls through the given backend.
+     *
+     * @param backend              The backend to render with
+     * @param shaderCacheDirectory The directory to keep compiled shader programs in between runs
+     */
+    public Game(RenderBackend backend, Path shaderCacheDirectory) {
+        this.backend = backend;
+        this.stateTracker = new StateTracker(backend);
+        this.resources = new GpuResources(backend);
+        this.shaderCacheDirectory = shaderCacheDirectory;
+    }
+
+    /**
+     * Capture the next {@link #run()} to a file, to replay later with {@link #runReplay(CaptureReader, long[])}.
+     *
+     * @param path     The file to write
+     * @param commands Whether to also capture how many render commands each frame took, to check replays against
+     */
+    void setCapture(Path path, boolean commands) {
+        this.capturePath = path;
+        this.captureCommands = commands;
+    }
 
     void run() {
 
@@ -35,51 +202,11 @@ public class Game {
          If there is only one monitor, the first parameter should be 0, and the second parameter should be 0.
          Attempting to use a non-existent monitor will cause GLFW to throw an exception.
         */
-        long window = GLFW.glfwCreateWindow(800, 800, "Hello World!", 0, 0);
+        long window = GLFW.glfwCreateWindow(WINDOW_WIDTH, WINDOW_HEIGHT, "Hello World!", 0, 0);
         GLFW.glfwMakeContextCurrent(window);
         GL.createCapabilities();
 
-        shaderProgram = new ShaderProgram();
-        camera = new Camera();
-
-        // Initialize the model matrix
-
-        // Calculate a perspective projection matrix
-        float fieldOfView = (float) Math.toRadians(60.0f);
-        float nearPlane = 0.1f;
-        float farPlane = 100.0f;
-        projectionMatrix = new Matrix4f().perspective(fieldOfView, 800.0f/800.0f, nearPlane, farPlane);
-
-        float[] vertices = {-0.5f, 0.5f, 0.0f, -0.5f, -0.5f, 0.0f, 0.5f, -0.5f, 0.0f, 0.5f, 0.5f, 0.0f};
-
-        vaoId = GL45.glCreateVertexArrays();
-        GL30.glBindVertexArray(vaoId);
-        vboId = GL15.glGenBuffers();
-        GL15.glBindBuffer(GL15.GL_ARRAY_BUFFER, vboId);
-        FloatBuffer vertices_buffer = BufferUtils.createFloatBuffer(vertices.length);
-        vertices_buffer.put(vertices).flip();
-        GL15.glBufferData(GL15.GL_ARRAY_BUFFER, vertices_buffer, GL15.GL_STATIC_DRAW);
-
-        GL20.glVertexAttribPointer(0, 3, GL11.GL_FLOAT, false, 0, 0);
-        GL15.glBindBuffer(GL15.GL_ARRAY_BUFFER, 0);
-        GL30.glBindVertexArray(0);
-
-        String vertexShaderCode;
-        String fragmentShaderCode;
-        try {
-            String vertexShaderCodePath = getShaderSource("vertex_shader.glsl");
-            String fragmentShaderCodePath = getShaderSource("fragment_shader.glsl");
-
-            vertexShaderCode = loadShaderSource(vertexShaderCodePath);
-            fragmentShaderCode = loadShaderSource(fragmentShaderCodePath);
-        } catch (IOException e) {
-            throw new IllegalStateException("Failed to load shader source", e);
-        }
-
-        shaderProgram.attachVertexShader(vertexShaderCode);
-        shaderProgram.attachFragmentShader(fragmentShaderCode);
-
-        shaderProgram.link();
+        init();
 
         // Configure GLFW
         GLFW.glfwDefaultWindowHints(); // Set default window hints
@@ -109,6 +236,381 @@ public class Game {
         // Make the window visible
         GLFW.glfwShowWindow(window);
 
+        // Pick up edits to the shaders while running from the project folder
+        if (Files.isDirectory(SHADER_SOURCES)) {
+            shaderManager.watch(SHADER_SOURCES);
+        }
+
+        // Run the simulation on its own thread, the render loop only picks up its results
+        simulation.start();
+
+        // A capture starts from a scene that is done loading, as its replays do
+        CaptureWriter capture = null;
+        if (capturePath != null) {
+            settle();
+            try {
+                capture = new CaptureWriter(capturePath, simulationState.length, captureCommands);
+            } catch (IOException e) {
+                System.err.println("Failed to start capturing to " + capturePath + ": " + e.getMessage());
+            }
+        }
+
+        // Run the rendering loop until the user has attempted to close the window
+        CapturedFrame frame = new CapturedFrame(simulationState.length);
+        long firstFrame = System.nanoTime();
+        long lastFrame = firstFrame;
+        while (!GLFW.glfwWindowShouldClose(window)) {
+            profiler.beginFrame();
+
+            // Poll for window events. The key callback above will only be invoked during this call.
+            profiler.begin(PHASE_EVENTS);
+            GLFW.glfwPollEvents();
+            long now = System.nanoTime();
+            frame.setInput(now - firstFrame, (now - lastFrame) / 1_000_000_000.0f, readKeys(window));
+            lastFrame = now;
+            profiler.end(PHASE_EVENTS);
+
+            runFrame(frame, now, null);
+
+            // Swap the color buffers
+            profiler.begin(PHASE_SWAP);
+            GLFW.glfwSwapBuffers(window);
+            profiler.end(PHASE_SWAP);
+
+            profiler.endFrame();
+
+            // Captured between frames, so writing it out doesn't show up in the frame times
+            if (capture != null) {
+                capture(frame);
+                try {
+                    capture.write(frame);
+                } catch (IOException e) {
+                    System.err.println("Failed to capture frame " + capture.getFrameCount() + ": " + e.getMessage());
+                    capture = closeCapture(capture);
+                }
+            }
+        }
+        closeCapture(capture);
+        cleanup();
+    }
+
+    /**
+     * Fill in what a frame was drawn from, besides its input.
+     */
+    private void capture(CapturedFrame frame) {
+        frame.setCamera(camera.getX(), camera.getY(), camera.getZ(), camera.getPitch(), camera.getYaw(),
+                camera.getRoll());
+        System.arraycopy(simulationState, 0, frame.getState(), 0, simulationState.length);
+        frame.setCommands(stateTracker.getDrawCalls(), stateTracker.getStateChanges(),
+                stateTracker.getStateChangesSkipped());
+    }
+
+    /**
+     * Close a capture, if there is one, reporting rather than throwing if its last frames can't be written.
+     *
+     * @return null, for the capture to be forgotten
+     */
+    private static CaptureWriter closeCapture(CaptureWriter capture) {
+        if (capture != null) {
+            try {
+                capture.close();
+            } catch (IOException e) {
+                System.err.println("Failed to finish the capture: " + e.getMessage());
+            }
+        }
+        return null;
+    }
+
+    /**
+     * @return the keys moving the camera that are held down, a combination of the CapturedFrame.KEY_ bits
+     */
+    private static int readKeys(long window) {
+        return key(window, GLFW.GLFW_KEY_W, CapturedFrame.KEY_FORWARD)
+                | key(window, GLFW.GLFW_KEY_S, CapturedFrame.KEY_BACK)
+                | key(window, GLFW.GLFW_KEY_A, CapturedFrame.KEY_LEFT)
+                | key(window, GLFW.GLFW_KEY_D, CapturedFrame.KEY_RIGHT)
+                | key(window, GLFW.GLFW_KEY_SPACE, CapturedFrame.KEY_UP)
+                | key(window, GLFW.GLFW_KEY_LEFT_SHIFT, CapturedFrame.KEY_DOWN);
+    }
+
+    private static int key(long window, int key, int bit) {
+        return GLFW.glfwGetKey(window, key) == GLFW.GLFW_PRESS ? bit : 0;
+    }
+
+    /**
+     * Fly the camera with WASD, space and left shift, sliding along the terrain and the cube rather than going through.
+     *
+     * @param keys The keys held down, see {@link #readKeys(long)}
+     * @param dt   The time since the last frame, in seconds
+     */
+    private void moveCamera(int keys, float dt) {
+        float forward = axis(keys, CapturedFrame.KEY_FORWARD, CapturedFrame.KEY_BACK);
+        float right = axis(keys, CapturedFrame.KEY_RIGHT, CapturedFrame.KEY_LEFT);
+        float up = axis(keys, CapturedFrame.KEY_UP, CapturedFrame.KEY_DOWN);
+        if (forward == 0.0f && right == 0.0f && up == 0.0f) {
+            return;
+        }
+        camera.getDirection(direction);
+        // Right is the direction turned a quarter around the y axis, flat on the ground
+        float rightLength = (float) Math.sqrt(direction.x * direction.x + direction.z * direction.z);
+        float rightX = rightLength > 0.0f ? -direction.z / rightLength : 1.0f;
+        float rightZ = rightLength > 0.0f ? direction.x / rightLength : 0.0f;
+        float step = CAMERA_SPEED * dt;
+        camera.move((direction.x * forward + rightX * right) * step, (direction.y * forward + up) * step,
+                (direction.z * forward + rightZ * right) * step, physics);
+    }
+
+    /**
+     * @return 1 if only the positive key is held, -1 if only the negative one is, 0 otherwise
+     */
+    private static float axis(int keys, int positive, int negative) {
+        return ((keys & positive) != 0 ? 1.0f : 0.0f) - ((keys & negative) != 0 ? 1.0f : 0.0f);
+    }
+
+    /**
+     * Run the scene for a number of frames without a window, as fast as possible.
+     * Meant to be used with a {@link RecordingRenderBackend} to measure the CPU side of the render loop.
+     *
+     * @param frames The number of frames to render
+     * @return the total time spent rendering the frames, in nanoseconds
+     */
+    long runHeadless(int frames) {
+        init();
+        /*
+         No input, so the camera stays where it starts.
+         The simulation is stepped by a clock that moves a fixed step a frame rather than by the wall clock, so it
+         runs the same ticks every time, however long the frames take.
+        */
+        CapturedFrame frame = new CapturedFrame(simulationState.length);
+        long start = System.nanoTime();
+        for (int i = 0; i < frames; i++) {
+            frame.setInput(i * HEADLESS_FRAME_NANOS, HEADLESS_FRAME_NANOS / 1_000_000_000.0f, 0);
+            profiler.beginFrame();
+            runFrame(frame, start + i * HEADLESS_FRAME_NANOS, null);
+            profiler.endFrame();
+        }
+        long elapsed = System.nanoTime() - start;
+        cleanup();
+        return elapsed;
+    }
+
+    /**
+     * Render the frames of a capture without a window, as fast as possible, from the input, camera and simulation
+     * state captured for each. Meant to be used with a {@link RecordingRenderBackend}, to measure the CPU cost of
+     * the same frames again and again, on machines with or without a GPU.
+     * See {@link Replayer} for when a frame diverges.
+     *
+     * @param reader     The capture, from its next frame on
+     * @param frameTimes Where to write the CPU time of each frame, in nanoseconds, at least as long as the capture
+     * @return the number of frames that diverged from the capture
+     * @throws IOException if the capture can't be read
+     */
+    int runReplay(CaptureReader reader, long[] frameTimes) throws IOException {
+        init();
+        try {
+            if (reader.getStateSize() != simulationState.length) {
+                throw new IOException("Capture has " + reader.getStateSize() + " floats of simulation state, the "
+                        + "scene " + simulationState.length);
+            }
+            settle();
+            return new Replayer(reader).run(this::replayFrame, frameTimes);
+        } finally {
+            cleanup();
+        }
+    }
+
+    /**
+     * Run a frame of a capture, see {@link Replayer.Target#replay}.
+     */
+    private long replayFrame(CapturedFrame captured, CapturedFrame replayed) {
+        profiler.beginFrame();
+        runFrame(captured, captured.getTime(), replayed);
+        profiler.endFrame();
+        replayed.setCommands(stateTracker.getDrawCalls(), stateTracker.getStateChanges(),
+                stateTracker.getStateChangesSkipped());
+        return profiler.getLastFrameTime();
+    }
+
+    /**
+     * Run a frame from its input: move the camera, bring the simulation up to the frame's time, and draw the scene.
+     * The window, headless and replay loops all run their frames through here, between the profiler's beginFrame()
+     * and endFrame(), so a capture and its replays do the same work for the same input.
+     *
+     * @param input    The keys held down and the time since the last frame. When replaying, also the camera and
+     *                 simulation state to draw the frame from
+     * @param now      The time to show the simulation at, in nanoseconds
+     * @param replayed Where to write where the input moved the camera to, when replaying, or null
+     */
+    private void runFrame(CapturedFrame input, long now, CapturedFrame replayed) {
+        profiler.begin(PHASE_EVENTS);
+        moveCamera(input.getKeys(), input.getDeltaTime());
+        if (replayed != null) {
+            // Draw from where the frame was captured, wherever the input took the camera
+            replayed.setCamera(camera.getX(), camera.getY(), camera.getZ(), camera.getPitch(), camera.getYaw(),
+                    camera.getRoll());
+            camera.setX(input.getCameraX());
+            camera.setY(input.getCameraY());
+            camera.setZ(input.getCameraZ());
+            camera.setPitch(input.getPitch());
+            camera.setYaw(input.getYaw());
+            camera.setRoll(input.getRoll());
+        }
+        profiler.end(PHASE_EVENTS);
+
+        profiler.begin(PHASE_SIMULATION);
+        if (replayed != null) {
+            System.arraycopy(input.getState(), 0, simulationState, 0, simulationState.length);
+        } else {
+            // Without a thread of its own, as in a headless run, the simulation is stepped by the frames
+            if (!simulation.isRunning()) {
+                simulation.update(now);
+            }
+            // Show the simulation in between its last two ticks
+            simulation.interpolate(simulationState, now);
+        }
+        profiler.end(PHASE_SIMULATION);
+
+        renderFrame();
+    }
+
+    /**
+     * Wait for every chunk to be meshed and uploaded, and for the textures and models to finish loading, so
+     * what a frame draws from here on only depends on the camera and the scene, not on how fast the workers were.
+     */
+    private void settle() {
+        world.scheduleMeshing(chunkMesher);
+        textures.touch(terrainTexture, 0);
+        while (true) {
+            // Work finished before this check is queued by now, and is all taken below
+            boolean idle = chunkMesher.getPending() == 0 && textures.getPending() == 0 && models.getPending() == 0;
+            chunkRenderer.uploadCompleted(chunkMesher, world, Integer.MAX_VALUE, stateTracker);
+            textures.update(stateTracker);
+            models.update(stateTracker);
+            if (idle && textures.getPending() == 0) {
+                break;
+            }
+            LockSupport.parkNanos(1_000_000L);
+        }
+    }
+
+    /**
+     * @return the profiler timing this game's frames
+     */
+    FrameProfiler getProfiler() {
+        return profiler;
+    }
+
+    /**
+     * @return the shader manager the scene's programs were loaded with
+     */
+    ShaderManager getShaderManager() {
+        return shaderManager;
+    }
+
+    /**
+     * @return the registry of the scene's GPU objects
+     */
+    GpuResources getResources() {
+        return resources;
+    }
+
+    /**
+     * @return the state tracker the scene is drawn through, its counters cover the last frame
+     */
+    StateTracker getStateTracker() {
+        return stateTracker;
+    }
+
+    /**
+     * @return what the camera was looking at in the last frame
+     */
+    RayHit getLookedAt() {
+        return lookedAt;
+    }
+
+    /**
+     * @return the runner of the scene's simulation
+     */
+    SimulationRunner getSimulation() {
+        return simulation;
+    }
+
+    /**
+     * @return the manager of the scene's textures
+     */
+    TextureManager getTextures() {
+        return textures;
+    }
+
+    /**
+     * @return the renderer of the stats overlay
+     */
+    OverlayRenderer getOverlay() {
+        return overlay;
+    }
+
+    /**
+     * @return the renderer of the loaded models
+     */
+    ModelRenderer getModels() {
+        return models;
+    }
+
+    /**
+     * @return the renderer of the voxel world
+     */
+    ChunkRenderer getChunkRenderer() {
+        return chunkRenderer;
+    }
+
+    /**
+     * Create the shaders, buffers and objects of the scene.
+     */
+    private void init() {
+        camera = new Camera();
+        frameArena = new LinearArena(Memory.allocator(), FRAME_ARENA_BLOCK_BYTES, "frame");
+
+        // Calculate a perspective projection matrix
+        float fieldOfView = (float) Math.toRadians(60.0f);
+        float nearPlane = 0.1f;
+        float farPlane = 100.0f;
+        camera.setPerspective(fieldOfView, (float) WINDOW_WIDTH / WINDOW_HEIGHT, nearPlane, farPlane);
+
+        float[] vertices = {-0.5f, 0.5f, 0.0f, -0.5f, -0.5f, 0.0f, 0.5f, -0.5f, 0.0f, 0.5f, 0.5f, 0.0f};
+
+        quadVao = resources.createVertexArray("quad");
+        backend.bindVertexArray(resources.vertexArray(quadVao));
+        quadVbo = resources.createBuffer("quad");
+        backend.bindBuffer(GL15.GL_ARRAY_BUFFER, resources.buffer(quadVbo));
+        FloatBuffer vertices_buffer = frameArena.allocateFloats(vertices.length);
+        vertices_buffer.put(vertices).flip();
+        backend.bufferData(GL15.GL_ARRAY_BUFFER, vertices_buffer, GL15.GL_STATIC_DRAW);
+        resources.setSize(quadVbo, (long) vertices.length * Float.BYTES);
+
+        VertexLayout.builder()
+                .add(0, 3, VertexLayout.Type.FLOAT, false)
+                .build()
+                .apply(backend);
+        backend.bindBuffer(GL15.GL_ARRAY_BUFFER, 0);
+        backend.bindVertexArray(0);
+
+        /*
+         Load the shader programs.
+         The sources are read and looked up in the shader cache in the background, while the rest of the scene is
+         set up, and only waited for at the end of init().
+        */
+        shaderManager = new ShaderManager(resources, shaderCacheDirectory);
+        CompletableFuture<ShaderProgram> instancedProgram = shaderManager.load("instanced_vertex_shader.glsl",
+                "fragment_shader.glsl");
+        CompletableFuture<ShaderProgram> chunkProgram = shaderManager.load("vertex_shader.glsl",
+                "terrain_fragment_shader.glsl");
+        CompletableFuture<ShaderProgram> overlayProgram = shaderManager.load("overlay_vertex_shader.glsl",
+                "overlay_fragment_shader.glsl");
+
+        // The terrain's texture is made in the background too, and uploaded by the first frame after it is done
+        textures = new TextureManager(resources, TEXTURE_BUDGET_BYTES, BLOCK_TEXTURES_PER_ARRAY,
+                Math.max(1, Runtime.getRuntime().availableProcessors() - 1));
+        terrainTexture = textures.load(Game::generateTerrainTexture);
 
         /*
          Set the clear color
@@ -118,58 +620,265 @@ public class Game {
          blue, and alpha (transparency) components of the color. These values are typically in the range of 0.0
          to 1.0, where 0.0 represents none of those components and 1.0 represents the maximum amount.
         */
-        GL11.glClearColor(0.0f, 0.0f, 0.0f, 1.0f); // Black
+        backend.clearColor(0.0f, 0.0f, 0.0f, 1.0f); // Black
 
-        // Create a framerate counter
-        FramerateCounter fpsCounter = new FramerateCounter();
+        // Only keep the nearest surface at each pixel, whatever order things are drawn in
+        backend.enable(GL11.GL_DEPTH_TEST);
 
-        // Create a cube using an x, y, z, and size
+        // Create a batch of cubes, every cube in it is drawn with a single draw call
+        // The cube moves every frame, so its instances are written into mapped memory and copied over on the GPU
+        instanceStream = new StreamingBuffer(resources, GL15.GL_ARRAY_BUFFER, INSTANCE_STREAM_BYTES,
+                INSTANCE_STREAM_FRAMES, "instance stream");
+        cubes = new CubeBatch(resources, instanceStream);
+
+        // Add a cube as an entity with a position and size
         // Place the cube a little far from the camera
-        cube = new Cube(0.0f, 0.0f, -2.0f, 0.5f);
+        cubeEntity = transforms.create();
+        transforms.setPosition(cubeEntity, 0.0f, 0.0f, -2.0f);
+        transforms.setScale(cubeEntity, 0.5f);
+        cubeObject = objects.add(-0.5f, -0.5f, -2.5f, 0.5f, 0.5f, -1.5f);
+
+        // Animate the cube with a fixed rate simulation
+        CubeMotion cubeMotion = new CubeMotion();
+        simulation = new SimulationRunner(cubeMotion, SIMULATION_TICKS_PER_SECOND, MAX_SIMULATION_TICKS_PER_UPDATE);
+        simulationState = new float[cubeMotion.getStateSize()];
+
+        // Create a voxel world, its chunks are meshed in the background and uploaded as they finish
+        world = new World();
+        chunkMesher = new ChunkMesher();
+        chunkRenderer = new ChunkRenderer(resources);
+        chunkRenderer.setLodProjection(fieldOfView, WINDOW_HEIGHT);
+        generateTerrain();
+        physics = new PhysicsWorld(world, objects);
+
+        // Start loading the models, each is uploaded by the first frame after it is read
+        meshLoader = new MeshLoader(1);
+        models = new ModelRenderer(resources, meshLoader);
+        loadModels();
+
+        // The overlay's glyphs are rasterized once, and only the atlas is kept, on the GPU
+        GlyphAtlas atlas = StatsOverlay.loadFont();
+        overlay = new OverlayRenderer(resources, atlas);
+        atlas.free();
+        stats = new StatsOverlay(overlay, profiler);
+
+        shaderManager.finish();
+        shaderProgram = instancedProgram.join();
+        chunkShaderProgram = chunkProgram.join();
+        overlayShaderProgram = overlayProgram.join();
+
+        // Setting up counts as the first frame
+        frameArena.reset();
+    }
 
-        // Run the rendering loop until the user has attempted to close the window
-        while (!GLFW.glfwWindowShouldClose(window)) {
-            // Poll for window events. The key callback above will only be invoked during this call.
-            GLFW.glfwPollEvents();
+    /**
+     * Load every mesh file in the models folder, when running from the project folder.
+     */
+    private void loadModels() {
+        if (!Files.isDirectory(MODELS)) {
+            return;
+        }
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(MODELS, "*.mesh")) {
+            for (Path file : files) {
+                models.load(file);
+            }
+        } catch (IOException e) {
+            System.err.println("Failed to list the models in " + MODELS + ": " + e.getMessage());
+        }
+    }
 
-            // Clear the framebuffer
-            GL11.glClear(GL11.GL_COLOR_BUFFER_BIT);
+    /**
+     * Fill the world with some rolling hills below and in front of the camera.
+     */
+    private void generateTerrain() {
+        for (int x = -32; x < 32; x++) {
+            for (int z = -64; z < 0; z++) {
+                int height = -6 + Math.round(2.0f * (float) (Math.sin(x * 0.3) * Math.cos(z * 0.3)));
+                for (int y = -12; y <= height; y++) {
+                    world.setBlock(x, y, z, (short) 1);
+                }
+            }
+        }
+    }
 
-            // Pass the projection matrix to the shader
-            shaderProgram.bind();
-            int projectionLocation = GL20.glGetUniformLocation(shaderProgram.getId(), "projection");
-            FloatBuffer projectionBuffer = BufferUtils.createFloatBuffer(16);
-            projectionMatrix.get(projectionBuffer);
-            GL20.glUniformMatrix4fv(projectionLocation, false, projectionBuffer);
+    /**
+     * Make a grassy block texture, with a little noise and darker edges so neighbouring blocks stand apart.
+     * Runs on a texture worker, every time the texture's levels change, and draws in the worker's scratch arena.
+     */
+    private static TextureData generateTerrainTexture(int firstLevel, Set<TextureFormat> formats) {
+        int size = BLOCK_TEXTURE_SIZE;
+        int border = size / 32;
+        LinearArena scratch = Memory.thread();
+        long mark = scratch.mark();
+        try {
+            ByteBuffer pixels = scratch.allocate(size * size * 4);
+            for (int y = 0; y < size; y++) {
+                for (int x = 0; x < size; x++) {
+                    int hash = x * 73856093 ^ y * 19349663;
+                    hash = (hash ^ hash >>> 13) * 0x5BD1E995;
+                    hash ^= hash >>> 15;
+                    float shade = 0.75f + 0.25f * (hash & 0xFF) / 255.0f;
+                    if (x < border || y < border || x >= size - border || y >= size - border) {
+                        shade *= 0.6f;
+                    }
+                    pixels.put((byte) (70 * shade)).put((byte) (160 * shade)).put((byte) (50 * shade)).put((byte) 255);
+                }
+            }
+            pixels.flip();
+            return TextureDecoder.fromRgba(pixels, size, size, firstLevel);
+        } finally {
+            scratch.reset(mark);
+        }
+    }
 
-            // Draw the cube
-            cube.draw();
+    /**
+     * Render a single frame of the scene.
+     */
+    private void renderFrame() {
+        // Swap in shaders reloaded since the last frame, before anything is drawn with them
+        shaderManager.update();
+
+        // Move the cube to where the simulation is
+        profiler.begin(PHASE_UPLOAD);
+        transforms.setPosition(cubeEntity, 0.0f, simulationState[0], -2.0f);
+        transforms.setRotation(cubeEntity, rotation.rotationY(simulationState[1]));
+        // Only the transforms that changed are recomputed, straight into the batch's instances
+        cubes.update(transforms);
+        objects.update(cubeObject, -0.5f, simulationState[0] - 0.5f, -2.5f, 0.5f, simulationState[0] + 0.5f, -1.5f);
+        physics.raycast(camera.getX(), camera.getY(), camera.getZ(), camera.getDirection(direction).x, direction.y,
+                direction.z, PICK_DISTANCE, lookedAt);
+
+        // The terrain is drawn right up to the camera, so it needs its texture's finest level
+        textures.touch(terrainTexture, 0);
+        textures.update(stateTracker);
+
+        // Hand changed chunks to the mesher, and upload the ones it has finished
+        world.scheduleMeshing(chunkMesher);
+        chunkRenderer.uploadCompleted(chunkMesher, world, MAX_CHUNK_UPLOADS_PER_FRAME, stateTracker);
+        models.update(stateTracker);
+        profiler.end(PHASE_UPLOAD);
+
+        // Work out which chunks the camera can see, unless neither it nor the chunks have changed since last frame
+        profiler.begin(PHASE_CULLING);
+        chunkRenderer.updateVisibility(camera.getVersion(), camera.getFrustum(), camera.getViewProjectionMatrix(),
+                camera.getX(), camera.getY(), camera.getZ());
+        profiler.end(PHASE_CULLING);
+
+        profiler.begin(PHASE_DRAW);
+
+        // Clear the framebuffer
+        backend.clear(GL11.GL_COLOR_BUFFER_BIT | GL11.GL_DEPTH_BUFFER_BIT);
+
+        // Pass the camera's view-projection matrix to the shaders, only when it has changed or a program was reloaded
+        if (camera.getVersion() != uniformCameraVersion || shaderManager.getReloads() != uniformReloads) {
+            Matrix4f viewProjectionMatrix = camera.getViewProjectionMatrix();
+            shaderProgram.setUniform("viewProjection", viewProjectionMatrix);
+            chunkShaderProgram.setUniform("viewProjection", viewProjectionMatrix);
+            uniformCameraVersion = camera.getVersion();
+            uniformReloads = shaderManager.getReloads();
+        }
+        chunkShaderProgram.setUniform("blocks", 0);
+        chunkShaderProgram.setUniform("layer", Math.max(0, textures.getLayer(terrainTexture)));
 
-            shaderProgram.unbind();
+        // Queue the cubes and the visible part of the world
+        cubes.draw(renderQueue, shaderProgram.getId());
+        chunkRenderer.draw(renderQueue, chunkShaderProgram.getId(), camera.getX(), camera.getY(), camera.getZ());
+        // The models take positions at attribute 0 like the chunks do, and are textured the same way
+        models.draw(renderQueue, chunkShaderProgram.getId());
 
-            // Unbind the vao and shader program
-            GL20.glDisableVertexAttribArray(0);
-            GL30.glBindVertexArray(0);
-            GL20.glUseProgram(0);
+        /*
+         Draw everything sorted by program and vertex array, so each is bound once.
+         Nothing is unbound afterwards, the next frame's binds skip whatever is still bound. Uploads that bind outside
+         the tracker invalidate it themselves.
+        */
+        stateTracker.beginFrame();
+        // Every textured draw samples the same array texture, so it is bound once for all of them
+        if (textures.isReady(terrainTexture)) {
+            stateTracker.bindTexture(GL30.GL_TEXTURE_2D_ARRAY, textures.getTexture(terrainTexture));
+        }
+        renderQueue.submit(stateTracker);
+        // Fence the instances staged this frame, the copies reading them have been issued
+        instanceStream.endFrame();
+
+        // Nothing queued refers to them any more, so objects released this frame can go
+        resources.endFrame();
+        if (resources.getDeletedLastFrame() > 0) {
+            // Deleting a bound object unbinds it, and GL may give its name to the next object created
+            stateTracker.invalidate();
+        }
 
-            // Swap the color buffers
-            GLFW.glfwSwapBuffers(window);
+        profiler.end(PHASE_DRAW);
 
-            fpsCounter.update();
+        /*
+         Draw the stats on top of everything.
+         They are laid out again a few times a second, which is as often as anyone can read them, so most frames only
+         pay for the draw and the overlay barely shows up in the frame times it displays.
+        */
+        profiler.begin(PHASE_OVERLAY);
+        fpsCounter.update();
+        stats.update(System.nanoTime(), frameArena, fpsCounter.getFps(), chunkRenderer, stateTracker, textures);
+        overlayShaderProgram.setUniform("projection", overlayProjection);
+        overlayShaderProgram.setUniform("glyphs", 0);
+        overlay.draw(stateTracker, overlayShaderProgram.getId());
+        profiler.end(PHASE_OVERLAY);
+
+        // Everything allocated for this frame has been uploaded or used by now
+        frameArena.reset();
+    }
 
-            GLFW.glfwSetWindowTitle(window, "FPS: %.2f".formatted(fpsCounter.getFps()));
+    /**
+     * Delete the objects created in {@link #init()}.
+     */
+    private void cleanup() {
+        simulation.close();
+
+        // Stop meshing, decoding and loading, and release the world, models, textures, overlay, cubes, VAO, VBO, and
+        // shader programs
+        chunkMesher.close();
+        chunkRenderer.delete();
+        meshLoader.close();
+        models.delete();
+        textures.delete();
+        overlay.delete();
+        cubes.delete();
+        instanceStream.delete();
+        resources.release(quadVao);
+        resources.release(quadVbo);
+        shaderManager.delete();
+
+        // Anything still alive now was never released, which would be a leak in a longer session
+        String leaks = resources.delete();
+        if (leaks != null) {
+            System.err.print(leaks);
         }
-        // Delete the VAO, VBO, and shader program
-        GL30.glDeleteVertexArrays(vaoId);
-        GL15.glDeleteBuffers(vboId);
-        shaderProgram.delete();
+        frameArena.close();
     }
 
-    private String getShaderSource(String path) {
-        return new File(requireNonNull(getClass().getClassLoader().getResource("Shaders/%s".formatted(path))).getFile()).getPath();
-    }
+    /**
+     * Bobs the cube up and down while spinning it.
+     * The state is the cube's height and its angle around the y axis.
+     */
+    private static final class CubeMotion implements Simulation {
+        private float time;
+        private float height;
+        private float angle;
+
+        @Override
+        public int getStateSize() {
+            return 2;
+        }
+
+        @Override
+        public void tick(float dt) {
+            time += dt;
+            height = 0.25f * (float) Math.sin(time * 2.0f);
+            angle += dt;
+        }
 
-    public String loadShaderSource(String filePath) throws IOException {
-        return new String(Files.readAllBytes(Paths.get(filePath)));
+        @Override
+        public void writeState(float[] state) {
+            state[0] = height;
+            state[1] = angle;
+        }
     }
 }
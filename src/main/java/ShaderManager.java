@@ -0,0 +1,397 @@
+import assets.FileWatcher;
+import org.lwjgl.BufferUtils;
+import org.lwjgl.opengl.GL11;
+import rendering.GpuResources;
+import rendering.RenderBackend;
+import shaders.ProgramBinaryCache;
+import shaders.ShaderSources;
+
+import java.nio.ByteBuffer;
+import java.nio.IntBuffer;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Loads shader programs without holding up the render thread, and keeps their binaries on disk for next time.
+ * <p>
+ * Loading a program goes through three steps:
+ * <ol>
+ *     <li>On a background thread, the sources are read from the classpath with their includes, hashed, and looked up
+ *     in the {@link ProgramBinaryCache}.</li>
+ *     <li>On the render thread, in {@link #update()}, a cached binary is handed to the driver. If there is none, or
+ *     the driver turns it down, the program is compiled from source instead.</li>
+ *     <li>Once linked, the program is handed out, and its binary is saved to the cache in the background.</li>
+ * </ol>
+ * Programs are shared: asking for the same pair of files, or for different files that preprocess to the same
+ * sources, gives the same {@link ShaderProgram}. Linked programs are registered with the {@link GpuResources} the
+ * manager was made with, and released in {@link #delete()}.
+ * <p>
+ * With {@link #watch(Path)}, programs are reloaded when their files change on disk. Only the programs built from a
+ * changed file are compiled again, and only if their preprocessed sources actually differ. The new version goes
+ * through the same steps as a first load, and once linked it takes the place of the old one inside the same
+ * {@link ShaderProgram} object, during {@link #update()}. If it fails to compile, the error is printed and the old
+ * version stays.
+ */
+public class ShaderManager {
+    // Time to sleep in finish() while waiting on the background threads
+    private static final long FINISH_POLL_NANOS = 100_000;
+    private static final String CATEGORY = "shader programs";
+    // Wait for the files to be quiet this long before reloading, saving a file is often several writes
+    private static final long RELOAD_DEBOUNCE_MILLIS = 100;
+
+    private final RenderBackend backend;
+    private final GpuResources resources;
+    private final ProgramBinaryCache cache;
+    private final boolean binariesSupported;
+    // Everything a binary depends on besides the sources
+    private final String driver;
+
+    private final Map<String, CompletableFuture<ShaderProgram>> programsByFiles = new HashMap<>();
+    private final Map<Long, CompletableFuture<ShaderProgram>> programsByKey = new HashMap<>();
+    // Filled in by background threads, drained by the render thread
+    private final ConcurrentLinkedQueue<Request> loaded = new ConcurrentLinkedQueue<>();
+    private final List<Request> linking = new ArrayList<>();
+    // Handles of every linked program, in the registry
+    private final Map<ShaderProgram, Integer> programHandles = new HashMap<>();
+    // The files and sources behind every linked program, read by the watcher thread
+    private final Map<ShaderProgram, Sources> programSources = new ConcurrentHashMap<>();
+    private int pending;
+    private FileWatcher watcher;
+    private Path sourceDirectory;
+
+    private int cacheHits;
+    private int cacheMisses;
+    private int reloads;
+    private int reloadFailures;
+
+    /**
+     * Create a manager. Must be called on the render thread, with a current context.
+     *
+     * @param resources      The registry to own the programs, and whose backend creates them
+     * @param cacheDirectory The directory to keep program binaries in
+     */
+    public ShaderManager(GpuResources resources, Path cacheDirectory) {
+        this.backend = resources.getBackend();
+        this.resources = resources;
+        this.cache = new ProgramBinaryCache(cacheDirectory);
+        this.binariesSupported = backend.supportsProgramBinary();
+        this.driver = backend.getString(GL11.GL_VENDOR) + '\n' + backend.getString(GL11.GL_RENDERER) + '\n'
+                + backend.getString(GL11.GL_VERSION);
+        if (backend.supportsParallelShaderCompile()) {
+            // Let the driver pick how many threads to compile with
+            backend.maxShaderCompilerThreads(0xFFFFFFFF);
+        }
+    }
+
+    /**
+     * Start loading a program from two files in the Shaders resource folder.
+     * The future completes on the render thread, during {@link #update()} or {@link #finish()}.
+     *
+     * @param vertexShader   The vertex shader file
+     * @param fragmentShader The fragment shader file
+     * @return the program, once it is linked
+     */
+    public CompletableFuture<ShaderProgram> load(String vertexShader, String fragmentShader) {
+        String files = vertexShader + '\0' + fragmentShader;
+        CompletableFuture<ShaderProgram> program = programsByFiles.get(files);
+        if (program != null) {
+            return program;
+        }
+        CompletableFuture<ShaderProgram> future = new CompletableFuture<>();
+        programsByFiles.put(files, future);
+        pending++;
+        CompletableFuture.runAsync(() -> {
+            Request request = new Request(future, vertexShader, fragmentShader);
+            read(request, null);
+            loaded.add(request);
+        });
+        return future;
+    }
+
+    /**
+     * Read and preprocess the sources of a request, and look for its binary in the cache. Runs in the background.
+     */
+    private void read(Request request, Path directory) {
+        try {
+            ShaderSources.Source vertexSource = ShaderSources.load(request.vertexShader, directory);
+            ShaderSources.Source fragmentSource = ShaderSources.load(request.fragmentShader, directory);
+            request.vertexSource = vertexSource.getText();
+            request.fragmentSource = fragmentSource.getText();
+            request.files.addAll(vertexSource.getFiles());
+            request.files.addAll(fragmentSource.getFiles());
+            request.key = ProgramBinaryCache.key(driver, request.vertexSource, request.fragmentSource);
+            if (binariesSupported) {
+                request.binary = cache.load(request.key);
+            }
+        } catch (RuntimeException e) {
+            request.error = e;
+        }
+    }
+
+    /**
+     * Reload programs whenever one of their files changes in a folder, e.g. the Shaders folder of the project's
+     * resources. The reloaded versions are swapped in by {@link #update()}.
+     *
+     * @param directory The folder the Shaders resources are built from
+     */
+    public void watch(Path directory) {
+        if (watcher != null) {
+            throw new IllegalStateException("Already watching " + sourceDirectory);
+        }
+        sourceDirectory = directory;
+        watcher = new FileWatcher(directory, RELOAD_DEBOUNCE_MILLIS, this::reload);
+    }
+
+    /**
+     * Queue every program built from a changed file to be built again. Runs on the watcher thread.
+     */
+    private void reload(Set<String> changed) {
+        for (Map.Entry<ShaderProgram, Sources> entry : programSources.entrySet()) {
+            Sources sources = entry.getValue();
+            if (!containsAny(sources.files, changed)) {
+                continue;
+            }
+            Request request = new Request(null, sources.vertexShader, sources.fragmentShader);
+            request.target = entry.getKey();
+            read(request, sourceDirectory);
+            // Saving a file without changing what it preprocesses to, e.g. touching it, needs no rebuild
+            if (request.error == null && request.key == sources.key) {
+                continue;
+            }
+            loaded.add(request);
+        }
+    }
+
+    private static boolean containsAny(Set<String> files, Set<String> changed) {
+        for (String file : changed) {
+            if (files.contains(file)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Move loading programs along, and swap in reloaded ones. Call this once per frame on the render thread, before
+     * anything is drawn; it never waits for the driver.
+     */
+    public void update() {
+        Request request;
+        while ((request = loaded.poll()) != null) {
+            start(request);
+        }
+        for (Iterator<Request> iterator = linking.iterator(); iterator.hasNext(); ) {
+            Request linked = iterator.next();
+            if (linked.program.isLinkComplete()) {
+                iterator.remove();
+                finishLink(linked);
+            }
+        }
+    }
+
+    /**
+     * Wait until every program asked for so far is loaded, e.g. at startup.
+     */
+    public void finish() {
+        while (pending > 0) {
+            update();
+            if (pending > 0) {
+                LockSupport.parkNanos(FINISH_POLL_NANOS);
+            }
+        }
+    }
+
+    private void start(Request request) {
+        if (request.error != null) {
+            fail(request, request.error);
+            return;
+        }
+
+        // Different files with the same preprocessed sources share one program
+        if (request.target == null) {
+            CompletableFuture<ShaderProgram> same = programsByKey.get(request.key);
+            if (same != null) {
+                same.whenComplete((program, error) -> complete(request.future, program, error));
+                return;
+            }
+            programsByKey.put(request.key, request.future);
+        }
+
+        request.program = new ShaderProgram(backend);
+        if (request.binary != null) {
+            ProgramBinaryCache.Binary binary = request.binary;
+            request.binary = null;
+            if (request.program.loadBinary(binary.getFormat(), binary.getData())) {
+                cacheHits++;
+                linked(request);
+                return;
+            }
+        }
+        cacheMisses++;
+        request.program.startLink(request.vertexSource, request.fragmentSource, binariesSupported);
+        linking.add(request);
+    }
+
+    private void finishLink(Request request) {
+        try {
+            request.program.finishLink();
+        } catch (RuntimeException e) {
+            request.program.delete();
+            fail(request, e);
+            return;
+        }
+        if (binariesSupported) {
+            // Take the binary now, on the render thread, but write it out in the background
+            IntBuffer format = BufferUtils.createIntBuffer(1);
+            ByteBuffer binary = request.program.getBinary(format);
+            if (binary != null) {
+                long key = request.key;
+                CompletableFuture.runAsync(() -> cache.save(key, format.get(0), binary));
+            }
+        }
+        linked(request);
+    }
+
+    /**
+     * Hand out a freshly linked program, or swap it into the program it is a new version of.
+     */
+    private void linked(Request request) {
+        ShaderProgram program = request.target == null ? request.program : request.target;
+        if (request.target != null) {
+            // Draws from now on use the new version, the old one is deleted once the frame is over
+            resources.release(programHandles.remove(program));
+            program.replaceWith(request.program);
+            reloads++;
+        }
+        programHandles.put(program, resources.register(GpuResources.Kind.PROGRAM, program.getId(), CATEGORY));
+        programSources.put(program, new Sources(request));
+        if (request.target == null) {
+            complete(request.future, program, null);
+        }
+    }
+
+    private void fail(Request request, RuntimeException error) {
+        if (request.target == null) {
+            complete(request.future, null, error);
+            return;
+        }
+        // Keep drawing with the version that worked
+        reloadFailures++;
+        System.err.println("Failed to reload " + request.vertexShader + " and " + request.fragmentShader + ", "
+                + "keeping the previous version: " + error.getMessage());
+    }
+
+    private void complete(CompletableFuture<ShaderProgram> future, ShaderProgram program, Throwable error) {
+        pending--;
+        if (error != null) {
+            future.completeExceptionally(error);
+        } else {
+            future.complete(program);
+        }
+    }
+
+    /**
+     * @return the number of programs loaded from the cache
+     */
+    public int getCacheHits() {
+        return cacheHits;
+    }
+
+    /**
+     * @return the number of programs that had to be compiled from source
+     */
+    public int getCacheMisses() {
+        return cacheMisses;
+    }
+
+    /**
+     * @return the number of programs replaced by a reloaded version
+     */
+    public int getReloads() {
+        return reloads;
+    }
+
+    /**
+     * @return the number of reloads that failed, leaving the previous version in place
+     */
+    public int getReloadFailures() {
+        return reloadFailures;
+    }
+
+    /**
+     * Stop watching for changes, and release every program loaded by the manager, to be deleted by the registry's next
+     * {@link GpuResources#endFrame()}.
+     */
+    public void delete() {
+        if (watcher != null) {
+            watcher.close();
+            watcher = null;
+        }
+        finish();
+        // Reloads still linking never got a handle
+        for (Request request : linking) {
+            request.program.delete();
+        }
+        linking.clear();
+        loaded.clear();
+        for (int handle : programHandles.values()) {
+            resources.release(handle);
+        }
+        programHandles.clear();
+        programSources.clear();
+        programsByKey.clear();
+        programsByFiles.clear();
+    }
+
+    /**
+     * A program on its way from files to linked program.
+     */
+    private static final class Request {
+        private final CompletableFuture<ShaderProgram> future;
+        private final String vertexShader;
+        private final String fragmentShader;
+        // Every file the sources were built from, includes too
+        private final Set<String> files = new HashSet<>();
+        private String vertexSource;
+        private String fragmentSource;
+        private long key;
+        private ProgramBinaryCache.Binary binary;
+        private RuntimeException error;
+        private ShaderProgram program;
+        // The program this is a new version of, null for a first load
+        private ShaderProgram target;
+
+        private Request(CompletableFuture<ShaderProgram> future, String vertexShader, String fragmentShader) {
+            this.future = future;
+            this.vertexShader = vertexShader;
+            this.fragmentShader = fragmentShader;
+        }
+    }
+
+    /**
+     * What a linked program was built from, to tell which changes affect it.
+     */
+    private static final class Sources {
+        private final String vertexShader;
+        private final String fragmentShader;
+        private final Set<String> files;
+        private final long key;
+
+        private Sources(Request request) {
+            this.vertexShader = request.vertexShader;
+            this.fragmentShader = request.fragmentShader;
+            this.files = request.files;
+            this.key = request.key;
+        }
+    }
+}
@@ -1,9 +1,43 @@
+import org.joml.Matrix4f;
+import org.lwjgl.BufferUtils;
+import org.lwjgl.opengl.GL11;
 import org.lwjgl.opengl.GL20;
+import org.lwjgl.opengl.GL41;
+import org.lwjgl.opengl.KHRParallelShaderCompile;
+import org.lwjgl.system.MemoryStack;
+import rendering.GLRenderBackend;
+import rendering.RenderBackend;
+
+import java.nio.ByteBuffer;
+import java.nio.FloatBuffer;
+import java.nio.IntBuffer;
+import java.util.HashMap;
+import java.util.Map;
 
 public class ShaderProgram {
     public int programId, vertexShaderId, fragmentShaderId;
 
+    private final RenderBackend backend;
+
+    // Active uniforms of the linked program, resolved once in link()
+    private final Map<String, Uniform> uniforms = new HashMap<>();
+    // Scratch buffer reused for every matrix upload, so uploads never allocate
+    private final FloatBuffer matrixBuffer = BufferUtils.createFloatBuffer(16);
+
+    /**
+     * Create a shader program that talks to OpenGL directly.
+     */
     public ShaderProgram() {
+        this(GLRenderBackend.INSTANCE);
+    }
+
+    /**
+     * Create a shader program that issues its calls through the given backend.
+     *
+     * @param backend The backend to create, compile and link shaders with
+     */
+    public ShaderProgram(RenderBackend backend) {
+        this.backend = backend;
     }
 
     /**
@@ -17,7 +51,7 @@ public class ShaderProgram {
          The argument GL20.GL_VERTEX_SHADER specifies that this is a vertex shader.
          THe function returns an integer ID for the newly created shader.
         */
-        vertexShaderId = GL20.glCreateShader(GL20.GL_VERTEX_SHADER);
+        vertexShaderId = backend.createShader(GL20.GL_VERTEX_SHADER);
 
         /*
          Attach the source code of a vertex shader to the shader object.
@@ -25,14 +59,14 @@ public class ShaderProgram {
          The shaderCode is a string that contains the source code of the shader which
          defines the behavior of the vertex shader.
         */
-        GL20.glShaderSource(vertexShaderId, shaderCode);
+        backend.shaderSource(vertexShaderId, shaderCode);
 
         /*
          Compile the shader object.
          This takes in the ID of the shader object.
          This function compiles the shader source code attached to the shader object.
         */
-        GL20.glCompileShader(vertexShaderId);
+        backend.compileShader(vertexShaderId);
 
         /*
          Check if the shader was compiled successfully.
@@ -40,12 +74,12 @@ public class ShaderProgram {
          If the shader was compiled successfully, the value will be GL20.GL_TRUE.
          If the shader was not compiled successfully, the value will be GL20.GL_FALSE.
         */
-        if (GL20.glGetShaderi(vertexShaderId, GL20.GL_COMPILE_STATUS) == GL20.GL_FALSE) {
+        if (backend.getShaderi(vertexShaderId, GL20.GL_COMPILE_STATUS) == GL20.GL_FALSE) {
             /*
              If the shader was not compiled successfully, throw a runtime exception.
              The exception message contains the error message from the shader compilation.
             */
-            throw new RuntimeException("Error creating vertex shader\n" + GL20.glGetShaderInfoLog(vertexShaderId));
+            throw new RuntimeException("Error creating vertex shader\n" + backend.getShaderInfoLog(vertexShaderId));
         }
     }
 
@@ -60,7 +94,7 @@ public class ShaderProgram {
          The argument GL20.GL_FRAGMENT_SHADER specifies that this is a fragment shader.
          THe function returns an integer ID for the newly created shader.
         */
-        fragmentShaderId = GL20.glCreateShader(GL20.GL_FRAGMENT_SHADER);
+        fragmentShaderId = backend.createShader(GL20.GL_FRAGMENT_SHADER);
 
         /*
          Attach the source code of a fragment shader to the shader object.
@@ -68,14 +102,14 @@ public class ShaderProgram {
          The shaderCode is a string that contains the source code of the shader which
          defines the behavior of the fragment shader.
         */
-        GL20.glShaderSource(fragmentShaderId, shaderCode);
+        backend.shaderSource(fragmentShaderId, shaderCode);
 
         /*
          Compile the shader object.
          This takes in the ID of the shader object.
          This function compiles the shader source code attached to the shader object.
         */
-        GL20.glCompileShader(fragmentShaderId);
+        backend.compileShader(fragmentShaderId);
 
         /*
          Check if the shader was compiled successfully.
@@ -83,12 +117,12 @@ public class ShaderProgram {
          If the shader was compiled successfully, the value will be GL20.GL_TRUE.
          If the shader was not compiled successfully, the value will be GL20.GL_FALSE.
         */
-        if (GL20.glGetShaderi(fragmentShaderId, GL20.GL_COMPILE_STATUS) == GL20.GL_FALSE) {
+        if (backend.getShaderi(fragmentShaderId, GL20.GL_COMPILE_STATUS) == GL20.GL_FALSE) {
             /*
              If the shader was not compiled successfully, throw a runtime exception.
              The exception message contains the error message from the shader compilation.
             */
-            throw new RuntimeException("Error creating fragment shader\n" + GL20.glGetShaderInfoLog(fragmentShaderId));
+            throw new RuntimeException("Error creating fragment shader\n" + backend.getShaderInfoLog(fragmentShaderId));
         }
     }
 
@@ -100,26 +134,26 @@ public class ShaderProgram {
          Create a new shader program.
          This function returns an integer ID for the newly created shader program.
         */
-        programId = GL20.glCreateProgram();
+        programId = backend.createProgram();
 
         /*
          Attach the vertex shader to the shader program.
          This takes in the ID of the shader program, and the ID of the vertex shader.
         */
-        GL20.glAttachShader(programId, vertexShaderId);
+        backend.attachShader(programId, vertexShaderId);
 
         /*
          Attach the fragment shader to the shader program.
          This takes in the ID of the shader program, and the ID of the fragment shader.
         */
-        GL20.glAttachShader(programId, fragmentShaderId);
+        backend.attachShader(programId, fragmentShaderId);
 
         /*
          Link the shader program.
          This takes in the ID of the shader program.
          This function links the vertex and fragment shaders to the shader program.
         */
-        GL20.glLinkProgram(programId);
+        backend.linkProgram(programId);
 
         /*
          Check if the shader program was linked successfully.
@@ -127,13 +161,210 @@ public class ShaderProgram {
          If the shader program was linked successfully, the value will be GL20.GL_TRUE.
          If the shader program was not linked successfully, the value will be GL20.GL_FALSE.
         */
-        if (GL20.glGetProgrami(programId, GL20.GL_LINK_STATUS) == GL20.GL_FALSE) {
+        if (backend.getProgrami(programId, GL20.GL_LINK_STATUS) == GL20.GL_FALSE) {
             /*
              If the shader program was not linked successfully, throw a runtime exception.
              The exception message contains the error message from the shader program linking.
             */
-            throw new RuntimeException("Error linking shader program\n" + GL20.glGetProgramInfoLog(programId));
+            throw new RuntimeException("Error linking shader program\n" + backend.getProgramInfoLog(programId));
         }
+
+        // Resolve every active uniform now, instead of looking them up by name each frame
+        cacheUniforms();
+    }
+
+    /**
+     * Start compiling and linking the program, without waiting for the driver to finish.
+     * <p>
+     * Nothing here asks for a compile or link status, since that would wait for the result.
+     * Drivers that compile in the background can work on several programs at once this way, poll
+     * {@link #isLinkComplete()} and then call {@link #finishLink()}.
+     *
+     * @param vertexShaderCode   The source of the vertex shader
+     * @param fragmentShaderCode The source of the fragment shader
+     * @param retrievable        Whether the binary of the linked program will be asked for with {@link #getBinary}
+     */
+    public void startLink(String vertexShaderCode, String fragmentShaderCode, boolean retrievable) {
+        vertexShaderId = backend.createShader(GL20.GL_VERTEX_SHADER);
+        backend.shaderSource(vertexShaderId, vertexShaderCode);
+        backend.compileShader(vertexShaderId);
+        fragmentShaderId = backend.createShader(GL20.GL_FRAGMENT_SHADER);
+        backend.shaderSource(fragmentShaderId, fragmentShaderCode);
+        backend.compileShader(fragmentShaderId);
+
+        programId = backend.createProgram();
+        if (retrievable) {
+            // Ask the driver to keep the binary around
+            backend.programParameteri(programId, GL41.GL_PROGRAM_BINARY_RETRIEVABLE_HINT, GL11.GL_TRUE);
+        }
+        backend.attachShader(programId, vertexShaderId);
+        backend.attachShader(programId, fragmentShaderId);
+        backend.linkProgram(programId);
+    }
+
+    /**
+     * Check whether a link started by {@link #startLink} has finished, without waiting for it.
+     * Without driver support for background compiling this is always true, and {@link #finishLink()} waits instead.
+     *
+     * @return true if {@link #finishLink()} won't have to wait
+     */
+    public boolean isLinkComplete() {
+        return !backend.supportsParallelShaderCompile()
+                || backend.getProgrami(programId, KHRParallelShaderCompile.GL_COMPLETION_STATUS_KHR) == GL11.GL_TRUE;
+    }
+
+    /**
+     * Finish a link started by {@link #startLink}: check that it worked, and cache the uniforms.
+     * The shader objects are no longer needed afterwards and are deleted.
+     */
+    public void finishLink() {
+        if (backend.getProgrami(programId, GL20.GL_LINK_STATUS) == GL20.GL_FALSE) {
+            // A failed compile shows up as a failed link, the compile logs say what was wrong
+            String log = backend.getShaderInfoLog(vertexShaderId) + backend.getShaderInfoLog(fragmentShaderId)
+                    + backend.getProgramInfoLog(programId);
+            throw new RuntimeException("Error linking shader program\n" + log);
+        }
+        backend.detachShader(programId, vertexShaderId);
+        backend.detachShader(programId, fragmentShaderId);
+        backend.deleteShader(vertexShaderId);
+        backend.deleteShader(fragmentShaderId);
+        vertexShaderId = 0;
+        fragmentShaderId = 0;
+        cacheUniforms();
+    }
+
+    /**
+     * Create the program from a binary saved by {@link #getBinary}, instead of compiling it.
+     * The driver may reject the binary, e.g. because it was updated since, and then the program is left empty.
+     *
+     * @param format The binary format
+     * @param binary The binary
+     * @return true if the program was loaded, false if it has to be compiled from source instead
+     */
+    public boolean loadBinary(int format, ByteBuffer binary) {
+        programId = backend.createProgram();
+        backend.programBinary(programId, format, binary);
+        if (backend.getProgrami(programId, GL20.GL_LINK_STATUS) == GL20.GL_FALSE) {
+            backend.deleteProgram(programId);
+            programId = 0;
+            return false;
+        }
+        cacheUniforms();
+        return true;
+    }
+
+    /**
+     * Get the binary of the linked program, to load it again later with {@link #loadBinary}.
+     *
+     * @param format Receives the binary format
+     * @return the binary, or null if the driver doesn't have one
+     */
+    public ByteBuffer getBinary(IntBuffer format) {
+        int length = backend.getProgrami(programId, GL41.GL_PROGRAM_BINARY_LENGTH);
+        if (length <= 0) {
+            return null;
+        }
+        ByteBuffer binary = BufferUtils.createByteBuffer(length);
+        backend.getProgramBinary(programId, null, format, binary);
+        return binary;
+    }
+
+    /**
+     * Take over the linked program of another ShaderProgram, e.g. a new version of this one built from edited sources.
+     * Everyone holding this object draws with the new program from then on, and its uniforms start out unset.
+     * The program this held before isn't deleted, that is up to whoever owns it.
+     *
+     * @param replacement A linked program, left empty afterwards
+     */
+    public void replaceWith(ShaderProgram replacement) {
+        programId = replacement.programId;
+        uniforms.clear();
+        uniforms.putAll(replacement.uniforms);
+        replacement.programId = 0;
+        replacement.uniforms.clear();
+    }
+
+    /**
+     * Query the linked program for its active uniforms and cache their locations.
+     */
+    private void cacheUniforms() {
+        uniforms.clear();
+        int count = backend.getProgrami(programId, GL20.GL_ACTIVE_UNIFORMS);
+        try (MemoryStack stack = MemoryStack.stackPush()) {
+            IntBuffer size = stack.mallocInt(1);
+            IntBuffer type = stack.mallocInt(1);
+            for (int i = 0; i < count; i++) {
+                String name = backend.getActiveUniform(programId, i, size, type);
+                /*
+                 Arrays are reported as "name[0]", but are usually referred to by their plain name.
+                 Uniforms inside uniform blocks report a location of -1 and are skipped.
+                */
+                if (name.endsWith("[0]")) {
+                    name = name.substring(0, name.length() - 3);
+                }
+                int location = backend.getUniformLocation(programId, name);
+                if (location >= 0) {
+                    uniforms.put(name, new Uniform(location));
+                }
+            }
+        }
+    }
+
+    /**
+     * Get the cached location of an active uniform.
+     *
+     * @param name The name of the uniform
+     * @return the location of the uniform, or -1 if the program has no such active uniform
+     */
+    public int getUniformLocation(String name) {
+        Uniform uniform = uniforms.get(name);
+        return uniform == null ? -1 : uniform.location;
+    }
+
+    /**
+     * Upload a matrix to a uniform of this program.
+     * The program doesn't need to be bound. The upload is skipped if the uniform already holds the same value.
+     *
+     * @param name  The name of the uniform
+     * @param value The matrix to upload
+     */
+    public void setUniform(String name, Matrix4f value) {
+        Uniform uniform = uniforms.get(name);
+        // Like GL with location -1, writes to unknown or optimized-out uniforms are ignored
+        if (uniform == null) {
+            return;
+        }
+        if (uniform.hasValue && uniform.matrix.equals(value)) {
+            return;
+        }
+        uniform.matrix.set(value);
+        uniform.hasValue = true;
+        value.get(matrixBuffer);
+        /*
+         Write the uniform straight into the program, rather than binding it first.
+         That way setting uniforms doesn't disturb which program is bound, and draws can be sorted by program.
+        */
+        backend.programUniformMatrix4fv(programId, uniform.location, false, matrixBuffer);
+    }
+
+    /**
+     * Upload an int, or the texture unit of a sampler, to a uniform of this program.
+     * The program doesn't need to be bound. The upload is skipped if the uniform already holds the same value.
+     *
+     * @param name  The name of the uniform
+     * @param value The value to upload
+     */
+    public void setUniform(String name, int value) {
+        Uniform uniform = uniforms.get(name);
+        if (uniform == null) {
+            return;
+        }
+        if (uniform.hasValue && uniform.integer == value) {
+            return;
+        }
+        uniform.integer = value;
+        uniform.hasValue = true;
+        backend.programUniform1i(programId, uniform.location, value);
     }
 
     /**
@@ -145,7 +376,7 @@ public class ShaderProgram {
          This takes in the ID of the shader program.
          This function tells OpenGL to use the shader program for rendering.
         */
-        GL20.glUseProgram(programId);
+        backend.useProgram(programId);
     }
 
     /**
@@ -156,7 +387,7 @@ public class ShaderProgram {
          Stop using the shader program.
          This function tells OpenGL to stop using the shader program for rendering.
         */
-        GL20.glUseProgram(0);
+        backend.useProgram(0);
     }
 
     /**
@@ -167,41 +398,66 @@ public class ShaderProgram {
          Detach the vertex shader from the shader program.
          This takes in the ID of the shader program, and the ID of the vertex shader.
         */
-        GL20.glDetachShader(programId, vertexShaderId);
+        backend.detachShader(programId, vertexShaderId);
 
         /*
          Detach the fragment shader from the shader program.
          This takes in the ID of the shader program, and the ID of the fragment shader.
         */
-        GL20.glDetachShader(programId, fragmentShaderId);
+        backend.detachShader(programId, fragmentShaderId);
 
         /*
          Delete the vertex shader.
          This takes in the ID of the vertex shader.
          This function deletes the vertex shader object.
         */
-        GL20.glDeleteShader(vertexShaderId);
+        backend.deleteShader(vertexShaderId);
 
         /*
          Delete the fragment shader.
          This takes in the ID of the fragment shader.
          This function deletes the fragment shader object.
         */
-        GL20.glDeleteShader(fragmentShaderId);
+        backend.deleteShader(fragmentShaderId);
 
         /*
          Delete the shader program.
          This takes in the ID of the shader program.
          This function deletes the shader program object.
         */
-        GL20.glDeleteProgram(programId);
+        backend.deleteProgram(programId);
     }
 
     public int getId() {
         return programId;
     }
 
+    /**
+     * Delete the shader program, along with any shader objects it still has, e.g. after a failed link.
+     */
     public void delete() {
-        GL20.glDeleteProgram(programId);
+        if (vertexShaderId != 0) {
+            backend.deleteShader(vertexShaderId);
+            vertexShaderId = 0;
+        }
+        if (fragmentShaderId != 0) {
+            backend.deleteShader(fragmentShaderId);
+            fragmentShaderId = 0;
+        }
+        backend.deleteProgram(programId);
+    }
+
+    /**
+     * A cached uniform location, along with the last value uploaded to it.
+     */
+    private static final class Uniform {
+        private final int location;
+        private final Matrix4f matrix = new Matrix4f();
+        private int integer;
+        private boolean hasValue;
+
+        private Uniform(int location) {
+            this.location = location;
+        }
     }
 }
@@ -0,0 +1,142 @@
+package assets;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+import java.util.stream.Stream;
+
+/**
+ * Watches a folder and everything under it, and reports which files changed.
+ * <p>
+ * Saving a file usually shows up as several events, a truncate and a few writes, or a write to a temporary file and
+ * a rename. So changes are collected until the folder has been quiet for a moment, and then reported together, once
+ * per file. Reports are made on the watcher's own thread, so the listener is free to do slow work like reading and
+ * parsing the files, but has to hand anything meant for the render thread over to it.
+ */
+public class FileWatcher implements AutoCloseable {
+    private final Path root;
+    private final long debounceNanos;
+    private final Consumer<Set<String>> listener;
+    private final WatchService watchService;
+    private final Map<WatchKey, Path> directories = new HashMap<>();
+    private final Thread thread;
+
+    /**
+     * Start watching a folder.
+     *
+     * @param root           The folder to watch, along with its subfolders
+     * @param debounceMillis How long the folder has to be quiet before changes are reported
+     * @param listener       Called with the paths of the changed files, relative to the root and separated by '/'
+     */
+    public FileWatcher(Path root, long debounceMillis, Consumer<Set<String>> listener) {
+        this.root = root.toAbsolutePath().normalize();
+        this.debounceNanos = TimeUnit.MILLISECONDS.toNanos(debounceMillis);
+        this.listener = listener;
+        try {
+            watchService = this.root.getFileSystem().newWatchService();
+            registerTree(this.root);
+        } catch (IOException e) {
+            throw new UncheckedIOException("Failed to watch " + root, e);
+        }
+        thread = new Thread(this::watch, "file-watcher");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    private void registerTree(Path directory) throws IOException {
+        try (Stream<Path> paths = Files.walk(directory)) {
+            for (Path path : (Iterable<Path>) paths::iterator) {
+                if (Files.isDirectory(path)) {
+                    WatchKey key = path.register(watchService, StandardWatchEventKinds.ENTRY_CREATE,
+                            StandardWatchEventKinds.ENTRY_MODIFY);
+                    directories.put(key, path);
+                }
+            }
+        }
+    }
+
+    private void watch() {
+        Set<String> changed = new HashSet<>();
+        long deadline = 0;
+        try {
+            while (true) {
+                WatchKey key;
+                if (changed.isEmpty()) {
+                    key = watchService.take();
+                } else {
+                    key = watchService.poll(Math.max(deadline - System.nanoTime(), 0), TimeUnit.NANOSECONDS);
+                    if (key == null) {
+                        report(changed);
+                        changed = new HashSet<>();
+                        continue;
+                    }
+                }
+                collect(key, changed);
+                deadline = System.nanoTime() + debounceNanos;
+            }
+        } catch (InterruptedException | ClosedWatchServiceException e) {
+            // Closed
+        }
+    }
+
+    private void collect(WatchKey key, Set<String> changed) {
+        Path directory = directories.get(key);
+        for (WatchEvent<?> event : key.pollEvents()) {
+            if (event.kind() == StandardWatchEventKinds.OVERFLOW || directory == null) {
+                continue;
+            }
+            Path path = directory.resolve((Path) event.context());
+            if (Files.isDirectory(path)) {
+                // A new folder, whose files are watched from now on
+                if (event.kind() == StandardWatchEventKinds.ENTRY_CREATE) {
+                    try {
+                        registerTree(path);
+                    } catch (IOException e) {
+                        System.err.println("Failed to watch " + path + ": " + e.getMessage());
+                    }
+                }
+                continue;
+            }
+            changed.add(root.relativize(path).toString().replace(path.getFileSystem().getSeparator(), "/"));
+        }
+        if (!key.reset()) {
+            directories.remove(key);
+        }
+    }
+
+    private void report(Set<String> changed) {
+        try {
+            listener.accept(changed);
+        } catch (RuntimeException e) {
+            // Keep watching, the next save may well fix whatever went wrong
+            System.err.println("Failed to handle changes to " + changed + ": " + e);
+        }
+    }
+
+    /**
+     * Stop watching. Changes still waiting out the debounce are dropped.
+     */
+    @Override
+    public void close() {
+        try {
+            watchService.close();
+            thread.join();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
@@ -0,0 +1,147 @@
+package assets;
+
+import org.lwjgl.PointerBuffer;
+import org.lwjgl.assimp.AIFace;
+import org.lwjgl.assimp.AIMesh;
+import org.lwjgl.assimp.AIScene;
+import org.lwjgl.assimp.AIVector3D;
+import org.lwjgl.assimp.Assimp;
+import org.lwjgl.system.MemoryUtil;
+import org.lwjgl.util.meshoptimizer.MeshOptimizer;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.FloatBuffer;
+import java.nio.IntBuffer;
+import java.nio.file.Path;
+
+/**
+ * Turns meshes in any format Assimp can read into {@link MeshFile}s, ahead of time.
+ * <p>
+ * Every mesh in the file is flattened into one, with node transforms applied. The triangles are then reordered
+ * with meshoptimizer, first for the post-transform vertex cache and then, as far as that allows, to draw front
+ * faces first and cut overdraw. Finally the vertices are reordered to be read in the order the triangles use them.
+ * <p>
+ * Usage: {@code MeshConverter <input> <output> [--level=<zstd level, 0 for none>]},
+ * or {@code ./gradlew convertMesh --args="<input> <output>"}.
+ */
+public final class MeshConverter {
+    private static final int DEFAULT_COMPRESSION_LEVEL = 19;
+    // How much worse the vertex cache may get to reduce overdraw, 1.05 is what meshoptimizer suggests
+    private static final float OVERDRAW_THRESHOLD = 1.05f;
+    private static final int IMPORT_FLAGS = Assimp.aiProcess_Triangulate
+            | Assimp.aiProcess_JoinIdenticalVertices
+            | Assimp.aiProcess_GenSmoothNormals
+            | Assimp.aiProcess_PreTransformVertices;
+
+    private MeshConverter() {
+    }
+
+    public static void main(String[] args) throws IOException {
+        if (args.length < 2) {
+            System.out.println("Usage: MeshConverter <input> <output> [--level=<zstd level, 0 for none>]");
+            return;
+        }
+        int level = DEFAULT_COMPRESSION_LEVEL;
+        for (int i = 2; i < args.length; i++) {
+            if (args[i].startsWith("--level=")) {
+                level = Integer.parseInt(args[i].substring("--level=".length()));
+            }
+        }
+        convert(Path.of(args[0]), Path.of(args[1]), level);
+    }
+
+    /**
+     * Convert a mesh.
+     *
+     * @param input            The file to import
+     * @param output           The mesh file to write
+     * @param compressionLevel The zstd compression level, or 0 to store the mesh uncompressed
+     */
+    public static void convert(Path input, Path output, int compressionLevel) throws IOException {
+        AIScene scene = Assimp.aiImportFile(input.toString(), IMPORT_FLAGS);
+        if (scene == null) {
+            throw new IOException("Failed to import " + input + ": " + Assimp.aiGetErrorString());
+        }
+        FloatBuffer vertices = null;
+        IntBuffer indices = null;
+        ByteBuffer optimized = null;
+        try {
+            // Count everything first, so the buffers are allocated once
+            int vertexCount = 0;
+            int indexCount = 0;
+            PointerBuffer meshes = scene.mMeshes();
+            for (int m = 0; m < scene.mNumMeshes(); m++) {
+                AIMesh mesh = AIMesh.create(meshes.get(m));
+                vertexCount += mesh.mNumVertices();
+                for (AIFace face : mesh.mFaces()) {
+                    // Points and lines survive triangulation, and are dropped
+                    if (face.mNumIndices() == 3) {
+                        indexCount += 3;
+                    }
+                }
+            }
+
+            vertices = MemoryUtil.memAllocFloat(vertexCount * MeshFile.VERTEX_FLOATS);
+            indices = MemoryUtil.memAllocInt(indexCount);
+            int baseVertex = 0;
+            for (int m = 0; m < scene.mNumMeshes(); m++) {
+                AIMesh mesh = AIMesh.create(meshes.get(m));
+                AIVector3D.Buffer positions = mesh.mVertices();
+                AIVector3D.Buffer normals = mesh.mNormals();
+                for (int v = 0; v < mesh.mNumVertices(); v++) {
+                    AIVector3D position = positions.get(v);
+                    vertices.put(position.x()).put(position.y()).put(position.z());
+                    if (normals != null) {
+                        AIVector3D normal = normals.get(v);
+                        vertices.put(normal.x()).put(normal.y()).put(normal.z());
+                    } else {
+                        vertices.put(0.0f).put(1.0f).put(0.0f);
+                    }
+                }
+                for (AIFace face : mesh.mFaces()) {
+                    if (face.mNumIndices() == 3) {
+                        IntBuffer faceIndices = face.mIndices();
+                        for (int i = 0; i < 3; i++) {
+                            indices.put(baseVertex + faceIndices.get(i));
+                        }
+                    }
+                }
+                baseVertex += mesh.mNumVertices();
+            }
+            vertices.flip();
+            indices.flip();
+
+            int stride = MeshFile.VERTEX_FLOATS * Float.BYTES;
+            MeshOptimizer.meshopt_optimizeVertexCache(indices, indices, vertexCount);
+            MeshOptimizer.meshopt_optimizeOverdraw(indices, indices, vertices, vertexCount, stride, OVERDRAW_THRESHOLD);
+            // Vertices no triangle uses are dropped here, the indices are rewritten to match
+            optimized = MemoryUtil.memAlloc(vertexCount * stride);
+            int usedVertices = (int) MeshOptimizer.meshopt_optimizeVertexFetch(optimized, indices,
+                    MemoryUtil.memByteBuffer(vertices), vertexCount, stride);
+            optimized.limit(usedVertices * stride);
+
+            ByteBuffer indexBytes = MemoryUtil.memByteBuffer(indices);
+            MeshFile.write(output, usedVertices, bounds(optimized.asFloatBuffer(), usedVertices), optimized,
+                    indexBytes, compressionLevel);
+        } finally {
+            Assimp.aiReleaseImport(scene);
+            MemoryUtil.memFree(vertices);
+            MemoryUtil.memFree(indices);
+            MemoryUtil.memFree(optimized);
+        }
+    }
+
+    private static float[] bounds(FloatBuffer vertices, int vertexCount) {
+        float[] bounds = {Float.POSITIVE_INFINITY, Float.POSITIVE_INFINITY, Float.POSITIVE_INFINITY,
+                Float.NEGATIVE_INFINITY, Float.NEGATIVE_INFINITY, Float.NEGATIVE_INFINITY};
+        for (int v = 0; v < vertexCount; v++) {
+            for (int axis = 0; axis < 3; axis++) {
+                float value = vertices.get(v * MeshFile.VERTEX_FLOATS + axis);
+                bounds[axis] = Math.min(bounds[axis], value);
+                bounds[axis + 3] = Math.max(bounds[axis + 3], value);
+            }
+        }
+        return bounds;
+    }
+}
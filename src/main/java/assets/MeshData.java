@@ -0,0 +1,80 @@
+package assets;
+
+import org.lwjgl.system.MemoryUtil;
+
+import java.nio.ByteBuffer;
+
+/**
+ * A loaded mesh, in buffers that can go straight to glBufferData.
+ * <p>
+ * Vertices are interleaved, {@link #getVertexStride()} bytes each; see {@link MeshFile} for the attributes.
+ * Indices are 32-bit triangles. The buffers may point into a memory-mapped file or into memory allocated for the
+ * mesh, either way call {@link #free()} once they are uploaded.
+ */
+public final class MeshData {
+    private final int vertexCount;
+    private final int indexCount;
+    private final int vertexStride;
+    private final float[] bounds;
+    private final ByteBuffer vertices;
+    private final ByteBuffer indices;
+    // Memory to free along with the mesh, null if the buffers belong to a mapped file
+    private ByteBuffer owner;
+
+    MeshData(int vertexCount, int indexCount, int vertexStride, float[] bounds, ByteBuffer vertices,
+             ByteBuffer indices, ByteBuffer owner) {
+        this.vertexCount = vertexCount;
+        this.indexCount = indexCount;
+        this.vertexStride = vertexStride;
+        this.bounds = bounds;
+        this.vertices = vertices;
+        this.indices = indices;
+        this.owner = owner;
+    }
+
+    public int getVertexCount() {
+        return vertexCount;
+    }
+
+    public int getIndexCount() {
+        return indexCount;
+    }
+
+    /**
+     * @return the size of a vertex in bytes
+     */
+    public int getVertexStride() {
+        return vertexStride;
+    }
+
+    /**
+     * @return the bounding box of the vertices, as min x, y, z then max x, y, z
+     */
+    public float[] getBounds() {
+        return bounds;
+    }
+
+    /**
+     * @return the interleaved vertices, in native byte order
+     */
+    public ByteBuffer getVertices() {
+        return vertices;
+    }
+
+    /**
+     * @return the indices, in native byte order
+     */
+    public ByteBuffer getIndices() {
+        return indices;
+    }
+
+    /**
+     * Release the memory behind the buffers. The buffers must not be used afterwards.
+     */
+    public void free() {
+        if (owner != null) {
+            MemoryUtil.memFree(owner);
+            owner = null;
+        }
+    }
+}
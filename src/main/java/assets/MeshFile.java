@@ -0,0 +1,171 @@
+package assets;
+
+import memory.LinearArena;
+import memory.Memory;
+import org.lwjgl.system.MemoryUtil;
+import org.lwjgl.util.zstd.Zstd;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * The binary mesh format written by {@link MeshConverter} and read by {@link MeshLoader}.
+ * <p>
+ * A file is a fixed 64 byte header followed by the payload, all little-endian:
+ * <pre>
+ *   int    magic "LWMS"
+ *   int    version
+ *   int    flags, bit 0 set if the payload is zstd compressed
+ *   int    vertex count
+ *   int    index count
+ *   int    vertex stride in bytes
+ *   float  bounds, min x, y, z then max x, y, z
+ *   long   size of the payload once decompressed
+ *   long   size of the payload in the file
+ *   ...    payload: the vertices, then the indices as 32-bit ints
+ * </pre>
+ * Vertices are a position (3 floats) followed by a normal (3 floats).
+ * Uncompressed payloads are laid out exactly as GL wants them, so they can be uploaded straight from a mapped file.
+ */
+public final class MeshFile {
+    public static final int MAGIC = 0x534D_574C; // "LWMS" read as a little-endian int
+    public static final int VERSION = 1;
+    public static final int FLAG_COMPRESSED = 1;
+    public static final int HEADER_BYTES = 64;
+    /**
+     * Floats per vertex, a position then a normal.
+     */
+    public static final int VERTEX_FLOATS = 6;
+
+    private MeshFile() {
+    }
+
+    /**
+     * Write a mesh to a file, replacing it if it exists.
+     *
+     * @param path             The file to write
+     * @param vertexCount      The number of vertices
+     * @param bounds           The bounding box, min x, y, z then max x, y, z
+     * @param vertices         The interleaved vertices, from position to limit
+     * @param indices          The indices, from position to limit
+     * @param compressionLevel The zstd compression level, or 0 to store the payload uncompressed
+     */
+    public static void write(Path path, int vertexCount, float[] bounds, ByteBuffer vertices, ByteBuffer indices,
+                             int compressionLevel) throws IOException {
+        int vertexBytes = vertices.remaining();
+        int indexBytes = indices.remaining();
+        long rawSize = (long) vertexBytes + indexBytes;
+        // Everything is staged in this thread's scratch arena, and only kept until it is written
+        LinearArena scratch = Memory.thread();
+        long mark = scratch.mark();
+        try {
+            ByteBuffer raw = scratch.allocate((int) rawSize);
+            raw.put(vertices.duplicate()).put(indices.duplicate()).flip();
+            ByteBuffer payload = raw;
+            if (compressionLevel > 0) {
+                ByteBuffer compressed = scratch.allocate((int) Zstd.ZSTD_compressBound(rawSize));
+                long size = Zstd.ZSTD_compress(compressed, raw, compressionLevel);
+                check(size);
+                compressed.limit((int) size);
+                payload = compressed;
+            }
+
+            ByteBuffer header = scratch.allocate(HEADER_BYTES).order(ByteOrder.LITTLE_ENDIAN);
+            header.putInt(MAGIC)
+                    .putInt(VERSION)
+                    .putInt(compressionLevel > 0 ? FLAG_COMPRESSED : 0)
+                    .putInt(vertexCount)
+                    .putInt(indexBytes / Integer.BYTES)
+                    .putInt(vertexCount == 0 ? 0 : vertexBytes / vertexCount);
+            for (float bound : bounds) {
+                header.putFloat(bound);
+            }
+            header.putLong(rawSize).putLong(payload.remaining()).flip();
+
+            // Write next to the file and move it into place, so a reader never sees half a file
+            Path temporary = path.resolveSibling(path.getFileName() + ".tmp");
+            try (FileChannel channel = FileChannel.open(temporary, StandardOpenOption.CREATE,
+                    StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+                while (header.hasRemaining() || payload.hasRemaining()) {
+                    channel.write(new ByteBuffer[]{header, payload});
+                }
+            }
+            Files.move(temporary, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } finally {
+            scratch.reset(mark);
+        }
+    }
+
+    /**
+     * Read a mesh out of the bytes of a file.
+     * Uncompressed meshes point into the given buffer, so it must stay valid for as long as the mesh is used.
+     *
+     * @param file  The whole file
+     * @param owner Memory to free along with the mesh, if the mesh ends up pointing into it, or null
+     * @return the mesh
+     */
+    static MeshData read(ByteBuffer file, ByteBuffer owner) {
+        if (ByteOrder.nativeOrder() != ByteOrder.LITTLE_ENDIAN) {
+            throw new IllegalStateException("Mesh files can only be used on little-endian machines");
+        }
+        ByteBuffer header = file.duplicate().order(ByteOrder.LITTLE_ENDIAN);
+        if (header.remaining() < HEADER_BYTES || header.getInt() != MAGIC) {
+            throw new IllegalStateException("Not a mesh file");
+        }
+        int version = header.getInt();
+        if (version != VERSION) {
+            throw new IllegalStateException("Unsupported mesh file version " + version);
+        }
+        int flags = header.getInt();
+        int vertexCount = header.getInt();
+        int indexCount = header.getInt();
+        int vertexStride = header.getInt();
+        float[] bounds = new float[6];
+        for (int i = 0; i < bounds.length; i++) {
+            bounds[i] = header.getFloat();
+        }
+        long rawSize = header.getLong();
+        long payloadSize = header.getLong();
+        long vertexBytes = (long) vertexCount * vertexStride;
+        if (rawSize != vertexBytes + (long) indexCount * Integer.BYTES
+                || payloadSize != file.remaining() - HEADER_BYTES) {
+            throw new IllegalStateException("Mesh file is truncated or corrupt");
+        }
+        ByteBuffer payload = file.slice(file.position() + HEADER_BYTES, (int) payloadSize);
+
+        if ((flags & FLAG_COMPRESSED) != 0) {
+            ByteBuffer raw = MemoryUtil.memAlloc((int) rawSize);
+            try {
+                long size = Zstd.ZSTD_decompress(raw, payload);
+                check(size);
+                if (size != rawSize) {
+                    throw new IllegalStateException("Mesh file is truncated or corrupt");
+                }
+            } catch (RuntimeException e) {
+                MemoryUtil.memFree(raw);
+                throw e;
+            }
+            // The file isn't needed anymore, the mesh lives in the decompressed copy
+            if (owner != null) {
+                MemoryUtil.memFree(owner);
+            }
+            payload = raw;
+            owner = raw;
+        }
+        ByteBuffer vertices = payload.slice(0, (int) vertexBytes).order(ByteOrder.nativeOrder());
+        ByteBuffer indices = payload.slice((int) vertexBytes, indexCount * Integer.BYTES).order(ByteOrder.nativeOrder());
+        return new MeshData(vertexCount, indexCount, vertexStride, bounds, vertices, indices, owner);
+    }
+
+    private static void check(long result) {
+        if (Zstd.ZSTD_isError(result)) {
+            throw new IllegalStateException("zstd failed: " + Zstd.ZSTD_getErrorName(result));
+        }
+    }
+}
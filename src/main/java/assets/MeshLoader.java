@@ -0,0 +1,153 @@
+package assets;
+
+import memory.Memory;
+import org.lwjgl.system.MemoryUtil;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Loads mesh files written by {@link MeshConverter} on a pool of worker threads.
+ * <p>
+ * Like the chunk mesher, the render thread submits work and later polls for results, so loading never blocks a
+ * frame. Large files are memory-mapped, and if they aren't compressed the mesh points straight into the mapping;
+ * small files are read in one go, since mapping costs more than it saves for them. Either way only buffers ready
+ * for glBufferData come back, the render thread does all uploading.
+ */
+public class MeshLoader implements AutoCloseable {
+    // Files smaller than this are read rather than mapped
+    private static final long MAP_THRESHOLD = 64 * 1024;
+
+    private final ForkJoinPool pool;
+    private final ConcurrentLinkedQueue<Result> completed = new ConcurrentLinkedQueue<>();
+    private final AtomicInteger pending = new AtomicInteger();
+
+    /**
+     * Create a loader with a worker for every core but one, which is left for the render thread.
+     */
+    public MeshLoader() {
+        this(Math.max(1, Runtime.getRuntime().availableProcessors() - 1));
+    }
+
+    /**
+     * Create a loader with the given number of workers.
+     *
+     * @param threads The number of worker threads
+     */
+    public MeshLoader(int threads) {
+        pool = new ForkJoinPool(threads, Memory.workerThreads("mesh-loader"), null, false);
+    }
+
+    /**
+     * Queue a mesh file for loading.
+     *
+     * @param path The file to load
+     */
+    public void submit(Path path) {
+        pending.incrementAndGet();
+        pool.execute(() -> {
+            try {
+                completed.add(new Result(path, load(path), null));
+            } catch (IOException | RuntimeException e) {
+                completed.add(new Result(path, null, e));
+            } finally {
+                pending.decrementAndGet();
+            }
+        });
+    }
+
+    /**
+     * Load a mesh file on the calling thread.
+     *
+     * @param path The file to load
+     * @return the mesh
+     */
+    public static MeshData load(Path path) throws IOException {
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            long size = channel.size();
+            if (size > Integer.MAX_VALUE) {
+                throw new IOException("Mesh file too large: " + path);
+            }
+            if (size >= MAP_THRESHOLD) {
+                // The mapping stays valid after the channel is closed, until the buffer is garbage collected
+                return MeshFile.read(channel.map(FileChannel.MapMode.READ_ONLY, 0, size), null);
+            }
+            ByteBuffer file = MemoryUtil.memAlloc((int) size);
+            try {
+                while (file.hasRemaining()) {
+                    if (channel.read(file) < 0) {
+                        throw new IOException("Unexpected end of mesh file: " + path);
+                    }
+                }
+                file.flip();
+                return MeshFile.read(file, file);
+            } catch (IOException | RuntimeException e) {
+                MemoryUtil.memFree(file);
+                throw e;
+            }
+        }
+    }
+
+    /**
+     * Take the next loaded mesh.
+     *
+     * @return the result, or null if none has finished
+     */
+    public Result poll() {
+        return completed.poll();
+    }
+
+    /**
+     * @return the number of meshes still loading
+     */
+    public int getPending() {
+        return pending.get();
+    }
+
+    /**
+     * Stop the workers. Files still queued are dropped.
+     */
+    @Override
+    public void close() {
+        pool.shutdownNow();
+    }
+
+    /**
+     * A finished load: either the mesh or what went wrong.
+     */
+    public static final class Result {
+        private final Path path;
+        private final MeshData mesh;
+        private final Exception error;
+
+        private Result(Path path, MeshData mesh, Exception error) {
+            this.path = path;
+            this.mesh = mesh;
+            this.error = error;
+        }
+
+        public Path getPath() {
+            return path;
+        }
+
+        /**
+         * @return the mesh, or null if loading failed
+         */
+        public MeshData getMesh() {
+            return mesh;
+        }
+
+        /**
+         * @return why loading failed, or null if it didn't
+         */
+        public Exception getError() {
+            return error;
+        }
+    }
+}
@@ -0,0 +1,99 @@
+package assets;
+
+import org.lwjgl.system.MemoryUtil;
+
+import java.nio.ByteBuffer;
+
+/**
+ * A decoded texture, as mip levels ready for glTexSubImage or glCompressedTexSubImage.
+ * <p>
+ * Textures are decoded from a first level on, so a texture that is only going to be drawn small never has its
+ * finer levels in memory. {@link #getLevel(int)} takes the level number in the full mip chain, which is the same
+ * whatever the first level is. The levels are in memory allocated for them, call {@link #free()} once they are
+ * uploaded.
+ */
+public final class TextureData {
+    private final TextureFormat format;
+    private final int width;
+    private final int height;
+    private final int levelCount;
+    private final int firstLevel;
+    private final ByteBuffer[] levels;
+
+    /**
+     * @param format     The format of the levels
+     * @param width      The width of level 0, whether or not it was decoded
+     * @param height     The height of level 0
+     * @param levelCount The number of levels in the full mip chain
+     * @param firstLevel The finest level decoded
+     * @param levels     The levels from the first on, each in memory from {@link MemoryUtil#memAlloc(int)}
+     */
+    public TextureData(TextureFormat format, int width, int height, int levelCount, int firstLevel,
+                       ByteBuffer[] levels) {
+        if (firstLevel < 0 || firstLevel + levels.length != levelCount) {
+            throw new IllegalArgumentException("Levels " + firstLevel + " to " + (firstLevel + levels.length - 1)
+                    + " don't end a chain of " + levelCount);
+        }
+        this.format = format;
+        this.width = width;
+        this.height = height;
+        this.levelCount = levelCount;
+        this.firstLevel = firstLevel;
+        this.levels = levels;
+    }
+
+    public TextureFormat getFormat() {
+        return format;
+    }
+
+    /**
+     * @return the width of level 0
+     */
+    public int getWidth() {
+        return width;
+    }
+
+    /**
+     * @return the height of level 0
+     */
+    public int getHeight() {
+        return height;
+    }
+
+    /**
+     * @return the number of levels in the full mip chain
+     */
+    public int getLevelCount() {
+        return levelCount;
+    }
+
+    /**
+     * @return the finest level decoded
+     */
+    public int getFirstLevel() {
+        return firstLevel;
+    }
+
+    /**
+     * @param level A level from the first on
+     * @return the level's pixels
+     */
+    public ByteBuffer getLevel(int level) {
+        if (level < firstLevel || level >= levelCount) {
+            throw new IndexOutOfBoundsException("Level " + level + " wasn't decoded");
+        }
+        return levels[level - firstLevel];
+    }
+
+    /**
+     * Release the memory behind the levels. They must not be used afterwards.
+     */
+    public void free() {
+        for (int i = 0; i < levels.length; i++) {
+            if (levels[i] != null) {
+                MemoryUtil.memFree(levels[i]);
+                levels[i] = null;
+            }
+        }
+    }
+}
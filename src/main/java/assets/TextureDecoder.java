@@ -0,0 +1,309 @@
+package assets;
+
+import memory.LinearArena;
+import memory.Memory;
+import org.lwjgl.PointerBuffer;
+import org.lwjgl.stb.STBImage;
+import org.lwjgl.system.MemoryStack;
+import org.lwjgl.system.MemoryUtil;
+import org.lwjgl.util.ktx.KTX;
+import org.lwjgl.util.ktx.ktxTexture;
+import org.lwjgl.util.ktx.ktxTexture2;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.IntBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Decodes textures from KTX2 files, or from anything stb_image reads (PNG, JPEG, TGA and so on).
+ * <p>
+ * KTX2 files holding Basis Universal data are transcoded to the best block compressed format the GPU supports, see
+ * {@link #chooseTranscodeTarget(Set)}, and KTX2 files already in a GPU format are used as they are. Their mip levels
+ * come from the file. Images read by stb_image are expanded to RGBA8, and their mip levels are made by averaging
+ * 2 by 2 pixels of the level above.
+ * <p>
+ * Everything here is safe to call from any thread, and nothing needs a GL context.
+ */
+public final class TextureDecoder {
+    // The first 12 bytes of every KTX2 file
+    private static final byte[] KTX2_IDENTIFIER = {(byte) 0xAB, 'K', 'T', 'X', ' ', '2', '0', (byte) 0xBB, '\r', '\n',
+            0x1A, '\n'};
+
+    // Formats Basis data is transcoded to, best first. BC7 and ASTC keep the most detail at 1 byte a pixel, ETC2 is
+    // what mobile GPUs without ASTC have, and BC3 is on every desktop GPU. RGBA8 takes 4 times the memory.
+    private static final List<TextureFormat> TRANSCODE_PREFERENCE = List.of(TextureFormat.BC7, TextureFormat.ASTC_4X4,
+            TextureFormat.ETC2, TextureFormat.BC3, TextureFormat.RGBA8);
+
+    // Vulkan formats, which KTX2 files describe their data with
+    private static final int VK_FORMAT_R8G8B8A8_UNORM = 37;
+    private static final int VK_FORMAT_R8G8B8A8_SRGB = 43;
+    private static final int VK_FORMAT_BC3_UNORM_BLOCK = 137;
+    private static final int VK_FORMAT_BC3_SRGB_BLOCK = 138;
+    private static final int VK_FORMAT_BC7_UNORM_BLOCK = 145;
+    private static final int VK_FORMAT_BC7_SRGB_BLOCK = 146;
+    private static final int VK_FORMAT_ETC2_R8G8B8A8_UNORM_BLOCK = 151;
+    private static final int VK_FORMAT_ETC2_R8G8B8A8_SRGB_BLOCK = 152;
+    private static final int VK_FORMAT_ASTC_4x4_UNORM_BLOCK = 157;
+    private static final int VK_FORMAT_ASTC_4x4_SRGB_BLOCK = 158;
+
+    private TextureDecoder() {
+    }
+
+    /**
+     * @return a source that decodes the given file every time it is asked to
+     */
+    public static TextureSource file(Path path) {
+        return (firstLevel, formats) -> decode(path, firstLevel, formats);
+    }
+
+    /**
+     * Read and decode a texture file.
+     *
+     * @param path       The file
+     * @param firstLevel The finest mip level wanted
+     * @param formats    The formats the GPU supports
+     * @return the decoded levels
+     */
+    public static TextureData decode(Path path, int firstLevel, Set<TextureFormat> formats) throws IOException {
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            long size = channel.size();
+            if (size > Integer.MAX_VALUE) {
+                throw new IOException("Texture file too large: " + path);
+            }
+            // The file is only needed until it is decoded, so it is read into this thread's scratch arena
+            LinearArena scratch = Memory.thread();
+            long mark = scratch.mark();
+            try {
+                ByteBuffer file = scratch.allocate((int) size);
+                while (file.hasRemaining()) {
+                    if (channel.read(file) < 0) {
+                        throw new IOException("Unexpected end of texture file: " + path);
+                    }
+                }
+                file.flip();
+                return decode(file, firstLevel, formats);
+            } catch (IOException e) {
+                throw new IOException(path + ": " + e.getMessage(), e);
+            } finally {
+                scratch.reset(mark);
+            }
+        }
+    }
+
+    /**
+     * Decode a texture from the contents of a file.
+     *
+     * @param file       The file, from its position to its limit
+     * @param firstLevel The finest mip level wanted
+     * @param formats    The formats the GPU supports
+     * @return the decoded levels
+     */
+    public static TextureData decode(ByteBuffer file, int firstLevel, Set<TextureFormat> formats) throws IOException {
+        return isKtx2(file) ? decodeKtx2(file, firstLevel, formats) : decodeImage(file, firstLevel);
+    }
+
+    /**
+     * @return true if the buffer starts with the identifier of a KTX2 file
+     */
+    public static boolean isKtx2(ByteBuffer file) {
+        if (file.remaining() < KTX2_IDENTIFIER.length) {
+            return false;
+        }
+        for (int i = 0; i < KTX2_IDENTIFIER.length; i++) {
+            if (file.get(file.position() + i) != KTX2_IDENTIFIER[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Pick the format to transcode Basis data to.
+     *
+     * @param supported The formats the GPU supports
+     * @return the best of them
+     */
+    public static TextureFormat chooseTranscodeTarget(Set<TextureFormat> supported) {
+        for (TextureFormat format : TRANSCODE_PREFERENCE) {
+            if (supported.contains(format)) {
+                return format;
+            }
+        }
+        return TextureFormat.RGBA8;
+    }
+
+    private static int transcodeFormat(TextureFormat format) {
+        return switch (format) {
+            case BC7 -> KTX.KTX_TTF_BC7_RGBA;
+            case BC3 -> KTX.KTX_TTF_BC3_RGBA;
+            case ASTC_4X4 -> KTX.KTX_TTF_ASTC_4x4_RGBA;
+            case ETC2 -> KTX.KTX_TTF_ETC2_RGBA;
+            case RGBA8 -> KTX.KTX_TTF_RGBA32;
+        };
+    }
+
+    /**
+     * @return the format of KTX2 data that is already in a GPU format, or null if it's none the engine knows. sRGB
+     * data is taken as it is, like every other color in the engine.
+     */
+    private static TextureFormat fromVkFormat(int vkFormat) {
+        return switch (vkFormat) {
+            case VK_FORMAT_R8G8B8A8_UNORM, VK_FORMAT_R8G8B8A8_SRGB -> TextureFormat.RGBA8;
+            case VK_FORMAT_BC3_UNORM_BLOCK, VK_FORMAT_BC3_SRGB_BLOCK -> TextureFormat.BC3;
+            case VK_FORMAT_BC7_UNORM_BLOCK, VK_FORMAT_BC7_SRGB_BLOCK -> TextureFormat.BC7;
+            case VK_FORMAT_ETC2_R8G8B8A8_UNORM_BLOCK, VK_FORMAT_ETC2_R8G8B8A8_SRGB_BLOCK -> TextureFormat.ETC2;
+            case VK_FORMAT_ASTC_4x4_UNORM_BLOCK, VK_FORMAT_ASTC_4x4_SRGB_BLOCK -> TextureFormat.ASTC_4X4;
+            default -> null;
+        };
+    }
+
+    private static TextureData decodeKtx2(ByteBuffer file, int firstLevel, Set<TextureFormat> formats)
+            throws IOException {
+        try (MemoryStack stack = MemoryStack.stackPush()) {
+            PointerBuffer pointer = stack.mallocPointer(1);
+            checkKtx(KTX.ktxTexture2_CreateFromMemory(file, KTX.KTX_TEXTURE_CREATE_LOAD_IMAGE_DATA_BIT, pointer));
+            ktxTexture2 texture = ktxTexture2.create(pointer.get(0));
+            // The functions shared by every version of KTX take the base struct
+            ktxTexture base = ktxTexture.create(texture.address());
+            try {
+                if (texture.numLayers() > 1 || texture.numFaces() > 1) {
+                    throw new IOException("Only 2D textures are supported, not arrays or cube maps");
+                }
+                TextureFormat format;
+                if (KTX.ktxTexture2_NeedsTranscoding(texture)) {
+                    format = chooseTranscodeTarget(formats);
+                    checkKtx(KTX.ktxTexture2_TranscodeBasis(texture, transcodeFormat(format), 0));
+                } else {
+                    format = fromVkFormat(texture.vkFormat());
+                    if (format == null || !formats.contains(format)) {
+                        throw new IOException("Unsupported texture format " + texture.vkFormat());
+                    }
+                }
+                int levelCount = texture.numLevels();
+                firstLevel = Math.min(firstLevel, levelCount - 1);
+                ByteBuffer data = texture.pData();
+                ByteBuffer[] levels = new ByteBuffer[levelCount - firstLevel];
+                try {
+                    for (int level = firstLevel; level < levelCount; level++) {
+                        checkKtx(KTX.ktxTexture_GetImageOffset(base, level, 0, 0, pointer));
+                        int size = (int) KTX.ktxTexture_GetImageSize(base, level);
+                        ByteBuffer copy = MemoryUtil.memAlloc(size);
+                        levels[level - firstLevel] = copy;
+                        MemoryUtil.memCopy(MemoryUtil.memAddress(data) + pointer.get(0), MemoryUtil.memAddress(copy),
+                                size);
+                    }
+                } catch (IOException | RuntimeException e) {
+                    for (ByteBuffer level : levels) {
+                        MemoryUtil.memFree(level);
+                    }
+                    throw e;
+                }
+                return new TextureData(format, texture.baseWidth(), texture.baseHeight(), levelCount, firstLevel,
+                        levels);
+            } finally {
+                KTX.ktxTexture_Destroy(base);
+            }
+        }
+    }
+
+    private static void checkKtx(int result) throws IOException {
+        if (result != KTX.KTX_SUCCESS) {
+            throw new IOException("KTX error: " + KTX.ktxErrorString(result));
+        }
+    }
+
+    private static TextureData decodeImage(ByteBuffer file, int firstLevel) throws IOException {
+        try (MemoryStack stack = MemoryStack.stackPush()) {
+            IntBuffer width = stack.mallocInt(1);
+            IntBuffer height = stack.mallocInt(1);
+            IntBuffer channels = stack.mallocInt(1);
+            ByteBuffer pixels = STBImage.stbi_load_from_memory(file, width, height, channels, 4);
+            if (pixels == null) {
+                throw new IOException("Can't read image: " + STBImage.stbi_failure_reason());
+            }
+            try {
+                return fromRgba(pixels, width.get(0), height.get(0), firstLevel);
+            } finally {
+                STBImage.stbi_image_free(pixels);
+            }
+        }
+    }
+
+    /**
+     * Make a full mip chain out of an RGBA8 image.
+     *
+     * @param pixels     The image, rows from the top, which is only read
+     * @param width      The width of the image
+     * @param height     The height of the image
+     * @param firstLevel The finest mip level wanted, finer ones are only made to make the coarser ones from
+     * @return the levels, in RGBA8
+     */
+    public static TextureData fromRgba(ByteBuffer pixels, int width, int height, int firstLevel) {
+        if (width <= 0 || height <= 0 || pixels.remaining() < (long) width * height * 4) {
+            throw new IllegalArgumentException("Not a " + width + " by " + height + " RGBA8 image");
+        }
+        int levelCount = TextureFormat.getLevelCount(width, height);
+        firstLevel = Math.min(firstLevel, levelCount - 1);
+        ByteBuffer[] levels = new ByteBuffer[levelCount - firstLevel];
+        if (firstLevel == 0) {
+            levels[0] = MemoryUtil.memAlloc(width * height * 4);
+            MemoryUtil.memCopy(MemoryUtil.memAddress(pixels), MemoryUtil.memAddress(levels[0]), levels[0].capacity());
+        } else {
+            // Levels finer than the first are only needed to make the next one from, so they go in scratch memory
+            LinearArena scratch = Memory.thread();
+            long mark = scratch.mark();
+            try {
+                ByteBuffer previous = pixels;
+                for (int level = 1; level <= firstLevel; level++) {
+                    int size = TextureFormat.getLevelSize(width, level) * TextureFormat.getLevelSize(height, level) * 4;
+                    ByteBuffer next = level == firstLevel ? MemoryUtil.memAlloc(size) : scratch.allocate(size);
+                    downsample(previous, TextureFormat.getLevelSize(width, level - 1),
+                            TextureFormat.getLevelSize(height, level - 1), next);
+                    previous = next;
+                }
+                levels[0] = previous;
+            } finally {
+                scratch.reset(mark);
+            }
+        }
+        for (int level = firstLevel + 1; level < levelCount; level++) {
+            levels[level - firstLevel] = MemoryUtil.memAlloc(TextureFormat.getLevelSize(width, level)
+                    * TextureFormat.getLevelSize(height, level) * 4);
+            downsample(levels[level - firstLevel - 1], TextureFormat.getLevelSize(width, level - 1),
+                    TextureFormat.getLevelSize(height, level - 1), levels[level - firstLevel]);
+        }
+        return new TextureData(TextureFormat.RGBA8, width, height, levelCount, firstLevel, levels);
+    }
+
+    /**
+     * Halve an RGBA8 image, averaging each 2 by 2 block of pixels. An odd last row or column is averaged with itself.
+     *
+     * @param target Where to write the next mip level, from index 0
+     */
+    static void downsample(ByteBuffer source, int width, int height, ByteBuffer target) {
+        int targetWidth = Math.max(1, width >> 1);
+        int targetHeight = Math.max(1, height >> 1);
+        int base = source.position();
+        for (int y = 0; y < targetHeight; y++) {
+            int row0 = base + Math.min(y * 2, height - 1) * width * 4;
+            int row1 = base + Math.min(y * 2 + 1, height - 1) * width * 4;
+            for (int x = 0; x < targetWidth; x++) {
+                int column0 = Math.min(x * 2, width - 1) * 4;
+                int column1 = Math.min(x * 2 + 1, width - 1) * 4;
+                for (int channel = 0; channel < 4; channel++) {
+                    int sum = (source.get(row0 + column0 + channel) & 0xFF)
+                            + (source.get(row0 + column1 + channel) & 0xFF)
+                            + (source.get(row1 + column0 + channel) & 0xFF)
+                            + (source.get(row1 + column1 + channel) & 0xFF);
+                    // Round to nearest rather than down, or every level gets a little darker
+                    target.put((y * targetWidth + x) * 4 + channel, (byte) ((sum + 2) >> 2));
+                }
+            }
+        }
+    }
+}
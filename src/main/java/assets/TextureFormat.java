@@ -0,0 +1,71 @@
+package assets;
+
+import org.lwjgl.opengl.EXTTextureCompressionS3TC;
+import org.lwjgl.opengl.GL11;
+import org.lwjgl.opengl.GL42;
+import org.lwjgl.opengl.GL43;
+import org.lwjgl.opengl.KHRTextureCompressionASTCLDR;
+
+/**
+ * The pixel formats textures are decoded to and kept in on the GPU.
+ * <p>
+ * Every format but {@link #RGBA8} is block compressed, four by four pixels to a 16 byte block, and only usable if
+ * the GPU supports it. RGBA8 is always supported, and is what everything falls back to.
+ */
+public enum TextureFormat {
+    RGBA8(GL11.GL_RGBA8, false),
+    BC7(GL42.GL_COMPRESSED_RGBA_BPTC_UNORM, true),
+    BC3(EXTTextureCompressionS3TC.GL_COMPRESSED_RGBA_S3TC_DXT5_EXT, true),
+    ASTC_4X4(KHRTextureCompressionASTCLDR.GL_COMPRESSED_RGBA_ASTC_4x4_KHR, true),
+    ETC2(GL43.GL_COMPRESSED_RGBA8_ETC2_EAC, true);
+
+    private static final int BLOCK_SIZE = 4;
+    private static final int BLOCK_BYTES = 16;
+
+    private final int internalFormat;
+    private final boolean compressed;
+
+    TextureFormat(int internalFormat, boolean compressed) {
+        this.internalFormat = internalFormat;
+        this.compressed = compressed;
+    }
+
+    /**
+     * @return the GL internal format of textures in this format
+     */
+    public int getInternalFormat() {
+        return internalFormat;
+    }
+
+    /**
+     * @return true if the format is block compressed, and is uploaded with glCompressedTexSubImage
+     */
+    public boolean isCompressed() {
+        return compressed;
+    }
+
+    /**
+     * @return the number of bytes an image of the given size takes up in this format
+     */
+    public long getImageSize(int width, int height) {
+        if (compressed) {
+            long blocks = (long) ((width + BLOCK_SIZE - 1) / BLOCK_SIZE) * ((height + BLOCK_SIZE - 1) / BLOCK_SIZE);
+            return blocks * BLOCK_BYTES;
+        }
+        return (long) width * height * 4;
+    }
+
+    /**
+     * @return the size of a mip level, given the size of level 0
+     */
+    public static int getLevelSize(int size, int level) {
+        return Math.max(1, size >> level);
+    }
+
+    /**
+     * @return the number of levels in a full mip chain down to 1 by 1
+     */
+    public static int getLevelCount(int width, int height) {
+        return 32 - Integer.numberOfLeadingZeros(Math.max(width, height));
+    }
+}
@@ -0,0 +1,23 @@
+package assets;
+
+import java.io.IOException;
+import java.util.Set;
+
+/**
+ * Somewhere a texture can be decoded from, again and again, e.g. a file or a generator.
+ * <p>
+ * Textures are decoded more than once: streaming a texture's finer levels back in decodes it again from those
+ * levels on. Sources are called from worker threads, possibly several at a time.
+ */
+@FunctionalInterface
+public interface TextureSource {
+    /**
+     * Decode the texture.
+     *
+     * @param firstLevel The finest mip level wanted, coarser ones are always decoded too. Clamped to the coarsest
+     *                   level of the texture.
+     * @param formats    The formats the GPU supports, one of which the texture must be decoded to
+     * @return the decoded levels, from the first on
+     */
+    TextureData decode(int firstLevel, Set<TextureFormat> formats) throws IOException;
+}
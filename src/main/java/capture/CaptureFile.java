@@ -0,0 +1,111 @@
+package capture;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+/**
+ * The binary format of captured sessions, written by {@link CaptureWriter} and read by {@link CaptureReader}.
+ * <p>
+ * A capture holds what each frame of a session was drawn from, so the same frames can be rendered again later, as
+ * fast as possible and without a window, to measure what they cost. A file is a fixed 32 byte header followed by
+ * one record per frame, all little-endian:
+ * <pre>
+ *   int    magic "LWCP"
+ *   int    version
+ *   int    flags, bit 0 set if frames hold their render command counts
+ *   int    state size, the number of floats of simulation state per frame
+ *   ...    padding up to 32 bytes
+ * </pre>
+ * Every frame record has the same size:
+ * <pre>
+ *   long   time since the capture started, in nanoseconds
+ *   float  time since the previous frame, in seconds, what the camera moved by
+ *   int    keys held down, see {@link CapturedFrame#getKeys()}
+ *   float  camera x, y, z, pitch, yaw and roll, after moving
+ *   float  the simulation state the frame was drawn with, state size floats
+ *   int    draw calls, state changes and state changes skipped, if flag bit 0 is set
+ * </pre>
+ * The simulation state is what the frame drew, interpolated between ticks, rather than the ticks themselves. Ticks
+ * run on their own clock, so replaying them would only land on the same states if the frames came at the same
+ * times, which they don't when replaying at full speed.
+ */
+public final class CaptureFile {
+    public static final int MAGIC = 0x5043_574C; // "LWCP" read as a little-endian int
+    public static final int VERSION = 1;
+    public static final int FLAG_COMMANDS = 1;
+    public static final int HEADER_BYTES = 32;
+
+    static final int CAMERA_FLOATS = 6;
+    static final int COMMAND_INTS = 3;
+
+    private CaptureFile() {
+    }
+
+    /**
+     * @return the size of a frame record
+     */
+    public static int getFrameBytes(int stateSize, boolean commands) {
+        return Long.BYTES + Float.BYTES + Integer.BYTES + (CAMERA_FLOATS + stateSize) * Float.BYTES
+                + (commands ? COMMAND_INTS * Integer.BYTES : 0);
+    }
+
+    static void writeHeader(ByteBuffer header, int stateSize, boolean commands) {
+        header.order(ByteOrder.LITTLE_ENDIAN)
+                .putInt(MAGIC)
+                .putInt(VERSION)
+                .putInt(commands ? FLAG_COMMANDS : 0)
+                .putInt(stateSize);
+        while (header.position() < HEADER_BYTES) {
+            header.put((byte) 0);
+        }
+    }
+
+    static void checkHeader(ByteBuffer header) throws IOException {
+        header.order(ByteOrder.LITTLE_ENDIAN);
+        if (header.remaining() < HEADER_BYTES || header.getInt(0) != MAGIC) {
+            throw new IOException("Not a capture");
+        }
+        if (header.getInt(4) != VERSION) {
+            throw new IOException("Unsupported capture version " + header.getInt(4));
+        }
+        if (header.getInt(12) < 0) {
+            throw new IOException("Negative state size " + header.getInt(12));
+        }
+    }
+
+    static void writeFrame(ByteBuffer buffer, CapturedFrame frame, boolean commands) {
+        buffer.putLong(frame.getTime())
+                .putFloat(frame.getDeltaTime())
+                .putInt(frame.getKeys())
+                .putFloat(frame.getCameraX())
+                .putFloat(frame.getCameraY())
+                .putFloat(frame.getCameraZ())
+                .putFloat(frame.getPitch())
+                .putFloat(frame.getYaw())
+                .putFloat(frame.getRoll());
+        for (float value : frame.getState()) {
+            buffer.putFloat(value);
+        }
+        if (commands) {
+            buffer.putInt(frame.getDrawCalls())
+                    .putInt(frame.getStateChanges())
+                    .putInt(frame.getStateChangesSkipped());
+        }
+    }
+
+    static void readFrame(ByteBuffer buffer, CapturedFrame frame, boolean commands) {
+        frame.setInput(buffer.getLong(), buffer.getFloat(), buffer.getInt());
+        frame.setCamera(buffer.getFloat(), buffer.getFloat(), buffer.getFloat(), buffer.getFloat(), buffer.getFloat(),
+                buffer.getFloat());
+        float[] state = frame.getState();
+        for (int i = 0; i < state.length; i++) {
+            state[i] = buffer.getFloat();
+        }
+        if (commands) {
+            frame.setCommands(buffer.getInt(), buffer.getInt(), buffer.getInt());
+        } else {
+            frame.setCommands(-1, -1, -1);
+        }
+    }
+}
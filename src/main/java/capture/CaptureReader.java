@@ -0,0 +1,111 @@
+package capture;
+
+import org.lwjgl.BufferUtils;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Reads the frames of a capture file back in order, see {@link CaptureFile}.
+ * <p>
+ * The file is read a buffer at a time, so captures of any length can be replayed. A capture that was cut short
+ * ends at its last whole frame.
+ */
+public class CaptureReader implements AutoCloseable {
+    private static final int BUFFER_BYTES = 64 * 1024;
+
+    private final FileChannel channel;
+    private final ByteBuffer buffer;
+    private final int stateSize;
+    private final boolean commands;
+    private final int frameBytes;
+    private final long frameCount;
+    private long framesRead;
+
+    /**
+     * Open a capture file.
+     *
+     * @param path The file to read
+     * @throws IOException if the file can't be read or isn't a capture
+     */
+    public CaptureReader(Path path) throws IOException {
+        channel = FileChannel.open(path, StandardOpenOption.READ);
+        try {
+            ByteBuffer header = BufferUtils.createByteBuffer(CaptureFile.HEADER_BYTES);
+            while (header.hasRemaining() && channel.read(header) >= 0) {
+                // Keep reading until the header is complete or the file ends
+            }
+            header.flip();
+            CaptureFile.checkHeader(header);
+            commands = (header.getInt(8) & CaptureFile.FLAG_COMMANDS) != 0;
+            stateSize = header.getInt(12);
+            frameBytes = CaptureFile.getFrameBytes(stateSize, commands);
+            frameCount = (channel.size() - CaptureFile.HEADER_BYTES) / frameBytes;
+        } catch (IOException | RuntimeException e) {
+            channel.close();
+            throw e;
+        }
+        buffer = BufferUtils.createByteBuffer(Math.max(BUFFER_BYTES, frameBytes)).order(ByteOrder.LITTLE_ENDIAN);
+        buffer.flip();
+    }
+
+    /**
+     * Read the next frame.
+     *
+     * @param frame Where to read the frame to, made for {@link #getStateSize()} floats of state
+     * @return false if there are no frames left
+     * @throws IOException if the file couldn't be read
+     */
+    public boolean read(CapturedFrame frame) throws IOException {
+        if (frame.getState().length != stateSize) {
+            throw new IllegalArgumentException("Frame has " + frame.getState().length + " floats of state, the "
+                    + "capture " + stateSize);
+        }
+        if (framesRead == frameCount) {
+            return false;
+        }
+        if (buffer.remaining() < frameBytes) {
+            buffer.compact();
+            while (buffer.position() < frameBytes && channel.read(buffer) >= 0) {
+                // Keep reading until a whole frame is buffered
+            }
+            buffer.flip();
+            if (buffer.remaining() < frameBytes) {
+                throw new IOException("Capture ended in the middle of frame " + framesRead);
+            }
+        }
+        CaptureFile.readFrame(buffer, frame, commands);
+        framesRead++;
+        return true;
+    }
+
+    /**
+     * @return the number of whole frames in the capture
+     */
+    public long getFrameCount() {
+        return frameCount;
+    }
+
+    /**
+     * @return the number of floats of simulation state in each frame
+     */
+    public int getStateSize() {
+        return stateSize;
+    }
+
+    /**
+     * @return true if the frames hold their render command counts
+     */
+    public boolean hasCommands() {
+        return commands;
+    }
+
+    @Override
+    public void close() throws IOException {
+        channel.close();
+    }
+}
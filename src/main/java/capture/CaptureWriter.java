@@ -0,0 +1,98 @@
+package capture;
+
+import org.lwjgl.BufferUtils;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Writes a session to a capture file, a frame at a time, see {@link CaptureFile}.
+ * <p>
+ * Frames are gathered in a buffer and written out whenever it fills up, so capturing a frame is a few puts. The
+ * file is written in place rather than moved there at the end: a session cut short still leaves every frame
+ * written before then readable.
+ */
+public class CaptureWriter implements AutoCloseable {
+    // Holds a few hundred frames between writes
+    private static final int BUFFER_BYTES = 64 * 1024;
+
+    private final FileChannel channel;
+    private final ByteBuffer buffer;
+    private final int stateSize;
+    private final boolean commands;
+    private final int frameBytes;
+    private long frameCount;
+
+    /**
+     * Create a capture file, replacing it if it exists.
+     *
+     * @param path      The file to write
+     * @param stateSize The number of floats of simulation state per frame
+     * @param commands  Whether to keep each frame's render command counts, to check replays against
+     * @throws IOException if the file can't be created
+     */
+    public CaptureWriter(Path path, int stateSize, boolean commands) throws IOException {
+        this.stateSize = stateSize;
+        this.commands = commands;
+        this.frameBytes = CaptureFile.getFrameBytes(stateSize, commands);
+        this.buffer = BufferUtils.createByteBuffer(Math.max(BUFFER_BYTES, frameBytes))
+                .order(ByteOrder.LITTLE_ENDIAN);
+        this.channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.TRUNCATE_EXISTING);
+        CaptureFile.writeHeader(buffer, stateSize, commands);
+    }
+
+    /**
+     * Add a frame to the capture.
+     *
+     * @param frame The frame, with as much simulation state as the capture was created with
+     * @throws IOException if the buffered frames couldn't be written out
+     */
+    public void write(CapturedFrame frame) throws IOException {
+        if (frame.getState().length != stateSize) {
+            throw new IllegalArgumentException("Frame has " + frame.getState().length + " floats of state, the "
+                    + "capture " + stateSize);
+        }
+        if (buffer.remaining() < frameBytes) {
+            flush();
+        }
+        CaptureFile.writeFrame(buffer, frame, commands);
+        frameCount++;
+    }
+
+    /**
+     * Write out the buffered frames.
+     *
+     * @throws IOException if they couldn't be written
+     */
+    public void flush() throws IOException {
+        buffer.flip();
+        while (buffer.hasRemaining()) {
+            channel.write(buffer);
+        }
+        buffer.clear();
+    }
+
+    /**
+     * @return the number of frames captured so far
+     */
+    public long getFrameCount() {
+        return frameCount;
+    }
+
+    /**
+     * Write out the buffered frames and close the file.
+     */
+    @Override
+    public void close() throws IOException {
+        try {
+            flush();
+        } finally {
+            channel.close();
+        }
+    }
+}
@@ -0,0 +1,143 @@
+package capture;
+
+/**
+ * What a frame was drawn from: the input, where the camera was, the state of the simulation, and optionally how
+ * many render commands it took. One instance is reused for every frame written or read.
+ */
+public final class CapturedFrame {
+    /**
+     * Bits of {@link #getKeys()}, one per key that moves the camera.
+     */
+    public static final int KEY_FORWARD = 1;
+    public static final int KEY_BACK = 1 << 1;
+    public static final int KEY_LEFT = 1 << 2;
+    public static final int KEY_RIGHT = 1 << 3;
+    public static final int KEY_UP = 1 << 4;
+    public static final int KEY_DOWN = 1 << 5;
+
+    private long time;
+    private float deltaTime;
+    private int keys;
+    private float cameraX;
+    private float cameraY;
+    private float cameraZ;
+    private float pitch;
+    private float yaw;
+    private float roll;
+    private final float[] state;
+    private int drawCalls = -1;
+    private int stateChanges = -1;
+    private int stateChangesSkipped = -1;
+
+    /**
+     * @param stateSize The number of floats of simulation state
+     */
+    public CapturedFrame(int stateSize) {
+        this.state = new float[stateSize];
+    }
+
+    /**
+     * @param time      The time since the capture started, in nanoseconds
+     * @param deltaTime The time since the previous frame, in seconds
+     * @param keys      The keys held down, a combination of the KEY_ bits
+     */
+    public void setInput(long time, float deltaTime, int keys) {
+        this.time = time;
+        this.deltaTime = deltaTime;
+        this.keys = keys;
+    }
+
+    /**
+     * Set where the camera was, after it moved for the frame.
+     */
+    public void setCamera(float x, float y, float z, float pitch, float yaw, float roll) {
+        this.cameraX = x;
+        this.cameraY = y;
+        this.cameraZ = z;
+        this.pitch = pitch;
+        this.yaw = yaw;
+        this.roll = roll;
+    }
+
+    /**
+     * Set the number of render commands the frame took, -1 each if they weren't captured.
+     */
+    public void setCommands(int drawCalls, int stateChanges, int stateChangesSkipped) {
+        this.drawCalls = drawCalls;
+        this.stateChanges = stateChanges;
+        this.stateChangesSkipped = stateChangesSkipped;
+    }
+
+    /**
+     * @return the time since the capture started, in nanoseconds
+     */
+    public long getTime() {
+        return time;
+    }
+
+    /**
+     * @return the time since the previous frame, in seconds
+     */
+    public float getDeltaTime() {
+        return deltaTime;
+    }
+
+    /**
+     * @return the keys held down, a combination of the KEY_ bits
+     */
+    public int getKeys() {
+        return keys;
+    }
+
+    public float getCameraX() {
+        return cameraX;
+    }
+
+    public float getCameraY() {
+        return cameraY;
+    }
+
+    public float getCameraZ() {
+        return cameraZ;
+    }
+
+    public float getPitch() {
+        return pitch;
+    }
+
+    public float getYaw() {
+        return yaw;
+    }
+
+    public float getRoll() {
+        return roll;
+    }
+
+    /**
+     * @return the simulation state the frame was drawn with, to be filled in when capturing
+     */
+    public float[] getState() {
+        return state;
+    }
+
+    /**
+     * @return the number of draw calls, or -1 if it wasn't captured
+     */
+    public int getDrawCalls() {
+        return drawCalls;
+    }
+
+    /**
+     * @return the number of binds that changed state, or -1 if it wasn't captured
+     */
+    public int getStateChanges() {
+        return stateChanges;
+    }
+
+    /**
+     * @return the number of binds skipped because the state was already set, or -1 if it wasn't captured
+     */
+    public int getStateChangesSkipped() {
+        return stateChangesSkipped;
+    }
+}
@@ -0,0 +1,78 @@
+package capture;
+
+import java.io.IOException;
+
+/**
+ * Replays the frames of a capture one after another, and counts the ones that came out differently than they were
+ * captured.
+ * <p>
+ * A frame diverges if its captured input moves the camera somewhere other than where it was captured, or, if the
+ * capture has them, takes a different number of render commands. The target draws every frame from the camera it
+ * was captured with either way, so one difference doesn't spread to the frames after it.
+ */
+public class Replayer {
+    /**
+     * Draws replayed frames, the same way as the frames of the capture were drawn.
+     */
+    public interface Target {
+        /**
+         * Run a frame from a captured frame's input, and draw it from the captured camera and simulation state.
+         *
+         * @param captured The frame to replay
+         * @param replayed Where to write where the input moved the camera to, before it was put back, and the render
+         *                 commands the frame took
+         * @return the CPU time of the frame, in nanoseconds
+         */
+        long replay(CapturedFrame captured, CapturedFrame replayed);
+    }
+
+    private final CaptureReader reader;
+    private final CapturedFrame captured;
+    private final CapturedFrame replayed;
+
+    /**
+     * @param reader The capture, from its next frame on
+     */
+    public Replayer(CaptureReader reader) {
+        this.reader = reader;
+        this.captured = new CapturedFrame(reader.getStateSize());
+        this.replayed = new CapturedFrame(reader.getStateSize());
+    }
+
+    /**
+     * Replay the rest of the capture.
+     *
+     * @param target     What to draw the frames with
+     * @param frameTimes Where to write the CPU time of each frame, in nanoseconds, at least as long as the capture
+     * @return the number of frames that diverged from the capture
+     * @throws IOException if the capture can't be read
+     */
+    public int run(Target target, long[] frameTimes) throws IOException {
+        if (frameTimes.length < reader.getFrameCount()) {
+            throw new IllegalArgumentException("Room for " + frameTimes.length + " frame times, the capture has "
+                    + reader.getFrameCount() + " frames");
+        }
+        int diverged = 0;
+        for (int i = 0; reader.read(captured); i++) {
+            frameTimes[i] = target.replay(captured, replayed);
+            if (diverged(captured, replayed, reader.hasCommands())) {
+                diverged++;
+            }
+        }
+        return diverged;
+    }
+
+    /**
+     * @param commands Whether to compare the render commands too
+     * @return true if the replayed frame's camera, or commands, differ from the captured frame's
+     */
+    static boolean diverged(CapturedFrame captured, CapturedFrame replayed, boolean commands) {
+        boolean camera = captured.getCameraX() != replayed.getCameraX()
+                || captured.getCameraY() != replayed.getCameraY() || captured.getCameraZ() != replayed.getCameraZ()
+                || captured.getPitch() != replayed.getPitch() || captured.getYaw() != replayed.getYaw()
+                || captured.getRoll() != replayed.getRoll();
+        return camera || commands && (captured.getDrawCalls() != replayed.getDrawCalls()
+                || captured.getStateChanges() != replayed.getStateChanges()
+                || captured.getStateChangesSkipped() != replayed.getStateChangesSkipped());
+    }
+}
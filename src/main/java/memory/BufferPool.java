@@ -0,0 +1,160 @@
+package memory;
+
+import org.lwjgl.system.MemoryUtil;
+
+import java.nio.Buffer;
+import java.nio.ByteBuffer;
+import java.nio.FloatBuffer;
+import java.nio.IntBuffer;
+import java.nio.ShortBuffer;
+import java.util.Arrays;
+
+/**
+ * Hands out buffers that live longer than a frame, recycling their memory by size class.
+ * <p>
+ * Requests are rounded up to a power of two from 64 bytes to 1 MiB, and freed blocks wait in a list per size class
+ * for the next request of that class, so buffers that are created and dropped over and over don't go through the
+ * native allocator each time. Larger requests are passed straight through. Unlike buffers from
+ * {@code BufferUtils}, these are freed when {@link #free(Buffer)} is called, not whenever the garbage collector
+ * gets to them.
+ * <p>
+ * Buffers use the native byte order, and their contents start out as whatever was there before. A pool can be used
+ * from any thread.
+ */
+public final class BufferPool {
+    private static final int MIN_CLASS_SHIFT = 6;
+    private static final int MAX_CLASS_SHIFT = 20;
+    private static final int CLASSES = MAX_CLASS_SHIFT - MIN_CLASS_SHIFT + 1;
+    // The most bytes kept waiting in each size class, the rest go back to the native allocator
+    private static final long MAX_CACHED_BYTES_PER_CLASS = 4L << 20;
+
+    private final NativeAllocator allocator;
+    private final MemoryStats stats;
+    private final long[][] cached = new long[CLASSES][];
+    private final int[] cachedCount = new int[CLASSES];
+
+    /**
+     * @param allocator The allocator to take memory from
+     * @param name      The name of the pool, for reports
+     */
+    public BufferPool(NativeAllocator allocator, String name) {
+        this.allocator = allocator;
+        this.stats = new MemoryStats(name);
+        for (int sizeClass = 0; sizeClass < CLASSES; sizeClass++) {
+            cached[sizeClass] = new long[8];
+        }
+        Memory.register(stats);
+    }
+
+    /**
+     * @param bytes The size of the buffer
+     * @return a buffer of exactly that capacity
+     */
+    public ByteBuffer allocate(int bytes) {
+        return MemoryUtil.memByteBuffer(allocateAddress(bytes), bytes);
+    }
+
+    /**
+     * @param count The number of floats
+     * @return a buffer of exactly that many floats
+     */
+    public FloatBuffer allocateFloats(int count) {
+        return MemoryUtil.memFloatBuffer(allocateAddress((long) count * Float.BYTES), count);
+    }
+
+    /**
+     * @param count The number of ints
+     * @return a buffer of exactly that many ints
+     */
+    public IntBuffer allocateInts(int count) {
+        return MemoryUtil.memIntBuffer(allocateAddress((long) count * Integer.BYTES), count);
+    }
+
+    private synchronized long allocateAddress(long bytes) {
+        int sizeClass = sizeClass(bytes);
+        long size = sizeClass < CLASSES ? 1L << (sizeClass + MIN_CLASS_SHIFT) : bytes;
+        long address;
+        if (sizeClass < CLASSES && cachedCount[sizeClass] > 0) {
+            address = cached[sizeClass][--cachedCount[sizeClass]];
+        } else {
+            // Allocate at least a byte, so that even empty buffers have an address of their own
+            address = allocator.malloc(Math.max(size, 1));
+            if (address == 0) {
+                throw new OutOfMemoryError("Failed to allocate " + size + " bytes for " + stats.getName());
+            }
+            stats.reserved(size);
+        }
+        stats.allocated(size);
+        return address;
+    }
+
+    /**
+     * Return a buffer allocated from this pool. The buffer, and anything sharing its memory, can't be used afterwards.
+     *
+     * @param buffer The buffer, or null to do nothing
+     */
+    public synchronized void free(Buffer buffer) {
+        if (buffer == null) {
+            return;
+        }
+        long address = MemoryUtil.memAddress0(buffer);
+        long bytes = (long) buffer.capacity() * elementBytes(buffer);
+        int sizeClass = sizeClass(bytes);
+        long size = sizeClass < CLASSES ? 1L << (sizeClass + MIN_CLASS_SHIFT) : bytes;
+        stats.freed(size);
+        if (sizeClass < CLASSES && (long) (cachedCount[sizeClass] + 1) * size <= MAX_CACHED_BYTES_PER_CLASS) {
+            if (cachedCount[sizeClass] == cached[sizeClass].length) {
+                cached[sizeClass] = Arrays.copyOf(cached[sizeClass], cachedCount[sizeClass] * 2);
+            }
+            cached[sizeClass][cachedCount[sizeClass]++] = address;
+        } else {
+            allocator.free(address);
+            stats.reserved(-size);
+        }
+    }
+
+    /**
+     * Give every cached block back to the native allocator.
+     */
+    public synchronized void trim() {
+        for (int sizeClass = 0; sizeClass < CLASSES; sizeClass++) {
+            long size = 1L << (sizeClass + MIN_CLASS_SHIFT);
+            for (int i = 0; i < cachedCount[sizeClass]; i++) {
+                allocator.free(cached[sizeClass][i]);
+                stats.reserved(-size);
+            }
+            cachedCount[sizeClass] = 0;
+        }
+    }
+
+    /**
+     * @return the stats of the pool
+     */
+    public MemoryStats getStats() {
+        return stats;
+    }
+
+    /**
+     * @return the size class of a request, or CLASSES if it is too large for any
+     */
+    private static int sizeClass(long bytes) {
+        if (bytes > 1L << MAX_CLASS_SHIFT) {
+            return CLASSES;
+        }
+        int shift = 64 - Long.numberOfLeadingZeros(Math.max(bytes, 1) - 1);
+        return Math.max(shift, MIN_CLASS_SHIFT) - MIN_CLASS_SHIFT;
+    }
+
+    private static int elementBytes(Buffer buffer) {
+        if (buffer instanceof ByteBuffer) {
+            return Byte.BYTES;
+        }
+        if (buffer instanceof ShortBuffer) {
+            return Short.BYTES;
+        }
+        if (buffer instanceof FloatBuffer || buffer instanceof IntBuffer) {
+            return Integer.BYTES;
+        }
+        return Long.BYTES;
+    }
+}
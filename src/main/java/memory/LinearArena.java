@@ -0,0 +1,188 @@
+package memory;
+
+import org.lwjgl.system.MemoryUtil;
+
+import java.nio.ByteBuffer;
+import java.nio.FloatBuffer;
+import java.nio.IntBuffer;
+import java.util.Arrays;
+
+/**
+ * Hands out memory by bumping an offset through large blocks, and takes it all back at once.
+ * <p>
+ * Allocating is a few additions, and freeing is setting the offset back, either to the start with {@link #reset()}
+ * or to an earlier {@link #mark()}. Blocks are only taken from the native allocator when the arena outgrows the ones
+ * it has, and are kept after a reset, so once an arena has grown to what a frame needs it stops allocating natively.
+ * <p>
+ * The buffers handed out are views over the blocks, valid until the arena is reset past them. Their contents are
+ * whatever was there before, and they use the native byte order.
+ * <p>
+ * An arena is used by one thread at a time. See {@link Memory#thread()} for the arena of the calling thread.
+ */
+public final class LinearArena implements AutoCloseable {
+    private static final int DEFAULT_ALIGNMENT = 16;
+    // A mark holds the block index above these bits and the offset below
+    private static final int OFFSET_BITS = 40;
+    private static final long OFFSET_MASK = (1L << OFFSET_BITS) - 1;
+
+    private final NativeAllocator allocator;
+    private final long blockSize;
+    private final MemoryStats stats;
+
+    private long[] blocks = new long[4];
+    private long[] blockSizes = new long[4];
+    private int blockCount;
+    // The block being allocated from, the offset in it, and the total size of the blocks before it
+    private int block;
+    private long offset;
+    private long blockBase;
+
+    /**
+     * @param allocator The allocator to take blocks from
+     * @param blockSize The size of a block, allocations larger than this get a block of their own
+     * @param name      The name of the arena, for reports
+     */
+    public LinearArena(NativeAllocator allocator, long blockSize, String name) {
+        this.allocator = allocator;
+        this.blockSize = blockSize;
+        this.stats = new MemoryStats(name);
+        Memory.register(stats);
+    }
+
+    /**
+     * Allocate memory aligned to 16 bytes.
+     *
+     * @param bytes The size of the memory
+     * @return a buffer over the memory
+     */
+    public ByteBuffer allocate(int bytes) {
+        return MemoryUtil.memByteBuffer(allocateAddress(bytes, DEFAULT_ALIGNMENT), bytes);
+    }
+
+    /**
+     * @param count The number of floats
+     * @return a buffer of that many floats, aligned to 16 bytes
+     */
+    public FloatBuffer allocateFloats(int count) {
+        return MemoryUtil.memFloatBuffer(allocateAddress((long) count * Float.BYTES, DEFAULT_ALIGNMENT), count);
+    }
+
+    /**
+     * @param count The number of ints
+     * @return a buffer of that many ints, aligned to 16 bytes
+     */
+    public IntBuffer allocateInts(int count) {
+        return MemoryUtil.memIntBuffer(allocateAddress((long) count * Integer.BYTES, DEFAULT_ALIGNMENT), count);
+    }
+
+    /**
+     * Allocate memory with a given alignment.
+     *
+     * @param bytes     The size of the memory
+     * @param alignment A power of two
+     * @return the address of the memory
+     */
+    public long allocateAddress(long bytes, int alignment) {
+        if (blockCount > 0) {
+            long address = blocks[block] + offset;
+            long aligned = (address + alignment - 1) & -alignment;
+            long end = aligned - blocks[block] + bytes;
+            if (end <= blockSizes[block]) {
+                offset = end;
+                stats.allocatedUpTo(blockBase + offset);
+                return aligned;
+            }
+        }
+        nextBlock(bytes + alignment);
+        long aligned = (blocks[block] + alignment - 1) & -alignment;
+        offset = aligned - blocks[block] + bytes;
+        stats.allocatedUpTo(blockBase + offset);
+        return aligned;
+    }
+
+    /**
+     * Move on to a block with room for the given number of bytes, reusing the next block if it is big enough.
+     */
+    private void nextBlock(long bytes) {
+        int next = blockCount == 0 ? 0 : block + 1;
+        if (next == blockCount || blockSizes[next] < bytes) {
+            long size = Math.max(blockSize, bytes);
+            long address = allocator.malloc(size);
+            if (address == 0) {
+                throw new OutOfMemoryError("Failed to allocate a " + size + " byte block for " + stats.getName());
+            }
+            if (next == blockCount) {
+                if (blockCount == blocks.length) {
+                    blocks = Arrays.copyOf(blocks, blockCount * 2);
+                    blockSizes = Arrays.copyOf(blockSizes, blockCount * 2);
+                }
+                blockCount++;
+            } else {
+                // The next block is too small for this allocation, replace it
+                allocator.free(blocks[next]);
+                stats.reserved(-blockSizes[next]);
+            }
+            blocks[next] = address;
+            blockSizes[next] = size;
+            stats.reserved(size);
+        }
+        if (next > 0) {
+            blockBase += blockSizes[block];
+        }
+        block = next;
+        offset = 0;
+    }
+
+    /**
+     * @return the current position of the arena, to go back to with {@link #reset(long)}
+     */
+    public long mark() {
+        return (long) block << OFFSET_BITS | offset;
+    }
+
+    /**
+     * Free everything allocated since a mark.
+     *
+     * @param mark A mark returned by {@link #mark()}, not since reset past
+     */
+    public void reset(long mark) {
+        block = (int) (mark >>> OFFSET_BITS);
+        offset = mark & OFFSET_MASK;
+        blockBase = 0;
+        for (int i = 0; i < block; i++) {
+            blockBase += blockSizes[i];
+        }
+        stats.setInUse(blockBase + offset);
+    }
+
+    /**
+     * Free everything allocated from the arena. The blocks are kept for reuse.
+     */
+    public void reset() {
+        block = 0;
+        offset = 0;
+        blockBase = 0;
+        stats.setInUse(0);
+    }
+
+    /**
+     * @return the stats of the arena
+     */
+    public MemoryStats getStats() {
+        return stats;
+    }
+
+    /**
+     * Give the blocks back to the native allocator. The arena can't be used afterwards, but its stats stay in
+     * {@link Memory#summary()} so its high-water mark can still be read.
+     */
+    @Override
+    public void close() {
+        for (int i = 0; i < blockCount; i++) {
+            allocator.free(blocks[i]);
+            stats.reserved(-blockSizes[i]);
+        }
+        blockCount = 0;
+        reset();
+    }
+}
@@ -0,0 +1,155 @@
+package memory;
+
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinWorkerThread;
+
+/**
+ * The engine's shared memory: the native allocator everything comes from, a pool for buffers that outlive a frame,
+ * and a scratch arena per thread.
+ * <p>
+ * Memory that only lives for a frame comes from a {@link LinearArena} owned by the render loop and reset at the end
+ * of each frame. Memory needed for the length of a call, on any thread, comes from {@link #thread()}, between a
+ * {@link LinearArena#mark()} and a {@link LinearArena#reset(long)}:
+ * <pre>
+ *   LinearArena scratch = Memory.thread();
+ *   long mark = scratch.mark();
+ *   try {
+ *       ByteBuffer staging = scratch.allocate(size);
+ *       ...
+ *   } finally {
+ *       scratch.reset(mark);
+ *   }
+ * </pre>
+ * A thread's arena lives until {@link #releaseThread()}. Worker pools made with {@link #workerThreads(String)}
+ * release it as each worker retires, so pools that come and go don't leave blocks behind.
+ * <p>
+ * Every arena and pool keeps {@link MemoryStats}, and {@link #summary()} lists them all.
+ */
+public final class Memory {
+    // Thread arenas grow in blocks of this size
+    private static final long THREAD_BLOCK_BYTES = 256 * 1024;
+
+    private static final CopyOnWriteArrayList<MemoryStats> STATS = new CopyOnWriteArrayList<>();
+    private static volatile NativeAllocator allocator;
+    private static volatile BufferPool pool;
+    private static final ThreadLocal<LinearArena> THREAD_ARENAS = new ThreadLocal<>();
+
+    private Memory() {
+    }
+
+    /**
+     * Choose the native allocator. Has to happen before anything is allocated.
+     *
+     * @param nativeAllocator The allocator
+     */
+    public static synchronized void setAllocator(NativeAllocator nativeAllocator) {
+        if (allocator != null && allocator != nativeAllocator) {
+            throw new IllegalStateException("Memory has already been allocated with " + allocator.getName());
+        }
+        allocator = nativeAllocator;
+    }
+
+    /**
+     * @return the native allocator, {@link StandardAllocator#SYSTEM} unless another was set first
+     */
+    public static NativeAllocator allocator() {
+        NativeAllocator current = allocator;
+        if (current == null) {
+            synchronized (Memory.class) {
+                if (allocator == null) {
+                    allocator = StandardAllocator.SYSTEM;
+                }
+                current = allocator;
+            }
+        }
+        return current;
+    }
+
+    /**
+     * @return the shared pool for buffers that outlive a frame
+     */
+    public static BufferPool pool() {
+        BufferPool current = pool;
+        if (current == null) {
+            synchronized (Memory.class) {
+                if (pool == null) {
+                    pool = new BufferPool(allocator(), "pool");
+                }
+                current = pool;
+            }
+        }
+        return current;
+    }
+
+    /**
+     * Get the scratch arena of the calling thread, creating it on first use. It lives until the thread releases it,
+     * so anything allocated from it should be freed by resetting to a mark before returning.
+     *
+     * @return the calling thread's arena
+     */
+    public static LinearArena thread() {
+        LinearArena arena = THREAD_ARENAS.get();
+        if (arena == null) {
+            arena = new LinearArena(allocator(), THREAD_BLOCK_BYTES, "thread " + Thread.currentThread().getName());
+            THREAD_ARENAS.set(arena);
+        }
+        return arena;
+    }
+
+    /**
+     * Give the calling thread's scratch arena back to the native allocator, and drop it from {@link #summary()}.
+     * Does nothing if the thread never used one. A later {@link #thread()} starts a new arena.
+     */
+    public static void releaseThread() {
+        LinearArena arena = THREAD_ARENAS.get();
+        if (arena != null) {
+            THREAD_ARENAS.remove();
+            arena.close();
+            STATS.remove(arena.getStats());
+        }
+    }
+
+    /**
+     * Make workers for a {@link ForkJoinPool} that release their scratch arenas when they retire, whether the pool
+     * is shut down or lets an idle worker go.
+     *
+     * @param name The name of the pool, the workers are named after it
+     * @return the factory to create the pool with
+     */
+    public static ForkJoinPool.ForkJoinWorkerThreadFactory workerThreads(String name) {
+        return pool -> new Worker(pool, name);
+    }
+
+    static void register(MemoryStats stats) {
+        STATS.add(stats);
+    }
+
+    /**
+     * @return a line for every arena and pool, with its memory in use, high-water mark and reserved memory
+     */
+    public static String summary() {
+        StringBuilder summary = new StringBuilder();
+        summary.append("Native allocator: ").append(allocator().getName()).append('\n');
+        for (MemoryStats stats : STATS) {
+            summary.append(stats).append('\n');
+        }
+        return summary.toString();
+    }
+
+    /**
+     * A pool worker that releases its scratch arena on the way out.
+     */
+    private static final class Worker extends ForkJoinWorkerThread {
+        Worker(ForkJoinPool pool, String name) {
+            super(pool);
+            setName(name + "-" + getPoolIndex());
+        }
+
+        @Override
+        protected void onTermination(Throwable exception) {
+            releaseThread();
+            super.onTermination(exception);
+        }
+    }
+}
@@ -0,0 +1,89 @@
+package memory;
+
+/**
+ * Counters kept by an arena or pool: how much it has taken from its native allocator, how much of that is handed
+ * out, and the most that ever was.
+ * <p>
+ * The counters are written by whoever owns the arena or pool, without synchronization. Read from another thread,
+ * they may be a moment old.
+ */
+public final class MemoryStats {
+    private final String name;
+    private long reserved;
+    private long inUse;
+    private long peak;
+    private long allocations;
+
+    MemoryStats(String name) {
+        this.name = name;
+    }
+
+    void allocated(long bytes) {
+        inUse += bytes;
+        allocations++;
+        if (inUse > peak) {
+            peak = inUse;
+        }
+    }
+
+    void freed(long bytes) {
+        inUse -= bytes;
+    }
+
+    /**
+     * Count an allocation that brought the bytes in use up to a total, for arenas that only track where they are.
+     */
+    void allocatedUpTo(long bytes) {
+        allocations++;
+        setInUse(bytes);
+    }
+
+    void setInUse(long bytes) {
+        inUse = bytes;
+        if (inUse > peak) {
+            peak = inUse;
+        }
+    }
+
+    void reserved(long bytes) {
+        reserved += bytes;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    /**
+     * @return the bytes taken from the native allocator and not given back yet
+     */
+    public long getReserved() {
+        return reserved;
+    }
+
+    /**
+     * @return the bytes handed out and not yet freed or reset
+     */
+    public long getInUse() {
+        return inUse;
+    }
+
+    /**
+     * @return the most bytes that were in use at once
+     */
+    public long getPeak() {
+        return peak;
+    }
+
+    /**
+     * @return the number of allocations made so far
+     */
+    public long getAllocations() {
+        return allocations;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("%-20s %10d in use %10d peak %10d reserved %10d allocations", name, inUse, peak,
+                reserved, allocations);
+    }
+}
@@ -0,0 +1,27 @@
+package memory;
+
+/**
+ * Where the memory of arenas and pools ultimately comes from.
+ * See {@link StandardAllocator} for the allocators that ship with LWJGL.
+ */
+public interface NativeAllocator {
+    /**
+     * Allocate a block of memory.
+     *
+     * @param bytes The size of the block
+     * @return the address of the block, aligned to at least 16 bytes, or 0 if there isn't enough memory
+     */
+    long malloc(long bytes);
+
+    /**
+     * Free a block returned by {@link #malloc(long)}.
+     *
+     * @param address The address of the block
+     */
+    void free(long address);
+
+    /**
+     * @return a short name for the allocator, for reports
+     */
+    String getName();
+}
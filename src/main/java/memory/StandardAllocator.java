@@ -0,0 +1,79 @@
+package memory;
+
+import org.lwjgl.system.MemoryUtil;
+import org.lwjgl.system.jemalloc.JEmalloc;
+import org.lwjgl.system.rpmalloc.RPmalloc;
+
+import java.util.Locale;
+
+/**
+ * The native allocators LWJGL comes with.
+ */
+public enum StandardAllocator implements NativeAllocator {
+    /**
+     * Whatever {@link MemoryUtil} is configured to use, the C library's malloc by default.
+     */
+    SYSTEM {
+        @Override
+        public long malloc(long bytes) {
+            return MemoryUtil.nmemAlloc(bytes);
+        }
+
+        @Override
+        public void free(long address) {
+            MemoryUtil.nmemFree(address);
+        }
+    },
+    /**
+     * jemalloc, which keeps per-thread caches and holds up well against fragmentation.
+     */
+    JEMALLOC {
+        @Override
+        public long malloc(long bytes) {
+            return JEmalloc.nje_malloc(bytes);
+        }
+
+        @Override
+        public void free(long address) {
+            JEmalloc.nje_free(address);
+        }
+    },
+    /**
+     * rpmalloc, a small lock-free allocator. Every thread that uses it has to be set up first, which is done on the
+     * thread's first call.
+     */
+    RPMALLOC {
+        @Override
+        public long malloc(long bytes) {
+            initializeRpmalloc();
+            return RPmalloc.nrpmalloc(bytes);
+        }
+
+        @Override
+        public void free(long address) {
+            initializeRpmalloc();
+            RPmalloc.nrpfree(address);
+        }
+    };
+
+    private static volatile boolean rpmallocInitialized;
+
+    private static void initializeRpmalloc() {
+        if (!rpmallocInitialized) {
+            synchronized (StandardAllocator.class) {
+                if (!rpmallocInitialized) {
+                    RPmalloc.rpmalloc_initialize();
+                    rpmallocInitialized = true;
+                }
+            }
+        }
+        if (!RPmalloc.rpmalloc_is_thread_initialized()) {
+            RPmalloc.rpmalloc_thread_initialize();
+        }
+    }
+
+    @Override
+    public String getName() {
+        return name().toLowerCase(Locale.ROOT);
+    }
+}
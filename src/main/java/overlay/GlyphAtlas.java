@@ -0,0 +1,268 @@
+package overlay;
+
+import org.lwjgl.stb.STBTTBakedChar;
+import org.lwjgl.stb.STBTTFontinfo;
+import org.lwjgl.stb.STBTruetype;
+import org.lwjgl.system.MemoryStack;
+import org.lwjgl.system.MemoryUtil;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.IntBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+/**
+ * The printable ASCII characters of a font, rasterized once into a single channel bitmap with stb_truetype.
+ * <p>
+ * The bitmap holds how much of each texel a glyph covers, to be uploaded as an R8 texture. Its top left texel is
+ * fully covered and belongs to no glyph, so solid rectangles can be drawn from the same texture as the text, in
+ * the same draw call. Characters outside the atlas are drawn as '?'.
+ * <p>
+ * The bitmap is only needed until it is uploaded, {@link #free()} releases it and keeps the glyph metrics.
+ */
+public final class GlyphAtlas {
+    public static final char FIRST_CHAR = ' ';
+    public static final char LAST_CHAR = '~';
+    private static final int GLYPH_COUNT = LAST_CHAR - FIRST_CHAR + 1;
+    private static final char REPLACEMENT = '?';
+    // Atlases start this big and double in size until every glyph fits
+    private static final int MIN_SIZE = 128;
+    private static final int MAX_SIZE = 4096;
+
+    // Per glyph: the rectangle in the atlas, in texels, the offset of its top left corner from the pen, and how far
+    // the pen moves on after it
+    private static final int GLYPH_X0 = 0;
+    private static final int GLYPH_Y0 = 1;
+    private static final int GLYPH_X1 = 2;
+    private static final int GLYPH_Y1 = 3;
+    private static final int GLYPH_X_OFFSET = 4;
+    private static final int GLYPH_Y_OFFSET = 5;
+    private static final int GLYPH_ADVANCE = 6;
+    private static final int GLYPH_FLOATS = 7;
+
+    // Fonts that come with Windows, Linux distributions and macOS, monospaced ones first so columns line up
+    private static final String[] SYSTEM_FONTS = {
+            "C:/Windows/Fonts/consola.ttf",
+            "/usr/share/fonts/truetype/dejavu/DejaVuSansMono.ttf",
+            "/usr/share/fonts/dejavu/DejaVuSansMono.ttf",
+            "/usr/share/fonts/TTF/DejaVuSansMono.ttf",
+            "/usr/share/fonts/truetype/liberation/LiberationMono-Regular.ttf",
+            "/System/Library/Fonts/Supplemental/Courier New.ttf",
+            "/Library/Fonts/Courier New.ttf",
+            "C:/Windows/Fonts/arial.ttf",
+            "/usr/share/fonts/truetype/dejavu/DejaVuSans.ttf",
+            "/System/Library/Fonts/Supplemental/Arial.ttf",
+    };
+
+    private final int width;
+    private final int height;
+    private ByteBuffer pixels;
+    private final float[] glyphs;
+    private final float ascent;
+    private final float lineHeight;
+
+    private GlyphAtlas(int width, int height, ByteBuffer pixels, float[] glyphs, float ascent, float lineHeight) {
+        this.width = width;
+        this.height = height;
+        this.pixels = pixels;
+        this.glyphs = glyphs;
+        this.ascent = ascent;
+        this.lineHeight = lineHeight;
+    }
+
+    /**
+     * Rasterize a TrueType font file.
+     *
+     * @param path        The .ttf file, collections of several fonts aren't supported
+     * @param pixelHeight The height of a line of text, in pixels
+     * @throws IOException if the file can't be read
+     */
+    public static GlyphAtlas load(Path path, float pixelHeight) throws IOException {
+        byte[] bytes = Files.readAllBytes(path);
+        ByteBuffer font = MemoryUtil.memAlloc(bytes.length);
+        try {
+            font.put(bytes).flip();
+            return bake(font, pixelHeight);
+        } catch (IllegalArgumentException e) {
+            throw new IOException("Can't read font " + path + ": " + e.getMessage(), e);
+        } finally {
+            MemoryUtil.memFree(font);
+        }
+    }
+
+    /**
+     * Rasterize a TrueType font.
+     *
+     * @param font        The contents of a .ttf file, only read during the call
+     * @param pixelHeight The height of a line of text, in pixels
+     */
+    public static GlyphAtlas bake(ByteBuffer font, float pixelHeight) {
+        float ascent;
+        float lineHeight;
+        try (MemoryStack stack = MemoryStack.stackPush()) {
+            STBTTFontinfo info = STBTTFontinfo.malloc(stack);
+            if (!STBTruetype.stbtt_InitFont(info, font)) {
+                throw new IllegalArgumentException("Not a TrueType font");
+            }
+            IntBuffer ascender = stack.mallocInt(1);
+            IntBuffer descender = stack.mallocInt(1);
+            IntBuffer lineGap = stack.mallocInt(1);
+            STBTruetype.stbtt_GetFontVMetrics(info, ascender, descender, lineGap);
+            float scale = STBTruetype.stbtt_ScaleForPixelHeight(info, pixelHeight);
+            ascent = Math.round(ascender.get(0) * scale);
+            lineHeight = Math.round((ascender.get(0) - descender.get(0) + lineGap.get(0)) * scale);
+        }
+
+        try (STBTTBakedChar.Buffer baked = STBTTBakedChar.malloc(GLYPH_COUNT)) {
+            for (int size = MIN_SIZE; size <= MAX_SIZE; size *= 2) {
+                ByteBuffer pixels = MemoryUtil.memCalloc(size * size);
+                // A negative result is the number of glyphs that fit, the rest didn't
+                if (STBTruetype.stbtt_BakeFontBitmap(font, pixelHeight, pixels, size, size, FIRST_CHAR, baked) > 0) {
+                    // Baking leaves a texel of space at the top and left, the white texel goes there
+                    pixels.put(0, (byte) 0xFF);
+                    return new GlyphAtlas(size, size, pixels, metrics(baked), ascent, lineHeight);
+                }
+                MemoryUtil.memFree(pixels);
+            }
+        }
+        throw new IllegalArgumentException("Glyphs of " + pixelHeight + " pixels don't fit in " + MAX_SIZE
+                + " by " + MAX_SIZE + " texels");
+    }
+
+    private static float[] metrics(STBTTBakedChar.Buffer baked) {
+        float[] glyphs = new float[GLYPH_COUNT * GLYPH_FLOATS];
+        for (int i = 0; i < GLYPH_COUNT; i++) {
+            STBTTBakedChar glyph = baked.get(i);
+            int offset = i * GLYPH_FLOATS;
+            glyphs[offset + GLYPH_X0] = glyph.x0();
+            glyphs[offset + GLYPH_Y0] = glyph.y0();
+            glyphs[offset + GLYPH_X1] = glyph.x1();
+            glyphs[offset + GLYPH_Y1] = glyph.y1();
+            glyphs[offset + GLYPH_X_OFFSET] = glyph.xoff();
+            glyphs[offset + GLYPH_Y_OFFSET] = glyph.yoff();
+            glyphs[offset + GLYPH_ADVANCE] = glyph.xadvance();
+        }
+        return glyphs;
+    }
+
+    /**
+     * Make an atlas without glyphs, for when there is no font. Text takes up no space, rectangles still draw.
+     */
+    public static GlyphAtlas empty() {
+        ByteBuffer pixels = MemoryUtil.memCalloc(MIN_SIZE * MIN_SIZE);
+        pixels.put(0, (byte) 0xFF);
+        return new GlyphAtlas(MIN_SIZE, MIN_SIZE, pixels, new float[GLYPH_COUNT * GLYPH_FLOATS], 0.0f, 0.0f);
+    }
+
+    /**
+     * @return the first font file found in the usual places on Windows, Linux and macOS, or null if there is none
+     */
+    public static Path findSystemFont() {
+        for (String candidate : SYSTEM_FONTS) {
+            Path path = Path.of(candidate);
+            if (Files.isRegularFile(path)) {
+                return path;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * @return the index of the glyph a character is drawn with
+     */
+    public int glyph(char c) {
+        if (c < FIRST_CHAR || c > LAST_CHAR) {
+            c = REPLACEMENT;
+        }
+        return c - FIRST_CHAR;
+    }
+
+    /**
+     * @return the left edge of the glyph in the atlas, in texels
+     */
+    public float getX0(int glyph) {
+        return glyphs[glyph * GLYPH_FLOATS + GLYPH_X0];
+    }
+
+    /**
+     * @return the top edge of the glyph in the atlas, in texels
+     */
+    public float getY0(int glyph) {
+        return glyphs[glyph * GLYPH_FLOATS + GLYPH_Y0];
+    }
+
+    /**
+     * @return the right edge of the glyph in the atlas, in texels
+     */
+    public float getX1(int glyph) {
+        return glyphs[glyph * GLYPH_FLOATS + GLYPH_X1];
+    }
+
+    /**
+     * @return the bottom edge of the glyph in the atlas, in texels
+     */
+    public float getY1(int glyph) {
+        return glyphs[glyph * GLYPH_FLOATS + GLYPH_Y1];
+    }
+
+    /**
+     * @return how far right of the pen the glyph's left edge is drawn, in pixels
+     */
+    public float getXOffset(int glyph) {
+        return glyphs[glyph * GLYPH_FLOATS + GLYPH_X_OFFSET];
+    }
+
+    /**
+     * @return how far below the baseline the glyph's top edge is drawn, in pixels, negative above it
+     */
+    public float getYOffset(int glyph) {
+        return glyphs[glyph * GLYPH_FLOATS + GLYPH_Y_OFFSET];
+    }
+
+    /**
+     * @return how far the pen moves right after the glyph, in pixels
+     */
+    public float getAdvance(int glyph) {
+        return glyphs[glyph * GLYPH_FLOATS + GLYPH_ADVANCE];
+    }
+
+    /**
+     * @return the distance from the top of a line to its baseline, in pixels
+     */
+    public float getAscent() {
+        return ascent;
+    }
+
+    /**
+     * @return the distance from one line to the next, in pixels
+     */
+    public float getLineHeight() {
+        return lineHeight;
+    }
+
+    public int getWidth() {
+        return width;
+    }
+
+    public int getHeight() {
+        return height;
+    }
+
+    /**
+     * @return the coverage of each texel, a byte each, row by row from the top, or null once freed
+     */
+    public ByteBuffer getPixels() {
+        return pixels;
+    }
+
+    /**
+     * Release the bitmap, once it has been uploaded. The glyph metrics stay usable.
+     */
+    public void free() {
+        if (pixels != null) {
+            MemoryUtil.memFree(pixels);
+            pixels = null;
+        }
+    }
+}
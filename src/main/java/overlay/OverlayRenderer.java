@@ -0,0 +1,325 @@
+package overlay;
+
+import memory.LinearArena;
+import memory.Memory;
+import org.lwjgl.opengl.GL11;
+import org.lwjgl.opengl.GL12;
+import org.lwjgl.opengl.GL15;
+import org.lwjgl.opengl.GL30;
+import rendering.GpuResources;
+import rendering.RenderBackend;
+import rendering.StateTracker;
+import rendering.VertexLayout;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Draws text, rectangles and graphs over the scene, all of them with a single draw call.
+ * <p>
+ * Everything is a quad in pixels from the top left of the window, textured from a {@link GlyphAtlas}: glyphs from
+ * their part of it, and solid shapes from its fully covered texel. The quads are collected on the CPU, in the
+ * frame's arena, between {@link #begin(LinearArena)} and {@link #end()}, which uploads them, and then drawn every
+ * frame by {@link #draw}. Stats change a few times a second at most, so the overlay only needs to be rebuilt that
+ * often, and a frame without a rebuild costs the overlay a handful of binds and one draw.
+ * <p>
+ * Colors are packed as 0xRRGGBBAA.
+ */
+public class OverlayRenderer {
+    // Plenty for a screen of stats, and the four corners of every quad are in reach of 16 bit indices
+    public static final int MAX_QUADS = 4096;
+
+    private static final VertexLayout LAYOUT = VertexLayout.builder()
+            .add(0, 2, VertexLayout.Type.FLOAT, false)
+            .add(1, 2, VertexLayout.Type.UNSIGNED_SHORT, true)
+            .add(2, 4, VertexLayout.Type.UNSIGNED_BYTE, true)
+            .build();
+    private static final int VERTEX_BYTES = LAYOUT.getStride();
+    private static final int QUAD_BYTES = 4 * VERTEX_BYTES;
+
+    private static final String CATEGORY = "overlay";
+
+    private final RenderBackend backend;
+    private final GpuResources resources;
+    private final GlyphAtlas atlas;
+    // Handles in the registry
+    private final int vao;
+    private final int vbo;
+    private final int ebo;
+    private final int texture;
+
+    // The atlas size, to turn texels into texture coordinates
+    private final float texelWidth;
+    private final float texelHeight;
+    // Texture coordinates of the fully covered texel, as unsigned shorts
+    private final short whiteU;
+    private final short whiteV;
+
+    // CPU copy of the quads being built, in the arena of the frame building them
+    private ByteBuffer vertices;
+    private int quadCount;
+    private int droppedQuads;
+    // Quads uploaded by the last end(), the ones drawn
+    private int uploadedQuads;
+    private int buildCount;
+
+    /**
+     * Create an overlay and upload its atlas. The atlas's bitmap can be freed afterwards.
+     *
+     * @param resources The registry to create the overlay's buffers and texture in
+     * @param atlas     The glyphs to draw text with
+     */
+    public OverlayRenderer(GpuResources resources, GlyphAtlas atlas) {
+        if (atlas.getPixels() == null) {
+            throw new IllegalArgumentException("The atlas's bitmap was already freed");
+        }
+        this.backend = resources.getBackend();
+        this.resources = resources;
+        this.atlas = atlas;
+        this.texelWidth = 1.0f / atlas.getWidth();
+        this.texelHeight = 1.0f / atlas.getHeight();
+        this.whiteU = unorm16(0.5f * texelWidth);
+        this.whiteV = unorm16(0.5f * texelHeight);
+
+        vao = resources.createVertexArray(CATEGORY);
+        backend.bindVertexArray(resources.vertexArray(vao));
+
+        vbo = resources.createBuffer(CATEGORY);
+        backend.bindBuffer(GL15.GL_ARRAY_BUFFER, resources.buffer(vbo));
+        backend.bufferData(GL15.GL_ARRAY_BUFFER, (long) MAX_QUADS * QUAD_BYTES, GL15.GL_DYNAMIC_DRAW);
+        resources.setSize(vbo, (long) MAX_QUADS * QUAD_BYTES);
+        LAYOUT.apply(backend);
+
+        // Every quad is two triangles of the same four corners, so the indices never change
+        ebo = resources.createBuffer(CATEGORY);
+        backend.bindBuffer(GL15.GL_ELEMENT_ARRAY_BUFFER, resources.buffer(ebo));
+        LinearArena scratch = Memory.thread();
+        long mark = scratch.mark();
+        try {
+            ByteBuffer indices = scratch.allocate(MAX_QUADS * 6 * Short.BYTES);
+            for (int quad = 0; quad < MAX_QUADS; quad++) {
+                int first = quad * 4;
+                indices.putShort((short) first).putShort((short) (first + 1)).putShort((short) (first + 2))
+                        .putShort((short) first).putShort((short) (first + 2)).putShort((short) (first + 3));
+            }
+            indices.flip();
+            resources.setSize(ebo, indices.remaining());
+            backend.bufferData(GL15.GL_ELEMENT_ARRAY_BUFFER, indices, GL15.GL_STATIC_DRAW);
+        } finally {
+            scratch.reset(mark);
+        }
+
+        backend.bindBuffer(GL15.GL_ARRAY_BUFFER, 0);
+        backend.bindVertexArray(0);
+
+        texture = resources.createTexture(CATEGORY);
+        backend.bindTexture(GL11.GL_TEXTURE_2D, resources.texture(texture));
+        // Rows of single bytes aren't necessarily 4 byte aligned, but power of two atlases always are
+        backend.texImage2D(GL11.GL_TEXTURE_2D, 0, GL30.GL_R8, atlas.getWidth(), atlas.getHeight(), GL11.GL_RED,
+                GL11.GL_UNSIGNED_BYTE, atlas.getPixels());
+        resources.setSize(texture, (long) atlas.getWidth() * atlas.getHeight());
+        // Glyphs are drawn at the size they were rasterized at, texel for pixel
+        backend.texParameteri(GL11.GL_TEXTURE_2D, GL11.GL_TEXTURE_MIN_FILTER, GL11.GL_NEAREST);
+        backend.texParameteri(GL11.GL_TEXTURE_2D, GL11.GL_TEXTURE_MAG_FILTER, GL11.GL_NEAREST);
+        backend.texParameteri(GL11.GL_TEXTURE_2D, GL11.GL_TEXTURE_WRAP_S, GL12.GL_CLAMP_TO_EDGE);
+        backend.texParameteri(GL11.GL_TEXTURE_2D, GL11.GL_TEXTURE_WRAP_T, GL12.GL_CLAMP_TO_EDGE);
+        backend.bindTexture(GL11.GL_TEXTURE_2D, 0);
+    }
+
+    private static short unorm16(float value) {
+        return (short) Math.round(Math.max(0.0f, Math.min(1.0f, value)) * 0xFFFF);
+    }
+
+    /**
+     * Start building the overlay again. What was last uploaded is drawn until {@link #end()}.
+     *
+     * @param frame The arena of the current frame, to build the quads in until they are uploaded
+     */
+    public void begin(LinearArena frame) {
+        vertices = frame.allocate(MAX_QUADS * QUAD_BYTES);
+        quadCount = 0;
+        droppedQuads = 0;
+    }
+
+    /**
+     * Upload the quads added since {@link #begin(LinearArena)}, to be drawn from now on. The quads' memory is
+     * left to the frame's arena.
+     */
+    public void end() {
+        uploadedQuads = quadCount;
+        buildCount++;
+        if (quadCount > 0) {
+            vertices.flip();
+            backend.bindBuffer(GL15.GL_ARRAY_BUFFER, resources.buffer(vbo));
+            // Orphan the old contents, so a frame still drawing them doesn't stall the upload
+            backend.bufferData(GL15.GL_ARRAY_BUFFER, (long) MAX_QUADS * QUAD_BYTES, GL15.GL_DYNAMIC_DRAW);
+            backend.bufferSubData(GL15.GL_ARRAY_BUFFER, 0, vertices);
+            backend.bindBuffer(GL15.GL_ARRAY_BUFFER, 0);
+        }
+        vertices = null;
+    }
+
+    /**
+     * Add a line or lines of text, from the top left corner of the first line.
+     *
+     * @param x     The left edge of the text, in pixels
+     * @param y     The top of the first line, in pixels
+     * @param text  The text, '\n' starts a new line at x
+     * @param color The color of the text, 0xRRGGBBAA
+     * @return the right edge of the last line, where more text could follow on
+     */
+    public float text(float x, float y, CharSequence text, int color) {
+        float penX = x;
+        float baseline = y + atlas.getAscent();
+        for (int i = 0; i < text.length(); i++) {
+            char c = text.charAt(i);
+            if (c == '\n') {
+                penX = x;
+                baseline += atlas.getLineHeight();
+                continue;
+            }
+            int glyph = atlas.glyph(c);
+            float x0 = atlas.getX0(glyph);
+            float y0 = atlas.getY0(glyph);
+            float x1 = atlas.getX1(glyph);
+            float y1 = atlas.getY1(glyph);
+            if (x1 > x0 && y1 > y0) {
+                // Glyphs start on whole pixels, so each texel lands on exactly one
+                float left = (float) Math.floor(penX + atlas.getXOffset(glyph) + 0.5f);
+                float top = (float) Math.floor(baseline + atlas.getYOffset(glyph) + 0.5f);
+                quad(left, top, left + x1 - x0, top + y1 - y0, unorm16(x0 * texelWidth), unorm16(y0 * texelHeight),
+                        unorm16(x1 * texelWidth), unorm16(y1 * texelHeight), color);
+            }
+            penX += atlas.getAdvance(glyph);
+        }
+        return penX;
+    }
+
+    /**
+     * @return the width of a line of text, in pixels
+     */
+    public float getTextWidth(CharSequence text) {
+        float width = 0.0f;
+        for (int i = 0; i < text.length(); i++) {
+            width += atlas.getAdvance(atlas.glyph(text.charAt(i)));
+        }
+        return width;
+    }
+
+    /**
+     * @return the distance from one line of text to the next, in pixels
+     */
+    public float getLineHeight() {
+        return atlas.getLineHeight();
+    }
+
+    /**
+     * Add a solid rectangle.
+     *
+     * @param x      The left edge, in pixels
+     * @param y      The top edge, in pixels
+     * @param width  The width, in pixels
+     * @param height The height, in pixels
+     * @param color  The color, 0xRRGGBBAA
+     */
+    public void rect(float x, float y, float width, float height, int color) {
+        if (width <= 0.0f || height <= 0.0f) {
+            return;
+        }
+        quad(x, y, x + width, y + height, whiteU, whiteV, whiteU, whiteV, color);
+    }
+
+    /**
+     * Add a bar graph of a series of values, oldest on the left, with bars growing up from the bottom edge.
+     *
+     * @param x      The left edge, in pixels
+     * @param y      The top edge, in pixels
+     * @param width  The width, in pixels, shared evenly between the bars
+     * @param height The height of a bar at the full scale, in pixels
+     * @param values The values
+     * @param count  The number of values to draw, from the start of the array
+     * @param scale  The value of a full height bar, larger values are cut off there
+     * @param color  The color of the bars, 0xRRGGBBAA
+     */
+    public void graph(float x, float y, float width, float height, long[] values, int count, long scale, int color) {
+        if (count <= 0 || scale <= 0) {
+            return;
+        }
+        float barWidth = width / count;
+        float bottom = y + height;
+        for (int i = 0; i < count; i++) {
+            float barHeight = height * Math.min(1.0f, (float) values[i] / scale);
+            rect(x + i * barWidth, bottom - barHeight, barWidth, barHeight, color);
+        }
+    }
+
+    private void quad(float x0, float y0, float x1, float y1, short u0, short v0, short u1, short v1, int color) {
+        if (quadCount == MAX_QUADS) {
+            droppedQuads++;
+            return;
+        }
+        vertex(x0, y0, u0, v0, color);
+        vertex(x1, y0, u1, v0, color);
+        vertex(x1, y1, u1, v1, color);
+        vertex(x0, y1, u0, v1, color);
+        quadCount++;
+    }
+
+    private void vertex(float x, float y, short u, short v, int color) {
+        // The color's bytes go out red first, whatever the byte order of the buffer
+        vertices.putFloat(x).putFloat(y).putShort(u).putShort(v)
+                .put((byte) (color >>> 24)).put((byte) (color >>> 16)).put((byte) (color >>> 8)).put((byte) color);
+    }
+
+    /**
+     * Draw what was last uploaded on top of the frame, with blending on and depth testing off for the draw.
+     * The overlay shader program's projection must map pixels from the top left of the window to clip space.
+     *
+     * @param tracker The tracker to bind and draw through
+     * @param program The GL name of the overlay shader program
+     */
+    public void draw(StateTracker tracker, int program) {
+        if (uploadedQuads == 0) {
+            return;
+        }
+        backend.disable(GL11.GL_DEPTH_TEST);
+        backend.enable(GL11.GL_BLEND);
+        backend.blendFunc(GL11.GL_SRC_ALPHA, GL11.GL_ONE_MINUS_SRC_ALPHA);
+        tracker.useProgram(program);
+        tracker.bindVertexArray(resources.vertexArray(vao));
+        tracker.bindTexture(GL11.GL_TEXTURE_2D, resources.texture(texture));
+        tracker.drawElements(GL11.GL_TRIANGLES, uploadedQuads * 6, GL11.GL_UNSIGNED_SHORT, 0);
+        backend.disable(GL11.GL_BLEND);
+        backend.enable(GL11.GL_DEPTH_TEST);
+    }
+
+    /**
+     * @return the number of quads drawn by {@link #draw}
+     */
+    public int getQuadCount() {
+        return uploadedQuads;
+    }
+
+    /**
+     * @return the number of times the overlay was built and uploaded
+     */
+    public int getBuildCount() {
+        return buildCount;
+    }
+
+    /**
+     * @return the number of quads left out of the last build for going over {@link #MAX_QUADS}
+     */
+    public int getDroppedQuads() {
+        return droppedQuads;
+    }
+
+    /**
+     * Release the overlay's buffers, vertex array and texture.
+     */
+    public void delete() {
+        resources.release(vao);
+        resources.release(vbo);
+        resources.release(ebo);
+        resources.release(texture);
+    }
+}
@@ -0,0 +1,152 @@
+package overlay;
+
+import memory.LinearArena;
+import profiling.FrameProfiler;
+import profiling.Histogram;
+import rendering.StateTracker;
+import rendering.TextureManager;
+import voxel.ChunkRenderer;
+
+import java.io.IOException;
+import java.nio.file.Path;
+
+/**
+ * Lays out the stats drawn over the scene: the frame rate, frame and phase times, what was drawn, and a graph of
+ * recent frame times, in the top left corner of the window.
+ * <p>
+ * The stats are laid out again a few times a second, which is as often as anyone can read them, and drawn as they
+ * were last laid out in between. Laying them out doesn't allocate.
+ */
+public class StatsOverlay {
+    // The stats are laid out this often
+    private static final long REFRESH_NANOS = 250_000_000L;
+    private static final float FONT_PIXELS = 16.0f;
+    private static final float MARGIN = 8.0f;
+    private static final float WIDTH = 320.0f;
+    // The graph has a bar for each recent frame, and is as tall as two frames at 60 FPS
+    private static final int GRAPH_FRAMES = 300;
+    private static final float GRAPH_HEIGHT = 60.0f;
+    private static final long GRAPH_SCALE_NANOS = 33_333_333L;
+    private static final long TARGET_FRAME_NANOS = 16_666_667L;
+    private static final int TEXT_COLOR = 0xFFFFFFFF;
+    private static final int BACKGROUND_COLOR = 0x000000A0;
+    private static final int GRAPH_COLOR = 0x40D040FF;
+    private static final int TARGET_COLOR = 0xFF4040FF;
+    // Columns of the phase table, in characters
+    private static final int P50_COLUMN = 11;
+    private static final int P99_COLUMN = 22;
+
+    private final OverlayRenderer overlay;
+    private final FrameProfiler profiler;
+    private final TextBuffer text = new TextBuffer();
+    private final long[] recentFrameTimes = new long[GRAPH_FRAMES];
+    private long builtAt;
+
+    /**
+     * @param overlay  The overlay to lay the stats out on, which the stats take over
+     * @param profiler The profiler timing the frames
+     */
+    public StatsOverlay(OverlayRenderer overlay, FrameProfiler profiler) {
+        this.overlay = overlay;
+        this.profiler = profiler;
+        // Lay out the stats on the first update
+        this.builtAt = System.nanoTime() - REFRESH_NANOS;
+    }
+
+    /**
+     * Rasterize the first font found on the system for the stats. Without one only the graph is drawn.
+     *
+     * @return the glyphs to create the overlay with
+     */
+    public static GlyphAtlas loadFont() {
+        Path font = GlyphAtlas.findSystemFont();
+        if (font != null) {
+            try {
+                return GlyphAtlas.load(font, FONT_PIXELS);
+            } catch (IOException e) {
+                System.err.println("Failed to load the overlay font: " + e.getMessage());
+            }
+        } else {
+            System.err.println("No font found, the overlay only shows its graph");
+        }
+        return GlyphAtlas.empty();
+    }
+
+    /**
+     * Lay out the stats again, if it has been long enough since the last time.
+     *
+     * @param now      The current time, in nanoseconds
+     * @param frame    The arena of the current frame
+     * @param fps      The frame rate
+     * @param chunks   The renderer of the voxel world, for how many chunks were drawn and culled
+     * @param tracker  The state tracker the scene was drawn through, for its draws and binds
+     * @param textures The manager of the scene's textures, for their memory
+     * @return true if the stats were laid out again
+     */
+    public boolean update(long now, LinearArena frame, double fps, ChunkRenderer chunks, StateTracker tracker,
+                          TextureManager textures) {
+        if (now - builtAt < REFRESH_NANOS) {
+            return false;
+        }
+        builtAt = now;
+
+        float x = MARGIN;
+        float y = MARGIN;
+        float lineHeight = overlay.getLineHeight();
+        int lines = 5 + profiler.getPhaseCount();
+        float padding = MARGIN / 2.0f;
+
+        overlay.begin(frame);
+        // Quads are drawn in the order they are added, so the background goes first
+        overlay.rect(x - padding, y - padding, WIDTH, lines * lineHeight + GRAPH_HEIGHT + 2.0f * padding,
+                BACKGROUND_COLOR);
+
+        text.clear().append("FPS ").append(fps, 1)
+                .append("  last ").append(profiler.getLastFrameTime() / 1e6, 2).append(" ms")
+                .append("  hitches ").append(profiler.getHitchCount());
+        y = line(x, y);
+
+        text.clear().padTo(P50_COLUMN).append("p50 ms").padTo(P99_COLUMN).append("p99 ms");
+        y = line(x, y);
+        appendPercentiles("frame", profiler.getFrameTimes());
+        y = line(x, y);
+        for (int phase = 0; phase < profiler.getPhaseCount(); phase++) {
+            appendPercentiles(profiler.getPhaseName(phase), profiler.getPhaseTimes(phase));
+            y = line(x, y);
+        }
+
+        text.clear().append("chunks ").append(chunks.getVisibleCount()).append(" drawn, ")
+                .append(chunks.getCulledCount()).append(" culled, ")
+                .append(chunks.getOccludedCount()).append(" occluded");
+        y = line(x, y);
+        text.clear().append("draws ").append(tracker.getDrawCalls())
+                .append(", binds ").append(tracker.getStateChanges())
+                .append(", skipped ").append(tracker.getStateChangesSkipped())
+                .append(", textures ").append(textures.getResidentBytes() / (1024.0 * 1024.0), 1).append(" MB");
+        y = line(x, y);
+
+        // A bar per frame, and a line at the time a frame has at 60 FPS
+        float graphWidth = WIDTH - 2.0f * padding;
+        int frames = profiler.getRecentFrameTimes(recentFrameTimes);
+        overlay.graph(x, y, graphWidth, GRAPH_HEIGHT, recentFrameTimes, frames, GRAPH_SCALE_NANOS, GRAPH_COLOR);
+        float target = GRAPH_HEIGHT * TARGET_FRAME_NANOS / GRAPH_SCALE_NANOS;
+        overlay.rect(x, y + GRAPH_HEIGHT - target, graphWidth, 1.0f, TARGET_COLOR);
+        overlay.end();
+        return true;
+    }
+
+    private void appendPercentiles(String name, Histogram histogram) {
+        text.clear().append(name).padTo(P50_COLUMN).append(histogram.getPercentile(50) / 1e6, 2)
+                .padTo(P99_COLUMN).append(histogram.getPercentile(99) / 1e6, 2);
+    }
+
+    /**
+     * Add the text buffer as a line of text.
+     *
+     * @return the top of the next line
+     */
+    private float line(float x, float y) {
+        overlay.text(x, y, text, TEXT_COLOR);
+        return y + overlay.getLineHeight();
+    }
+}
@@ -0,0 +1,164 @@
+package overlay;
+
+import java.util.Arrays;
+
+/**
+ * A reusable buffer of characters that numbers can be appended to without allocating.
+ * <p>
+ * String.format and string concatenation allocate on every call, which shows up in frame times when stats are
+ * formatted every frame. A text buffer is cleared and refilled instead, and only allocates when it has to grow.
+ * Decimals are rounded to a fixed number of places and always use a '.', whatever the locale.
+ */
+public final class TextBuffer implements CharSequence {
+    private static final int INITIAL_CAPACITY = 64;
+    private static final int MAX_DECIMALS = 9;
+    private static final long[] POWERS_OF_TEN = {1L, 10L, 100L, 1_000L, 10_000L, 100_000L, 1_000_000L, 10_000_000L,
+            100_000_000L, 1_000_000_000L};
+
+    private char[] chars;
+    private int length;
+
+    public TextBuffer() {
+        this(INITIAL_CAPACITY);
+    }
+
+    /**
+     * @param capacity The number of characters the buffer holds before it has to grow
+     */
+    public TextBuffer(int capacity) {
+        chars = new char[Math.max(1, capacity)];
+    }
+
+    /**
+     * Empty the buffer, keeping its memory.
+     *
+     * @return this buffer
+     */
+    public TextBuffer clear() {
+        length = 0;
+        return this;
+    }
+
+    public TextBuffer append(char c) {
+        ensureCapacity(length + 1);
+        chars[length++] = c;
+        return this;
+    }
+
+    public TextBuffer append(CharSequence text) {
+        int count = text.length();
+        ensureCapacity(length + count);
+        for (int i = 0; i < count; i++) {
+            chars[length + i] = text.charAt(i);
+        }
+        length += count;
+        return this;
+    }
+
+    /**
+     * Append a whole number in decimal.
+     *
+     * @return this buffer
+     */
+    public TextBuffer append(long value) {
+        // Digits are taken off a negative value, so Long.MIN_VALUE doesn't overflow
+        boolean negative = value < 0;
+        if (!negative) {
+            value = -value;
+        }
+        int digits = 1;
+        for (long rest = value / 10; rest != 0; rest /= 10) {
+            digits++;
+        }
+        ensureCapacity(length + digits + 1);
+        if (negative) {
+            chars[length++] = '-';
+        }
+        int end = length + digits;
+        for (int i = end - 1; i >= length; i--) {
+            chars[i] = (char) ('0' - value % 10);
+            value /= 10;
+        }
+        length = end;
+        return this;
+    }
+
+    /**
+     * Append a number with a fixed number of decimals, rounded half away from zero.
+     *
+     * @param decimals The number of digits after the point, at most 9. None leaves out the point.
+     * @return this buffer
+     */
+    public TextBuffer append(double value, int decimals) {
+        if (decimals < 0 || decimals > MAX_DECIMALS) {
+            throw new IllegalArgumentException("Can't append " + decimals + " decimals");
+        }
+        if (Double.isNaN(value)) {
+            return append("NaN");
+        }
+        if (Double.isInfinite(value)) {
+            return append(value > 0 ? "Infinity" : "-Infinity");
+        }
+        long scale = POWERS_OF_TEN[decimals];
+        double scaled = Math.abs(value) * scale + 0.5;
+        if (scaled >= Long.MAX_VALUE) {
+            // Too big for the decimals to matter, the whole part saturates like a cast does
+            return append((long) value);
+        }
+        long fixed = (long) scaled;
+        if (value < 0 && fixed != 0) {
+            append('-');
+        }
+        append(fixed / scale);
+        if (decimals > 0) {
+            append('.');
+            long fraction = fixed % scale;
+            for (long digit = scale / 10; digit > 0; digit /= 10) {
+                append((char) ('0' + fraction / digit % 10));
+            }
+        }
+        return this;
+    }
+
+    /**
+     * Append spaces until the buffer is at least a given length, to line up columns.
+     *
+     * @return this buffer
+     */
+    public TextBuffer padTo(int column) {
+        ensureCapacity(column);
+        while (length < column) {
+            chars[length++] = ' ';
+        }
+        return this;
+    }
+
+    private void ensureCapacity(int capacity) {
+        if (capacity > chars.length) {
+            chars = Arrays.copyOf(chars, Math.max(capacity, chars.length * 2));
+        }
+    }
+
+    @Override
+    public int length() {
+        return length;
+    }
+
+    @Override
+    public char charAt(int index) {
+        if (index < 0 || index >= length) {
+            throw new IndexOutOfBoundsException("Index " + index + " of " + length + " characters");
+        }
+        return chars[index];
+    }
+
+    @Override
+    public CharSequence subSequence(int start, int end) {
+        return toString().substring(start, end);
+    }
+
+    @Override
+    public String toString() {
+        return new String(chars, 0, length);
+    }
+}
@@ -0,0 +1,51 @@
+package physics;
+
+import voxel.Chunk;
+import voxel.World;
+
+/**
+ * Reads blocks of a {@link World} one after another, keeping the chunk of the last block at hand.
+ * Walks through the world visit many blocks of the same chunk in a row, so most reads skip the chunk lookup.
+ * Belongs to one thread.
+ */
+final class BlockCursor {
+    // Chunks are a power of two wide, so world coordinates split into chunk and local ones with a shift and a mask
+    private static final int CHUNK_SHIFT = Integer.numberOfTrailingZeros(Chunk.SIZE);
+    private static final int LOCAL_MASK = Chunk.SIZE - 1;
+
+    private final World world;
+    private int chunkX, chunkY, chunkZ;
+    private Chunk chunk;
+    private boolean valid;
+
+    BlockCursor(World world) {
+        this.world = world;
+    }
+
+    /**
+     * @return the block at the given world coordinates, air outside the world
+     */
+    short getBlock(int x, int y, int z) {
+        int chunkX = x >> CHUNK_SHIFT;
+        int chunkY = y >> CHUNK_SHIFT;
+        int chunkZ = z >> CHUNK_SHIFT;
+        if (!valid || chunkX != this.chunkX || chunkY != this.chunkY || chunkZ != this.chunkZ) {
+            chunk = world.getChunk(chunkX, chunkY, chunkZ);
+            this.chunkX = chunkX;
+            this.chunkY = chunkY;
+            this.chunkZ = chunkZ;
+            valid = true;
+        }
+        if (chunk == null) {
+            return Chunk.AIR;
+        }
+        return chunk.getBlock(x & LOCAL_MASK, y & LOCAL_MASK, z & LOCAL_MASK);
+    }
+
+    /**
+     * Forget the chunk, e.g. after blocks were set and it may have been created.
+     */
+    void invalidate() {
+        valid = false;
+    }
+}
@@ -0,0 +1,675 @@
+package physics;
+
+import java.util.Arrays;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * Finds which objects overlap a box or a ray, and which objects overlap each other, among any number of objects with
+ * axis-aligned bounding boxes.
+ * <p>
+ * Objects are kept in a spatial hash. Space is cut into cubic cells, each object is listed in every cell its box
+ * touches, and the lists are stored in one flat array grouped by a hash of the cell's coordinates, so there is no
+ * grid to size up front and empty space costs nothing. Boxes touching more than {@value #MAX_CELLS_PER_OBJECT}
+ * cells are kept in a separate list that every query checks instead.
+ * <p>
+ * Adding, moving and removing objects only records their boxes. {@link #rebuild()} then lists every object again,
+ * which is a few linear passes and no sorting: the cells of the objects are counted and written in parallel on the
+ * common fork join pool, and a counting sort groups them by hash. Queries see the objects as of the last rebuild,
+ * and the public ones rebuild first if anything changed.
+ * <p>
+ * Queries don't allocate, and once rebuilt any number of them can run at once on different threads, as long as
+ * nothing is added, moved or removed meanwhile. Everything else belongs to one thread.
+ */
+public class Broadphase {
+    /**
+     * The id of no object.
+     */
+    public static final int NONE = -1;
+
+    private static final int INITIAL_CAPACITY = 256;
+    // Below this many objects, rebuilding and finding pairs on one thread is quicker than splitting the work
+    private static final int PARALLEL_THRESHOLD = 4096;
+    private static final int BATCH_SIZE = 1024;
+    private static final int BUCKETS_PER_BATCH = 4096;
+    private static final int MAX_CELLS_PER_OBJECT = 64;
+    private static final int MIN_BUCKETS = 16;
+    private static final int KEY_BITS = 21;
+    private static final long KEY_MASK = (1L << KEY_BITS) - 1;
+
+    private final float cellSize;
+    private final float inverseCellSize;
+
+    // Per object: min x, y, z and max x, y, z of its box
+    private float[] bounds = new float[INITIAL_CAPACITY * 6];
+    private boolean[] alive = new boolean[INITIAL_CAPACITY];
+    private int[] freeIds = new int[INITIAL_CAPACITY];
+    private int freeIdCount;
+    private int nextId;
+    private int objectCount;
+    private boolean dirty;
+
+    // Per object: the number of cells it touches, or -1 for a large object, then its first entry once summed up
+    private int[] cellCounts = new int[INITIAL_CAPACITY];
+    private int[] entryOffsets = new int[INITIAL_CAPACITY];
+    // Entries as written by each object: the cell's key, its hash bucket and the object
+    private long[] rawKeys = new long[INITIAL_CAPACITY];
+    private int[] rawBuckets = new int[INITIAL_CAPACITY];
+    private int[] rawIds = new int[INITIAL_CAPACITY];
+    // The same entries, grouped by bucket
+    private long[] keys = new long[INITIAL_CAPACITY];
+    private int[] ids = new int[INITIAL_CAPACITY];
+    private int entryCount;
+    // Entries of bucket b are [bucketStart[b], bucketStart[b + 1])
+    private int[] bucketStart = new int[MIN_BUCKETS + 1];
+    private int[] bucketCursor = new int[MIN_BUCKETS];
+    private int bucketShift = 64 - Integer.numberOfTrailingZeros(MIN_BUCKETS);
+    private int[] largeObjects = new int[16];
+    private int largeObjectCount;
+    // The box around every object, rays are clipped to it
+    private float minX, minY, minZ, maxX, maxY, maxZ;
+
+    // Results of the last findPairs(), two ids per pair, and the pairs found by each batch of objects
+    private int[] pairs = new int[INITIAL_CAPACITY];
+    private int pairCount;
+    private int[][] batchPairs = new int[0][];
+    private int[] batchPairCounts = new int[0];
+    private int[] largeOverlaps = new int[64];
+
+    /**
+     * Create an empty broadphase.
+     *
+     * @param cellSize The size of a cell along each axis, in world units. Works best at around the size of a
+     *                 typical object, so most objects touch a single cell or a few.
+     */
+    public Broadphase(float cellSize) {
+        if (!(cellSize > 0.0f)) {
+            throw new IllegalArgumentException("Invalid cell size " + cellSize);
+        }
+        this.cellSize = cellSize;
+        this.inverseCellSize = 1.0f / cellSize;
+    }
+
+    /**
+     * Add an object.
+     *
+     * @return the id of the object
+     */
+    public int add(float minX, float minY, float minZ, float maxX, float maxY, float maxZ) {
+        int id;
+        if (freeIdCount > 0) {
+            id = freeIds[--freeIdCount];
+        } else {
+            id = nextId++;
+            if (id == alive.length) {
+                grow();
+            }
+        }
+        alive[id] = true;
+        setBounds(id, minX, minY, minZ, maxX, maxY, maxZ);
+        objectCount++;
+        return id;
+    }
+
+    private void grow() {
+        int capacity = alive.length * 2;
+        bounds = Arrays.copyOf(bounds, capacity * 6);
+        alive = Arrays.copyOf(alive, capacity);
+        freeIds = Arrays.copyOf(freeIds, capacity);
+        cellCounts = Arrays.copyOf(cellCounts, capacity);
+        entryOffsets = Arrays.copyOf(entryOffsets, capacity);
+    }
+
+    /**
+     * Move or resize an object.
+     */
+    public void update(int id, float minX, float minY, float minZ, float maxX, float maxY, float maxZ) {
+        checkId(id);
+        setBounds(id, minX, minY, minZ, maxX, maxY, maxZ);
+    }
+
+    /**
+     * Remove an object. Its id may be handed out again by a later add.
+     */
+    public void remove(int id) {
+        checkId(id);
+        alive[id] = false;
+        freeIds[freeIdCount++] = id;
+        objectCount--;
+        dirty = true;
+    }
+
+    private void checkId(int id) {
+        if (!isAlive(id)) {
+            throw new IllegalArgumentException("No object with id " + id);
+        }
+    }
+
+    private void setBounds(int id, float minX, float minY, float minZ, float maxX, float maxY, float maxZ) {
+        int offset = id * 6;
+        bounds[offset] = minX;
+        bounds[offset + 1] = minY;
+        bounds[offset + 2] = minZ;
+        bounds[offset + 3] = maxX;
+        bounds[offset + 4] = maxY;
+        bounds[offset + 5] = maxZ;
+        dirty = true;
+    }
+
+    /**
+     * @param id An object id
+     * @return true if the object exists
+     */
+    public boolean isAlive(int id) {
+        return id >= 0 && id < nextId && alive[id];
+    }
+
+    /**
+     * @return the number of objects
+     */
+    public int getObjectCount() {
+        return objectCount;
+    }
+
+    /**
+     * @return the boxes of the objects, 6 floats per id, min x, y, z then max x, y, z. Owned by the broadphase.
+     */
+    float[] getBounds() {
+        return bounds;
+    }
+
+    private int cell(float coordinate) {
+        return (int) Math.floor(coordinate * inverseCellSize);
+    }
+
+    private static long key(int cellX, int cellY, int cellZ) {
+        return (cellX & KEY_MASK) | (cellY & KEY_MASK) << KEY_BITS | (cellZ & KEY_MASK) << (2 * KEY_BITS);
+    }
+
+    private int bucket(long key) {
+        // Fibonacci hashing, the top bits of the product are well mixed
+        return (int) ((key * 0x9E3779B97F4A7C15L) >>> bucketShift);
+    }
+
+    /**
+     * List every object in the cells it touches again, if any object was added, moved or removed since the last
+     * rebuild. Large numbers of objects are spread over the common fork join pool.
+     */
+    public void rebuild() {
+        if (!dirty) {
+            return;
+        }
+        dirty = false;
+        int batches = (nextId + BATCH_SIZE - 1) / BATCH_SIZE;
+        run(Pass.COUNT, batches);
+
+        // Sum the counts into offsets, and gather the large objects and the bounds of everything
+        int entries = 0;
+        largeObjectCount = 0;
+        minX = minY = minZ = Float.POSITIVE_INFINITY;
+        maxX = maxY = maxZ = Float.NEGATIVE_INFINITY;
+        for (int id = 0; id < nextId; id++) {
+            int count = cellCounts[id];
+            entryOffsets[id] = entries;
+            if (count > 0) {
+                entries += count;
+            } else if (count < 0) {
+                if (largeObjectCount == largeObjects.length) {
+                    largeObjects = Arrays.copyOf(largeObjects, largeObjectCount * 2);
+                }
+                largeObjects[largeObjectCount++] = id;
+            }
+            if (count != 0) {
+                int offset = id * 6;
+                minX = Math.min(minX, bounds[offset]);
+                minY = Math.min(minY, bounds[offset + 1]);
+                minZ = Math.min(minZ, bounds[offset + 2]);
+                maxX = Math.max(maxX, bounds[offset + 3]);
+                maxY = Math.max(maxY, bounds[offset + 4]);
+                maxZ = Math.max(maxZ, bounds[offset + 5]);
+            }
+        }
+        entryCount = entries;
+        if (rawKeys.length < entries) {
+            int capacity = Math.max(entries, rawKeys.length * 2);
+            rawKeys = new long[capacity];
+            rawBuckets = new int[capacity];
+            rawIds = new int[capacity];
+            keys = new long[capacity];
+            ids = new int[capacity];
+        }
+        int buckets = Math.max(MIN_BUCKETS, Integer.highestOneBit(Math.max(entries, 1) * 2 - 1));
+        if (bucketCursor.length != buckets) {
+            bucketStart = new int[buckets + 1];
+            bucketCursor = new int[buckets];
+        }
+        bucketShift = 64 - Integer.numberOfTrailingZeros(buckets);
+        run(Pass.WRITE, batches);
+
+        // Counting sort by bucket
+        Arrays.fill(bucketStart, 0);
+        for (int i = 0; i < entries; i++) {
+            bucketStart[rawBuckets[i] + 1]++;
+        }
+        for (int b = 0; b < buckets; b++) {
+            bucketStart[b + 1] += bucketStart[b];
+        }
+        System.arraycopy(bucketStart, 0, bucketCursor, 0, buckets);
+        for (int i = 0; i < entries; i++) {
+            int slot = bucketCursor[rawBuckets[i]]++;
+            keys[slot] = rawKeys[i];
+            ids[slot] = rawIds[i];
+        }
+    }
+
+    private void run(Pass pass, int batches) {
+        if (nextId < PARALLEL_THRESHOLD) {
+            for (int batch = 0; batch < batches; batch++) {
+                pass(pass, batch);
+            }
+        } else {
+            ForkJoinPool.commonPool().invoke(new Batches(pass, 0, batches));
+        }
+    }
+
+    private void pass(Pass pass, int batch) {
+        if (pass == Pass.PAIRS) {
+            int from = batch * BUCKETS_PER_BATCH;
+            findPairs(batch, from, Math.min(from + BUCKETS_PER_BATCH, bucketCursor.length));
+            return;
+        }
+        int from = batch * BATCH_SIZE;
+        int to = Math.min(from + BATCH_SIZE, nextId);
+        if (pass == Pass.COUNT) {
+            countCells(from, to);
+        } else {
+            writeEntries(from, to);
+        }
+    }
+
+    private void countCells(int from, int to) {
+        for (int id = from; id < to; id++) {
+            if (!alive[id]) {
+                cellCounts[id] = 0;
+                continue;
+            }
+            int offset = id * 6;
+            long cells = (long) (cell(bounds[offset + 3]) - cell(bounds[offset]) + 1)
+                    * (cell(bounds[offset + 4]) - cell(bounds[offset + 1]) + 1)
+                    * (cell(bounds[offset + 5]) - cell(bounds[offset + 2]) + 1);
+            cellCounts[id] = cells > MAX_CELLS_PER_OBJECT ? -1 : (int) cells;
+        }
+    }
+
+    private void writeEntries(int from, int to) {
+        for (int id = from; id < to; id++) {
+            if (cellCounts[id] <= 0) {
+                continue;
+            }
+            int offset = id * 6;
+            int entry = entryOffsets[id];
+            int x1 = cell(bounds[offset + 3]), y1 = cell(bounds[offset + 4]), z1 = cell(bounds[offset + 5]);
+            for (int z = cell(bounds[offset + 2]); z <= z1; z++) {
+                for (int y = cell(bounds[offset + 1]); y <= y1; y++) {
+                    for (int x = cell(bounds[offset]); x <= x1; x++) {
+                        long key = key(x, y, z);
+                        rawKeys[entry] = key;
+                        rawBuckets[entry] = bucket(key);
+                        rawIds[entry] = id;
+                        entry++;
+                    }
+                }
+            }
+        }
+    }
+
+    private boolean overlaps(int id, float minX, float minY, float minZ, float maxX, float maxY, float maxZ) {
+        int offset = id * 6;
+        return bounds[offset] <= maxX && bounds[offset + 3] >= minX
+                && bounds[offset + 1] <= maxY && bounds[offset + 4] >= minY
+                && bounds[offset + 2] <= maxZ && bounds[offset + 5] >= minZ;
+    }
+
+    /**
+     * Find the objects overlapping a box, touching counts.
+     *
+     * @param results Where to write the ids of the objects, in no particular order
+     * @param offset  The index in results to write the first id at
+     * @param limit   The most ids to write, the search stops there
+     * @return the number of ids written
+     */
+    public int query(float minX, float minY, float minZ, float maxX, float maxY, float maxZ,
+                     int[] results, int offset, int limit) {
+        rebuild();
+        return find(minX, minY, minZ, maxX, maxY, maxZ, results, offset, limit);
+    }
+
+    /**
+     * {@link #query} without the rebuild, so it can run on several threads at once.
+     */
+    int find(float minX, float minY, float minZ, float maxX, float maxY, float maxZ,
+             int[] results, int offset, int limit) {
+        int found = 0;
+        for (int i = 0; i < largeObjectCount && found < limit; i++) {
+            int id = largeObjects[i];
+            if (overlaps(id, minX, minY, minZ, maxX, maxY, maxZ)) {
+                results[offset + found++] = id;
+            }
+        }
+        // Nothing outside the bounds of everything, and clamping to them keeps huge boxes from visiting empty cells
+        int x0 = cell(Math.max(minX, this.minX)), y0 = cell(Math.max(minY, this.minY));
+        int z0 = cell(Math.max(minZ, this.minZ));
+        int x1 = cell(Math.min(maxX, this.maxX)), y1 = cell(Math.min(maxY, this.maxY));
+        int z1 = cell(Math.min(maxZ, this.maxZ));
+        if (x0 > x1 || y0 > y1 || z0 > z1) {
+            return found;
+        }
+        long cells = (long) (x1 - x0 + 1) * (y1 - y0 + 1) * (z1 - z0 + 1);
+        if (cells > entryCount) {
+            // Visiting the cells would take longer than testing every object
+            for (int id = 0; id < nextId && found < limit; id++) {
+                if (cellCounts[id] > 0 && overlaps(id, minX, minY, minZ, maxX, maxY, maxZ)) {
+                    results[offset + found++] = id;
+                }
+            }
+            return found;
+        }
+        for (int z = z0; z <= z1; z++) {
+            for (int y = y0; y <= y1; y++) {
+                for (int x = x0; x <= x1; x++) {
+                    long key = key(x, y, z);
+                    int bucket = bucket(key);
+                    for (int e = bucketStart[bucket]; e < bucketStart[bucket + 1]; e++) {
+                        if (keys[e] != key) {
+                            continue;
+                        }
+                        int id = ids[e];
+                        if (!overlaps(id, minX, minY, minZ, maxX, maxY, maxZ)) {
+                            continue;
+                        }
+                        /*
+                         An object touching several of the cells is listed in each. Only report it from the one
+                         holding the min corner of where it and the box overlap.
+                        */
+                        int objectOffset = id * 6;
+                        if (cell(Math.max(bounds[objectOffset], minX)) == x
+                                && cell(Math.max(bounds[objectOffset + 1], minY)) == y
+                                && cell(Math.max(bounds[objectOffset + 2], minZ)) == z) {
+                            results[offset + found++] = id;
+                            if (found == limit) {
+                                return found;
+                            }
+                        }
+                    }
+                }
+            }
+        }
+        return found;
+    }
+
+    /**
+     * Find the nearest object a ray hits.
+     *
+     * @param directionX  X of the ray's direction, which doesn't need to be unit length
+     * @param maxDistance How far along the ray to look
+     * @param hit         Set to the nearest object hit, if any
+     * @return true if an object was hit
+     */
+    public boolean raycast(float originX, float originY, float originZ, float directionX, float directionY,
+                           float directionZ, float maxDistance, RayHit hit) {
+        rebuild();
+        float length = RayHit.checkRay(directionX, directionY, directionZ, maxDistance);
+        hit.reset(maxDistance);
+        raycast(originX, originY, originZ, directionX / length, directionY / length, directionZ / length, hit);
+        return hit.isHit();
+    }
+
+    /**
+     * Look for an object nearer than the hit's current distance, along a unit direction, without the rebuild.
+     */
+    void raycast(float originX, float originY, float originZ, float directionX, float directionY, float directionZ,
+                 RayHit hit) {
+        float inverseX = 1.0f / directionX, inverseY = 1.0f / directionY, inverseZ = 1.0f / directionZ;
+        for (int i = 0; i < largeObjectCount; i++) {
+            intersect(largeObjects[i], originX, originY, originZ, inverseX, inverseY, inverseZ, hit);
+        }
+        // Clip the ray to the bounds of everything
+        float tMin = 0.0f;
+        float tMax = hit.getDistance();
+        float t0 = (minX - originX) * inverseX, t1 = (maxX - originX) * inverseX;
+        tMin = Math.max(tMin, Math.min(t0, t1));
+        tMax = Math.min(tMax, Math.max(t0, t1));
+        t0 = (minY - originY) * inverseY;
+        t1 = (maxY - originY) * inverseY;
+        tMin = Math.max(tMin, Math.min(t0, t1));
+        tMax = Math.min(tMax, Math.max(t0, t1));
+        t0 = (minZ - originZ) * inverseZ;
+        t1 = (maxZ - originZ) * inverseZ;
+        tMin = Math.max(tMin, Math.min(t0, t1));
+        tMax = Math.min(tMax, Math.max(t0, t1));
+        // Also false when a NaN came from a ray lying in one of the planes
+        if (!(tMin <= tMax)) {
+            return;
+        }
+
+        // Walk the cells along the ray, nearest first, from where it enters the bounds
+        int x = cell(originX + directionX * tMin);
+        int y = cell(originY + directionY * tMin);
+        int z = cell(originZ + directionZ * tMin);
+        int stepX = directionX > 0.0f ? 1 : -1;
+        int stepY = directionY > 0.0f ? 1 : -1;
+        int stepZ = directionZ > 0.0f ? 1 : -1;
+        float deltaX = Math.abs(cellSize * inverseX);
+        float deltaY = Math.abs(cellSize * inverseY);
+        float deltaZ = Math.abs(cellSize * inverseZ);
+        float nextX = directionX == 0.0f ? Float.POSITIVE_INFINITY : ((x + (stepX > 0 ? 1 : 0)) * cellSize - originX) * inverseX;
+        float nextY = directionY == 0.0f ? Float.POSITIVE_INFINITY : ((y + (stepY > 0 ? 1 : 0)) * cellSize - originY) * inverseY;
+        float nextZ = directionZ == 0.0f ? Float.POSITIVE_INFINITY : ((z + (stepZ > 0 ? 1 : 0)) * cellSize - originZ) * inverseZ;
+        while (true) {
+            long key = key(x, y, z);
+            int bucket = bucket(key);
+            for (int e = bucketStart[bucket]; e < bucketStart[bucket + 1]; e++) {
+                if (keys[e] == key) {
+                    intersect(ids[e], originX, originY, originZ, inverseX, inverseY, inverseZ, hit);
+                }
+            }
+            float exit = Math.min(nextX, Math.min(nextY, nextZ));
+            // Anything hit so far is nearer than every later cell
+            if (hit.getDistance() <= exit || exit > tMax) {
+                return;
+            }
+            if (nextX <= nextY && nextX <= nextZ) {
+                x += stepX;
+                nextX += deltaX;
+            } else if (nextY <= nextZ) {
+                y += stepY;
+                nextY += deltaY;
+            } else {
+                z += stepZ;
+                nextZ += deltaZ;
+            }
+        }
+    }
+
+    /**
+     * Slab test of a ray against an object's box, recording the object if it is nearer than the hit.
+     */
+    private void intersect(int id, float originX, float originY, float originZ, float inverseX, float inverseY,
+                           float inverseZ, RayHit hit) {
+        int offset = id * 6;
+        float t0 = (bounds[offset] - originX) * inverseX, t1 = (bounds[offset + 3] - originX) * inverseX;
+        float nearX = Math.min(t0, t1), tMax = Math.max(t0, t1);
+        t0 = (bounds[offset + 1] - originY) * inverseY;
+        t1 = (bounds[offset + 4] - originY) * inverseY;
+        float nearY = Math.min(t0, t1);
+        tMax = Math.min(tMax, Math.max(t0, t1));
+        t0 = (bounds[offset + 2] - originZ) * inverseZ;
+        t1 = (bounds[offset + 5] - originZ) * inverseZ;
+        float nearZ = Math.min(t0, t1);
+        tMax = Math.min(tMax, Math.max(t0, t1));
+        float tMin = Math.max(nearX, Math.max(nearY, nearZ));
+        if (!(Math.max(tMin, 0.0f) <= tMax) || tMin >= hit.getDistance()) {
+            return;
+        }
+        if (tMin <= 0.0f) {
+            // The ray starts inside the box
+            hit.setObject(id, 0.0f, 0, 0, 0);
+        } else if (tMin == nearX) {
+            hit.setObject(id, tMin, inverseX > 0.0f ? -1 : 1, 0, 0);
+        } else if (tMin == nearY) {
+            hit.setObject(id, tMin, 0, inverseY > 0.0f ? -1 : 1, 0);
+        } else {
+            hit.setObject(id, tMin, 0, 0, inverseZ > 0.0f ? -1 : 1);
+        }
+    }
+
+    /**
+     * Find every pair of overlapping objects, touching counts. Large numbers of objects are spread over the common
+     * fork join pool.
+     *
+     * @return the number of pairs
+     */
+    public int findPairs() {
+        rebuild();
+        int batches = (bucketCursor.length + BUCKETS_PER_BATCH - 1) / BUCKETS_PER_BATCH;
+        if (batchPairs.length < batches) {
+            int old = batchPairs.length;
+            batchPairs = Arrays.copyOf(batchPairs, batches);
+            batchPairCounts = Arrays.copyOf(batchPairCounts, batches);
+            for (int batch = old; batch < batches; batch++) {
+                batchPairs[batch] = new int[64];
+            }
+        }
+        run(Pass.PAIRS, batches);
+
+        int total = 0;
+        for (int batch = 0; batch < batches; batch++) {
+            total += batchPairCounts[batch];
+        }
+        ensurePairCapacity(total);
+        pairCount = 0;
+        for (int batch = 0; batch < batches; batch++) {
+            System.arraycopy(batchPairs[batch], 0, pairs, pairCount * 2, batchPairCounts[batch] * 2);
+            pairCount += batchPairCounts[batch];
+        }
+
+        // Large objects against everything, each pair of them once
+        for (int i = 0; i < largeObjectCount; i++) {
+            int large = largeObjects[i];
+            int offset = large * 6;
+            int found;
+            while ((found = find(bounds[offset], bounds[offset + 1], bounds[offset + 2], bounds[offset + 3],
+                    bounds[offset + 4], bounds[offset + 5], largeOverlaps, 0, largeOverlaps.length))
+                    == largeOverlaps.length) {
+                largeOverlaps = new int[largeOverlaps.length * 2];
+            }
+            for (int j = 0; j < found; j++) {
+                int id = largeOverlaps[j];
+                if (id == large || (cellCounts[id] < 0 && id < large)) {
+                    continue;
+                }
+                ensurePairCapacity(pairCount + 1);
+                pairs[pairCount * 2] = large;
+                pairs[pairCount * 2 + 1] = id;
+                pairCount++;
+            }
+        }
+        return pairCount;
+    }
+
+    private void ensurePairCapacity(int count) {
+        if (pairs.length < count * 2) {
+            pairs = Arrays.copyOf(pairs, Math.max(count * 2, pairs.length * 2));
+        }
+    }
+
+    /**
+     * Find the pairs listed together in the cells of a range of buckets. Going through the buckets in order reads
+     * the entries front to back, rather than hopping around the table for each object.
+     */
+    private void findPairs(int batch, int fromBucket, int toBucket) {
+        int[] found = batchPairs[batch];
+        int count = 0;
+        int end = bucketStart[toBucket];
+        for (int e = bucketStart[fromBucket]; e < end; e++) {
+            long key = keys[e];
+            int id = ids[e];
+            int offset = id * 6;
+            float minX = bounds[offset], minY = bounds[offset + 1], minZ = bounds[offset + 2];
+            float maxX = bounds[offset + 3], maxY = bounds[offset + 4], maxZ = bounds[offset + 5];
+            int cellX = (int) (key & KEY_MASK) << (32 - KEY_BITS) >> (32 - KEY_BITS);
+            int cellY = (int) (key >>> KEY_BITS & KEY_MASK) << (32 - KEY_BITS) >> (32 - KEY_BITS);
+            int cellZ = (int) (key >>> (2 * KEY_BITS) & KEY_MASK) << (32 - KEY_BITS) >> (32 - KEY_BITS);
+            // Only later entries of the same bucket can share the cell
+            int bucketEnd = bucketStart[bucket(key) + 1];
+            for (int other = e + 1; other < bucketEnd; other++) {
+                if (keys[other] != key) {
+                    continue;
+                }
+                int otherId = ids[other];
+                if (!overlaps(otherId, minX, minY, minZ, maxX, maxY, maxZ)) {
+                    continue;
+                }
+                // Both are listed in every cell they share, only count the pair in one of them
+                int otherOffset = otherId * 6;
+                if (cell(Math.max(minX, bounds[otherOffset])) != cellX
+                        || cell(Math.max(minY, bounds[otherOffset + 1])) != cellY
+                        || cell(Math.max(minZ, bounds[otherOffset + 2])) != cellZ) {
+                    continue;
+                }
+                if (count * 2 + 2 > found.length) {
+                    found = Arrays.copyOf(found, found.length * 2);
+                    batchPairs[batch] = found;
+                }
+                found[count * 2] = id;
+                found[count * 2 + 1] = otherId;
+                count++;
+            }
+        }
+        batchPairCounts[batch] = count;
+    }
+
+    /**
+     * @return the pairs found by the last {@link #findPairs()}, as the two ids of each pair one after the other.
+     * Owned by the broadphase.
+     */
+    public int[] getPairs() {
+        return pairs;
+    }
+
+    /**
+     * @return the number of pairs found by the last {@link #findPairs()}
+     */
+    public int getPairCount() {
+        return pairCount;
+    }
+
+    private enum Pass {
+        COUNT, WRITE, PAIRS
+    }
+
+    /**
+     * A range of batches of object ids, split in half until it is a single batch.
+     */
+    private final class Batches extends RecursiveAction {
+        private final Pass pass;
+        private final int from;
+        private final int to;
+
+        private Batches(Pass pass, int from, int to) {
+            this.pass = pass;
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override
+        protected void compute() {
+            if (to - from == 1) {
+                pass(pass, from);
+                return;
+            }
+            int middle = (from + to) >>> 1;
+            invokeAll(new Batches(pass, from, middle), new Batches(pass, middle, to));
+        }
+    }
+}
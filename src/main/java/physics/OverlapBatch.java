@@ -0,0 +1,108 @@
+package physics;
+
+/**
+ * A list of boxes to look up together with {@link PhysicsWorld#query(OverlapBatch)}, and the objects overlapping
+ * each of them.
+ * <p>
+ * Every box has room for the same number of results, set when the batch is created. A box overlapping more objects
+ * than that gets the first ones found, and {@link #isFull(int)} tells when that happened.
+ */
+public class OverlapBatch {
+    private final int maxResults;
+    // Per box: min x, y, z and max x, y, z
+    private final float[] boxes;
+    private final int[] results;
+    private final int[] resultCounts;
+    private int size;
+
+    /**
+     * @param capacity   The most boxes the batch can hold
+     * @param maxResults The most objects reported for each box
+     */
+    public OverlapBatch(int capacity, int maxResults) {
+        this.maxResults = maxResults;
+        boxes = new float[capacity * 6];
+        results = new int[capacity * maxResults];
+        resultCounts = new int[capacity];
+    }
+
+    /**
+     * Drop every box.
+     */
+    public void clear() {
+        size = 0;
+    }
+
+    /**
+     * Add a box.
+     *
+     * @return the index of the box
+     */
+    public int add(float minX, float minY, float minZ, float maxX, float maxY, float maxZ) {
+        if (size == resultCounts.length) {
+            throw new IllegalStateException("Overlap batch is full at " + size + " boxes");
+        }
+        int offset = size * 6;
+        boxes[offset] = minX;
+        boxes[offset + 1] = minY;
+        boxes[offset + 2] = minZ;
+        boxes[offset + 3] = maxX;
+        boxes[offset + 4] = maxY;
+        boxes[offset + 5] = maxZ;
+        resultCounts[size] = 0;
+        return size++;
+    }
+
+    /**
+     * Look up one of the boxes.
+     */
+    void query(Broadphase objects, int box) {
+        int offset = box * 6;
+        resultCounts[box] = objects.find(boxes[offset], boxes[offset + 1], boxes[offset + 2], boxes[offset + 3],
+                boxes[offset + 4], boxes[offset + 5], results, box * maxResults, maxResults);
+    }
+
+    /**
+     * @return the number of boxes
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * @param box The index of a box
+     * @return the number of objects found overlapping it
+     */
+    public int getResultCount(int box) {
+        checkBox(box);
+        return resultCounts[box];
+    }
+
+    /**
+     * @param box    The index of a box
+     * @param result The index of a result, below {@link #getResultCount(int)}
+     * @return the id of the object
+     */
+    public int getResult(int box, int result) {
+        checkBox(box);
+        if (result < 0 || result >= resultCounts[box]) {
+            throw new IndexOutOfBoundsException("No result " + result + " of " + resultCounts[box]);
+        }
+        return results[box * maxResults + result];
+    }
+
+    /**
+     * @param box The index of a box
+     * @return true if the box found as many objects as it has room for, so there may be more
+     */
+    public boolean isFull(int box) {
+        checkBox(box);
+        return resultCounts[box] == maxResults;
+    }
+
+    private void checkBox(int box) {
+        if (box < 0 || box >= size) {
+            throw new IndexOutOfBoundsException("No box " + box + " in a batch of " + size);
+        }
+    }
+}
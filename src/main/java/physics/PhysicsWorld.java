@@ -0,0 +1,321 @@
+package physics;
+
+import org.joml.Vector3f;
+import voxel.Chunk;
+import voxel.World;
+
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * Answers what is where, over the blocks of a voxel {@link World} and the objects of a {@link Broadphase}: what a
+ * ray hits first, which objects overlap a box, and how far a box can move before it runs into something.
+ * <p>
+ * Rays walk the blocks they pass through one at a time, nearest first (3D DDA), and stop at the first solid one,
+ * then look for a nearer object in the broadphase. Moving boxes are swept one axis at a time, Y first, and each axis
+ * is cut short at the first block or object in the way, which lets a box slide along walls and floors.
+ * <p>
+ * Single queries are meant for the render thread. Batches of rays and boxes are spread over the common fork join
+ * pool, and return once all of them are done. None of the queries allocate, beyond the few tasks a batch is split
+ * into. The world and the objects must not change while a query runs.
+ */
+public class PhysicsWorld {
+    // Below this many rays or boxes a batch runs on the calling thread
+    private static final int PARALLEL_THRESHOLD = 64;
+    private static final int BATCH_SIZE = 32;
+    // Faces closer than this count as touching, so a box resting on a floor isn't stopped by it when sliding along it
+    private static final float EPSILON = 1.0e-4f;
+
+    private final World world;
+    private final Broadphase objects;
+    private final BlockCursor blocks;
+    // For the render thread's queries
+    private final float[] box = new float[6];
+    private int[] candidates = new int[64];
+
+    /**
+     * @param world   The blocks
+     * @param objects The objects
+     */
+    public PhysicsWorld(World world, Broadphase objects) {
+        this.world = world;
+        this.objects = objects;
+        this.blocks = new BlockCursor(world);
+    }
+
+    /**
+     * Find the nearest block or object a ray hits.
+     *
+     * @param directionX  X of the ray's direction, which doesn't need to be unit length
+     * @param maxDistance How far along the ray to look
+     * @param hit         Set to what the ray hit
+     * @return true if the ray hit something
+     */
+    public boolean raycast(float originX, float originY, float originZ, float directionX, float directionY,
+                           float directionZ, float maxDistance, RayHit hit) {
+        float length = RayHit.checkRay(directionX, directionY, directionZ, maxDistance);
+        objects.rebuild();
+        blocks.invalidate();
+        hit.reset(maxDistance);
+        raycast(blocks, originX, originY, originZ, directionX / length, directionY / length, directionZ / length, hit);
+        return hit.isHit();
+    }
+
+    /**
+     * Cast every ray of a batch.
+     *
+     * @param batch The rays, whose hits are set
+     */
+    public void raycast(RayBatch batch) {
+        objects.rebuild();
+        if (batch.size() < PARALLEL_THRESHOLD) {
+            blocks.invalidate();
+            for (int ray = 0; ray < batch.size(); ray++) {
+                batch.cast(this, blocks, ray);
+            }
+        } else {
+            ForkJoinPool.commonPool().invoke(new Rays(batch, 0, batch.size()));
+        }
+    }
+
+    /**
+     * Find the objects overlapping each box of a batch.
+     *
+     * @param batch The boxes, whose results are set
+     */
+    public void query(OverlapBatch batch) {
+        objects.rebuild();
+        if (batch.size() < PARALLEL_THRESHOLD) {
+            for (int box = 0; box < batch.size(); box++) {
+                batch.query(objects, box);
+            }
+        } else {
+            ForkJoinPool.commonPool().invoke(new Boxes(batch, 0, batch.size()));
+        }
+    }
+
+    /**
+     * Cast a ray with a unit direction, keeping whatever is nearer than the hit's current distance.
+     */
+    void raycast(BlockCursor blocks, float originX, float originY, float originZ, float directionX, float directionY,
+                 float directionZ, RayHit hit) {
+        raycastBlocks(blocks, originX, originY, originZ, directionX, directionY, directionZ, hit);
+        objects.raycast(originX, originY, originZ, directionX, directionY, directionZ, hit);
+    }
+
+    /**
+     * Walk the blocks along a ray until a solid one or the hit's distance.
+     */
+    private static void raycastBlocks(BlockCursor blocks, float originX, float originY, float originZ,
+                                      float directionX, float directionY, float directionZ, RayHit hit) {
+        int x = (int) Math.floor(originX);
+        int y = (int) Math.floor(originY);
+        int z = (int) Math.floor(originZ);
+        int stepX = directionX > 0.0f ? 1 : -1;
+        int stepY = directionY > 0.0f ? 1 : -1;
+        int stepZ = directionZ > 0.0f ? 1 : -1;
+        // How far along the ray one block is on each axis, and where the ray crosses into the next block
+        float deltaX = Math.abs(1.0f / directionX);
+        float deltaY = Math.abs(1.0f / directionY);
+        float deltaZ = Math.abs(1.0f / directionZ);
+        float nextX = directionX == 0.0f ? Float.POSITIVE_INFINITY : (stepX > 0 ? x + 1 - originX : originX - x) * deltaX;
+        float nextY = directionY == 0.0f ? Float.POSITIVE_INFINITY : (stepY > 0 ? y + 1 - originY : originY - y) * deltaY;
+        float nextZ = directionZ == 0.0f ? Float.POSITIVE_INFINITY : (stepZ > 0 ? z + 1 - originZ : originZ - z) * deltaZ;
+        float distance = 0.0f;
+        int normalX = 0, normalY = 0, normalZ = 0;
+        float maxDistance = hit.getDistance();
+        while (distance <= maxDistance) {
+            short block = blocks.getBlock(x, y, z);
+            if (block != Chunk.AIR) {
+                hit.setBlock(x, y, z, block, distance, normalX, normalY, normalZ);
+                return;
+            }
+            normalX = normalY = normalZ = 0;
+            if (nextX <= nextY && nextX <= nextZ) {
+                distance = nextX;
+                nextX += deltaX;
+                x += stepX;
+                normalX = -stepX;
+            } else if (nextY <= nextZ) {
+                distance = nextY;
+                nextY += deltaY;
+                y += stepY;
+                normalY = -stepY;
+            } else {
+                distance = nextZ;
+                nextZ += deltaZ;
+                z += stepZ;
+                normalZ = -stepZ;
+            }
+        }
+    }
+
+    /**
+     * Move a box, stopping at the first solid block or object in its way along each axis. Y is moved first, then X,
+     * then Z, and a box stopped along one axis still moves along the others, so it slides along what it hit. Blocks
+     * and objects the box already overlaps don't stop it, so it can always move out of them.
+     *
+     * @param dx       How far to move along X
+     * @param dy       How far to move along Y
+     * @param dz       How far to move along Z
+     * @param movement Set to how far the box can move along each axis
+     * @return movement
+     */
+    public Vector3f sweep(float minX, float minY, float minZ, float maxX, float maxY, float maxZ, float dx, float dy,
+                          float dz, Vector3f movement) {
+        objects.rebuild();
+        blocks.invalidate();
+        box[0] = minX;
+        box[1] = minY;
+        box[2] = minZ;
+        box[3] = maxX;
+        box[4] = maxY;
+        box[5] = maxZ;
+        dy = sweep(1, dy);
+        dx = sweep(0, dx);
+        dz = sweep(2, dz);
+        return movement.set(dx, dy, dz);
+    }
+
+    /**
+     * Move the box along one axis, as far as it can go up to the given distance.
+     *
+     * @return how far it moved
+     */
+    private float sweep(int axis, float distance) {
+        if (distance == 0.0f) {
+            return 0.0f;
+        }
+        // The space the box moves through
+        float minX = box[0], minY = box[1], minZ = box[2], maxX = box[3], maxY = box[4], maxZ = box[5];
+        if (distance > 0.0f) {
+            box[axis + 3] += distance;
+        } else {
+            box[axis] += distance;
+        }
+        int x0 = (int) Math.floor(box[0] + EPSILON), x1 = (int) Math.floor(box[3] - EPSILON);
+        int y0 = (int) Math.floor(box[1] + EPSILON), y1 = (int) Math.floor(box[4] - EPSILON);
+        int z0 = (int) Math.floor(box[2] + EPSILON), z1 = (int) Math.floor(box[5] - EPSILON);
+        int found;
+        while ((found = objects.find(box[0], box[1], box[2], box[3], box[4], box[5], candidates, 0,
+                candidates.length)) == candidates.length) {
+            candidates = new int[candidates.length * 2];
+        }
+        box[0] = minX;
+        box[1] = minY;
+        box[2] = minZ;
+        box[3] = maxX;
+        box[4] = maxY;
+        box[5] = maxZ;
+
+        for (int z = z0; z <= z1; z++) {
+            for (int y = y0; y <= y1; y++) {
+                for (int x = x0; x <= x1; x++) {
+                    if (blocks.getBlock(x, y, z) != Chunk.AIR) {
+                        distance = clip(axis, distance, x, y, z, x + 1, y + 1, z + 1);
+                    }
+                }
+            }
+        }
+        float[] bounds = objects.getBounds();
+        for (int i = 0; i < found; i++) {
+            int offset = candidates[i] * 6;
+            distance = clip(axis, distance, bounds[offset], bounds[offset + 1], bounds[offset + 2],
+                    bounds[offset + 3], bounds[offset + 4], bounds[offset + 5]);
+        }
+        box[axis] += distance;
+        box[axis + 3] += distance;
+        return distance;
+    }
+
+    /**
+     * Cut a move of the box along an axis short at an obstacle, if the obstacle is in the way.
+     */
+    private float clip(int axis, float distance, float minX, float minY, float minZ, float maxX, float maxY,
+                       float maxZ) {
+        // Only obstacles overlapping the box on the other two axes are in the way, touching isn't enough
+        if ((axis != 0 && (maxX <= box[0] + EPSILON || minX >= box[3] - EPSILON))
+                || (axis != 1 && (maxY <= box[1] + EPSILON || minY >= box[4] - EPSILON))
+                || (axis != 2 && (maxZ <= box[2] + EPSILON || minZ >= box[5] - EPSILON))) {
+            return distance;
+        }
+        float obstacleMin = axis == 0 ? minX : axis == 1 ? minY : minZ;
+        float obstacleMax = axis == 0 ? maxX : axis == 1 ? maxY : maxZ;
+        if (distance > 0.0f && obstacleMin >= box[axis + 3] - EPSILON) {
+            return Math.min(distance, Math.max(obstacleMin - box[axis + 3], 0.0f));
+        }
+        if (distance < 0.0f && obstacleMax <= box[axis] + EPSILON) {
+            return Math.max(distance, Math.min(obstacleMax - box[axis], 0.0f));
+        }
+        return distance;
+    }
+
+    /**
+     * @return the blocks queries look at
+     */
+    public World getWorld() {
+        return world;
+    }
+
+    /**
+     * @return the objects queries look at
+     */
+    public Broadphase getObjects() {
+        return objects;
+    }
+
+    /**
+     * A range of a ray batch, split in half until it is small enough to cast on one thread.
+     */
+    private final class Rays extends RecursiveAction {
+        private final RayBatch batch;
+        private final int from;
+        private final int to;
+
+        private Rays(RayBatch batch, int from, int to) {
+            this.batch = batch;
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override
+        protected void compute() {
+            if (to - from <= BATCH_SIZE) {
+                BlockCursor blocks = new BlockCursor(world);
+                for (int ray = from; ray < to; ray++) {
+                    batch.cast(PhysicsWorld.this, blocks, ray);
+                }
+                return;
+            }
+            int middle = (from + to) >>> 1;
+            invokeAll(new Rays(batch, from, middle), new Rays(batch, middle, to));
+        }
+    }
+
+    /**
+     * A range of an overlap batch, split in half until it is small enough to look up on one thread.
+     */
+    private final class Boxes extends RecursiveAction {
+        private final OverlapBatch batch;
+        private final int from;
+        private final int to;
+
+        private Boxes(OverlapBatch batch, int from, int to) {
+            this.batch = batch;
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override
+        protected void compute() {
+            if (to - from <= BATCH_SIZE) {
+                for (int box = from; box < to; box++) {
+                    batch.query(objects, box);
+                }
+                return;
+            }
+            int middle = (from + to) >>> 1;
+            invokeAll(new Boxes(batch, from, middle), new Boxes(batch, middle, to));
+        }
+    }
+}
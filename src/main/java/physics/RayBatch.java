@@ -0,0 +1,87 @@
+package physics;
+
+/**
+ * A list of rays to cast together with {@link PhysicsWorld#raycast(RayBatch)}, and what each of them hit.
+ * <p>
+ * The batch is allocated once, with every hit it can hold, and reused: {@link #clear()} it, add this frame's rays,
+ * cast them, and read the hits back by the index {@link #add} returned.
+ */
+public class RayBatch {
+    private static final int RAY_FLOATS = 7;
+
+    // Per ray: origin x, y, z, unit direction x, y, z and length
+    private final float[] rays;
+    private final RayHit[] hits;
+    private int size;
+
+    /**
+     * @param capacity The most rays the batch can hold
+     */
+    public RayBatch(int capacity) {
+        rays = new float[capacity * RAY_FLOATS];
+        hits = new RayHit[capacity];
+        for (int i = 0; i < capacity; i++) {
+            hits[i] = new RayHit();
+        }
+    }
+
+    /**
+     * Drop every ray.
+     */
+    public void clear() {
+        size = 0;
+    }
+
+    /**
+     * Add a ray.
+     *
+     * @param directionX  X of the ray's direction, which doesn't need to be unit length
+     * @param maxDistance How far along the ray to look
+     * @return the index of the ray
+     */
+    public int add(float originX, float originY, float originZ, float directionX, float directionY, float directionZ,
+                   float maxDistance) {
+        if (size == hits.length) {
+            throw new IllegalStateException("Ray batch is full at " + size + " rays");
+        }
+        float length = RayHit.checkRay(directionX, directionY, directionZ, maxDistance);
+        int offset = size * RAY_FLOATS;
+        rays[offset] = originX;
+        rays[offset + 1] = originY;
+        rays[offset + 2] = originZ;
+        rays[offset + 3] = directionX / length;
+        rays[offset + 4] = directionY / length;
+        rays[offset + 5] = directionZ / length;
+        rays[offset + 6] = maxDistance;
+        return size++;
+    }
+
+    /**
+     * Cast one of the rays.
+     */
+    void cast(PhysicsWorld physics, BlockCursor blocks, int ray) {
+        int offset = ray * RAY_FLOATS;
+        RayHit hit = hits[ray];
+        hit.reset(rays[offset + 6]);
+        physics.raycast(blocks, rays[offset], rays[offset + 1], rays[offset + 2], rays[offset + 3], rays[offset + 4],
+                rays[offset + 5], hit);
+    }
+
+    /**
+     * @return the number of rays
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * @param ray The index of a ray
+     * @return what the ray hit, as of the last cast. Owned by the batch.
+     */
+    public RayHit getHit(int ray) {
+        if (ray < 0 || ray >= size) {
+            throw new IndexOutOfBoundsException("No ray " + ray + " in a batch of " + size);
+        }
+        return hits[ray];
+    }
+}
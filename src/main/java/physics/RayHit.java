@@ -0,0 +1,128 @@
+package physics;
+
+import voxel.Chunk;
+
+/**
+ * What a ray hit: a block of the voxel world, an object of a {@link Broadphase}, or nothing.
+ * <p>
+ * Queries write into a hit given to them rather than returning a new one, so a hit can be kept and reused for every
+ * query, and casting rays doesn't allocate.
+ */
+public class RayHit {
+    private float distance;
+    private int object = Broadphase.NONE;
+    private short block = Chunk.AIR;
+    private int blockX, blockY, blockZ;
+    private int normalX, normalY, normalZ;
+
+    /**
+     * Check a ray's direction and length.
+     *
+     * @return the length of the direction
+     */
+    static float checkRay(float directionX, float directionY, float directionZ, float maxDistance) {
+        if (!(maxDistance >= 0.0f) || maxDistance == Float.POSITIVE_INFINITY) {
+            throw new IllegalArgumentException("Invalid ray length " + maxDistance);
+        }
+        float length = (float) Math.sqrt(directionX * directionX + directionY * directionY + directionZ * directionZ);
+        if (!(length > 0.0f) || length == Float.POSITIVE_INFINITY) {
+            throw new IllegalArgumentException("Invalid ray direction " + directionX + ", " + directionY + ", "
+                    + directionZ);
+        }
+        return length;
+    }
+
+    /**
+     * Forget what was hit, and only look for hits up to the given distance from now on.
+     */
+    void reset(float maxDistance) {
+        distance = maxDistance;
+        object = Broadphase.NONE;
+        block = Chunk.AIR;
+    }
+
+    void setBlock(int x, int y, int z, short block, float distance, int normalX, int normalY, int normalZ) {
+        this.object = Broadphase.NONE;
+        this.block = block;
+        this.blockX = x;
+        this.blockY = y;
+        this.blockZ = z;
+        setDistance(distance, normalX, normalY, normalZ);
+    }
+
+    void setObject(int object, float distance, int normalX, int normalY, int normalZ) {
+        this.object = object;
+        this.block = Chunk.AIR;
+        setDistance(distance, normalX, normalY, normalZ);
+    }
+
+    private void setDistance(float distance, int normalX, int normalY, int normalZ) {
+        this.distance = distance;
+        this.normalX = normalX;
+        this.normalY = normalY;
+        this.normalZ = normalZ;
+    }
+
+    /**
+     * @return true if the ray hit a block or an object
+     */
+    public boolean isHit() {
+        return block != Chunk.AIR || object != Broadphase.NONE;
+    }
+
+    /**
+     * @return true if the ray hit a block
+     */
+    public boolean isBlock() {
+        return block != Chunk.AIR;
+    }
+
+    /**
+     * @return the distance along the ray to the hit, or the ray's length if nothing was hit
+     */
+    public float getDistance() {
+        return distance;
+    }
+
+    /**
+     * @return the id of the object hit, or {@link Broadphase#NONE}
+     */
+    public int getObject() {
+        return object;
+    }
+
+    /**
+     * @return the id of the block hit, or {@link Chunk#AIR}
+     */
+    public short getBlock() {
+        return block;
+    }
+
+    public int getBlockX() {
+        return blockX;
+    }
+
+    public int getBlockY() {
+        return blockY;
+    }
+
+    public int getBlockZ() {
+        return blockZ;
+    }
+
+    /**
+     * The normal of the face the ray went in through, e.g. -1 for a face facing towards -x.
+     * All three components are 0 when the ray started inside what it hit.
+     */
+    public int getNormalX() {
+        return normalX;
+    }
+
+    public int getNormalY() {
+        return normalY;
+    }
+
+    public int getNormalZ() {
+        return normalZ;
+    }
+}
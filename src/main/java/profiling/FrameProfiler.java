@@ -0,0 +1,282 @@
+package profiling;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Locale;
+import java.util.function.LongSupplier;
+
+/**
+ * Times frames and named phases within them on the CPU.
+ * <p>
+ * The render thread brackets each frame with {@link #beginFrame()} and {@link #endFrame()}, and each phase with
+ * {@link #begin(int)} and {@link #end(int)}. Phases can nest, and a phase entered several times in a frame adds up.
+ * At the end of a frame its times go into a {@link FrameRing} of recent frames and into a {@link Histogram} per phase,
+ * for percentiles over the whole run. A frame much slower than the typical frame is counted as a hitch.
+ * <p>
+ * Nothing here allocates once the profiler is created. Results can be read in-process or exported as CSV.
+ */
+public class FrameProfiler {
+    private static final int MAX_DEPTH = 16;
+    // A frame is a hitch if it takes this much longer than the median frame
+    private static final double HITCH_FACTOR = 2.0;
+    // Ignore "hitches" shorter than this, a 2x spike on a 1 ms frame doesn't matter
+    private static final long MIN_HITCH_NANOS = 8_000_000L;
+    // Wait for this many frames before judging hitches, the median is noise until then
+    private static final int WARMUP_FRAMES = 60;
+
+    // Record layout in the ring: frame number, frame time, hitch flag, then one time per phase
+    private static final int RECORD_FRAME = 0;
+    private static final int RECORD_FRAME_TIME = 1;
+    private static final int RECORD_HITCH = 2;
+    private static final int RECORD_PHASES = 3;
+
+    private final LongSupplier clock;
+    private final String[] phaseNames;
+    private final FrameRing ring;
+    private final Histogram frameTimes = new Histogram();
+    private final Histogram[] phaseTimes;
+
+    private final long[] phaseTotals;
+    // Scratch space to copy records out of the ring into
+    private final long[] record;
+    private final int[] stack = new int[MAX_DEPTH];
+    private final long[] stackStart = new long[MAX_DEPTH];
+    private int depth;
+    private long frameStart;
+    private long frame;
+    private long hitches;
+    private long lastFrameTime;
+
+    /**
+     * Create a profiler.
+     *
+     * @param historyFrames The number of recent frames to keep individual records for
+     * @param phaseNames    The names of the phases, phase ids are indices into this array
+     */
+    public FrameProfiler(int historyFrames, String... phaseNames) {
+        this(System::nanoTime, historyFrames, phaseNames);
+    }
+
+    /**
+     * Create a profiler that reads the time from the given clock, e.g. a fake one in tests.
+     *
+     * @param clock         The current time, in nanoseconds
+     * @param historyFrames The number of recent frames to keep individual records for
+     * @param phaseNames    The names of the phases, phase ids are indices into this array
+     */
+    FrameProfiler(LongSupplier clock, int historyFrames, String... phaseNames) {
+        this.clock = clock;
+        this.phaseNames = phaseNames.clone();
+        this.ring = new FrameRing(historyFrames, RECORD_PHASES + phaseNames.length);
+        this.phaseTimes = new Histogram[phaseNames.length];
+        for (int i = 0; i < phaseTimes.length; i++) {
+            phaseTimes[i] = new Histogram();
+        }
+        this.phaseTotals = new long[phaseNames.length];
+        this.record = new long[ring.getRecordLength()];
+    }
+
+    /**
+     * Start timing a frame.
+     */
+    public void beginFrame() {
+        depth = 0;
+        for (int i = 0; i < phaseTotals.length; i++) {
+            phaseTotals[i] = 0;
+        }
+        frameStart = clock.getAsLong();
+    }
+
+    /**
+     * Start timing a phase.
+     *
+     * @param phase The id of the phase
+     */
+    public void begin(int phase) {
+        if (depth == MAX_DEPTH) {
+            throw new IllegalStateException("Phases nested more than " + MAX_DEPTH + " deep");
+        }
+        stack[depth] = phase;
+        stackStart[depth] = clock.getAsLong();
+        depth++;
+    }
+
+    /**
+     * Stop timing a phase. It must be the phase most recently begun.
+     *
+     * @param phase The id of the phase
+     */
+    public void end(int phase) {
+        long now = clock.getAsLong();
+        if (depth == 0 || stack[depth - 1] != phase) {
+            throw new IllegalStateException("Ending phase " + phaseNames[phase] + " which isn't the innermost phase");
+        }
+        depth--;
+        phaseTotals[phase] += now - stackStart[depth];
+    }
+
+    /**
+     * Stop timing the frame, and record it.
+     */
+    public void endFrame() {
+        long frameTime = clock.getAsLong() - frameStart;
+        if (depth != 0) {
+            throw new IllegalStateException("Frame ended inside phase " + phaseNames[stack[depth - 1]]);
+        }
+
+        boolean hitch = frame >= WARMUP_FRAMES && frameTime > MIN_HITCH_NANOS
+                && frameTime > HITCH_FACTOR * frameTimes.getPercentile(50);
+        if (hitch) {
+            hitches++;
+        }
+        frameTimes.record(frameTime);
+        for (int i = 0; i < phaseTotals.length; i++) {
+            phaseTimes[i].record(phaseTotals[i]);
+        }
+
+        int offset = ring.claim();
+        long[] data = ring.data();
+        data[offset + RECORD_FRAME] = frame;
+        data[offset + RECORD_FRAME_TIME] = frameTime;
+        data[offset + RECORD_HITCH] = hitch ? 1 : 0;
+        System.arraycopy(phaseTotals, 0, data, offset + RECORD_PHASES, phaseTotals.length);
+        ring.publish();
+
+        lastFrameTime = frameTime;
+        frame++;
+    }
+
+    /**
+     * @return the histogram of whole frame times, in nanoseconds
+     */
+    public Histogram getFrameTimes() {
+        return frameTimes;
+    }
+
+    /**
+     * @param phase The id of the phase
+     * @return the histogram of the phase's time per frame, in nanoseconds
+     */
+    public Histogram getPhaseTimes(int phase) {
+        return phaseTimes[phase];
+    }
+
+    /**
+     * @return the ring of recent frame records, for reading from another thread
+     */
+    public FrameRing getRing() {
+        return ring;
+    }
+
+    /**
+     * Copy the times of the most recent frames, oldest first. Meant for the render thread, which records them.
+     *
+     * @param out Where to copy the times to, in nanoseconds, as many frames as fit
+     * @return the number of frames copied, fewer than fit until enough frames have been recorded
+     */
+    public int getRecentFrameTimes(long[] out) {
+        long last = ring.getWritten();
+        long first = Math.max(0, last - Math.min(out.length, ring.getCapacity()));
+        int count = 0;
+        for (long sequence = first; sequence < last; sequence++) {
+            if (ring.read(sequence, record)) {
+                out[count++] = record[RECORD_FRAME_TIME];
+            }
+        }
+        return count;
+    }
+
+    public String getPhaseName(int phase) {
+        return phaseNames[phase];
+    }
+
+    public int getPhaseCount() {
+        return phaseNames.length;
+    }
+
+    /**
+     * @return the number of frames recorded
+     */
+    public long getFrameCount() {
+        return frame;
+    }
+
+    /**
+     * @return the number of frames that took much longer than the median frame
+     */
+    public long getHitchCount() {
+        return hitches;
+    }
+
+    /**
+     * @return the time of the last recorded frame, in nanoseconds
+     */
+    public long getLastFrameTime() {
+        return lastFrameTime;
+    }
+
+    /**
+     * Forget all recorded percentiles and hitches. The recent frame records are kept.
+     */
+    public void reset() {
+        frameTimes.reset();
+        for (Histogram histogram : phaseTimes) {
+            histogram.reset();
+        }
+        hitches = 0;
+    }
+
+    /**
+     * Summarize the run: percentiles of the frame time and of each phase, in milliseconds.
+     */
+    public String summary() {
+        StringBuilder builder = new StringBuilder();
+        builder.append(String.format(Locale.ROOT, "%d frames, %d hitches%n", frameTimes.getCount(), hitches));
+        appendSummary(builder, "frame", frameTimes);
+        for (int i = 0; i < phaseTimes.length; i++) {
+            appendSummary(builder, phaseNames[i], phaseTimes[i]);
+        }
+        return builder.toString();
+    }
+
+    private static void appendSummary(StringBuilder builder, String name, Histogram histogram) {
+        builder.append(String.format(Locale.ROOT, "%-10s p50 %8.3f  p95 %8.3f  p99 %8.3f  max %8.3f ms%n", name,
+                histogram.getPercentile(50) / 1e6, histogram.getPercentile(95) / 1e6,
+                histogram.getPercentile(99) / 1e6, histogram.getMax() / 1e6));
+    }
+
+    /**
+     * Write the recent frame records to a CSV file, one row per frame, times in milliseconds.
+     *
+     * @param path The file to write
+     * @throws IOException if the file can't be written
+     */
+    public void exportCsv(Path path) throws IOException {
+        try (BufferedWriter writer = Files.newBufferedWriter(path)) {
+            writer.write("frame,frame_ms,hitch");
+            for (String name : phaseNames) {
+                writer.write("," + name + "_ms");
+            }
+            writer.newLine();
+
+            long[] record = new long[ring.getRecordLength()];
+            long last = ring.getWritten();
+            for (long sequence = Math.max(0, last - ring.getCapacity()); sequence < last; sequence++) {
+                if (!ring.read(sequence, record)) {
+                    continue;
+                }
+                writer.write(record[RECORD_FRAME] + "," + millis(record[RECORD_FRAME_TIME]) + "," + record[RECORD_HITCH]);
+                for (int i = 0; i < phaseNames.length; i++) {
+                    writer.write("," + millis(record[RECORD_PHASES + i]));
+                }
+                writer.newLine();
+            }
+        }
+    }
+
+    private static String millis(long nanos) {
+        return String.format(Locale.ROOT, "%.4f", nanos / 1e6);
+    }
+}
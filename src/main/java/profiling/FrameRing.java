@@ -0,0 +1,87 @@
+package profiling;
+
+import java.lang.invoke.VarHandle;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A fixed size ring of per-frame records, written by the render thread and readable from any thread without locks.
+ * <p>
+ * Each record is a fixed number of longs. Like a seqlock, the writer announces which record it is about to write,
+ * fills in its slot, then publishes it. A reader copies a record and then checks the announced record again, so a
+ * record overwritten while it was being copied is reported as lost rather than returned torn.
+ */
+public class FrameRing {
+    private final int capacity;
+    private final int recordLength;
+    private final long[] data;
+    // Records published, and records the writer has started on
+    private final AtomicLong written = new AtomicLong();
+    private final AtomicLong claimed = new AtomicLong();
+
+    /**
+     * @param capacity     The number of records kept, older ones are overwritten
+     * @param recordLength The number of longs in each record
+     */
+    public FrameRing(int capacity, int recordLength) {
+        this.capacity = capacity;
+        this.recordLength = recordLength;
+        this.data = new long[capacity * recordLength];
+    }
+
+    /**
+     * Get the slot of the next record, for the writer to fill in before calling {@link #publish()}.
+     *
+     * @return the offset of the record in {@link #data()}
+     */
+    int claim() {
+        long sequence = written.get();
+        claimed.set(sequence + 1);
+        // The announcement must be visible before any write to the slot
+        VarHandle.storeStoreFence();
+        return (int) (sequence % capacity) * recordLength;
+    }
+
+    long[] data() {
+        return data;
+    }
+
+    /**
+     * Make the record filled in since {@link #claim()} visible to readers.
+     */
+    void publish() {
+        written.lazySet(written.get() + 1);
+    }
+
+    /**
+     * @return the number of records ever published, the first record still held is max(0, this - capacity)
+     */
+    public long getWritten() {
+        return written.get();
+    }
+
+    /**
+     * Copy a record out of the ring.
+     *
+     * @param sequence The record to read, counting from the first record ever published
+     * @param out      Where to copy the record, at least {@link #getRecordLength()} long
+     * @return true if the record was copied, false if it hasn't been published yet or was already overwritten
+     */
+    public boolean read(long sequence, long[] out) {
+        long published = written.get();
+        if (sequence >= published || sequence < published - capacity) {
+            return false;
+        }
+        System.arraycopy(data, (int) (sequence % capacity) * recordLength, out, 0, recordLength);
+        // The copy must be done before checking whether the writer lapped us while we were copying
+        VarHandle.acquireFence();
+        return claimed.get() - capacity <= sequence;
+    }
+
+    public int getCapacity() {
+        return capacity;
+    }
+
+    public int getRecordLength() {
+        return recordLength;
+    }
+}
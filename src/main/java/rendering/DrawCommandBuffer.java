@@ -0,0 +1,202 @@
+package rendering;
+
+import memory.BufferPool;
+import memory.Memory;
+import org.lwjgl.PointerBuffer;
+import org.lwjgl.opengl.GL15;
+import org.lwjgl.opengl.GL40;
+
+import java.nio.ByteBuffer;
+import java.nio.IntBuffer;
+
+/**
+ * A list of indexed draws, built on the CPU and issued together with a single multi-draw call.
+ * <p>
+ * Each command is a DrawElementsIndirectCommand: index count, instance count, first index, base vertex and base
+ * instance, five ints. Commands are collected in native memory with {@link #add}, and {@link #upload()} puts them
+ * in a GL buffer for glMultiDrawElementsIndirect, so however many draws there are, drawing them is one call.
+ * <p>
+ * Without OpenGL 4.3 the commands are instead turned into the arrays glMultiDrawElementsBaseVertex takes, which is
+ * still one call, but can't draw instances, so there every command has to be a single instance.
+ * <p>
+ * Belongs to the render thread. The commands are kept until {@link #clear()}, so they can be built once and drawn
+ * for several frames, or rebuilt every frame.
+ */
+public class DrawCommandBuffer {
+    private static final int COMMAND_INTS = 5;
+    /**
+     * The size of a command in bytes, the stride of the buffer.
+     */
+    public static final int COMMAND_BYTES = COMMAND_INTS * Integer.BYTES;
+    private static final String CATEGORY = "draw commands";
+
+    private final GpuResources resources;
+    private final RenderBackend backend;
+    private final boolean indirect;
+    private final int indexBytes;
+    // Handle of the indirect buffer, 0 without indirect draws
+    private final int buffer;
+
+    private IntBuffer commands;
+    private int count;
+
+    // The same commands as arrays, for glMultiDrawElementsBaseVertex
+    private IntBuffer counts;
+    private IntBuffer baseVertices;
+    private ByteBuffer offsetMemory;
+    private PointerBuffer offsets;
+
+    /**
+     * @param resources The registry to create the indirect buffer in
+     * @param indexType The type of the indices the commands draw, e.g. GL_UNSIGNED_SHORT
+     */
+    public DrawCommandBuffer(GpuResources resources, int indexType) {
+        this.resources = resources;
+        this.backend = resources.getBackend();
+        this.indirect = backend.supportsMultiDrawIndirect();
+        this.indexBytes = VertexPacking.indexBytes(indexType);
+        this.buffer = indirect ? resources.createBuffer(CATEGORY) : 0;
+        this.commands = Memory.pool().allocateInts(16 * COMMAND_INTS);
+    }
+
+    /**
+     * Drop every command.
+     */
+    public void clear() {
+        count = 0;
+    }
+
+    /**
+     * Add a draw.
+     *
+     * @param indexCount    The number of indices to draw
+     * @param instanceCount The number of instances, 1 unless {@link #isIndirect()}
+     * @param firstIndex    The first index to draw, counted in indices from the start of the element buffer
+     * @param baseVertex    A number added to every index, so meshes can keep their own indices starting at 0
+     * @param baseInstance  The first instance, for instanced attributes, 0 unless {@link #isIndirect()}
+     */
+    public void add(int indexCount, int instanceCount, int firstIndex, int baseVertex, int baseInstance) {
+        if (!indirect && (instanceCount != 1 || baseInstance != 0)) {
+            throw new IllegalStateException("Drawing instances from a command needs multi-draw indirect");
+        }
+        if ((count + 1) * COMMAND_INTS > commands.capacity()) {
+            BufferPool pool = Memory.pool();
+            IntBuffer grown = pool.allocateInts(commands.capacity() * 2);
+            grown.put(0, commands, 0, count * COMMAND_INTS);
+            pool.free(commands);
+            commands = grown;
+        }
+        int base = count * COMMAND_INTS;
+        commands.put(base, indexCount);
+        commands.put(base + 1, instanceCount);
+        commands.put(base + 2, firstIndex);
+        commands.put(base + 3, baseVertex);
+        commands.put(base + 4, baseInstance);
+        count++;
+    }
+
+    /**
+     * Hand the commands to GL, after they have all been added and before they are drawn.
+     */
+    public void upload() {
+        if (indirect) {
+            commands.position(0).limit(count * COMMAND_INTS);
+            backend.bindBuffer(GL40.GL_DRAW_INDIRECT_BUFFER, resources.buffer(buffer));
+            // Orphan the old commands, the GPU may still be reading them
+            backend.bufferData(GL40.GL_DRAW_INDIRECT_BUFFER, commands, GL15.GL_STREAM_DRAW);
+            resources.setSize(buffer, (long) count * COMMAND_BYTES);
+            commands.clear();
+            return;
+        }
+        if (counts == null || counts.capacity() < count) {
+            freeArrays();
+            BufferPool pool = Memory.pool();
+            int capacity = Math.max(count, 16);
+            counts = pool.allocateInts(capacity);
+            baseVertices = pool.allocateInts(capacity);
+            offsetMemory = pool.allocate(capacity * PointerBuffer.POINTER_SIZE);
+            offsets = PointerBuffer.create(offsetMemory);
+        }
+        for (int i = 0; i < count; i++) {
+            int base = i * COMMAND_INTS;
+            counts.put(i, commands.get(base));
+            offsets.put(i, (long) commands.get(base + 2) * indexBytes);
+            baseVertices.put(i, commands.get(base + 3));
+        }
+        counts.position(0).limit(count);
+        offsets.position(0).limit(count);
+        baseVertices.position(0).limit(count);
+    }
+
+    /**
+     * Issue the uploaded commands with whatever program and vertex array are bound.
+     */
+    void draw(int mode, int indexType) {
+        if (indirect) {
+            backend.bindBuffer(GL40.GL_DRAW_INDIRECT_BUFFER, resources.buffer(buffer));
+            backend.multiDrawElementsIndirect(mode, indexType, 0, count, 0);
+        } else {
+            backend.multiDrawElementsBaseVertex(mode, counts, indexType, offsets, baseVertices);
+        }
+    }
+
+    /**
+     * @return true if commands are drawn from a GL buffer, false if they fall back to glMultiDrawElementsBaseVertex
+     */
+    public boolean isIndirect() {
+        return indirect;
+    }
+
+    /**
+     * @return the number of commands
+     */
+    public int size() {
+        return count;
+    }
+
+    /**
+     * @param command The index of a command
+     * @return the number of indices it draws
+     */
+    public int getIndexCount(int command) {
+        return commands.get(command * COMMAND_INTS);
+    }
+
+    /**
+     * @param command The index of a command
+     * @return the first index it draws
+     */
+    public int getFirstIndex(int command) {
+        return commands.get(command * COMMAND_INTS + 2);
+    }
+
+    /**
+     * @param command The index of a command
+     * @return the number added to its indices
+     */
+    public int getBaseVertex(int command) {
+        return commands.get(command * COMMAND_INTS + 3);
+    }
+
+    private void freeArrays() {
+        if (counts != null) {
+            BufferPool pool = Memory.pool();
+            pool.free(counts);
+            pool.free(baseVertices);
+            pool.free(offsetMemory);
+        }
+    }
+
+    /**
+     * Release the indirect buffer and free the commands.
+     */
+    public void delete() {
+        if (buffer != 0) {
+            resources.release(buffer);
+        }
+        freeArrays();
+        counts = null;
+        Memory.pool().free(commands);
+        commands = null;
+    }
+}
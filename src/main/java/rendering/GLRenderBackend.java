@@ -0,0 +1,404 @@
+package rendering;
+
+import org.lwjgl.PointerBuffer;
+import org.lwjgl.opengl.*;
+
+import java.nio.ByteBuffer;
+import java.nio.FloatBuffer;
+import java.nio.IntBuffer;
+
+/**
+ * The real backend, forwarding every call to OpenGL through LWJGL.
+ * A GL context must be current on the calling thread.
+ */
+public final class GLRenderBackend implements RenderBackend {
+    /**
+     * The backend is stateless, so everything can share this instance.
+     */
+    public static final GLRenderBackend INSTANCE = new GLRenderBackend();
+
+    private GLRenderBackend() {
+    }
+
+    @Override
+    public int createBuffer() {
+        return GL15.glGenBuffers();
+    }
+
+    @Override
+    public void bindBuffer(int target, int buffer) {
+        GL15.glBindBuffer(target, buffer);
+    }
+
+    @Override
+    public void bufferData(int target, FloatBuffer data, int usage) {
+        GL15.glBufferData(target, data, usage);
+    }
+
+    @Override
+    public void bufferData(int target, IntBuffer data, int usage) {
+        GL15.glBufferData(target, data, usage);
+    }
+
+    @Override
+    public void bufferData(int target, ByteBuffer data, int usage) {
+        GL15.glBufferData(target, data, usage);
+    }
+
+    @Override
+    public void bufferData(int target, long size, int usage) {
+        GL15.glBufferData(target, size, usage);
+    }
+
+    @Override
+    public void bufferSubData(int target, long offset, ByteBuffer data) {
+        GL15.glBufferSubData(target, offset, data);
+    }
+
+    @Override
+    public void bufferSubData(int target, long offset, FloatBuffer data) {
+        GL15.glBufferSubData(target, offset, data);
+    }
+
+    @Override
+    public void copyBufferSubData(int readTarget, int writeTarget, long readOffset, long writeOffset, long size) {
+        GL31.glCopyBufferSubData(readTarget, writeTarget, readOffset, writeOffset, size);
+    }
+
+    @Override
+    public void deleteBuffer(int buffer) {
+        GL15.glDeleteBuffers(buffer);
+    }
+
+    @Override
+    public boolean supportsBufferStorage() {
+        GLCapabilities capabilities = GL.getCapabilities();
+        return capabilities.OpenGL44 || capabilities.GL_ARB_buffer_storage;
+    }
+
+    @Override
+    public void bufferStorage(int target, long size, int flags) {
+        GL44.glBufferStorage(target, size, flags);
+    }
+
+    @Override
+    public ByteBuffer mapBufferRange(int target, long offset, long length, int access) {
+        return GL30.glMapBufferRange(target, offset, length, access);
+    }
+
+    @Override
+    public boolean unmapBuffer(int target) {
+        return GL15.glUnmapBuffer(target);
+    }
+
+    @Override
+    public long fenceSync() {
+        return GL32.glFenceSync(GL32.GL_SYNC_GPU_COMMANDS_COMPLETE, 0);
+    }
+
+    @Override
+    public int clientWaitSync(long sync, int flags, long timeout) {
+        return GL32.glClientWaitSync(sync, flags, timeout);
+    }
+
+    @Override
+    public void deleteSync(long sync) {
+        GL32.glDeleteSync(sync);
+    }
+
+    @Override
+    public int createTexture() {
+        return GL11.glGenTextures();
+    }
+
+    @Override
+    public void activeTexture(int unit) {
+        GL13.glActiveTexture(unit);
+    }
+
+    @Override
+    public void bindTexture(int target, int texture) {
+        GL11.glBindTexture(target, texture);
+    }
+
+    @Override
+    public void texParameteri(int target, int pname, int param) {
+        GL11.glTexParameteri(target, pname, param);
+    }
+
+    @Override
+    public void texImage2D(int target, int level, int internalFormat, int width, int height, int format, int type,
+                           ByteBuffer pixels) {
+        GL11.glTexImage2D(target, level, internalFormat, width, height, 0, format, type, pixels);
+    }
+
+    @Override
+    public void texImage3D(int target, int level, int internalFormat, int width, int height, int depth, int format,
+                           int type) {
+        GL12.glTexImage3D(target, level, internalFormat, width, height, depth, 0, format, type, (ByteBuffer) null);
+    }
+
+    @Override
+    public void compressedTexImage3D(int target, int level, int internalFormat, int width, int height, int depth,
+                                     int imageSize) {
+        // A null pointer with no pixel unpack buffer bound leaves the storage undefined
+        GL13.nglCompressedTexImage3D(target, level, internalFormat, width, height, depth, 0, imageSize, 0L);
+    }
+
+    @Override
+    public void texSubImage3D(int target, int level, int x, int y, int z, int width, int height, int depth,
+                              int format, int type, ByteBuffer pixels) {
+        GL12.glTexSubImage3D(target, level, x, y, z, width, height, depth, format, type, pixels);
+    }
+
+    @Override
+    public void compressedTexSubImage3D(int target, int level, int x, int y, int z, int width, int height,
+                                        int depth, int format, ByteBuffer data) {
+        GL13.glCompressedTexSubImage3D(target, level, x, y, z, width, height, depth, format, data);
+    }
+
+    @Override
+    public void deleteTexture(int texture) {
+        GL11.glDeleteTextures(texture);
+    }
+
+    @Override
+    public boolean supportsCompressedFormat(int internalFormat) {
+        GLCapabilities capabilities = GL.getCapabilities();
+        return switch (internalFormat) {
+            case GL42.GL_COMPRESSED_RGBA_BPTC_UNORM ->
+                    capabilities.OpenGL42 || capabilities.GL_ARB_texture_compression_bptc;
+            case EXTTextureCompressionS3TC.GL_COMPRESSED_RGBA_S3TC_DXT5_EXT ->
+                    capabilities.GL_EXT_texture_compression_s3tc;
+            case KHRTextureCompressionASTCLDR.GL_COMPRESSED_RGBA_ASTC_4x4_KHR ->
+                    capabilities.GL_KHR_texture_compression_astc_ldr;
+            case GL43.GL_COMPRESSED_RGBA8_ETC2_EAC -> capabilities.OpenGL43 || capabilities.GL_ARB_ES3_compatibility;
+            default -> false;
+        };
+    }
+
+    @Override
+    public int createVertexArray() {
+        return GL45.glCreateVertexArrays();
+    }
+
+    @Override
+    public void bindVertexArray(int vertexArray) {
+        GL30.glBindVertexArray(vertexArray);
+    }
+
+    @Override
+    public void vertexAttribPointer(int index, int size, int type, boolean normalized, int stride, long pointer) {
+        GL20.glVertexAttribPointer(index, size, type, normalized, stride, pointer);
+    }
+
+    @Override
+    public void vertexAttribDivisor(int index, int divisor) {
+        GL33.glVertexAttribDivisor(index, divisor);
+    }
+
+    @Override
+    public void enableVertexAttribArray(int index) {
+        GL20.glEnableVertexAttribArray(index);
+    }
+
+    @Override
+    public void disableVertexAttribArray(int index) {
+        GL20.glDisableVertexAttribArray(index);
+    }
+
+    @Override
+    public void deleteVertexArray(int vertexArray) {
+        GL30.glDeleteVertexArrays(vertexArray);
+    }
+
+    @Override
+    public int createShader(int type) {
+        return GL20.glCreateShader(type);
+    }
+
+    @Override
+    public void shaderSource(int shader, CharSequence source) {
+        GL20.glShaderSource(shader, source);
+    }
+
+    @Override
+    public void compileShader(int shader) {
+        GL20.glCompileShader(shader);
+    }
+
+    @Override
+    public int getShaderi(int shader, int pname) {
+        return GL20.glGetShaderi(shader, pname);
+    }
+
+    @Override
+    public String getShaderInfoLog(int shader) {
+        return GL20.glGetShaderInfoLog(shader);
+    }
+
+    @Override
+    public void deleteShader(int shader) {
+        GL20.glDeleteShader(shader);
+    }
+
+    @Override
+    public int createProgram() {
+        return GL20.glCreateProgram();
+    }
+
+    @Override
+    public void attachShader(int program, int shader) {
+        GL20.glAttachShader(program, shader);
+    }
+
+    @Override
+    public void detachShader(int program, int shader) {
+        GL20.glDetachShader(program, shader);
+    }
+
+    @Override
+    public void linkProgram(int program) {
+        GL20.glLinkProgram(program);
+    }
+
+    @Override
+    public int getProgrami(int program, int pname) {
+        return GL20.glGetProgrami(program, pname);
+    }
+
+    @Override
+    public String getProgramInfoLog(int program) {
+        return GL20.glGetProgramInfoLog(program);
+    }
+
+    @Override
+    public String getActiveUniform(int program, int index, IntBuffer size, IntBuffer type) {
+        return GL20.glGetActiveUniform(program, index, size, type);
+    }
+
+    @Override
+    public int getUniformLocation(int program, CharSequence name) {
+        return GL20.glGetUniformLocation(program, name);
+    }
+
+    @Override
+    public void useProgram(int program) {
+        GL20.glUseProgram(program);
+    }
+
+    @Override
+    public void deleteProgram(int program) {
+        GL20.glDeleteProgram(program);
+    }
+
+    @Override
+    public boolean supportsProgramBinary() {
+        GLCapabilities capabilities = GL.getCapabilities();
+        return (capabilities.OpenGL41 || capabilities.GL_ARB_get_program_binary)
+                && GL11.glGetInteger(GL41.GL_NUM_PROGRAM_BINARY_FORMATS) > 0;
+    }
+
+    @Override
+    public void programParameteri(int program, int pname, int value) {
+        GL41.glProgramParameteri(program, pname, value);
+    }
+
+    @Override
+    public void getProgramBinary(int program, IntBuffer length, IntBuffer binaryFormat, ByteBuffer binary) {
+        GL41.glGetProgramBinary(program, length, binaryFormat, binary);
+    }
+
+    @Override
+    public void programBinary(int program, int binaryFormat, ByteBuffer binary) {
+        GL41.glProgramBinary(program, binaryFormat, binary);
+    }
+
+    @Override
+    public boolean supportsParallelShaderCompile() {
+        GLCapabilities capabilities = GL.getCapabilities();
+        return capabilities.GL_KHR_parallel_shader_compile;
+    }
+
+    @Override
+    public void maxShaderCompilerThreads(int count) {
+        KHRParallelShaderCompile.glMaxShaderCompilerThreadsKHR(count);
+    }
+
+    @Override
+    public String getString(int name) {
+        return GL11.glGetString(name);
+    }
+
+    @Override
+    public void programUniform1i(int program, int location, int value) {
+        GL41.glProgramUniform1i(program, location, value);
+    }
+
+    @Override
+    public void uniformMatrix4fv(int location, boolean transpose, FloatBuffer value) {
+        GL20.glUniformMatrix4fv(location, transpose, value);
+    }
+
+    @Override
+    public void programUniformMatrix4fv(int program, int location, boolean transpose, FloatBuffer value) {
+        GL41.glProgramUniformMatrix4fv(program, location, transpose, value);
+    }
+
+    @Override
+    public void enable(int capability) {
+        GL11.glEnable(capability);
+    }
+
+    @Override
+    public void disable(int capability) {
+        GL11.glDisable(capability);
+    }
+
+    @Override
+    public void blendFunc(int sourceFactor, int destinationFactor) {
+        GL11.glBlendFunc(sourceFactor, destinationFactor);
+    }
+
+    @Override
+    public void clearColor(float red, float green, float blue, float alpha) {
+        GL11.glClearColor(red, green, blue, alpha);
+    }
+
+    @Override
+    public void clear(int mask) {
+        GL11.glClear(mask);
+    }
+
+    @Override
+    public void drawArrays(int mode, int first, int count) {
+        GL11.glDrawArrays(mode, first, count);
+    }
+
+    @Override
+    public void drawElements(int mode, int count, int type, long indices) {
+        GL11.glDrawElements(mode, count, type, indices);
+    }
+
+    @Override
+    public void drawElementsInstanced(int mode, int count, int type, long indices, int instanceCount) {
+        GL31.glDrawElementsInstanced(mode, count, type, indices, instanceCount);
+    }
+
+    @Override
+    public boolean supportsMultiDrawIndirect() {
+        GLCapabilities capabilities = GL.getCapabilities();
+        return capabilities.OpenGL43 || capabilities.GL_ARB_multi_draw_indirect;
+    }
+
+    @Override
+    public void multiDrawElementsIndirect(int mode, int type, long indirect, int drawCount, int stride) {
+        GL43.glMultiDrawElementsIndirect(mode, type, indirect, drawCount, stride);
+    }
+
+    @Override
+    public void multiDrawElementsBaseVertex(int mode, IntBuffer count, int type, PointerBuffer indices,
+                                            IntBuffer baseVertex) {
+        GL32.glMultiDrawElementsBaseVertex(mode, count, type, indices, baseVertex);
+    }
+}
@@ -0,0 +1,374 @@
+package rendering;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Owns the GPU objects of the engine, and hands out handles to them instead of raw GL names.
+ * <p>
+ * A handle holds a slot index and the generation of the slot. Releasing an object moves its slot on to the next
+ * generation, so a handle kept around after that is caught as stale, instead of silently reaching whatever object
+ * GL gives the recycled name to next. Each slot also remembers what kind of object it holds, so a buffer handle
+ * can't be used as a vertex array.
+ * <p>
+ * Objects are reference counted, starting at one for whoever created them. Releasing the last reference doesn't
+ * delete the object right away: draws queued earlier in the frame still refer to it by name, so deletions are
+ * collected and issued together by {@link #endFrame()}.
+ * <p>
+ * Every object is filed under a category, e.g. "chunk meshes", and the size of buffers and textures is tracked per
+ * category. {@link #delete()} reports whatever was never released, which would otherwise be a slow creep of GPU memory.
+ * <p>
+ * Like the backend, a registry belongs to the render thread.
+ */
+public final class GpuResources {
+    /**
+     * The kinds of GL object a handle can refer to.
+     */
+    public enum Kind {
+        BUFFER,
+        VERTEX_ARRAY,
+        PROGRAM,
+        SHADER,
+        TEXTURE
+    }
+
+    // 20 bits of slot leave 11 of generation with handles still positive
+    private static final int SLOT_BITS = 20;
+    private static final int SLOT_MASK = (1 << SLOT_BITS) - 1;
+    private static final int GENERATION_MASK = (1 << 11) - 1;
+    private static final int INITIAL_CAPACITY = 64;
+
+    private final RenderBackend backend;
+
+    // Slots, by index
+    private int[] names = new int[INITIAL_CAPACITY];
+    private int[] generations = new int[INITIAL_CAPACITY];
+    private int[] referenceCounts = new int[INITIAL_CAPACITY];
+    private Kind[] kinds = new Kind[INITIAL_CAPACITY];
+    private int[] categoryOfSlot = new int[INITIAL_CAPACITY];
+    private long[] sizes = new long[INITIAL_CAPACITY];
+    private int slotCount;
+    private int[] freeSlots = new int[INITIAL_CAPACITY];
+    private int freeSlotCount;
+
+    // Slots released since the last endFrame(), whose objects are still to be deleted
+    private int[] pendingSlots = new int[INITIAL_CAPACITY];
+    private int pendingCount;
+
+    // Categories, by the id they were given when first used
+    private final Map<String, Integer> categoryIds = new HashMap<>();
+    private final List<String> categoryNames = new ArrayList<>();
+    private int[] categoryObjects = new int[8];
+    private long[] categoryBytes = new long[8];
+    private long[] categoryPeakBytes = new long[8];
+
+    private int liveCount;
+    private int deletedLastFrame;
+
+    /**
+     * @param backend The backend the objects are created and deleted through
+     */
+    public GpuResources(RenderBackend backend) {
+        this.backend = backend;
+    }
+
+    /**
+     * @return the backend the objects are created and deleted through
+     */
+    public RenderBackend getBackend() {
+        return backend;
+    }
+
+    /**
+     * Create a buffer.
+     *
+     * @param category What the buffer is for, e.g. "chunk meshes"
+     * @return a handle to the buffer
+     */
+    public int createBuffer(String category) {
+        return register(Kind.BUFFER, backend.createBuffer(), category);
+    }
+
+    /**
+     * Create a vertex array.
+     *
+     * @param category What the vertex array is for
+     * @return a handle to the vertex array
+     */
+    public int createVertexArray(String category) {
+        return register(Kind.VERTEX_ARRAY, backend.createVertexArray(), category);
+    }
+
+    /**
+     * Create a texture.
+     *
+     * @param category What the texture is for
+     * @return a handle to the texture
+     */
+    public int createTexture(String category) {
+        return register(Kind.TEXTURE, backend.createTexture(), category);
+    }
+
+    /**
+     * Take ownership of an object created elsewhere, such as a linked shader program.
+     *
+     * @param kind     The kind of object
+     * @param name     The GL name of the object
+     * @param category What the object is for
+     * @return a handle to the object
+     */
+    public int register(Kind kind, int name, String category) {
+        if (name == 0) {
+            throw new IllegalArgumentException("0 doesn't name a GL object");
+        }
+        int slot;
+        if (freeSlotCount > 0) {
+            slot = freeSlots[--freeSlotCount];
+        } else {
+            if (slotCount == SLOT_MASK + 1) {
+                throw new IllegalStateException("Too many GPU objects");
+            }
+            if (slotCount == names.length) {
+                grow();
+            }
+            slot = slotCount++;
+            generations[slot] = 1;
+        }
+        int categoryId = categoryId(category);
+        names[slot] = name;
+        referenceCounts[slot] = 1;
+        kinds[slot] = kind;
+        categoryOfSlot[slot] = categoryId;
+        sizes[slot] = 0;
+        categoryObjects[categoryId]++;
+        liveCount++;
+        return generations[slot] << SLOT_BITS | slot;
+    }
+
+    private void grow() {
+        int capacity = names.length * 2;
+        names = Arrays.copyOf(names, capacity);
+        generations = Arrays.copyOf(generations, capacity);
+        referenceCounts = Arrays.copyOf(referenceCounts, capacity);
+        kinds = Arrays.copyOf(kinds, capacity);
+        categoryOfSlot = Arrays.copyOf(categoryOfSlot, capacity);
+        sizes = Arrays.copyOf(sizes, capacity);
+        freeSlots = Arrays.copyOf(freeSlots, capacity);
+        pendingSlots = Arrays.copyOf(pendingSlots, capacity);
+    }
+
+    private int categoryId(String category) {
+        Integer id = categoryIds.get(category);
+        if (id == null) {
+            id = categoryNames.size();
+            categoryIds.put(category, id);
+            categoryNames.add(category);
+            if (id == categoryObjects.length) {
+                categoryObjects = Arrays.copyOf(categoryObjects, id * 2);
+                categoryBytes = Arrays.copyOf(categoryBytes, id * 2);
+                categoryPeakBytes = Arrays.copyOf(categoryPeakBytes, id * 2);
+            }
+        }
+        return id;
+    }
+
+    /**
+     * Find the slot of a handle, checking that it is still alive and of the expected kind.
+     */
+    private int slot(int handle, Kind kind) {
+        int slot = handle & SLOT_MASK;
+        if (handle <= 0 || slot >= slotCount || generations[slot] != handle >>> SLOT_BITS) {
+            throw new IllegalStateException("Stale or invalid GPU handle " + handle);
+        }
+        if (kind != null && kinds[slot] != kind) {
+            throw new IllegalArgumentException("GPU handle " + handle + " is a " + kinds[slot] + ", not a " + kind);
+        }
+        return slot;
+    }
+
+    /**
+     * @param handle A handle to a buffer
+     * @return the GL name of the buffer
+     */
+    public int buffer(int handle) {
+        return names[slot(handle, Kind.BUFFER)];
+    }
+
+    /**
+     * @param handle A handle to a vertex array
+     * @return the GL name of the vertex array
+     */
+    public int vertexArray(int handle) {
+        return names[slot(handle, Kind.VERTEX_ARRAY)];
+    }
+
+    /**
+     * @param handle A handle to a program
+     * @return the GL name of the program
+     */
+    public int program(int handle) {
+        return names[slot(handle, Kind.PROGRAM)];
+    }
+
+    /**
+     * @param handle A handle to a texture
+     * @return the GL name of the texture
+     */
+    public int texture(int handle) {
+        return names[slot(handle, Kind.TEXTURE)];
+    }
+
+    /**
+     * @param handle Any int
+     * @return true if the handle refers to an object that hasn't been released
+     */
+    public boolean isValid(int handle) {
+        int slot = handle & SLOT_MASK;
+        return handle > 0 && slot < slotCount && generations[slot] == handle >>> SLOT_BITS;
+    }
+
+    /**
+     * Record how much GPU memory an object takes up, e.g. after allocating a buffer's storage.
+     *
+     * @param handle A handle to the object
+     * @param bytes  The size of the object
+     */
+    public void setSize(int handle, long bytes) {
+        int slot = slot(handle, null);
+        int category = categoryOfSlot[slot];
+        categoryBytes[category] += bytes - sizes[slot];
+        categoryPeakBytes[category] = Math.max(categoryPeakBytes[category], categoryBytes[category]);
+        sizes[slot] = bytes;
+    }
+
+    /**
+     * Add a reference to an object, which then needs one more {@link #release(int)} before it is deleted.
+     *
+     * @param handle A handle to the object
+     */
+    public void retain(int handle) {
+        referenceCounts[slot(handle, null)]++;
+    }
+
+    /**
+     * Drop a reference to an object. Once none are left the handle becomes invalid, and the object is deleted by the
+     * next {@link #endFrame()}.
+     *
+     * @param handle A handle to the object
+     */
+    public void release(int handle) {
+        int slot = slot(handle, null);
+        if (--referenceCounts[slot] > 0) {
+            return;
+        }
+        // Generation 0 is skipped, so that 0 is never a valid handle
+        int generation = (generations[slot] + 1) & GENERATION_MASK;
+        generations[slot] = generation == 0 ? 1 : generation;
+        pendingSlots[pendingCount++] = slot;
+    }
+
+    /**
+     * Delete the objects released since the last call. Call once a frame, after its draws have been submitted.
+     */
+    public void endFrame() {
+        for (int i = 0; i < pendingCount; i++) {
+            deleteSlot(pendingSlots[i]);
+        }
+        deletedLastFrame = pendingCount;
+        pendingCount = 0;
+    }
+
+    private void deleteSlot(int slot) {
+        int name = names[slot];
+        switch (kinds[slot]) {
+            case BUFFER -> backend.deleteBuffer(name);
+            case VERTEX_ARRAY -> backend.deleteVertexArray(name);
+            case PROGRAM -> backend.deleteProgram(name);
+            case SHADER -> backend.deleteShader(name);
+            case TEXTURE -> backend.deleteTexture(name);
+        }
+        int category = categoryOfSlot[slot];
+        categoryObjects[category]--;
+        categoryBytes[category] -= sizes[slot];
+        names[slot] = 0;
+        kinds[slot] = null;
+        freeSlots[freeSlotCount++] = slot;
+        liveCount--;
+    }
+
+    /**
+     * Delete every object, whether it was released or not.
+     *
+     * @return a report of the objects that were never released, by category, or null if there were none
+     */
+    public String delete() {
+        endFrame();
+        if (liveCount == 0) {
+            return null;
+        }
+        StringBuilder report = new StringBuilder();
+        report.append(liveCount).append(" GPU objects were never released:\n");
+        for (int category = 0; category < categoryNames.size(); category++) {
+            if (categoryObjects[category] > 0) {
+                report.append("  ").append(categoryNames.get(category)).append(": ")
+                        .append(categoryObjects[category]).append(" objects, ")
+                        .append(categoryBytes[category]).append(" bytes\n");
+            }
+        }
+        for (int slot = 0; slot < slotCount; slot++) {
+            if (kinds[slot] != null) {
+                deleteSlot(slot);
+            }
+        }
+        return report.toString();
+    }
+
+    /**
+     * @return the number of objects created and not yet deleted
+     */
+    public int getLiveCount() {
+        return liveCount;
+    }
+
+    /**
+     * @return the number of objects deleted by the last {@link #endFrame()}
+     */
+    public int getDeletedLastFrame() {
+        return deletedLastFrame;
+    }
+
+    /**
+     * @param category A category objects were created under
+     * @return the bytes of GPU memory taken up by objects in the category
+     */
+    public long getMemory(String category) {
+        Integer id = categoryIds.get(category);
+        return id == null ? 0 : categoryBytes[id];
+    }
+
+    /**
+     * @return the bytes of GPU memory taken up by all objects
+     */
+    public long getTotalMemory() {
+        long total = 0;
+        for (int category = 0; category < categoryNames.size(); category++) {
+            total += categoryBytes[category];
+        }
+        return total;
+    }
+
+    /**
+     * @return a line per category with its number of objects, their memory, and the most memory it ever took up
+     */
+    public String summary() {
+        StringBuilder summary = new StringBuilder();
+        for (int category = 0; category < categoryNames.size(); category++) {
+            summary.append(String.format("%-16s %6d objects %10d bytes %10d peak\n", categoryNames.get(category),
+                    categoryObjects[category], categoryBytes[category], categoryPeakBytes[category]));
+        }
+        return summary.toString();
+    }
+}
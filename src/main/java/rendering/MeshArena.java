@@ -0,0 +1,292 @@
+package rendering;
+
+import org.lwjgl.opengl.GL15;
+import org.lwjgl.opengl.GL31;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+/**
+ * Keeps many static meshes in one vertex buffer and one index buffer, behind a single vertex array, so they can all
+ * be drawn with one multi-draw call from a {@link DrawCommandBuffer}.
+ * <p>
+ * Each mesh gets a range of vertices and a range of indices, handed out by a {@link RangeAllocator}. Indices stay
+ * relative to the mesh's own vertices, and draws add the mesh's base vertex, so a mesh is uploaded the same wherever
+ * it ends up. All meshes share one vertex layout and one index type.
+ * <p>
+ * When a mesh doesn't fit, the buffers are rebuilt: the live meshes are copied, packed together, into new buffers,
+ * which are twice as large if packing alone wouldn't make enough room. That both grows the arena and defragments it,
+ * and is done on the GPU with glCopyBufferSubData. Meshes are named by ids that survive this, and their ranges should
+ * be looked up each time they are drawn.
+ */
+public class MeshArena {
+    private final GpuResources resources;
+    private final RenderBackend backend;
+    private final VertexLayout layout;
+    private final int indexType;
+    private final int indexBytes;
+    private final String category;
+
+    private final RangeAllocator vertexRanges;
+    private final RangeAllocator indexRanges;
+    // Handles in the registry
+    private final int vao;
+    private int vbo;
+    private int ebo;
+
+    // Per mesh id: its allocation in each allocator, -1 for a free id
+    private int[] vertexAllocations = new int[64];
+    private int[] indexAllocations = new int[64];
+    private int[] freeIds = new int[64];
+    private int freeIdCount;
+    private int idLimit;
+    private int meshCount;
+
+    private int rebuilds;
+
+    /**
+     * @param resources       The registry to create the buffers in
+     * @param layout          The layout of every mesh's vertices
+     * @param indexType       The type of every mesh's indices, GL_UNSIGNED_SHORT or GL_UNSIGNED_INT
+     * @param initialVertices The number of vertices to make room for at first
+     * @param initialIndices  The number of indices to make room for at first
+     * @param category        What the meshes are, for the registry
+     */
+    public MeshArena(GpuResources resources, VertexLayout layout, int indexType, int initialVertices,
+                     int initialIndices, String category) {
+        this.resources = resources;
+        this.backend = resources.getBackend();
+        this.layout = layout;
+        this.indexType = indexType;
+        this.indexBytes = VertexPacking.indexBytes(indexType);
+        this.category = category;
+        this.vertexRanges = new RangeAllocator(initialVertices);
+        this.indexRanges = new RangeAllocator(initialIndices);
+        vao = resources.createVertexArray(category);
+        vbo = createBuffer((long) initialVertices * layout.getStride());
+        ebo = createBuffer((long) initialIndices * indexBytes);
+        bindBuffers();
+        Arrays.fill(vertexAllocations, -1);
+        Arrays.fill(indexAllocations, -1);
+    }
+
+    /*
+     Buffers are filled and copied through the copy targets. Binding the element array target would change the
+     element buffer of whatever vertex array happens to be bound.
+    */
+    private int createBuffer(long bytes) {
+        int handle = resources.createBuffer(category);
+        backend.bindBuffer(GL31.GL_COPY_WRITE_BUFFER, resources.buffer(handle));
+        backend.bufferData(GL31.GL_COPY_WRITE_BUFFER, bytes, GL15.GL_STATIC_DRAW);
+        backend.bindBuffer(GL31.GL_COPY_WRITE_BUFFER, 0);
+        resources.setSize(handle, bytes);
+        return handle;
+    }
+
+    /**
+     * Point the vertex array at the current buffers.
+     */
+    private void bindBuffers() {
+        backend.bindVertexArray(resources.vertexArray(vao));
+        backend.bindBuffer(GL15.GL_ARRAY_BUFFER, resources.buffer(vbo));
+        layout.apply(backend);
+        backend.bindBuffer(GL15.GL_ELEMENT_ARRAY_BUFFER, resources.buffer(ebo));
+        backend.bindVertexArray(0);
+        backend.bindBuffer(GL15.GL_ARRAY_BUFFER, 0);
+    }
+
+    /**
+     * Add a mesh, growing or defragmenting the arena if it doesn't fit.
+     *
+     * @param vertices The vertices, in the arena's layout, from position to limit
+     * @param indices  The indices, in the arena's index type and counted from the mesh's first vertex
+     * @return the id of the mesh
+     */
+    public int add(ByteBuffer vertices, ByteBuffer indices) {
+        int vertexCount = vertices.remaining() / layout.getStride();
+        int indexCount = indices.remaining() / indexBytes;
+        int vertexAllocation = allocate(vertexRanges, vertexCount, true);
+        int indexAllocation = allocate(indexRanges, indexCount, false);
+
+        int id;
+        if (freeIdCount > 0) {
+            id = freeIds[--freeIdCount];
+        } else {
+            if (idLimit == vertexAllocations.length) {
+                int length = idLimit * 2;
+                vertexAllocations = Arrays.copyOf(vertexAllocations, length);
+                indexAllocations = Arrays.copyOf(indexAllocations, length);
+                freeIds = Arrays.copyOf(freeIds, length);
+            }
+            id = idLimit++;
+        }
+        vertexAllocations[id] = vertexAllocation;
+        indexAllocations[id] = indexAllocation;
+        meshCount++;
+
+        backend.bindBuffer(GL31.GL_COPY_WRITE_BUFFER, resources.buffer(vbo));
+        backend.bufferSubData(GL31.GL_COPY_WRITE_BUFFER,
+                (long) vertexRanges.getOffset(vertexAllocation) * layout.getStride(), vertices);
+        backend.bindBuffer(GL31.GL_COPY_WRITE_BUFFER, resources.buffer(ebo));
+        backend.bufferSubData(GL31.GL_COPY_WRITE_BUFFER, (long) indexRanges.getOffset(indexAllocation) * indexBytes,
+                indices);
+        backend.bindBuffer(GL31.GL_COPY_WRITE_BUFFER, 0);
+        return id;
+    }
+
+    /**
+     * Allocate from one of the allocators, rebuilding its buffer bigger or packed if needed.
+     */
+    private int allocate(RangeAllocator ranges, int size, boolean vertices) {
+        // Empty meshes still get a range of their own
+        size = Math.max(size, 1);
+        int allocation = ranges.allocate(size);
+        if (allocation != RangeAllocator.NO_SPACE) {
+            return allocation;
+        }
+        int needed = ranges.getUsed() + size;
+        int capacity = ranges.getCapacity();
+        if (needed > capacity) {
+            capacity = Math.max(capacity * 2, needed);
+        }
+        rebuild(ranges, capacity, vertices);
+        return ranges.allocate(size);
+    }
+
+    /**
+     * Copy every live range of a buffer, packed together, into a new buffer of the given capacity.
+     */
+    private void rebuild(RangeAllocator ranges, int capacity, boolean vertices) {
+        int unitBytes = vertices ? layout.getStride() : indexBytes;
+        int oldBuffer = vertices ? vbo : ebo;
+        int newBuffer = createBuffer((long) capacity * unitBytes);
+        backend.bindBuffer(GL31.GL_COPY_READ_BUFFER, resources.buffer(oldBuffer));
+        backend.bindBuffer(GL31.GL_COPY_WRITE_BUFFER, resources.buffer(newBuffer));
+        ranges.compact(capacity, (id, oldOffset, newOffset, size) -> backend.copyBufferSubData(GL31.GL_COPY_READ_BUFFER,
+                GL31.GL_COPY_WRITE_BUFFER, (long) oldOffset * unitBytes, (long) newOffset * unitBytes,
+                (long) size * unitBytes));
+        backend.bindBuffer(GL31.GL_COPY_READ_BUFFER, 0);
+        backend.bindBuffer(GL31.GL_COPY_WRITE_BUFFER, 0);
+        // Draws already queued this frame use the vertex array, not the buffer, so the old one can go at frame end
+        resources.release(oldBuffer);
+        if (vertices) {
+            vbo = newBuffer;
+        } else {
+            ebo = newBuffer;
+        }
+        bindBuffers();
+        rebuilds++;
+    }
+
+    /**
+     * Remove a mesh. Its ranges are reused by later meshes.
+     *
+     * @param id The id of the mesh
+     */
+    public void remove(int id) {
+        checkId(id);
+        vertexRanges.free(vertexAllocations[id]);
+        indexRanges.free(indexAllocations[id]);
+        vertexAllocations[id] = -1;
+        indexAllocations[id] = -1;
+        freeIds[freeIdCount++] = id;
+        meshCount--;
+    }
+
+    private void checkId(int id) {
+        if (id < 0 || id >= idLimit || vertexAllocations[id] < 0) {
+            throw new IllegalArgumentException("No mesh with id " + id);
+        }
+    }
+
+    /**
+     * Pack every mesh together, e.g. when there is time to spare, so later meshes fit without a rebuild.
+     */
+    public void compact() {
+        rebuild(vertexRanges, vertexRanges.getCapacity(), true);
+        rebuild(indexRanges, indexRanges.getCapacity(), false);
+    }
+
+    /**
+     * @param id The id of a mesh
+     * @return the position of the mesh's first vertex, the base vertex to draw it with
+     */
+    public int getBaseVertex(int id) {
+        checkId(id);
+        return vertexRanges.getOffset(vertexAllocations[id]);
+    }
+
+    /**
+     * @param id The id of a mesh
+     * @return the position of the mesh's first index in the element buffer
+     */
+    public int getFirstIndex(int id) {
+        checkId(id);
+        return indexRanges.getOffset(indexAllocations[id]);
+    }
+
+    /**
+     * @return the GL name of the vertex array every mesh is drawn with
+     */
+    public int getVertexArray() {
+        return resources.vertexArray(vao);
+    }
+
+    /**
+     * @return the type of the indices
+     */
+    public int getIndexType() {
+        return indexType;
+    }
+
+    /**
+     * @return the number of meshes
+     */
+    public int getMeshCount() {
+        return meshCount;
+    }
+
+    /**
+     * @return the number of vertices the arena has room for
+     */
+    public int getVertexCapacity() {
+        return vertexRanges.getCapacity();
+    }
+
+    /**
+     * @return the number of vertices used by meshes
+     */
+    public int getVerticesUsed() {
+        return vertexRanges.getUsed();
+    }
+
+    /**
+     * @return the number of indices the arena has room for
+     */
+    public int getIndexCapacity() {
+        return indexRanges.getCapacity();
+    }
+
+    /**
+     * @return the number of indices used by meshes
+     */
+    public int getIndicesUsed() {
+        return indexRanges.getUsed();
+    }
+
+    /**
+     * @return the number of times a buffer was rebuilt to grow or defragment it
+     */
+    public int getRebuilds() {
+        return rebuilds;
+    }
+
+    /**
+     * Release the vertex array and buffers, to be deleted by the registry's next {@link GpuResources#endFrame()}.
+     */
+    public void delete() {
+        resources.release(vao);
+        resources.release(vbo);
+        resources.release(ebo);
+    }
+}
@@ -0,0 +1,158 @@
+package rendering;
+
+import assets.MeshData;
+import assets.MeshFile;
+import assets.MeshLoader;
+import org.lwjgl.opengl.GL11;
+
+import java.nio.file.Path;
+import java.util.Arrays;
+
+/**
+ * Owns the GPU buffers of meshes loaded from {@link MeshFile}s, and draws them where they were modelled.
+ * Lives on the render thread.
+ * <p>
+ * Files are read by a {@link MeshLoader} on its workers, and {@link #update(StateTracker)} uploads the ones that have
+ * finished, so a model shows up a frame or so after it is loaded and loading never holds up a frame. Every model
+ * shares one {@link MeshArena}, and they are all drawn with a single multi-draw call.
+ */
+public class ModelRenderer {
+    private static final String CATEGORY = "models";
+    // A position and a normal, as the mesh files store them
+    private static final VertexLayout LAYOUT = VertexLayout.builder()
+            .add(0, 3, VertexLayout.Type.FLOAT, false)
+            .add(1, 3, VertexLayout.Type.FLOAT, false)
+            .build();
+    private static final int ARENA_INITIAL_VERTICES = 4 * 1024;
+    private static final int ARENA_INITIAL_INDICES = 8 * 1024;
+
+    private final MeshLoader loader;
+    private final MeshArena arena;
+    private final DrawCommandBuffer commands;
+    // Per model: its id in the arena and its number of indices
+    private int[] meshIds = new int[8];
+    private int[] indexCounts = new int[8];
+    private int modelCount;
+    private int failedCount;
+    private boolean commandsDirty;
+
+    /**
+     * @param resources The registry to create the model buffers in
+     * @param loader    The loader to read mesh files with, still owned by the caller
+     */
+    public ModelRenderer(GpuResources resources, MeshLoader loader) {
+        this.loader = loader;
+        arena = new MeshArena(resources, LAYOUT, GL11.GL_UNSIGNED_INT, ARENA_INITIAL_VERTICES, ARENA_INITIAL_INDICES,
+                CATEGORY);
+        commands = new DrawCommandBuffer(resources, GL11.GL_UNSIGNED_INT);
+    }
+
+    /**
+     * Start loading a mesh file. It is drawn from the first {@link #draw} after an {@link #update} has uploaded it.
+     *
+     * @param path The file to load
+     */
+    public void load(Path path) {
+        loader.submit(path);
+    }
+
+    /**
+     * Upload the meshes that have finished loading.
+     *
+     * @param tracker The tracker the models are drawn through, invalidated if the arena bound its vertex array
+     * @return the number of meshes uploaded
+     */
+    public int update(StateTracker tracker) {
+        int rebuilds = arena.getRebuilds();
+        int uploaded = 0;
+        MeshLoader.Result result;
+        while ((result = loader.poll()) != null) {
+            MeshData mesh = result.getMesh();
+            if (mesh == null) {
+                System.err.println("Failed to load model " + result.getPath() + ": " + result.getError().getMessage());
+                failedCount++;
+                continue;
+            }
+            try {
+                if (mesh.getVertexStride() != LAYOUT.getStride()) {
+                    System.err.println("Failed to load model " + result.getPath() + ": unexpected vertex stride "
+                            + mesh.getVertexStride());
+                    failedCount++;
+                    continue;
+                }
+                add(arena.add(mesh.getVertices(), mesh.getIndices()), mesh.getIndexCount());
+                uploaded++;
+            } finally {
+                mesh.free();
+            }
+        }
+        if (arena.getRebuilds() != rebuilds) {
+            tracker.invalidate();
+        }
+        return uploaded;
+    }
+
+    private void add(int meshId, int indexCount) {
+        if (modelCount == meshIds.length) {
+            meshIds = Arrays.copyOf(meshIds, modelCount * 2);
+            indexCounts = Arrays.copyOf(indexCounts, modelCount * 2);
+        }
+        meshIds[modelCount] = meshId;
+        indexCounts[modelCount] = indexCount;
+        modelCount++;
+        commandsDirty = true;
+    }
+
+    /**
+     * Queue every uploaded model to be drawn. The draw commands are only rebuilt when a model has been added.
+     *
+     * @param queue   The queue to add the draw to
+     * @param program The GL name of a shader program taking world positions at attribute 0
+     */
+    public void draw(RenderQueue queue, int program) {
+        if (modelCount == 0) {
+            return;
+        }
+        if (commandsDirty) {
+            // Arena rebuilds move meshes around, so their ranges are looked up again
+            commands.clear();
+            for (int i = 0; i < modelCount; i++) {
+                commands.add(indexCounts[i], 1, arena.getFirstIndex(meshIds[i]), arena.getBaseVertex(meshIds[i]), 0);
+            }
+            commands.upload();
+            commandsDirty = false;
+        }
+        queue.addMultiDraw(program, arena.getVertexArray(), 0, 0.0f, GL11.GL_TRIANGLES, GL11.GL_UNSIGNED_INT,
+                commands);
+    }
+
+    /**
+     * Release the model buffers, to be deleted by the registry's next {@link GpuResources#endFrame()}.
+     * The loader isn't closed, it belongs to the caller.
+     */
+    public void delete() {
+        arena.delete();
+        commands.delete();
+    }
+
+    /**
+     * @return the number of models uploaded and drawn
+     */
+    public int getModelCount() {
+        return modelCount;
+    }
+
+    /**
+     * @return the number of mesh files that couldn't be loaded
+     */
+    public int getFailedCount() {
+        return failedCount;
+    }
+
+    /**
+     * @return the number of mesh files still loading
+     */
+    public int getPending() {
+        return loader.getPending();
+    }
+}
@@ -0,0 +1,253 @@
+package rendering;
+
+import java.util.Arrays;
+
+/**
+ * Hands out ranges of a fixed size space, such as the vertices of a shared buffer, and can pack them together again.
+ * <p>
+ * Free space is kept as a list of ranges sorted by offset, neighbouring free ranges are merged as soon as they
+ * appear, and allocations take the first free range that fits. Over time freed holes can still leave the space too
+ * fragmented for a large request, {@link #compact(int, Mover)} then moves every allocation to the front.
+ * <p>
+ * Allocations are named by small int ids, which stay the same when allocations are moved, so owners look up the
+ * offset whenever they need it rather than keeping it. Doesn't touch GL at all, and is not thread safe.
+ */
+public class RangeAllocator {
+    /**
+     * Returned by {@link #allocate(int)} when there is no free range large enough.
+     */
+    public static final int NO_SPACE = -1;
+
+    /**
+     * Receives the moves made by {@link #compact(int, Mover)}.
+     */
+    @FunctionalInterface
+    public interface Mover {
+        /**
+         * @param id        The allocation being moved
+         * @param oldOffset Where the allocation was
+         * @param newOffset Where the allocation is now
+         * @param size      The size of the allocation
+         */
+        void move(int id, int oldOffset, int newOffset, int size);
+    }
+
+    private int capacity;
+    private int used;
+
+    // Allocations, by id, a size of 0 means the id is free
+    private int[] offsets = new int[64];
+    private int[] sizes = new int[64];
+    private int[] freeIds = new int[64];
+    private int freeIdCount;
+    private int idLimit;
+
+    // Free ranges, sorted by offset, never touching each other
+    private int[] freeOffsets = new int[64];
+    private int[] freeSizes = new int[64];
+    private int freeCount;
+
+    // Allocation ids sorted by offset, for compacting
+    private long[] sortScratch = new long[64];
+
+    /**
+     * @param capacity The size of the space
+     */
+    public RangeAllocator(int capacity) {
+        this.capacity = capacity;
+        if (capacity > 0) {
+            freeOffsets[0] = 0;
+            freeSizes[0] = capacity;
+            freeCount = 1;
+        }
+    }
+
+    /**
+     * Allocate a range.
+     *
+     * @param size The size of the range, more than 0
+     * @return the id of the allocation, or {@link #NO_SPACE}
+     */
+    public int allocate(int size) {
+        if (size <= 0) {
+            throw new IllegalArgumentException("Invalid range size " + size);
+        }
+        for (int i = 0; i < freeCount; i++) {
+            if (freeSizes[i] < size) {
+                continue;
+            }
+            int offset = freeOffsets[i];
+            if (freeSizes[i] == size) {
+                removeFree(i);
+            } else {
+                freeOffsets[i] += size;
+                freeSizes[i] -= size;
+            }
+            int id = newId();
+            offsets[id] = offset;
+            sizes[id] = size;
+            used += size;
+            return id;
+        }
+        return NO_SPACE;
+    }
+
+    private int newId() {
+        if (freeIdCount > 0) {
+            return freeIds[--freeIdCount];
+        }
+        if (idLimit == offsets.length) {
+            int length = idLimit * 2;
+            offsets = Arrays.copyOf(offsets, length);
+            sizes = Arrays.copyOf(sizes, length);
+            freeIds = Arrays.copyOf(freeIds, length);
+        }
+        return idLimit++;
+    }
+
+    /**
+     * Free a range, merging it with the free ranges next to it.
+     *
+     * @param id The id of the allocation
+     */
+    public void free(int id) {
+        checkId(id);
+        int offset = offsets[id];
+        int size = sizes[id];
+        sizes[id] = 0;
+        freeIds[freeIdCount++] = id;
+        used -= size;
+
+        // Find the first free range after this one
+        int next = 0;
+        while (next < freeCount && freeOffsets[next] < offset) {
+            next++;
+        }
+        boolean joinsPrevious = next > 0 && freeOffsets[next - 1] + freeSizes[next - 1] == offset;
+        boolean joinsNext = next < freeCount && offset + size == freeOffsets[next];
+        if (joinsPrevious && joinsNext) {
+            freeSizes[next - 1] += size + freeSizes[next];
+            removeFree(next);
+        } else if (joinsPrevious) {
+            freeSizes[next - 1] += size;
+        } else if (joinsNext) {
+            freeOffsets[next] = offset;
+            freeSizes[next] += size;
+        } else {
+            insertFree(next, offset, size);
+        }
+    }
+
+    private void removeFree(int index) {
+        System.arraycopy(freeOffsets, index + 1, freeOffsets, index, freeCount - index - 1);
+        System.arraycopy(freeSizes, index + 1, freeSizes, index, freeCount - index - 1);
+        freeCount--;
+    }
+
+    private void insertFree(int index, int offset, int size) {
+        if (freeCount == freeOffsets.length) {
+            freeOffsets = Arrays.copyOf(freeOffsets, freeCount * 2);
+            freeSizes = Arrays.copyOf(freeSizes, freeCount * 2);
+        }
+        System.arraycopy(freeOffsets, index, freeOffsets, index + 1, freeCount - index);
+        System.arraycopy(freeSizes, index, freeSizes, index + 1, freeCount - index);
+        freeOffsets[index] = offset;
+        freeSizes[index] = size;
+        freeCount++;
+    }
+
+    private void checkId(int id) {
+        if (id < 0 || id >= idLimit || sizes[id] == 0) {
+            throw new IllegalArgumentException("No allocation with id " + id);
+        }
+    }
+
+    /**
+     * Move every allocation to the front of a space of the given size, in the order they were in, leaving all free
+     * space in one range at the end. Moves are reported in order of increasing offset.
+     *
+     * @param newCapacity The size of the space afterwards, at least {@link #getUsed()}
+     * @param mover       Told about each allocation moved
+     */
+    public void compact(int newCapacity, Mover mover) {
+        if (newCapacity < used) {
+            throw new IllegalArgumentException("Can't fit " + used + " into " + newCapacity);
+        }
+        // Sort the live ids by offset, packed as offset << 32 | id
+        int live = 0;
+        if (sortScratch.length < idLimit) {
+            sortScratch = new long[offsets.length];
+        }
+        for (int id = 0; id < idLimit; id++) {
+            if (sizes[id] > 0) {
+                sortScratch[live++] = (long) offsets[id] << 32 | id;
+            }
+        }
+        Arrays.sort(sortScratch, 0, live);
+        int offset = 0;
+        for (int i = 0; i < live; i++) {
+            int id = (int) sortScratch[i];
+            int oldOffset = offsets[id];
+            offsets[id] = offset;
+            mover.move(id, oldOffset, offset, sizes[id]);
+            offset += sizes[id];
+        }
+        capacity = newCapacity;
+        freeCount = 0;
+        if (offset < capacity) {
+            freeOffsets[0] = offset;
+            freeSizes[0] = capacity - offset;
+            freeCount = 1;
+        }
+    }
+
+    /**
+     * @param id The id of an allocation
+     * @return the offset of the allocation
+     */
+    public int getOffset(int id) {
+        checkId(id);
+        return offsets[id];
+    }
+
+    /**
+     * @param id The id of an allocation
+     * @return the size of the allocation
+     */
+    public int getSize(int id) {
+        checkId(id);
+        return sizes[id];
+    }
+
+    /**
+     * @return the size of the space
+     */
+    public int getCapacity() {
+        return capacity;
+    }
+
+    /**
+     * @return the total size of the allocations
+     */
+    public int getUsed() {
+        return used;
+    }
+
+    /**
+     * @return the size of the largest free range, the largest allocation that would succeed
+     */
+    public int getLargestFree() {
+        int largest = 0;
+        for (int i = 0; i < freeCount; i++) {
+            largest = Math.max(largest, freeSizes[i]);
+        }
+        return largest;
+    }
+
+    /**
+     * @return the number of separate free ranges, 1 or less once compacted
+     */
+    public int getFreeRangeCount() {
+        return freeCount;
+    }
+}
@@ -0,0 +1,666 @@
+package rendering;
+
+import org.lwjgl.BufferUtils;
+import org.lwjgl.PointerBuffer;
+import org.lwjgl.opengl.GL11;
+import org.lwjgl.opengl.GL13;
+import org.lwjgl.opengl.GL15;
+import org.lwjgl.opengl.GL20;
+import org.lwjgl.opengl.GL32;
+import org.lwjgl.opengl.GL41;
+
+import java.nio.ByteBuffer;
+import java.nio.FloatBuffer;
+import java.nio.IntBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * A backend that doesn't talk to a GPU at all.
+ * It hands out fake object names, pretends every shader compiles and links, and counts what it is asked to do:
+ * calls made, draw calls, bytes uploaded, and binds that actually change state versus ones that were redundant.
+ * Mapped buffers are backed by plain memory, and fences are signaled as soon as they are created.
+ * Program binaries are in a format of its own, so a shader cache can be exercised too.
+ * <p>
+ * This lets the render loop run headless, e.g. on CI, to measure the CPU side of a frame.
+ * Not thread safe, like a GL context it belongs to one thread.
+ */
+public class RecordingRenderBackend implements RenderBackend {
+    /**
+     * The only binary format programs are saved in and accepted from.
+     */
+    public static final int BINARY_FORMAT = 0x5245;
+
+    // Matches "uniform mat4 projection;", "uniform highp float t;" and "uniform vec3 lights[4];"
+    private static final Pattern UNIFORM = Pattern.compile("\\buniform\\s+(?:\\w+\\s+)+?(\\w+)\\s*(?:\\[[^]]*])?\\s*;");
+
+    private int nextName = 1;
+
+    private final Map<Integer, String> shaderSources = new HashMap<>();
+    private final Map<Integer, List<Integer>> programShaders = new HashMap<>();
+    private final Map<Integer, List<String>> programUniforms = new HashMap<>();
+    // Programs whose binary was rejected
+    private final Set<Integer> unlinkedPrograms = new HashSet<>();
+    // Memory behind buffers created with bufferStorage, so they can be mapped
+    private final Map<Integer, ByteBuffer> bufferStorage = new HashMap<>();
+
+    // Currently bound state, used to tell real state changes from redundant ones
+    private int boundProgram;
+    private int boundVertexArray;
+    private int boundArrayBuffer;
+    private int boundElementBuffer;
+    private int activeTexture = GL13.GL_TEXTURE0;
+    // Texture bound to each target of the active unit, only the active unit is tracked
+    private final Map<Integer, Integer> boundTextures = new HashMap<>();
+    private long enabledAttributes;
+
+    private long calls;
+    private long drawCalls;
+    private long stateChanges;
+    private long redundantStateChanges;
+    private long bytesUploaded;
+    private long elementsDrawn;
+    private long fences;
+
+    /**
+     * Reset all counters to zero. Bound state and created objects are kept.
+     * Call this at a frame boundary to get per-frame numbers.
+     */
+    public void resetCounters() {
+        calls = 0;
+        drawCalls = 0;
+        stateChanges = 0;
+        redundantStateChanges = 0;
+        bytesUploaded = 0;
+        elementsDrawn = 0;
+        fences = 0;
+    }
+
+    /**
+     * @return the number of backend calls made
+     */
+    public long getCalls() {
+        return calls;
+    }
+
+    /**
+     * @return the number of draw calls made
+     */
+    public long getDrawCalls() {
+        return drawCalls;
+    }
+
+    /**
+     * @return the number of binds and enables that changed state
+     */
+    public long getStateChanges() {
+        return stateChanges;
+    }
+
+    /**
+     * @return the number of binds and enables that set state to what it already was
+     */
+    public long getRedundantStateChanges() {
+        return redundantStateChanges;
+    }
+
+    /**
+     * @return the number of bytes passed to buffer, texture and uniform uploads
+     */
+    public long getBytesUploaded() {
+        return bytesUploaded;
+    }
+
+    /**
+     * @return the number of vertices or indices submitted by draw calls, not counting indirect draws
+     */
+    public long getElementsDrawn() {
+        return elementsDrawn;
+    }
+
+    /**
+     * @return the number of fences created
+     */
+    public long getFences() {
+        return fences;
+    }
+
+    private void stateChange(boolean changed) {
+        if (changed) {
+            stateChanges++;
+        } else {
+            redundantStateChanges++;
+        }
+    }
+
+    @Override
+    public int createBuffer() {
+        calls++;
+        return nextName++;
+    }
+
+    @Override
+    public void bindBuffer(int target, int buffer) {
+        calls++;
+        if (target == GL15.GL_ARRAY_BUFFER) {
+            stateChange(boundArrayBuffer != buffer);
+            boundArrayBuffer = buffer;
+        } else if (target == GL15.GL_ELEMENT_ARRAY_BUFFER) {
+            stateChange(boundElementBuffer != buffer);
+            boundElementBuffer = buffer;
+        } else {
+            stateChange(true);
+        }
+    }
+
+    @Override
+    public void bufferData(int target, FloatBuffer data, int usage) {
+        calls++;
+        bytesUploaded += (long) data.remaining() * Float.BYTES;
+    }
+
+    @Override
+    public void bufferData(int target, IntBuffer data, int usage) {
+        calls++;
+        bytesUploaded += (long) data.remaining() * Integer.BYTES;
+    }
+
+    @Override
+    public void bufferData(int target, ByteBuffer data, int usage) {
+        calls++;
+        bytesUploaded += data.remaining();
+    }
+
+    @Override
+    public void bufferData(int target, long size, int usage) {
+        calls++;
+    }
+
+    @Override
+    public void bufferSubData(int target, long offset, ByteBuffer data) {
+        calls++;
+        bytesUploaded += data.remaining();
+    }
+
+    @Override
+    public void bufferSubData(int target, long offset, FloatBuffer data) {
+        calls++;
+        bytesUploaded += (long) data.remaining() * Float.BYTES;
+    }
+
+    @Override
+    public void copyBufferSubData(int readTarget, int writeTarget, long readOffset, long writeOffset, long size) {
+        calls++;
+    }
+
+    @Override
+    public void deleteBuffer(int buffer) {
+        calls++;
+        bufferStorage.remove(buffer);
+        if (boundArrayBuffer == buffer) {
+            boundArrayBuffer = 0;
+        }
+        if (boundElementBuffer == buffer) {
+            boundElementBuffer = 0;
+        }
+    }
+
+    @Override
+    public boolean supportsBufferStorage() {
+        return true;
+    }
+
+    @Override
+    public void bufferStorage(int target, long size, int flags) {
+        calls++;
+        bufferStorage.put(boundBuffer(target), BufferUtils.createByteBuffer((int) size));
+    }
+
+    @Override
+    public ByteBuffer mapBufferRange(int target, long offset, long length, int access) {
+        calls++;
+        ByteBuffer storage = bufferStorage.get(boundBuffer(target));
+        if (storage == null) {
+            throw new IllegalStateException("Only buffers created with bufferStorage can be mapped");
+        }
+        return storage.slice((int) offset, (int) length).order(storage.order());
+    }
+
+    @Override
+    public boolean unmapBuffer(int target) {
+        calls++;
+        return true;
+    }
+
+    private int boundBuffer(int target) {
+        if (target == GL15.GL_ARRAY_BUFFER) {
+            return boundArrayBuffer;
+        }
+        if (target == GL15.GL_ELEMENT_ARRAY_BUFFER) {
+            return boundElementBuffer;
+        }
+        throw new IllegalArgumentException("Only array and element array buffers are tracked");
+    }
+
+    @Override
+    public long fenceSync() {
+        calls++;
+        fences++;
+        return nextName++;
+    }
+
+    @Override
+    public int clientWaitSync(long sync, int flags, long timeout) {
+        calls++;
+        return GL32.GL_ALREADY_SIGNALED;
+    }
+
+    @Override
+    public void deleteSync(long sync) {
+        calls++;
+    }
+
+    @Override
+    public int createTexture() {
+        calls++;
+        return nextName++;
+    }
+
+    @Override
+    public void activeTexture(int unit) {
+        calls++;
+        stateChange(activeTexture != unit);
+        if (activeTexture != unit) {
+            boundTextures.clear();
+        }
+        activeTexture = unit;
+    }
+
+    @Override
+    public void bindTexture(int target, int texture) {
+        calls++;
+        Integer bound = boundTextures.put(target, texture);
+        stateChange(bound == null || bound != texture);
+    }
+
+    @Override
+    public void texParameteri(int target, int pname, int param) {
+        calls++;
+    }
+
+    @Override
+    public void texImage2D(int target, int level, int internalFormat, int width, int height, int format, int type,
+                           ByteBuffer pixels) {
+        calls++;
+        bytesUploaded += pixels.remaining();
+    }
+
+    @Override
+    public void texImage3D(int target, int level, int internalFormat, int width, int height, int depth, int format,
+                           int type) {
+        calls++;
+    }
+
+    @Override
+    public void compressedTexImage3D(int target, int level, int internalFormat, int width, int height, int depth,
+                                     int imageSize) {
+        calls++;
+    }
+
+    @Override
+    public void texSubImage3D(int target, int level, int x, int y, int z, int width, int height, int depth,
+                              int format, int type, ByteBuffer pixels) {
+        calls++;
+        bytesUploaded += pixels.remaining();
+    }
+
+    @Override
+    public void compressedTexSubImage3D(int target, int level, int x, int y, int z, int width, int height,
+                                        int depth, int format, ByteBuffer data) {
+        calls++;
+        bytesUploaded += data.remaining();
+    }
+
+    @Override
+    public void deleteTexture(int texture) {
+        calls++;
+        boundTextures.values().removeIf(bound -> bound == texture);
+    }
+
+    /**
+     * Every compressed format is supported, so transcoding picks the same format whatever runs the game.
+     */
+    @Override
+    public boolean supportsCompressedFormat(int internalFormat) {
+        return true;
+    }
+
+    @Override
+    public int createVertexArray() {
+        calls++;
+        return nextName++;
+    }
+
+    @Override
+    public void bindVertexArray(int vertexArray) {
+        calls++;
+        stateChange(boundVertexArray != vertexArray);
+        boundVertexArray = vertexArray;
+    }
+
+    @Override
+    public void vertexAttribPointer(int index, int size, int type, boolean normalized, int stride, long pointer) {
+        calls++;
+        stateChange(true);
+    }
+
+    @Override
+    public void vertexAttribDivisor(int index, int divisor) {
+        calls++;
+        stateChange(true);
+    }
+
+    @Override
+    public void enableVertexAttribArray(int index) {
+        calls++;
+        long bit = 1L << index;
+        stateChange((enabledAttributes & bit) == 0);
+        enabledAttributes |= bit;
+    }
+
+    @Override
+    public void disableVertexAttribArray(int index) {
+        calls++;
+        long bit = 1L << index;
+        stateChange((enabledAttributes & bit) != 0);
+        enabledAttributes &= ~bit;
+    }
+
+    @Override
+    public void deleteVertexArray(int vertexArray) {
+        calls++;
+        if (boundVertexArray == vertexArray) {
+            boundVertexArray = 0;
+        }
+    }
+
+    @Override
+    public int createShader(int type) {
+        calls++;
+        return nextName++;
+    }
+
+    @Override
+    public void shaderSource(int shader, CharSequence source) {
+        calls++;
+        shaderSources.put(shader, source.toString());
+    }
+
+    @Override
+    public void compileShader(int shader) {
+        calls++;
+    }
+
+    @Override
+    public int getShaderi(int shader, int pname) {
+        calls++;
+        return pname == GL20.GL_COMPILE_STATUS ? GL11.GL_TRUE : 0;
+    }
+
+    @Override
+    public String getShaderInfoLog(int shader) {
+        calls++;
+        return "";
+    }
+
+    @Override
+    public void deleteShader(int shader) {
+        calls++;
+        shaderSources.remove(shader);
+    }
+
+    @Override
+    public int createProgram() {
+        calls++;
+        int program = nextName++;
+        programShaders.put(program, new ArrayList<>());
+        return program;
+    }
+
+    @Override
+    public void attachShader(int program, int shader) {
+        calls++;
+        programShaders.get(program).add(shader);
+    }
+
+    @Override
+    public void detachShader(int program, int shader) {
+        calls++;
+        programShaders.get(program).remove(Integer.valueOf(shader));
+    }
+
+    /**
+     * Linking collects the uniforms declared in the attached shaders,
+     * so programs can still look up their uniforms without a GPU.
+     */
+    @Override
+    public void linkProgram(int program) {
+        calls++;
+        List<String> uniforms = new ArrayList<>();
+        for (int shader : programShaders.get(program)) {
+            Matcher matcher = UNIFORM.matcher(shaderSources.getOrDefault(shader, ""));
+            while (matcher.find()) {
+                if (!uniforms.contains(matcher.group(1))) {
+                    uniforms.add(matcher.group(1));
+                }
+            }
+        }
+        programUniforms.put(program, uniforms);
+        unlinkedPrograms.remove(program);
+    }
+
+    @Override
+    public boolean supportsProgramBinary() {
+        return true;
+    }
+
+    @Override
+    public void programParameteri(int program, int pname, int value) {
+        calls++;
+    }
+
+    /**
+     * The binary of a program is the names of its uniforms, which is everything needed to load it again.
+     */
+    @Override
+    public void getProgramBinary(int program, IntBuffer length, IntBuffer binaryFormat, ByteBuffer binary) {
+        calls++;
+        byte[] bytes = programBinary(program);
+        binary.put(binary.position(), bytes);
+        if (length != null) {
+            length.put(length.position(), bytes.length);
+        }
+        binaryFormat.put(binaryFormat.position(), BINARY_FORMAT);
+    }
+
+    private byte[] programBinary(int program) {
+        return String.join("\n", programUniforms.getOrDefault(program, List.of())).getBytes(StandardCharsets.UTF_8);
+    }
+
+    @Override
+    public void programBinary(int program, int binaryFormat, ByteBuffer binary) {
+        calls++;
+        bytesUploaded += binary.remaining();
+        if (binaryFormat != BINARY_FORMAT) {
+            unlinkedPrograms.add(program);
+            return;
+        }
+        byte[] bytes = new byte[binary.remaining()];
+        binary.get(binary.position(), bytes);
+        String names = new String(bytes, StandardCharsets.UTF_8);
+        programUniforms.put(program, names.isEmpty() ? new ArrayList<>() : new ArrayList<>(List.of(names.split("\n"))));
+        unlinkedPrograms.remove(program);
+    }
+
+    @Override
+    public boolean supportsParallelShaderCompile() {
+        return false;
+    }
+
+    @Override
+    public void maxShaderCompilerThreads(int count) {
+        calls++;
+    }
+
+    @Override
+    public String getString(int name) {
+        calls++;
+        return "Recording";
+    }
+
+    @Override
+    public int getProgrami(int program, int pname) {
+        calls++;
+        if (pname == GL20.GL_LINK_STATUS) {
+            return unlinkedPrograms.contains(program) ? GL11.GL_FALSE : GL11.GL_TRUE;
+        }
+        if (pname == GL41.GL_PROGRAM_BINARY_LENGTH) {
+            return programBinary(program).length;
+        }
+        if (pname == GL20.GL_ACTIVE_UNIFORMS) {
+            return programUniforms.getOrDefault(program, List.of()).size();
+        }
+        return 0;
+    }
+
+    @Override
+    public String getProgramInfoLog(int program) {
+        calls++;
+        return "";
+    }
+
+    @Override
+    public String getActiveUniform(int program, int index, IntBuffer size, IntBuffer type) {
+        calls++;
+        size.put(size.position(), 1);
+        type.put(type.position(), 0);
+        return programUniforms.get(program).get(index);
+    }
+
+    @Override
+    public int getUniformLocation(int program, CharSequence name) {
+        calls++;
+        return programUniforms.getOrDefault(program, List.of()).indexOf(name.toString());
+    }
+
+    @Override
+    public void useProgram(int program) {
+        calls++;
+        stateChange(boundProgram != program);
+        boundProgram = program;
+    }
+
+    @Override
+    public void deleteProgram(int program) {
+        calls++;
+        programShaders.remove(program);
+        programUniforms.remove(program);
+        unlinkedPrograms.remove(program);
+        if (boundProgram == program) {
+            boundProgram = 0;
+        }
+    }
+
+    @Override
+    public void programUniform1i(int program, int location, int value) {
+        calls++;
+        bytesUploaded += Integer.BYTES;
+    }
+
+    @Override
+    public void uniformMatrix4fv(int location, boolean transpose, FloatBuffer value) {
+        calls++;
+        bytesUploaded += (long) value.remaining() * Float.BYTES;
+    }
+
+    @Override
+    public void programUniformMatrix4fv(int program, int location, boolean transpose, FloatBuffer value) {
+        calls++;
+        bytesUploaded += (long) value.remaining() * Float.BYTES;
+    }
+
+    @Override
+    public void enable(int capability) {
+        calls++;
+    }
+
+    @Override
+    public void disable(int capability) {
+        calls++;
+    }
+
+    @Override
+    public void blendFunc(int sourceFactor, int destinationFactor) {
+        calls++;
+    }
+
+    @Override
+    public void clearColor(float red, float green, float blue, float alpha) {
+        calls++;
+    }
+
+    @Override
+    public void clear(int mask) {
+        calls++;
+    }
+
+    @Override
+    public void drawArrays(int mode, int first, int count) {
+        calls++;
+        drawCalls++;
+        elementsDrawn += count;
+    }
+
+    @Override
+    public void drawElements(int mode, int count, int type, long indices) {
+        calls++;
+        drawCalls++;
+        elementsDrawn += count;
+    }
+
+    @Override
+    public void drawElementsInstanced(int mode, int count, int type, long indices, int instanceCount) {
+        calls++;
+        drawCalls++;
+        elementsDrawn += (long) count * instanceCount;
+    }
+
+    @Override
+    public boolean supportsMultiDrawIndirect() {
+        return true;
+    }
+
+    @Override
+    public void multiDrawElementsIndirect(int mode, int type, long indirect, int drawCount, int stride) {
+        // The commands live in a buffer this backend doesn't keep, so the elements drawn aren't counted
+        calls++;
+        drawCalls++;
+    }
+
+    @Override
+    public void multiDrawElementsBaseVertex(int mode, IntBuffer count, int type, PointerBuffer indices,
+                                            IntBuffer baseVertex) {
+        calls++;
+        drawCalls++;
+        for (int i = count.position(); i < count.limit(); i++) {
+            elementsDrawn += count.get(i);
+        }
+    }
+}
@@ -0,0 +1,218 @@
+package rendering;
+
+import org.lwjgl.PointerBuffer;
+
+import java.nio.ByteBuffer;
+import java.nio.FloatBuffer;
+import java.nio.IntBuffer;
+
+/**
+ * The set of graphics calls the engine makes.
+ * Everything that talks to OpenGL goes through one of these, so frame logic can also run
+ * against a backend that doesn't need a GPU (see {@link RecordingRenderBackend}).
+ * <p>
+ * Names and enum values follow OpenGL, so {@code GL11.GL_TRIANGLES} and friends can be passed straight through.
+ */
+public interface RenderBackend {
+
+    // Buffers
+
+    int createBuffer();
+
+    void bindBuffer(int target, int buffer);
+
+    void bufferData(int target, FloatBuffer data, int usage);
+
+    void bufferData(int target, IntBuffer data, int usage);
+
+    void bufferData(int target, ByteBuffer data, int usage);
+
+    /**
+     * Allocate storage for the bound buffer without uploading anything.
+     */
+    void bufferData(int target, long size, int usage);
+
+    void bufferSubData(int target, long offset, ByteBuffer data);
+
+    void bufferSubData(int target, long offset, FloatBuffer data);
+
+    void copyBufferSubData(int readTarget, int writeTarget, long readOffset, long writeOffset, long size);
+
+    void deleteBuffer(int buffer);
+
+    /**
+     * @return true if buffers can have immutable storage and be persistently mapped (OpenGL 4.4)
+     */
+    boolean supportsBufferStorage();
+
+    void bufferStorage(int target, long size, int flags);
+
+    ByteBuffer mapBufferRange(int target, long offset, long length, int access);
+
+    boolean unmapBuffer(int target);
+
+    // Synchronization
+
+    /**
+     * Insert a fence that is signaled once the GPU has finished all commands issued so far.
+     */
+    long fenceSync();
+
+    int clientWaitSync(long sync, int flags, long timeout);
+
+    void deleteSync(long sync);
+
+    // Textures
+
+    int createTexture();
+
+    void activeTexture(int unit);
+
+    void bindTexture(int target, int texture);
+
+    void texParameteri(int target, int pname, int param);
+
+    /**
+     * Allocate storage for a level of the bound 2D texture and upload its pixels.
+     */
+    void texImage2D(int target, int level, int internalFormat, int width, int height, int format, int type,
+                    ByteBuffer pixels);
+
+    /**
+     * Allocate storage for a level of the bound 3D or array texture without uploading anything.
+     */
+    void texImage3D(int target, int level, int internalFormat, int width, int height, int depth, int format,
+                    int type);
+
+    /**
+     * Allocate storage for a level of the bound compressed 3D or array texture without uploading anything.
+     */
+    void compressedTexImage3D(int target, int level, int internalFormat, int width, int height, int depth,
+                              int imageSize);
+
+    void texSubImage3D(int target, int level, int x, int y, int z, int width, int height, int depth, int format,
+                       int type, ByteBuffer pixels);
+
+    void compressedTexSubImage3D(int target, int level, int x, int y, int z, int width, int height, int depth,
+                                 int format, ByteBuffer data);
+
+    void deleteTexture(int texture);
+
+    /**
+     * @return true if textures can be created in the given compressed internal format, e.g.
+     * GL_COMPRESSED_RGBA_BPTC_UNORM
+     */
+    boolean supportsCompressedFormat(int internalFormat);
+
+    // Vertex arrays
+
+    int createVertexArray();
+
+    void bindVertexArray(int vertexArray);
+
+    void vertexAttribPointer(int index, int size, int type, boolean normalized, int stride, long pointer);
+
+    void vertexAttribDivisor(int index, int divisor);
+
+    void enableVertexAttribArray(int index);
+
+    void disableVertexAttribArray(int index);
+
+    void deleteVertexArray(int vertexArray);
+
+    // Shaders and programs
+
+    int createShader(int type);
+
+    void shaderSource(int shader, CharSequence source);
+
+    void compileShader(int shader);
+
+    int getShaderi(int shader, int pname);
+
+    String getShaderInfoLog(int shader);
+
+    void deleteShader(int shader);
+
+    int createProgram();
+
+    void attachShader(int program, int shader);
+
+    void detachShader(int program, int shader);
+
+    void linkProgram(int program);
+
+    int getProgrami(int program, int pname);
+
+    String getProgramInfoLog(int program);
+
+    String getActiveUniform(int program, int index, IntBuffer size, IntBuffer type);
+
+    int getUniformLocation(int program, CharSequence name);
+
+    void useProgram(int program);
+
+    void deleteProgram(int program);
+
+    /**
+     * @return true if linked programs can be saved and loaded as binaries (OpenGL 4.1)
+     */
+    boolean supportsProgramBinary();
+
+    void programParameteri(int program, int pname, int value);
+
+    void getProgramBinary(int program, IntBuffer length, IntBuffer binaryFormat, ByteBuffer binary);
+
+    void programBinary(int program, int binaryFormat, ByteBuffer binary);
+
+    /**
+     * @return true if the driver compiles and links in the background, and can be asked whether it has finished
+     * with GL_COMPLETION_STATUS_KHR
+     */
+    boolean supportsParallelShaderCompile();
+
+    void maxShaderCompilerThreads(int count);
+
+    /**
+     * Set a uniform of a program without having to use the program first (OpenGL 4.1).
+     */
+    void programUniform1i(int program, int location, int value);
+
+    void uniformMatrix4fv(int location, boolean transpose, FloatBuffer value);
+
+    /**
+     * Set a uniform of a program without having to use the program first (OpenGL 4.1).
+     */
+    void programUniformMatrix4fv(int program, int location, boolean transpose, FloatBuffer value);
+
+    // Queries
+
+    String getString(int name);
+
+    // Drawing
+
+    void enable(int capability);
+
+    void disable(int capability);
+
+    void blendFunc(int sourceFactor, int destinationFactor);
+
+    void clearColor(float red, float green, float blue, float alpha);
+
+    void clear(int mask);
+
+    void drawArrays(int mode, int first, int count);
+
+    void drawElements(int mode, int count, int type, long indices);
+
+    void drawElementsInstanced(int mode, int count, int type, long indices, int instanceCount);
+
+    /**
+     * @return true if draws can be read from a buffer of DrawElementsIndirectCommands (OpenGL 4.3)
+     */
+    boolean supportsMultiDrawIndirect();
+
+    void multiDrawElementsIndirect(int mode, int type, long indirect, int drawCount, int stride);
+
+    void multiDrawElementsBaseVertex(int mode, IntBuffer count, int type, PointerBuffer indices, IntBuffer baseVertex);
+}
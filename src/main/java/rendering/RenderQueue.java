@@ -0,0 +1,240 @@
+package rendering;
+
+import java.util.Arrays;
+
+/**
+ * Collects a frame's draws, then submits them sorted so that draws sharing state end up next to each other.
+ * <p>
+ * Each draw gets a 64-bit sort key, from the most significant bits down:
+ * <pre>
+ *   program (10 bits) | vertex array (18 bits) | material (16 bits) | depth (20 bits)
+ * </pre>
+ * so draws are grouped by program first, then by vertex array and material, and drawn front to back within a group.
+ * The key only decides the order: the names actually bound are stored with the draw, so names too large for their
+ * bits sort less well but still draw correctly.
+ * <p>
+ * Draws are kept in flat primitive arrays, adding one allocates nothing once the queue has grown to fit a frame.
+ * A multi-draw, a whole {@link DrawCommandBuffer} drawn with one call, is queued and sorted like any other draw.
+ */
+public class RenderQueue {
+    private static final int PROGRAM_BITS = 10;
+    private static final int VERTEX_ARRAY_BITS = 18;
+    private static final int MATERIAL_BITS = 16;
+    private static final int DEPTH_BITS = 20;
+    private static final int DEPTH_SHIFT = 0;
+    private static final int MATERIAL_SHIFT = DEPTH_SHIFT + DEPTH_BITS;
+    private static final int VERTEX_ARRAY_SHIFT = MATERIAL_SHIFT + MATERIAL_BITS;
+    private static final int PROGRAM_SHIFT = VERTEX_ARRAY_SHIFT + VERTEX_ARRAY_BITS;
+
+    // The ints making up a draw
+    private static final int PROGRAM = 0;
+    private static final int VERTEX_ARRAY = 1;
+    private static final int MODE = 2;
+    private static final int COUNT = 3;
+    private static final int TYPE = 4;
+    private static final int OFFSET = 5;
+    private static final int INSTANCES = 6;
+    private static final int STRIDE = 7;
+
+    private static final int INITIAL_CAPACITY = 256;
+
+    private int capacity = INITIAL_CAPACITY;
+    private int size;
+    private int[] draws = new int[capacity * STRIDE];
+    private long[] keys = new long[capacity];
+    // The commands of each multi-draw, null for other draws
+    private DrawCommandBuffer[] multiDraws = new DrawCommandBuffer[capacity];
+    private int multiDrawCount;
+
+    // Sort buffers, the radix sort goes back and forth between each pair
+    private long[] sortedKeys = new long[capacity];
+    private long[] keysScratch = new long[capacity];
+    private int[] order = new int[capacity];
+    private int[] orderScratch = new int[capacity];
+    // One histogram of byte values per byte of the key
+    private final int[] histograms = new int[8 * 256];
+
+    /**
+     * Queue an indexed draw.
+     *
+     * @param program     The GL name of the shader program to draw with
+     * @param vertexArray The GL name of the vertex array to draw
+     * @param material    A number for everything else the draw needs bound, draws with the same one are kept together
+     * @param depth       The distance from the camera, nearer draws go first
+     * @param mode        The kind of primitives, e.g. GL_TRIANGLES
+     * @param count       The number of indices
+     * @param type        The type of the indices, e.g. GL_UNSIGNED_INT
+     * @param offset      The byte offset of the first index in the element buffer
+     */
+    public void add(int program, int vertexArray, int material, float depth, int mode, int count, int type, int offset) {
+        add(program, vertexArray, material, depth, mode, count, type, offset, 0);
+    }
+
+    /**
+     * Queue an instanced, indexed draw.
+     *
+     * @param instanceCount The number of instances to draw
+     * @see #add(int, int, int, float, int, int, int, int)
+     */
+    public void addInstanced(int program, int vertexArray, int material, float depth, int mode, int count, int type,
+                             int offset, int instanceCount) {
+        add(program, vertexArray, material, depth, mode, count, type, offset, instanceCount);
+    }
+
+    /**
+     * Queue every command of a command buffer, to be drawn with a single call.
+     * The commands must have been uploaded by the time the queue is submitted.
+     *
+     * @param commands The commands
+     * @see #add(int, int, int, float, int, int, int, int)
+     */
+    public void addMultiDraw(int program, int vertexArray, int material, float depth, int mode, int type,
+                             DrawCommandBuffer commands) {
+        if (size == capacity) {
+            grow();
+        }
+        multiDraws[size] = commands;
+        multiDrawCount++;
+        add(program, vertexArray, material, depth, mode, commands.size(), type, 0, 0);
+    }
+
+    private void add(int program, int vertexArray, int material, float depth, int mode, int count, int type,
+                     int offset, int instanceCount) {
+        if (size == capacity) {
+            grow();
+        }
+        keys[size] = key(program, vertexArray, material, depth);
+        int base = size * STRIDE;
+        draws[base + PROGRAM] = program;
+        draws[base + VERTEX_ARRAY] = vertexArray;
+        draws[base + MODE] = mode;
+        draws[base + COUNT] = count;
+        draws[base + TYPE] = type;
+        draws[base + OFFSET] = offset;
+        draws[base + INSTANCES] = instanceCount;
+        size++;
+    }
+
+    /**
+     * Build the sort key of a draw.
+     */
+    static long key(int program, int vertexArray, int material, float depth) {
+        /*
+         The bits of a positive float sort the same way as the float itself,
+         so the top bits below the sign bit make a depth key without knowing the depth range.
+        */
+        long depthBits = depth > 0.0f ? Float.floatToRawIntBits(depth) >>> (31 - DEPTH_BITS) : 0;
+        return (bits(program, PROGRAM_BITS) << PROGRAM_SHIFT)
+                | (bits(vertexArray, VERTEX_ARRAY_BITS) << VERTEX_ARRAY_SHIFT)
+                | (bits(material, MATERIAL_BITS) << MATERIAL_SHIFT)
+                | (depthBits << DEPTH_SHIFT);
+    }
+
+    private static long bits(int value, int count) {
+        return value & ((1L << count) - 1);
+    }
+
+    private void grow() {
+        capacity *= 2;
+        draws = Arrays.copyOf(draws, capacity * STRIDE);
+        keys = Arrays.copyOf(keys, capacity);
+        multiDraws = Arrays.copyOf(multiDraws, capacity);
+        sortedKeys = new long[capacity];
+        keysScratch = new long[capacity];
+        order = new int[capacity];
+        orderScratch = new int[capacity];
+    }
+
+    /**
+     * Sort the queued draws by key, leaving their indices in {@link #order}.
+     * <p>
+     * This is a least significant digit radix sort, a byte at a time. It is stable, so draws with equal keys keep
+     * the order they were added in. Bytes that are the same in every key, which is most of them in a typical
+     * frame, are skipped.
+     */
+    private void sort() {
+        Arrays.fill(histograms, 0);
+        for (int i = 0; i < size; i++) {
+            long key = keys[i];
+            sortedKeys[i] = key;
+            order[i] = i;
+            for (int b = 0; b < 8; b++) {
+                histograms[(b << 8) | (int) ((key >>> (b << 3)) & 0xFF)]++;
+            }
+        }
+        for (int b = 0; b < 8; b++) {
+            int shift = b << 3;
+            int histogram = b << 8;
+            // Every key has the same byte here, this pass wouldn't move anything
+            if (size == 0 || histograms[histogram | (int) ((sortedKeys[0] >>> shift) & 0xFF)] == size) {
+                continue;
+            }
+            // Turn the counts into the position of the first key with each byte value
+            int position = 0;
+            for (int value = 0; value < 256; value++) {
+                int count = histograms[histogram | value];
+                histograms[histogram | value] = position;
+                position += count;
+            }
+            for (int i = 0; i < size; i++) {
+                long key = sortedKeys[i];
+                int destination = histograms[histogram | (int) ((key >>> shift) & 0xFF)]++;
+                keysScratch[destination] = key;
+                orderScratch[destination] = order[i];
+            }
+            long[] swapKeys = sortedKeys;
+            sortedKeys = keysScratch;
+            keysScratch = swapKeys;
+            int[] swapOrder = order;
+            order = orderScratch;
+            orderScratch = swapOrder;
+        }
+    }
+
+    /**
+     * Sort the queued draws and issue them through a state tracker, which drops binds that change nothing.
+     * The queue is left empty. Whatever the last draw needed stays bound afterwards, so the first draws of the next
+     * submit can skip binding it again. Uniforms must already be set on every program used, and anything bound
+     * outside the tracker since it was last used must have been reported with {@link StateTracker#invalidate()}.
+     *
+     * @param tracker The state tracker to draw through
+     */
+    public void submit(StateTracker tracker) {
+        sort();
+        for (int i = 0; i < size; i++) {
+            int base = order[i] * STRIDE;
+            tracker.useProgram(draws[base + PROGRAM]);
+            tracker.bindVertexArray(draws[base + VERTEX_ARRAY]);
+            int instances = draws[base + INSTANCES];
+            DrawCommandBuffer commands = multiDraws[order[i]];
+            if (commands != null) {
+                tracker.multiDrawElements(draws[base + MODE], draws[base + TYPE], commands);
+            } else if (instances == 0) {
+                tracker.drawElements(draws[base + MODE], draws[base + COUNT], draws[base + TYPE], draws[base + OFFSET]);
+            } else {
+                tracker.drawElementsInstanced(draws[base + MODE], draws[base + COUNT], draws[base + TYPE],
+                        draws[base + OFFSET], instances);
+            }
+        }
+        clear();
+    }
+
+    /**
+     * Drop every queued draw.
+     */
+    public void clear() {
+        if (multiDrawCount > 0) {
+            // Don't hold on to command buffers past the frame
+            Arrays.fill(multiDraws, 0, size, null);
+            multiDrawCount = 0;
+        }
+        size = 0;
+    }
+
+    /**
+     * @return the number of queued draws
+     */
+    public int size() {
+        return size;
+    }
+}
@@ -0,0 +1,160 @@
+package rendering;
+
+/**
+ * Remembers the program, vertex array and textures last bound through it, and drops binds that would not change
+ * anything. Textures are only ever bound to the first texture unit, and are remembered per target, so a 2D texture
+ * and an array texture can stay bound side by side.
+ * <p>
+ * The tracker only knows about binds made through it. After anything else binds a program, vertex array or texture,
+ * or deletes one, call {@link #invalidate()} so the next bind is issued whatever it is.
+ */
+public class StateTracker {
+    // Stands for "not known", no GL name is ever negative
+    private static final int UNKNOWN = -1;
+    // Texture targets remembered, more than the engine binds to
+    private static final int MAX_TEXTURE_TARGETS = 4;
+
+    private final RenderBackend backend;
+    private int program = UNKNOWN;
+    private int vertexArray = UNKNOWN;
+    // Texture bound to each target bound through the tracker so far
+    private final int[] textureTargets = new int[MAX_TEXTURE_TARGETS];
+    private final int[] textures = new int[MAX_TEXTURE_TARGETS];
+    private int textureTargetCount;
+
+    // Counters for the current frame
+    private int drawCalls;
+    private int stateChanges;
+    private int stateChangesSkipped;
+
+    /**
+     * @param backend The backend to issue graphics calls through
+     */
+    public StateTracker(RenderBackend backend) {
+        this.backend = backend;
+    }
+
+    /**
+     * Forget what is bound, because something else may have changed it.
+     */
+    public void invalidate() {
+        program = UNKNOWN;
+        vertexArray = UNKNOWN;
+        textureTargetCount = 0;
+    }
+
+    /**
+     * Start counting a new frame.
+     */
+    public void beginFrame() {
+        drawCalls = 0;
+        stateChanges = 0;
+        stateChangesSkipped = 0;
+    }
+
+    /**
+     * Use a shader program, unless it is already in use.
+     *
+     * @param program The GL name of the program
+     */
+    public void useProgram(int program) {
+        if (this.program == program) {
+            stateChangesSkipped++;
+            return;
+        }
+        backend.useProgram(program);
+        this.program = program;
+        stateChanges++;
+    }
+
+    /**
+     * Bind a vertex array, unless it is already bound.
+     *
+     * @param vertexArray The GL name of the vertex array
+     */
+    public void bindVertexArray(int vertexArray) {
+        if (this.vertexArray == vertexArray) {
+            stateChangesSkipped++;
+            return;
+        }
+        backend.bindVertexArray(vertexArray);
+        this.vertexArray = vertexArray;
+        stateChanges++;
+    }
+
+    /**
+     * Bind a texture, unless it is already bound to the same target.
+     *
+     * @param target  The target, e.g. GL_TEXTURE_2D_ARRAY
+     * @param texture The GL name of the texture
+     */
+    public void bindTexture(int target, int texture) {
+        int slot = 0;
+        while (slot < textureTargetCount && textureTargets[slot] != target) {
+            slot++;
+        }
+        if (slot < textureTargetCount && textures[slot] == texture) {
+            stateChangesSkipped++;
+            return;
+        }
+        backend.bindTexture(target, texture);
+        stateChanges++;
+        if (slot == MAX_TEXTURE_TARGETS) {
+            // Binds to targets past the first few aren't remembered, and are always issued
+            return;
+        }
+        if (slot == textureTargetCount) {
+            textureTargets[slot] = target;
+            textureTargetCount++;
+        }
+        textures[slot] = texture;
+    }
+
+    /**
+     * Draw with whatever is bound.
+     */
+    public void drawElements(int mode, int count, int type, long offset) {
+        backend.drawElements(mode, count, type, offset);
+        drawCalls++;
+    }
+
+    /**
+     * Draw a number of instances with whatever is bound.
+     */
+    public void drawElementsInstanced(int mode, int count, int type, long offset, int instanceCount) {
+        backend.drawElementsInstanced(mode, count, type, offset, instanceCount);
+        drawCalls++;
+    }
+
+    /**
+     * Draw every command of a command buffer with whatever is bound, in one call. Nothing is drawn if it is empty.
+     */
+    public void multiDrawElements(int mode, int type, DrawCommandBuffer commands) {
+        if (commands.size() == 0) {
+            return;
+        }
+        commands.draw(mode, type);
+        drawCalls++;
+    }
+
+    /**
+     * @return the number of draw calls issued this frame
+     */
+    public int getDrawCalls() {
+        return drawCalls;
+    }
+
+    /**
+     * @return the number of binds issued this frame
+     */
+    public int getStateChanges() {
+        return stateChanges;
+    }
+
+    /**
+     * @return the number of binds dropped this frame because they would not have changed anything
+     */
+    public int getStateChangesSkipped() {
+        return stateChangesSkipped;
+    }
+}
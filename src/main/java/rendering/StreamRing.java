@@ -0,0 +1,101 @@
+package rendering;
+
+/**
+ * The bookkeeping behind {@link StreamingBuffer}, kept free of GL calls.
+ * <p>
+ * A buffer is split into a ring of equal regions, one per frame in flight. Each frame allocates from one region, and
+ * when the frame is done the region is closed with a fence, a marker the GPU signals once it has finished reading it.
+ * Moving on to the next region gives back the fence that must be waited on before writing over that region again.
+ */
+public class StreamRing {
+    private final int regionCount;
+    private final long regionSize;
+    // Fence guarding each region, 0 if the region is free
+    private final long[] fences;
+    private int region;
+    private long used;
+
+    /**
+     * @param regionCount The number of regions, e.g. 3 to let the CPU run up to two frames ahead of the GPU
+     * @param regionSize  The size of each region, in bytes
+     */
+    public StreamRing(int regionCount, long regionSize) {
+        if (regionCount < 1 || regionSize < 1) {
+            throw new IllegalArgumentException("Need at least one region of at least one byte");
+        }
+        this.regionCount = regionCount;
+        this.regionSize = regionSize;
+        this.fences = new long[regionCount];
+    }
+
+    /**
+     * Allocate space in the current region.
+     *
+     * @param bytes     The size of the allocation
+     * @param alignment The alignment of the allocation's offset, a power of two
+     * @return the offset of the allocation from the start of the whole buffer, or -1 if the region is full
+     */
+    public long allocate(long bytes, int alignment) {
+        long offset = (used + alignment - 1) & -alignment;
+        if (offset + bytes > regionSize) {
+            return -1;
+        }
+        used = offset + bytes;
+        return getRegionStart() + offset;
+    }
+
+    /**
+     * Close the current region and move on to the next one.
+     *
+     * @param fence The fence guarding the closed region, or 0 if the GPU won't read it
+     * @return the fence to wait on before writing to the new region, or 0 if it is free
+     */
+    public long advance(long fence) {
+        fences[region] = fence;
+        region = (region + 1) % regionCount;
+        used = 0;
+        long wait = fences[region];
+        fences[region] = 0;
+        return wait;
+    }
+
+    /**
+     * @return every fence still guarding a region, the rest of the array is 0
+     */
+    long[] getFences() {
+        return fences;
+    }
+
+    public int getRegion() {
+        return region;
+    }
+
+    public int getRegionCount() {
+        return regionCount;
+    }
+
+    public long getRegionSize() {
+        return regionSize;
+    }
+
+    /**
+     * @return the offset of the current region from the start of the whole buffer
+     */
+    public long getRegionStart() {
+        return region * regionSize;
+    }
+
+    /**
+     * @return the number of bytes allocated from the current region, including alignment padding
+     */
+    public long getUsed() {
+        return used;
+    }
+
+    /**
+     * @return the total size of the buffer, in bytes
+     */
+    public long getCapacity() {
+        return regionCount * regionSize;
+    }
+}
@@ -0,0 +1,201 @@
+package rendering;
+
+import org.lwjgl.opengl.GL15;
+import org.lwjgl.opengl.GL30;
+import org.lwjgl.opengl.GL32;
+import org.lwjgl.opengl.GL44;
+import org.lwjgl.system.MemoryUtil;
+
+import java.nio.ByteBuffer;
+
+/**
+ * A GL buffer for data that changes every frame, like dynamic geometry or per-frame instance data.
+ * <p>
+ * With OpenGL 4.4 the buffer is created with {@code glBufferStorage} and mapped once, persistently, so producers write
+ * straight into memory the GPU reads from. It is split into a ring of regions (see {@link StreamRing}), one per frame
+ * in flight, and a fence per region makes sure a region is never written while the GPU may still be reading it.
+ * <p>
+ * On older contexts writes go to a CPU copy instead, and {@link #flush()} uploads them. The first flush of a frame
+ * orphans the GL buffer, letting the driver hand out fresh memory rather than stall on draws still reading it.
+ * <p>
+ * Either way, each frame: {@link #allocate(int, int)} space, write to {@link #getBuffer()} at the returned offset,
+ * {@link #flush()}, draw or copy from the GL buffer at that offset, then {@link #endFrame()} after the last command
+ * reading this frame's data. The buffer is registered with the {@link GpuResources} it was made with.
+ */
+public class StreamingBuffer {
+    // How long to wait for a fence before checking again, in nanoseconds
+    private static final long FENCE_TIMEOUT = 1_000_000L;
+
+    private final RenderBackend backend;
+    private final GpuResources resources;
+    private final int target;
+    // Handle in the registry
+    private final int handle;
+    private final int bufferId;
+    private final StreamRing ring;
+    private final boolean persistent;
+    // The mapped buffer, or the CPU copy when not persistent, indexed by offsets into the GL buffer
+    private final ByteBuffer buffer;
+    // Fence to wait on before the current region can be written
+    private long pendingFence;
+    // Offset up to which this frame's writes have been flushed, and whether this frame orphaned the storage yet
+    private long flushedTo;
+    private boolean orphaned;
+    private long fenceWaits;
+
+    /**
+     * @param resources   The registry to create the buffer in
+     * @param target      The target to bind the buffer to, e.g. {@link GL15#GL_ARRAY_BUFFER}
+     * @param regionSize  The most bytes that can be written in a single frame
+     * @param regionCount The number of frames that can be in flight, usually 3
+     * @param category    What the buffer is for, e.g. "instance stream"
+     */
+    public StreamingBuffer(GpuResources resources, int target, int regionSize, int regionCount, String category) {
+        this.backend = resources.getBackend();
+        this.resources = resources;
+        this.target = target;
+        this.ring = new StreamRing(regionCount, regionSize);
+        this.persistent = backend.supportsBufferStorage();
+
+        handle = resources.createBuffer(category);
+        bufferId = resources.buffer(handle);
+        resources.setSize(handle, ring.getCapacity());
+        backend.bindBuffer(target, bufferId);
+        if (persistent) {
+            int flags = GL30.GL_MAP_WRITE_BIT | GL44.GL_MAP_PERSISTENT_BIT | GL44.GL_MAP_COHERENT_BIT;
+            backend.bufferStorage(target, ring.getCapacity(), flags);
+            buffer = backend.mapBufferRange(target, 0, ring.getCapacity(), flags);
+        } else {
+            backend.bufferData(target, ring.getCapacity(), GL15.GL_STREAM_DRAW);
+            buffer = MemoryUtil.memAlloc((int) ring.getCapacity());
+        }
+        backend.bindBuffer(target, 0);
+    }
+
+    /**
+     * Allocate space for this frame's data.
+     * The first allocation of a frame may wait for the GPU to finish with the region, if it is more than
+     * the ring's worth of frames behind.
+     *
+     * @param bytes     The size of the data
+     * @param alignment The alignment of the offset, a power of two, e.g. the size of a vertex attribute
+     * @return the offset to write the data at in {@link #getBuffer()}, and to read it at in the GL buffer,
+     * or -1 if this frame's region is full
+     */
+    public long allocate(int bytes, int alignment) {
+        if (pendingFence != 0) {
+            waitFor(pendingFence);
+            pendingFence = 0;
+        }
+        return ring.allocate(bytes, alignment);
+    }
+
+    private void waitFor(long fence) {
+        int flags = GL32.GL_SYNC_FLUSH_COMMANDS_BIT;
+        boolean waited = false;
+        while (true) {
+            int result = backend.clientWaitSync(fence, flags, FENCE_TIMEOUT);
+            if (result == GL32.GL_ALREADY_SIGNALED || result == GL32.GL_CONDITION_SATISFIED) {
+                break;
+            }
+            if (result == GL32.GL_WAIT_FAILED) {
+                throw new IllegalStateException("Waiting for a streaming buffer fence failed");
+            }
+            // Only flush the first time around
+            flags = 0;
+            if (!waited) {
+                waited = true;
+                fenceWaits++;
+            }
+        }
+        backend.deleteSync(fence);
+    }
+
+    /**
+     * Make what was written since the last flush visible to the GPU. Call this after writing, and before any draw or
+     * copy that reads the data. Writes to the persistent mapping are visible as they are made, so this only does
+     * anything on older contexts.
+     */
+    public void flush() {
+        if (persistent) {
+            return;
+        }
+        long end = ring.getRegionStart() + ring.getUsed();
+        if (flushedTo >= end) {
+            return;
+        }
+        backend.bindBuffer(target, bufferId);
+        if (!orphaned) {
+            // The frame's first upload: orphan the old storage so the driver doesn't wait for draws still reading it
+            backend.bufferData(target, ring.getCapacity(), GL15.GL_STREAM_DRAW);
+            orphaned = true;
+        }
+        buffer.limit((int) end).position((int) flushedTo);
+        backend.bufferSubData(target, flushedTo, buffer);
+        buffer.clear();
+        backend.bindBuffer(target, 0);
+        flushedTo = end;
+    }
+
+    /**
+     * Finish the frame: fence the region, and move on to the next one.
+     * Call this after the last draw or copy reading this frame's data.
+     */
+    public void endFrame() {
+        long fence = persistent ? backend.fenceSync() : 0;
+        pendingFence = ring.advance(fence);
+        flushedTo = ring.getRegionStart();
+        orphaned = false;
+    }
+
+    /**
+     * @return the memory to write this frame's data to, at offsets returned by {@link #allocate(int, int)}
+     */
+    public ByteBuffer getBuffer() {
+        return buffer;
+    }
+
+    /**
+     * @return the GL name of the buffer, to bind for drawing
+     */
+    public int getBufferId() {
+        return bufferId;
+    }
+
+    /**
+     * @return true if the buffer is persistently mapped, false if it falls back to orphaning
+     */
+    public boolean isPersistent() {
+        return persistent;
+    }
+
+    /**
+     * @return the number of times a frame had to wait for the GPU to release a region
+     */
+    public long getFenceWaits() {
+        return fenceWaits;
+    }
+
+    /**
+     * Release the buffer, to be deleted by the registry's next {@link GpuResources#endFrame()}, and delete any fences
+     * still pending.
+     */
+    public void delete() {
+        if (pendingFence != 0) {
+            backend.deleteSync(pendingFence);
+        }
+        for (long fence : ring.getFences()) {
+            if (fence != 0) {
+                backend.deleteSync(fence);
+            }
+        }
+        if (persistent) {
+            backend.bindBuffer(target, bufferId);
+            backend.unmapBuffer(target);
+            backend.bindBuffer(target, 0);
+        } else {
+            MemoryUtil.memFree(buffer);
+        }
+        resources.release(handle);
+    }
+}
@@ -0,0 +1,610 @@
+package rendering;
+
+import assets.TextureData;
+import assets.TextureFormat;
+import assets.TextureSource;
+import memory.Memory;
+import org.lwjgl.opengl.GL11;
+import org.lwjgl.opengl.GL12;
+import org.lwjgl.opengl.GL30;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.EnumSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Loads textures in the background, keeps them in texture arrays, and streams their mip levels in and out to stay
+ * within a budget of GPU memory.
+ * <p>
+ * Textures are decoded on worker threads, to the best format the GPU supports (see
+ * {@link assets.TextureDecoder}), and uploaded by {@link #update(StateTracker)} on the render thread once they are
+ * ready. Until then {@link #isReady(int)} is false and there is nothing to draw them with. Textures of the same format, size and
+ * number of levels share an array texture, each in a layer of its own, so drawing with any of them needs the same
+ * bind, and the shader picks the layer.
+ * <p>
+ * Which levels of each array are on the GPU is decided by a {@link TextureResidency}. Whoever draws with a texture
+ * {@link #touch(int, int)}es it every frame with the finest level it is drawn at, arrays drawn recently get the
+ * levels they are asked for, and arrays that haven't been drawn for a while are cut back to coarser levels when the
+ * budget runs short. Changing the levels of an array builds a new array texture from the texture sources, decoded
+ * again on the workers from the new finest level on, and swaps it in when all of its layers are ready; the old one
+ * is drawn with in the meantime.
+ * <p>
+ * Apart from the workers, a manager belongs to the render thread.
+ */
+public class TextureManager {
+    private static final String CATEGORY = "textures";
+    private static final int TARGET = GL30.GL_TEXTURE_2D_ARRAY;
+    // Levels this size and smaller always stay resident, they take up next to nothing and keep textures drawable
+    private static final int TAIL_SIZE = 32;
+    private static final int DEFAULT_LAYERS = 16;
+
+    private final GpuResources resources;
+    private final RenderBackend backend;
+    private final Set<TextureFormat> formats = EnumSet.of(TextureFormat.RGBA8);
+    private final int layersPerArray;
+    private final TextureResidency residency;
+    private final ForkJoinPool pool;
+    private final ConcurrentLinkedQueue<Decoded> completed = new ConcurrentLinkedQueue<>();
+    private final AtomicInteger pending = new AtomicInteger();
+
+    // Textures by id, null once deleted
+    private final List<Texture> textures = new ArrayList<>();
+    private final List<TextureArray> arrays = new ArrayList<>();
+    private long frame = 1;
+    private int loadedCount;
+    private int rebuildCount;
+    private long peakResidentBytes;
+    // Whether a texture was bound to upload since the last update
+    private boolean bound;
+
+    /**
+     * Create a manager with arrays of 16 layers, and a worker for every core but one.
+     *
+     * @param resources The registry to create textures in
+     * @param budget    The most bytes of GPU memory the textures should take up
+     */
+    public TextureManager(GpuResources resources, long budget) {
+        this(resources, budget, DEFAULT_LAYERS, Math.max(1, Runtime.getRuntime().availableProcessors() - 1));
+    }
+
+    /**
+     * @param resources      The registry to create textures in
+     * @param budget         The most bytes of GPU memory the textures should take up
+     * @param layersPerArray The number of textures each array texture has room for
+     * @param threads        The number of worker threads
+     */
+    public TextureManager(GpuResources resources, long budget, int layersPerArray, int threads) {
+        if (layersPerArray <= 0) {
+            throw new IllegalArgumentException("Arrays need at least one layer");
+        }
+        this.resources = resources;
+        this.backend = resources.getBackend();
+        this.layersPerArray = layersPerArray;
+        this.residency = new TextureResidency(budget);
+        this.pool = new ForkJoinPool(threads, Memory.workerThreads("texture-decoder"), null, false);
+        for (TextureFormat format : TextureFormat.values()) {
+            if (format.isCompressed() && backend.supportsCompressedFormat(format.getInternalFormat())) {
+                formats.add(format);
+            }
+        }
+    }
+
+    /**
+     * @return the formats textures can be decoded to on this GPU
+     */
+    public Set<TextureFormat> getFormats() {
+        return formats;
+    }
+
+    /**
+     * Start loading a texture in the background.
+     *
+     * @param source Where to decode the texture from, whenever its levels change
+     * @return the id of the texture
+     */
+    public int load(TextureSource source) {
+        Texture texture = new Texture(textures.size(), source);
+        textures.add(texture);
+        decode(texture, null, 0);
+        return texture.id;
+    }
+
+    private void decode(Texture texture, Rebuild rebuild, int firstLevel) {
+        pending.incrementAndGet();
+        pool.execute(() -> {
+            try {
+                completed.add(new Decoded(texture, rebuild, texture.source.decode(firstLevel, formats), null));
+            } catch (IOException | RuntimeException e) {
+                completed.add(new Decoded(texture, rebuild, null, e));
+            } finally {
+                pending.decrementAndGet();
+            }
+        });
+    }
+
+    private Texture texture(int id) {
+        Texture texture = id >= 0 && id < textures.size() ? textures.get(id) : null;
+        if (texture == null) {
+            throw new IllegalArgumentException("No texture " + id);
+        }
+        return texture;
+    }
+
+    /**
+     * Note that a texture is about to be drawn, so its array should stay resident from the given level on.
+     *
+     * @param id    A texture
+     * @param level The finest mip level it is drawn at, 0 for full size
+     */
+    public void touch(int id, int level) {
+        Texture texture = texture(id);
+        if (texture.array != null) {
+            residency.request(texture.array.residencyId, level, frame);
+        }
+    }
+
+    /**
+     * Upload the textures decoded since the last call, and start changing the levels of the arrays whose levels
+     * should change. Call once a frame, before drawing. Uploading binds textures outside the tracker, so the tracker
+     * is invalidated whenever anything was uploaded.
+     *
+     * @param tracker The tracker textures are bound through for drawing
+     */
+    public void update(StateTracker tracker) {
+        Decoded decoded;
+        while ((decoded = completed.poll()) != null) {
+            if (decoded.rebuild == null) {
+                place(decoded);
+            } else {
+                addToRebuild(decoded);
+            }
+        }
+        residency.plan();
+        for (TextureArray array : arrays) {
+            int target = residency.getTarget(array.residencyId);
+            if (array.rebuild == null && !array.failed && target != array.residentLevel) {
+                startRebuild(array, target);
+            }
+        }
+        peakResidentBytes = Math.max(peakResidentBytes, residency.getResidentBytes());
+        frame++;
+        if (bound) {
+            tracker.invalidate();
+            bound = false;
+        }
+    }
+
+    /**
+     * Put a freshly loaded texture in an array.
+     */
+    private void place(Decoded decoded) {
+        Texture texture = decoded.texture;
+        if (texture.deleted) {
+            if (decoded.data != null) {
+                decoded.data.free();
+            }
+            return;
+        }
+        if (decoded.error != null) {
+            System.err.println("Failed to load texture " + texture.id + ": " + decoded.error.getMessage());
+            texture.failed = true;
+            return;
+        }
+        TextureData data = decoded.data;
+        TextureArray array = null;
+        for (TextureArray candidate : arrays) {
+            if (candidate.used < layersPerArray && candidate.matches(data)) {
+                array = candidate;
+                break;
+            }
+        }
+        if (array == null) {
+            array = createArray(data);
+        }
+        int layer = 0;
+        while (array.layers[layer] != null) {
+            layer++;
+        }
+        array.layers[layer] = texture;
+        array.used++;
+        texture.array = array;
+        texture.layer = layer;
+        loadedCount++;
+        upload(resources.texture(array.handle), array.residentLevel, layer, data);
+        if (array.rebuild != null) {
+            // The array is being rebuilt without this layer, so hand it what was decoded, which is every level
+            array.rebuild.data[layer] = data;
+        } else {
+            data.free();
+        }
+    }
+
+    /**
+     * Create an array for textures like the given one, as fine as the budget left allows.
+     */
+    private TextureArray createArray(TextureData data) {
+        TextureArray array = new TextureArray(data, layersPerArray);
+        long[] levelBytes = new long[array.levelCount];
+        int tail = array.levelCount - 1;
+        for (int level = 0; level < array.levelCount; level++) {
+            int width = TextureFormat.getLevelSize(array.width, level);
+            int height = TextureFormat.getLevelSize(array.height, level);
+            levelBytes[level] = array.format.getImageSize(width, height) * layersPerArray;
+            if (width <= TAIL_SIZE && height <= TAIL_SIZE) {
+                tail = Math.min(tail, level);
+            }
+        }
+        int id = residency.add(levelBytes, tail);
+        // Levels that fit are uploaded from the data at hand, rather than decoded again once planned
+        long available = residency.getAvailableBytes();
+        int level = tail;
+        while (level > 0 && residency.getBytes(id, level - 1) - residency.getBytes(id, tail) <= available) {
+            level--;
+        }
+        residency.setResident(id, level);
+        residency.request(id, level, frame);
+        array.residencyId = id;
+        array.residentLevel = level;
+        array.handle = allocate(array, level);
+        arrays.add(array);
+        return array;
+    }
+
+    /**
+     * Create an array texture with room for every layer, from the given level on.
+     *
+     * @return a handle to the texture, which is left bound
+     */
+    private int allocate(TextureArray array, int firstLevel) {
+        int handle = resources.createTexture(CATEGORY);
+        backend.bindTexture(TARGET, resources.texture(handle));
+        bound = true;
+        int levels = array.levelCount - firstLevel;
+        for (int i = 0; i < levels; i++) {
+            int width = TextureFormat.getLevelSize(array.width, firstLevel + i);
+            int height = TextureFormat.getLevelSize(array.height, firstLevel + i);
+            if (array.format.isCompressed()) {
+                int size = (int) array.format.getImageSize(width, height) * layersPerArray;
+                backend.compressedTexImage3D(TARGET, i, array.format.getInternalFormat(), width, height,
+                        layersPerArray, size);
+            } else {
+                backend.texImage3D(TARGET, i, array.format.getInternalFormat(), width, height, layersPerArray,
+                        GL11.GL_RGBA, GL11.GL_UNSIGNED_BYTE);
+            }
+        }
+        backend.texParameteri(TARGET, GL12.GL_TEXTURE_MAX_LEVEL, levels - 1);
+        backend.texParameteri(TARGET, GL11.GL_TEXTURE_MIN_FILTER, GL11.GL_LINEAR_MIPMAP_LINEAR);
+        backend.texParameteri(TARGET, GL11.GL_TEXTURE_MAG_FILTER, GL11.GL_LINEAR);
+        resources.setSize(handle, residency.getBytes(array.residencyId, firstLevel));
+        return handle;
+    }
+
+    /**
+     * Upload one layer of an array texture, whose level 0 is the given level of the texture.
+     */
+    private void upload(int texture, int firstLevel, int layer, TextureData data) {
+        backend.bindTexture(TARGET, texture);
+        bound = true;
+        TextureFormat format = data.getFormat();
+        for (int level = firstLevel; level < data.getLevelCount(); level++) {
+            int width = TextureFormat.getLevelSize(data.getWidth(), level);
+            int height = TextureFormat.getLevelSize(data.getHeight(), level);
+            if (format.isCompressed()) {
+                backend.compressedTexSubImage3D(TARGET, level - firstLevel, 0, 0, layer, width, height, 1,
+                        format.getInternalFormat(), data.getLevel(level));
+            } else {
+                backend.texSubImage3D(TARGET, level - firstLevel, 0, 0, layer, width, height, 1, GL11.GL_RGBA,
+                        GL11.GL_UNSIGNED_BYTE, data.getLevel(level));
+            }
+        }
+    }
+
+    /**
+     * Decode every layer of an array again from a new first level.
+     */
+    private void startRebuild(TextureArray array, int level) {
+        Rebuild rebuild = new Rebuild(level, layersPerArray);
+        array.rebuild = rebuild;
+        for (Texture texture : array.layers) {
+            if (texture != null) {
+                rebuild.remaining++;
+                decode(texture, rebuild, level);
+            }
+        }
+    }
+
+    /**
+     * Keep a layer decoded for a rebuild, and finish the rebuild if it was the last one.
+     */
+    private void addToRebuild(Decoded decoded) {
+        Rebuild rebuild = decoded.rebuild;
+        Texture texture = decoded.texture;
+        TextureArray array = texture.array;
+        rebuild.remaining--;
+        if (texture.deleted || array.rebuild != rebuild) {
+            if (decoded.data != null) {
+                decoded.data.free();
+            }
+        } else if (decoded.error != null || !array.matches(decoded.data)) {
+            String reason = decoded.error != null ? decoded.error.getMessage() : "it changed format or size";
+            System.err.println("Failed to stream texture " + texture.id + ": " + reason);
+            rebuild.failed = true;
+            if (decoded.data != null) {
+                decoded.data.free();
+            }
+        } else {
+            rebuild.data[texture.layer] = decoded.data;
+        }
+        if (rebuild.remaining > 0 || array.rebuild != rebuild) {
+            return;
+        }
+        array.rebuild = null;
+        if (rebuild.failed) {
+            // Keep drawing with the levels there are, rather than trying again every frame
+            array.failed = true;
+            rebuild.free();
+            return;
+        }
+        int handle = allocate(array, rebuild.level);
+        int name = resources.texture(handle);
+        for (int layer = 0; layer < layersPerArray; layer++) {
+            if (rebuild.data[layer] != null) {
+                upload(name, rebuild.level, layer, rebuild.data[layer]);
+            }
+        }
+        rebuild.free();
+        // Draws queued this frame still use the old texture, the registry deletes it at the end of the frame
+        resources.release(array.handle);
+        array.handle = handle;
+        array.residentLevel = rebuild.level;
+        residency.setResident(array.residencyId, rebuild.level);
+        rebuildCount++;
+    }
+
+    /**
+     * @return true if the texture is on the GPU and can be drawn with
+     */
+    public boolean isReady(int id) {
+        return texture(id).array != null;
+    }
+
+    /**
+     * @return true if the texture couldn't be loaded
+     */
+    public boolean isFailed(int id) {
+        return texture(id).failed;
+    }
+
+    /**
+     * @return the GL name of the array texture holding the texture, to bind to GL_TEXTURE_2D_ARRAY, or 0 if it isn't
+     * ready. The name changes whenever the array's levels do.
+     */
+    public int getTexture(int id) {
+        TextureArray array = texture(id).array;
+        return array == null ? 0 : resources.texture(array.handle);
+    }
+
+    /**
+     * @return the layer of its array texture the texture is in, or -1 if it isn't ready
+     */
+    public int getLayer(int id) {
+        Texture texture = texture(id);
+        return texture.array == null ? -1 : texture.layer;
+    }
+
+    /**
+     * @return the finest mip level of the texture on the GPU, or -1 if it isn't ready
+     */
+    public int getResidentLevel(int id) {
+        TextureArray array = texture(id).array;
+        return array == null ? -1 : array.residentLevel;
+    }
+
+    /**
+     * Delete a texture. Its layer is reused by the next texture like it, and its array is deleted along with the
+     * last texture in it.
+     */
+    public void delete(int id) {
+        Texture texture = texture(id);
+        texture.deleted = true;
+        textures.set(id, null);
+        TextureArray array = texture.array;
+        if (array == null) {
+            // Still decoding, what comes back is dropped
+            return;
+        }
+        array.layers[texture.layer] = null;
+        array.used--;
+        if (array.rebuild != null && array.rebuild.data[texture.layer] != null) {
+            array.rebuild.data[texture.layer].free();
+            array.rebuild.data[texture.layer] = null;
+        }
+        if (array.used == 0) {
+            deleteArray(array);
+            arrays.remove(array);
+        }
+    }
+
+    private void deleteArray(TextureArray array) {
+        if (array.rebuild != null) {
+            array.rebuild.free();
+            array.rebuild = null;
+        }
+        resources.release(array.handle);
+        residency.remove(array.residencyId);
+    }
+
+    /**
+     * @param budget The most bytes of GPU memory the textures should take up, from the next update on
+     */
+    public void setBudget(long budget) {
+        residency.setBudget(budget);
+    }
+
+    public long getBudget() {
+        return residency.getBudget();
+    }
+
+    /**
+     * @return the bytes of GPU memory the array textures take up
+     */
+    public long getResidentBytes() {
+        return residency.getResidentBytes();
+    }
+
+    /**
+     * @return the most bytes of GPU memory the array textures have taken up at the end of an update
+     */
+    public long getPeakResidentBytes() {
+        return peakResidentBytes;
+    }
+
+    /**
+     * @return the number of textures that have been loaded and put on the GPU, including deleted ones
+     */
+    public int getLoadedCount() {
+        return loadedCount;
+    }
+
+    /**
+     * @return the number of array textures the textures are in
+     */
+    public int getArrayCount() {
+        return arrays.size();
+    }
+
+    /**
+     * @return the number of decodes running or queued
+     */
+    public int getPending() {
+        return pending.get();
+    }
+
+    /**
+     * @return the number of times an array's levels have changed
+     */
+    public int getRebuildCount() {
+        return rebuildCount;
+    }
+
+    /**
+     * Stop the workers, and release every array texture.
+     */
+    public void delete() {
+        pool.shutdownNow();
+        try {
+            // Let decodes already running finish, so what they decoded can be freed
+            pool.awaitTermination(1, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        Decoded decoded;
+        while ((decoded = completed.poll()) != null) {
+            if (decoded.data != null) {
+                decoded.data.free();
+            }
+        }
+        for (TextureArray array : arrays) {
+            deleteArray(array);
+        }
+        arrays.clear();
+        textures.clear();
+    }
+
+    /**
+     * A texture, and where it is once it is on the GPU.
+     */
+    private static final class Texture {
+        private final int id;
+        private final TextureSource source;
+        private TextureArray array;
+        private int layer;
+        private boolean failed;
+        private boolean deleted;
+
+        private Texture(int id, TextureSource source) {
+            this.id = id;
+            this.source = source;
+        }
+    }
+
+    /**
+     * An array texture, holding textures of one format and size.
+     */
+    private static final class TextureArray {
+        private final TextureFormat format;
+        private final int width;
+        private final int height;
+        private final int levelCount;
+        private final Texture[] layers;
+        private int used;
+        private int handle;
+        private int residencyId;
+        private int residentLevel;
+        // The levels being changed, or null
+        private Rebuild rebuild;
+        // Set when a rebuild failed, the array then keeps the levels it has
+        private boolean failed;
+
+        private TextureArray(TextureData data, int layers) {
+            this.format = data.getFormat();
+            this.width = data.getWidth();
+            this.height = data.getHeight();
+            this.levelCount = data.getLevelCount();
+            this.layers = new Texture[layers];
+        }
+
+        private boolean matches(TextureData data) {
+            return data.getFormat() == format && data.getWidth() == width && data.getHeight() == height
+                    && data.getLevelCount() == levelCount;
+        }
+    }
+
+    /**
+     * The layers of an array decoded from a new first level, collected until they are all there.
+     */
+    private static final class Rebuild {
+        private final int level;
+        private final TextureData[] data;
+        private int remaining;
+        private boolean failed;
+
+        private Rebuild(int level, int layers) {
+            this.level = level;
+            this.data = new TextureData[layers];
+        }
+
+        private void free() {
+            for (int layer = 0; layer < data.length; layer++) {
+                if (data[layer] != null) {
+                    data[layer].free();
+                    data[layer] = null;
+                }
+            }
+        }
+    }
+
+    /**
+     * A finished decode: either the texture's levels or what went wrong.
+     */
+    private static final class Decoded {
+        private final Texture texture;
+        // The rebuild the texture was decoded for, null when it was first loaded
+        private final Rebuild rebuild;
+        private final TextureData data;
+        private final Exception error;
+
+        private Decoded(Texture texture, Rebuild rebuild, TextureData data, Exception error) {
+            this.texture = texture;
+            this.rebuild = rebuild;
+            this.data = data;
+            this.error = error;
+        }
+    }
+}
@@ -0,0 +1,249 @@
+package rendering;
+
+import java.util.Arrays;
+
+/**
+ * Decides which mip levels of each texture are kept on the GPU, within a budget of bytes.
+ * <p>
+ * A texture with levels r and coarser on the GPU is said to be resident from level r. Every texture has a tail of
+ * small levels that always stay resident, so there is always something to draw it with. Above that, each texture
+ * is asked for at the finest level it is about to be drawn at, and {@link #plan()} hands out what is left of the
+ * budget in order of use: the most recently used texture gets the levels it asked for first, and the least recently
+ * used ones are cut back to coarser levels once the budget runs out. Cutting back a texture that hasn't been drawn
+ * for a while frees its memory for the ones being looked at, which is least recently used eviction, a level at a
+ * time.
+ * <p>
+ * The planner only does the bookkeeping. Whoever owns the textures compares {@link #getTarget(int)} with
+ * {@link #getResident(int)} after planning, loads or drops levels to match, and reports back with
+ * {@link #setResident(int, int)}. It doesn't touch the GPU, so it can be used and checked anywhere.
+ */
+public class TextureResidency {
+    private static final int INITIAL_CAPACITY = 16;
+    // Keys sort textures by when they were last used, with the id in the low bits
+    private static final int ID_BITS = 24;
+
+    private long budget;
+
+    // Per texture, by id. The bytes taken up from each level on, null for ids not in use.
+    private long[][] bytesFromLevel = new long[INITIAL_CAPACITY][];
+    private int[] tailLevels = new int[INITIAL_CAPACITY];
+    private int[] wantedLevels = new int[INITIAL_CAPACITY];
+    private int[] residentLevels = new int[INITIAL_CAPACITY];
+    private int[] targetLevels = new int[INITIAL_CAPACITY];
+    private long[] lastUsed = new long[INITIAL_CAPACITY];
+    private int idCount;
+    private int[] freeIds = new int[INITIAL_CAPACITY];
+    private int freeIdCount;
+    private long[] order = new long[INITIAL_CAPACITY];
+
+    private long residentBytes;
+    private long plannedBytes;
+
+    /**
+     * @param budget The most bytes textures should take up
+     */
+    public TextureResidency(long budget) {
+        setBudget(budget);
+    }
+
+    /**
+     * @param budget The most bytes textures should take up. The tails always stay, even if they alone go over it.
+     */
+    public void setBudget(long budget) {
+        if (budget < 0) {
+            throw new IllegalArgumentException("Negative texture budget " + budget);
+        }
+        this.budget = budget;
+    }
+
+    public long getBudget() {
+        return budget;
+    }
+
+    /**
+     * Add a texture, resident from its tail on and wanted there until it is asked for.
+     *
+     * @param levelBytes The bytes each mip level takes up, finest first
+     * @param tailLevel  The finest of the levels that always stay resident
+     * @return the id of the texture
+     */
+    public int add(long[] levelBytes, int tailLevel) {
+        if (tailLevel < 0 || tailLevel >= levelBytes.length) {
+            throw new IllegalArgumentException("Tail level " + tailLevel + " of " + levelBytes.length + " levels");
+        }
+        int id;
+        if (freeIdCount > 0) {
+            id = freeIds[--freeIdCount];
+        } else {
+            if (idCount == 1 << ID_BITS) {
+                throw new IllegalStateException("Too many textures");
+            }
+            if (idCount == tailLevels.length) {
+                grow();
+            }
+            id = idCount++;
+        }
+        long[] bytes = new long[levelBytes.length + 1];
+        for (int level = levelBytes.length - 1; level >= 0; level--) {
+            bytes[level] = bytes[level + 1] + levelBytes[level];
+        }
+        bytesFromLevel[id] = bytes;
+        tailLevels[id] = tailLevel;
+        wantedLevels[id] = tailLevel;
+        residentLevels[id] = tailLevel;
+        targetLevels[id] = tailLevel;
+        lastUsed[id] = 0;
+        residentBytes += bytes[tailLevel];
+        return id;
+    }
+
+    private void grow() {
+        int capacity = tailLevels.length * 2;
+        bytesFromLevel = Arrays.copyOf(bytesFromLevel, capacity);
+        tailLevels = Arrays.copyOf(tailLevels, capacity);
+        wantedLevels = Arrays.copyOf(wantedLevels, capacity);
+        residentLevels = Arrays.copyOf(residentLevels, capacity);
+        targetLevels = Arrays.copyOf(targetLevels, capacity);
+        lastUsed = Arrays.copyOf(lastUsed, capacity);
+        freeIds = Arrays.copyOf(freeIds, capacity);
+        order = Arrays.copyOf(order, capacity);
+    }
+
+    /**
+     * Stop tracking a texture, whose id may then be given to another one.
+     */
+    public void remove(int id) {
+        check(id);
+        residentBytes -= bytesFromLevel[id][residentLevels[id]];
+        bytesFromLevel[id] = null;
+        freeIds[freeIdCount++] = id;
+    }
+
+    private void check(int id) {
+        if (id < 0 || id >= idCount || bytesFromLevel[id] == null) {
+            throw new IllegalArgumentException("No texture " + id);
+        }
+    }
+
+    /**
+     * Ask for a texture to be resident from a level on, because it is about to be drawn there. Asking several times
+     * in a frame keeps the finest level asked for.
+     *
+     * @param level The finest level the texture is drawn at, clamped to its levels
+     * @param frame The number of the current frame, which only ever goes up
+     */
+    public void request(int id, int level, long frame) {
+        check(id);
+        level = Math.max(0, Math.min(level, bytesFromLevel[id].length - 2));
+        if (lastUsed[id] != frame) {
+            wantedLevels[id] = level;
+            lastUsed[id] = frame;
+        } else {
+            wantedLevels[id] = Math.min(wantedLevels[id], level);
+        }
+    }
+
+    /**
+     * Record that a texture's levels have changed on the GPU.
+     *
+     * @param level The finest level now resident
+     */
+    public void setResident(int id, int level) {
+        check(id);
+        if (level < 0 || level > tailLevels[id]) {
+            throw new IllegalArgumentException("Level " + level + " is past the tail of texture " + id);
+        }
+        residentBytes += bytesFromLevel[id][level] - bytesFromLevel[id][residentLevels[id]];
+        residentLevels[id] = level;
+    }
+
+    /**
+     * Work out the target level of every texture, most recently used first.
+     */
+    public void plan() {
+        int count = 0;
+        long available = budget;
+        for (int id = 0; id < idCount; id++) {
+            if (bytesFromLevel[id] != null) {
+                order[count++] = lastUsed[id] << ID_BITS | id;
+                available -= bytesFromLevel[id][tailLevels[id]];
+            }
+        }
+        Arrays.sort(order, 0, count);
+        plannedBytes = budget - available;
+        // Latest use first
+        for (int i = count - 1; i >= 0; i--) {
+            int id = (int) (order[i] & ((1 << ID_BITS) - 1));
+            long[] bytes = bytesFromLevel[id];
+            int tail = tailLevels[id];
+            int level = Math.min(wantedLevels[id], tail);
+            while (level < tail && bytes[level] - bytes[tail] > available) {
+                level++;
+            }
+            targetLevels[id] = level;
+            available -= bytes[level] - bytes[tail];
+            plannedBytes += bytes[level] - bytes[tail];
+        }
+    }
+
+    /**
+     * @return the level the texture should be resident from, as of the last {@link #plan()}
+     */
+    public int getTarget(int id) {
+        check(id);
+        return targetLevels[id];
+    }
+
+    /**
+     * @return the finest level of the texture on the GPU
+     */
+    public int getResident(int id) {
+        check(id);
+        return residentLevels[id];
+    }
+
+    /**
+     * @return the finest of the levels of the texture that always stay resident
+     */
+    public int getTail(int id) {
+        check(id);
+        return tailLevels[id];
+    }
+
+    /**
+     * @return the frame the texture was last asked for in
+     */
+    public long getLastUsed(int id) {
+        check(id);
+        return lastUsed[id];
+    }
+
+    /**
+     * @return the bytes the texture would take up resident from the given level
+     */
+    public long getBytes(int id, int level) {
+        check(id);
+        return bytesFromLevel[id][level];
+    }
+
+    /**
+     * @return the bytes the textures take up on the GPU
+     */
+    public long getResidentBytes() {
+        return residentBytes;
+    }
+
+    /**
+     * @return the bytes the textures would take up at their target levels
+     */
+    public long getPlannedBytes() {
+        return plannedBytes;
+    }
+
+    /**
+     * @return how many more bytes could be made resident without going over the budget, as of the last plan
+     */
+    public long getAvailableBytes() {
+        return Math.max(0, budget - Math.max(plannedBytes, residentBytes));
+    }
+}
@@ -0,0 +1,226 @@
+package rendering;
+
+import org.lwjgl.opengl.GL11;
+import org.lwjgl.opengl.GL30;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Describes the vertices in a buffer: which attributes they have, in what types, and where each one sits.
+ * <p>
+ * Attributes are interleaved in the order they are added. Each one starts on a 4 byte boundary, as GL
+ * implementations prefer, so e.g. a position of three shorts takes up 8 bytes.
+ * <pre>
+ *   VertexLayout layout = VertexLayout.builder()
+ *           .add(0, 3, VertexLayout.Type.SHORT, true)  // position, -1 to 1
+ *           .add(1, 2, VertexLayout.Type.SHORT, true)  // octahedral normal, see VertexPacking
+ *           .build();
+ * </pre>
+ */
+public final class VertexLayout {
+    /**
+     * The component types an attribute can be stored in.
+     */
+    public enum Type {
+        FLOAT(GL11.GL_FLOAT, 4),
+        HALF_FLOAT(GL30.GL_HALF_FLOAT, 2),
+        SHORT(GL11.GL_SHORT, 2),
+        UNSIGNED_SHORT(GL11.GL_UNSIGNED_SHORT, 2),
+        BYTE(GL11.GL_BYTE, 1),
+        UNSIGNED_BYTE(GL11.GL_UNSIGNED_BYTE, 1);
+
+        private final int glType;
+        private final int bytes;
+
+        Type(int glType, int bytes) {
+            this.glType = glType;
+            this.bytes = bytes;
+        }
+
+        /**
+         * @return the GL enum of the type, e.g. GL_FLOAT
+         */
+        public int getGlType() {
+            return glType;
+        }
+
+        /**
+         * @return the size of one component in bytes
+         */
+        public int getBytes() {
+            return bytes;
+        }
+    }
+
+    private final Attribute[] attributes;
+    private final int stride;
+
+    private VertexLayout(Attribute[] attributes, int stride) {
+        this.attributes = attributes;
+        this.stride = stride;
+    }
+
+    /**
+     * @return a builder to describe a layout with
+     */
+    public static Builder builder() {
+        return new Builder();
+    }
+
+    /**
+     * Point the attributes at the buffer bound to GL_ARRAY_BUFFER, and enable them.
+     * The vertex array to set them up in must be bound, it remembers all of this.
+     *
+     * @param backend The backend to issue graphics calls through
+     */
+    public void apply(RenderBackend backend) {
+        for (Attribute attribute : attributes) {
+            backend.vertexAttribPointer(attribute.location, attribute.components, attribute.type.glType,
+                    attribute.normalized, stride, attribute.offset);
+            if (attribute.divisor != 0) {
+                backend.vertexAttribDivisor(attribute.location, attribute.divisor);
+            }
+            backend.enableVertexAttribArray(attribute.location);
+        }
+    }
+
+    /**
+     * @return the size of a vertex in bytes
+     */
+    public int getStride() {
+        return stride;
+    }
+
+    /**
+     * @return the number of attributes
+     */
+    public int getAttributeCount() {
+        return attributes.length;
+    }
+
+    /**
+     * @param index The index of the attribute, in the order it was added
+     * @return the attribute
+     */
+    public Attribute getAttribute(int index) {
+        return attributes[index];
+    }
+
+    /**
+     * One attribute of a vertex.
+     */
+    public static final class Attribute {
+        private final int location;
+        private final int components;
+        private final Type type;
+        private final boolean normalized;
+        private final int divisor;
+        private final int offset;
+
+        private Attribute(int location, int components, Type type, boolean normalized, int divisor, int offset) {
+            this.location = location;
+            this.components = components;
+            this.type = type;
+            this.normalized = normalized;
+            this.divisor = divisor;
+            this.offset = offset;
+        }
+
+        public int getLocation() {
+            return location;
+        }
+
+        public int getComponents() {
+            return components;
+        }
+
+        public Type getType() {
+            return type;
+        }
+
+        /**
+         * @return true if integer components are mapped to -1 to 1 (signed) or 0 to 1 (unsigned)
+         */
+        public boolean isNormalized() {
+            return normalized;
+        }
+
+        /**
+         * @return 0 if the attribute advances per vertex, otherwise the number of instances it advances after
+         */
+        public int getDivisor() {
+            return divisor;
+        }
+
+        /**
+         * @return the offset of the attribute within a vertex, in bytes
+         */
+        public int getOffset() {
+            return offset;
+        }
+    }
+
+    /**
+     * Adds attributes one at a time, working out their offsets and the stride.
+     */
+    public static final class Builder {
+        private final List<Attribute> attributes = new ArrayList<>();
+        private int offset;
+
+        private Builder() {
+        }
+
+        /**
+         * Add a per-vertex attribute.
+         *
+         * @param location   The attribute location in the shader
+         * @param components The number of components, 1 to 4
+         * @param type       The type the components are stored in
+         * @param normalized Whether integer components are mapped to -1 to 1 or 0 to 1, rather than converted as is
+         * @return this builder
+         */
+        public Builder add(int location, int components, Type type, boolean normalized) {
+            return add(location, components, type, normalized, 0);
+        }
+
+        /**
+         * Add an attribute that advances once every {@code divisor} instances rather than every vertex.
+         *
+         * @see #add(int, int, Type, boolean)
+         */
+        public Builder add(int location, int components, Type type, boolean normalized, int divisor) {
+            if (components < 1 || components > 4) {
+                throw new IllegalArgumentException("An attribute has 1 to 4 components, not " + components);
+            }
+            attributes.add(new Attribute(location, components, type, normalized, divisor, offset));
+            offset = align(offset + components * type.bytes);
+            return this;
+        }
+
+        /**
+         * Add a 4x4 float matrix, which takes up four consecutive locations, one per column.
+         *
+         * @param location The location of the first column
+         * @param divisor  0 for per-vertex, otherwise the number of instances it advances after
+         * @return this builder
+         */
+        public Builder addMatrix4(int location, int divisor) {
+            for (int column = 0; column < 4; column++) {
+                add(location + column, 4, Type.FLOAT, false, divisor);
+            }
+            return this;
+        }
+
+        private static int align(int bytes) {
+            return (bytes + 3) & ~3;
+        }
+
+        /**
+         * @return the layout
+         */
+        public VertexLayout build() {
+            return new VertexLayout(attributes.toArray(new Attribute[0]), offset);
+        }
+    }
+}
@@ -0,0 +1,191 @@
+package rendering;
+
+import org.joml.Vector3f;
+import org.lwjgl.opengl.GL11;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Converts vertex data to and from the compact types a {@link VertexLayout} can describe.
+ * <p>
+ * Normals are packed with the octahedral mapping: the unit sphere is projected onto an octahedron, which is unfolded
+ * onto a square, leaving two components instead of three. At 16 bits per component the error stays under
+ * 0.03 degrees. To unpack in GLSL:
+ * <pre>
+ *   vec3 n = vec3(p.xy, 1.0 - abs(p.x) - abs(p.y));
+ *   float t = max(-n.z, 0.0);
+ *   n.xy += vec2(n.x >= 0.0 ? -t : t, n.y >= 0.0 ? -t : t);
+ *   n = normalize(n);
+ * </pre>
+ */
+public final class VertexPacking {
+    private static final float SNORM16_MAX = 32767.0f;
+    // The largest vertex count 16-bit indices can address
+    private static final int MAX_SHORT_INDEXED_VERTICES = 1 << 16;
+
+    private VertexPacking() {
+    }
+
+    /**
+     * Convert a float to the nearest half float, rounding ties to even.
+     * Values too large for a half become infinity, values too small become zero or a subnormal.
+     *
+     * @param value The float
+     * @return the bits of the half float
+     */
+    public static short floatToHalf(float value) {
+        int bits = Float.floatToRawIntBits(value);
+        int sign = (bits >>> 16) & 0x8000;
+        int exponent = (bits >>> 23) & 0xFF;
+        int mantissa = bits & 0x7F_FFFF;
+
+        if (exponent == 0xFF) {
+            // Infinity stays infinity, NaN stays NaN
+            return (short) (sign | 0x7C00 | (mantissa != 0 ? 0x200 : 0));
+        }
+        // Rebias the exponent from 127 to 15
+        int halfExponent = exponent - 127 + 15;
+        if (halfExponent >= 0x1F) {
+            return (short) (sign | 0x7C00);
+        }
+        if (halfExponent <= 0) {
+            // Subnormal half, or zero if even that is too small
+            if (halfExponent < -10) {
+                return (short) sign;
+            }
+            mantissa |= 0x80_0000;
+            int shift = 14 - halfExponent;
+            int half = mantissa >>> shift;
+            int remainder = mantissa & ((1 << shift) - 1);
+            int halfway = 1 << (shift - 1);
+            if (remainder > halfway || (remainder == halfway && (half & 1) != 0)) {
+                half++;
+            }
+            return (short) (sign | half);
+        }
+        int half = (halfExponent << 10) | (mantissa >>> 13);
+        int remainder = mantissa & 0x1FFF;
+        // Rounding up may carry into the exponent, which is still correct, up to and including infinity
+        if (remainder > 0x1000 || (remainder == 0x1000 && (half & 1) != 0)) {
+            half++;
+        }
+        return (short) (sign | half);
+    }
+
+    /**
+     * Convert a half float to a float, exactly.
+     *
+     * @param half The bits of the half float
+     * @return the float
+     */
+    public static float halfToFloat(short half) {
+        int sign = (half & 0x8000) << 16;
+        int exponent = (half >>> 10) & 0x1F;
+        int mantissa = half & 0x3FF;
+        if (exponent == 0x1F) {
+            return Float.intBitsToFloat(sign | 0x7F80_0000 | (mantissa << 13));
+        }
+        if (exponent == 0) {
+            // Zero or subnormal, which is the mantissa times 2^-24
+            float value = mantissa * 0x1.0p-24f;
+            return sign != 0 ? -value : value;
+        }
+        return Float.intBitsToFloat(sign | ((exponent - 15 + 127) << 23) | (mantissa << 13));
+    }
+
+    /**
+     * Convert a value from -1 to 1 to a normalized short, the way GL converts it back.
+     *
+     * @param value The value, clamped to -1 to 1
+     * @return the short
+     */
+    public static short packSnorm16(float value) {
+        return (short) Math.round(Math.max(-1.0f, Math.min(1.0f, value)) * SNORM16_MAX);
+    }
+
+    /**
+     * Convert a normalized short to a value from -1 to 1, the way GL does.
+     *
+     * @param value The short
+     * @return the value
+     */
+    public static float unpackSnorm16(short value) {
+        return Math.max(value / SNORM16_MAX, -1.0f);
+    }
+
+    /**
+     * Pack a unit vector into two normalized shorts with the octahedral mapping.
+     *
+     * @param x X component
+     * @param y Y component
+     * @param z Z component
+     * @return the two shorts, the first in the low 16 bits, in the order they go into a vertex on little-endian machines
+     */
+    public static int packOctahedral(float x, float y, float z) {
+        float length = Math.abs(x) + Math.abs(y) + Math.abs(z);
+        float u = x / length;
+        float v = y / length;
+        if (z < 0.0f) {
+            // Fold the lower half of the octahedron over the upper half
+            float foldedU = (1.0f - Math.abs(v)) * (u >= 0.0f ? 1.0f : -1.0f);
+            float foldedV = (1.0f - Math.abs(u)) * (v >= 0.0f ? 1.0f : -1.0f);
+            u = foldedU;
+            v = foldedV;
+        }
+        return (packSnorm16(u) & 0xFFFF) | (packSnorm16(v) << 16);
+    }
+
+    /**
+     * Unpack a unit vector packed by {@link #packOctahedral(float, float, float)}.
+     *
+     * @param packed The two shorts
+     * @param out    Receives the unit vector
+     * @return out
+     */
+    public static Vector3f unpackOctahedral(int packed, Vector3f out) {
+        float u = unpackSnorm16((short) packed);
+        float v = unpackSnorm16((short) (packed >> 16));
+        float z = 1.0f - Math.abs(u) - Math.abs(v);
+        float t = Math.max(-z, 0.0f);
+        u += u >= 0.0f ? -t : t;
+        v += v >= 0.0f ? -t : t;
+        return out.set(u, v, z).normalize();
+    }
+
+    /**
+     * Pick the smallest index type that can address a number of vertices.
+     *
+     * @param vertexCount The number of vertices
+     * @return GL_UNSIGNED_SHORT or GL_UNSIGNED_INT
+     */
+    public static int indexType(int vertexCount) {
+        return vertexCount <= MAX_SHORT_INDEXED_VERTICES ? GL11.GL_UNSIGNED_SHORT : GL11.GL_UNSIGNED_INT;
+    }
+
+    /**
+     * @param indexType GL_UNSIGNED_SHORT or GL_UNSIGNED_INT
+     * @return the size of an index in bytes
+     */
+    public static int indexBytes(int indexType) {
+        return indexType == GL11.GL_UNSIGNED_SHORT ? Short.BYTES : Integer.BYTES;
+    }
+
+    /**
+     * Write indices in the given index type.
+     *
+     * @param buffer    The buffer to write to, at its position, in native byte order
+     * @param indices   The indices
+     * @param indexType GL_UNSIGNED_SHORT or GL_UNSIGNED_INT
+     */
+    public static void putIndices(ByteBuffer buffer, int[] indices, int indexType) {
+        if (indexType == GL11.GL_UNSIGNED_SHORT) {
+            for (int index : indices) {
+                buffer.putShort((short) index);
+            }
+        } else {
+            for (int index : indices) {
+                buffer.putInt(index);
+            }
+        }
+    }
+}
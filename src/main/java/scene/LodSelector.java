@@ -0,0 +1,145 @@
+package scene;
+
+import java.util.Arrays;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * Picks a level of detail for each visible object in a {@link SceneIndex}, by how big its error would look on screen.
+ * <p>
+ * Every level has a geometric error: how far, in world units, it can be off from the full detail mesh. Seen from
+ * a distance {@code d}, that error covers about {@code error * pixelsPerUnit / d} pixels, where {@code pixelsPerUnit}
+ * comes from the projection. Each object gets the coarsest level whose error stays under the pixel budget, with the
+ * distance measured to the nearest point of its box.
+ * <p>
+ * To stop objects near a threshold from flicking between two levels, switching has some hysteresis: moving to a
+ * coarser level needs the error to be clearly under the budget, and moving back to a finer one needs it to be
+ * clearly over.
+ * <p>
+ * Selection is split over the common fork join pool when there are enough visible objects to make it worth it.
+ */
+public class LodSelector {
+    // Below this many visible objects, selecting on one thread is quicker than splitting the work
+    private static final int PARALLEL_THRESHOLD = 1024;
+    private static final int BATCH_SIZE = 256;
+
+    private final float[] levelErrors;
+    private final float maxPixelError;
+    private final float hysteresis;
+    private float pixelsPerUnit = 1.0f;
+    // The level of each object id, kept between frames for the hysteresis
+    private byte[] levels = new byte[256];
+
+    /**
+     * @param levelErrors   The geometric error of each level in world units, finest (usually 0) first
+     * @param maxPixelError The most pixels the error may cover on screen
+     * @param hysteresis    How far past the budget the error has to go before switching, as a fraction of it
+     */
+    public LodSelector(float[] levelErrors, float maxPixelError, float hysteresis) {
+        if (levelErrors.length > Byte.MAX_VALUE) {
+            throw new IllegalArgumentException("Too many levels: " + levelErrors.length);
+        }
+        this.levelErrors = levelErrors.clone();
+        this.maxPixelError = maxPixelError;
+        this.hysteresis = hysteresis;
+    }
+
+    /**
+     * Set the projection the errors are measured against.
+     *
+     * @param fieldOfView    The vertical field of view, in radians
+     * @param viewportHeight The height of the viewport, in pixels
+     */
+    public void setProjection(float fieldOfView, int viewportHeight) {
+        pixelsPerUnit = viewportHeight / (2.0f * (float) Math.tan(fieldOfView * 0.5f));
+    }
+
+    /**
+     * Select the level of every object found visible by the index's last cull.
+     *
+     * @param index The culled index
+     * @param eyeX  X Coordinate of the camera
+     * @param eyeY  Y Coordinate of the camera
+     * @param eyeZ  Z Coordinate of the camera
+     */
+    public void select(SceneIndex index, float eyeX, float eyeY, float eyeZ) {
+        if (levels.length < index.idLimit()) {
+            levels = Arrays.copyOf(levels, Math.max(levels.length * 2, index.idLimit()));
+        }
+        int count = index.getVisibleCount();
+        if (count < PARALLEL_THRESHOLD) {
+            select(index.getVisible(), 0, count, index.bounds(), eyeX, eyeY, eyeZ);
+        } else {
+            ForkJoinPool.commonPool().invoke(new Batch(index.getVisible(), 0, count, index.bounds(), eyeX, eyeY, eyeZ));
+        }
+    }
+
+    private void select(int[] ids, int from, int to, float[] bounds, float eyeX, float eyeY, float eyeZ) {
+        byte[] levels = this.levels;
+        for (int i = from; i < to; i++) {
+            int id = ids[i];
+            int offset = id * 6;
+            // Distance to the nearest point of the box, 0 from inside it
+            float dx = Math.max(Math.max(bounds[offset] - eyeX, eyeX - bounds[offset + 3]), 0.0f);
+            float dy = Math.max(Math.max(bounds[offset + 1] - eyeY, eyeY - bounds[offset + 4]), 0.0f);
+            float dz = Math.max(Math.max(bounds[offset + 2] - eyeZ, eyeZ - bounds[offset + 5]), 0.0f);
+            float distance = (float) Math.sqrt(dx * dx + dy * dy + dz * dz);
+            levels[id] = (byte) selectLevel(levels[id], distance);
+        }
+    }
+
+    /**
+     * Pick the coarsest level whose error is within budget at a distance, given the level used so far.
+     */
+    int selectLevel(int current, float distance) {
+        // Compare error * pixelsPerUnit / distance against the budget without dividing
+        float reach = distance * maxPixelError / pixelsPerUnit;
+        for (int level = levelErrors.length - 1; level > 0; level--) {
+            float budget = level > current ? reach * (1.0f - hysteresis) : reach * (1.0f + hysteresis);
+            if (levelErrors[level] <= budget) {
+                return level;
+            }
+        }
+        return 0;
+    }
+
+    /**
+     * @param id The id of an object in the index
+     * @return the level selected for the object by the last {@link #select}
+     */
+    public int getLevel(int id) {
+        return levels[id];
+    }
+
+    /**
+     * A range of the visible objects, split in half until it is small enough to select on one thread.
+     */
+    private final class Batch extends RecursiveAction {
+        private final int[] ids;
+        private final int from;
+        private final int to;
+        private final float[] bounds;
+        private final float eyeX, eyeY, eyeZ;
+
+        private Batch(int[] ids, int from, int to, float[] bounds, float eyeX, float eyeY, float eyeZ) {
+            this.ids = ids;
+            this.from = from;
+            this.to = to;
+            this.bounds = bounds;
+            this.eyeX = eyeX;
+            this.eyeY = eyeY;
+            this.eyeZ = eyeZ;
+        }
+
+        @Override
+        protected void compute() {
+            if (to - from <= BATCH_SIZE) {
+                select(ids, from, to, bounds, eyeX, eyeY, eyeZ);
+                return;
+            }
+            int middle = (from + to) >>> 1;
+            invokeAll(new Batch(ids, from, middle, bounds, eyeX, eyeY, eyeZ),
+                    new Batch(ids, middle, to, bounds, eyeX, eyeY, eyeZ));
+        }
+    }
+}
@@ -0,0 +1,387 @@
+package scene;
+
+import org.joml.Matrix4fc;
+
+import java.util.Arrays;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * Finds objects hidden behind others, by drawing a few large occluders into a small depth buffer on the CPU and
+ * testing bounding boxes against it.
+ * <p>
+ * Each frame starts with {@link #begin(Matrix4fc)}, then occluder meshes are added with
+ * {@link #addOccluder(float[], int[], int, int)}, and {@link #finish()} rasterizes them. Depth is the window depth of
+ * the projection, 0 at the near plane and 1 at the far plane, and each pixel keeps the nearest occluder covering its
+ * center. From the depth buffer a pyramid is built where each texel holds the farthest depth of the 2x2 below it, so
+ * {@link #isVisible} can check a box against at most 2x2 texels of the level where its screen rectangle is that small.
+ * <p>
+ * Rasterizing is split into bands of rows, filled in parallel on the common fork join pool when there are enough
+ * triangles. Each row of a triangle is clipped to the span inside its edges first, so the inner loop is a plain
+ * min over a run of floats, which the JIT can vectorize.
+ * <p>
+ * Triangles crossing the near plane are skipped, and boxes crossing it are always visible, so anything uncertain
+ * is drawn rather than hidden. The only error goes the other way: pixels are covered by their centers, so an object
+ * showing through less than a pixel of the buffer can be hidden.
+ */
+public class OcclusionCuller {
+    // Below this many triangles, rasterizing on one thread is quicker than splitting the work
+    private static final int PARALLEL_THRESHOLD = 512;
+    private static final int BAND_ROWS = 32;
+    // Closer to the eye than this, a vertex is treated as behind it
+    private static final float MIN_W = 1e-5f;
+
+    private final int width;
+    private final int height;
+    // Depth pyramid, level 0 is the depth buffer itself
+    private final float[][] levels;
+    private final int[] levelWidths;
+    private final int[] levelHeights;
+    private final float[] matrix = new float[16];
+
+    // Per triangle: window x, y and depth of each corner
+    private float[] triangles = new float[1024 * 9];
+    // Per triangle: its pixel bounds, min x, min y, max x, max y inclusive
+    private int[] triangleBounds = new int[1024 * 4];
+    private int triangleCount;
+    // Transformed vertices of the occluder being added: window x, y, depth and w
+    private float[] transformed = new float[1024 * 4];
+
+    /**
+     * @param width  The width of the depth buffer, in pixels
+     * @param height The height of the depth buffer, in pixels
+     */
+    public OcclusionCuller(int width, int height) {
+        if (width <= 0 || height <= 0) {
+            throw new IllegalArgumentException("Invalid depth buffer size " + width + "x" + height);
+        }
+        this.width = width;
+        this.height = height;
+        int levelCount = 1;
+        for (int w = width, h = height; w > 1 || h > 1; w = (w + 1) / 2, h = (h + 1) / 2) {
+            levelCount++;
+        }
+        levels = new float[levelCount][];
+        levelWidths = new int[levels.length];
+        levelHeights = new int[levels.length];
+        int levelWidth = width;
+        int levelHeight = height;
+        for (int level = 0; level < levels.length; level++) {
+            levels[level] = new float[levelWidth * levelHeight];
+            levelWidths[level] = levelWidth;
+            levelHeights[level] = levelHeight;
+            levelWidth = (levelWidth + 1) / 2;
+            levelHeight = (levelHeight + 1) / 2;
+        }
+        // Nothing occludes until the first frame is rasterized
+        for (float[] level : levels) {
+            Arrays.fill(level, 1.0f);
+        }
+    }
+
+    /**
+     * Start a new frame, dropping the occluders of the last one.
+     *
+     * @param viewProjection The view-projection matrix of the camera
+     */
+    public void begin(Matrix4fc viewProjection) {
+        viewProjection.get(matrix);
+        triangleCount = 0;
+    }
+
+    /**
+     * Add the triangles of an occluder. Only solid, opaque surfaces should be added.
+     *
+     * @param vertices   World positions, x, y, z per vertex
+     * @param indices    Indices of the triangles' vertices
+     * @param indexFrom  The first index to use
+     * @param indexCount The number of indices to use, a multiple of 3
+     */
+    public void addOccluder(float[] vertices, int[] indices, int indexFrom, int indexCount) {
+        int vertexCount = vertices.length / 3;
+        if (transformed.length < vertexCount * 4) {
+            transformed = new float[Math.max(transformed.length * 2, vertexCount * 4)];
+        }
+        float[] m = matrix;
+        for (int v = 0; v < vertexCount; v++) {
+            float x = vertices[v * 3];
+            float y = vertices[v * 3 + 1];
+            float z = vertices[v * 3 + 2];
+            float clipX = m[0] * x + m[4] * y + m[8] * z + m[12];
+            float clipY = m[1] * x + m[5] * y + m[9] * z + m[13];
+            float clipZ = m[2] * x + m[6] * y + m[10] * z + m[14];
+            float w = m[3] * x + m[7] * y + m[11] * z + m[15];
+            float inverseW = 1.0f / w;
+            transformed[v * 4] = (clipX * inverseW * 0.5f + 0.5f) * width;
+            transformed[v * 4 + 1] = (clipY * inverseW * 0.5f + 0.5f) * height;
+            transformed[v * 4 + 2] = clipZ * inverseW * 0.5f + 0.5f;
+            // In front of the near plane when depth >= 0, keep w negative otherwise so the triangle is skipped
+            transformed[v * 4 + 3] = clipZ < -w ? -1.0f : w;
+        }
+        for (int i = indexFrom; i < indexFrom + indexCount; i += 3) {
+            addTriangle(indices[i] * 4, indices[i + 1] * 4, indices[i + 2] * 4);
+        }
+    }
+
+    private void addTriangle(int a, int b, int c) {
+        float[] t = transformed;
+        if (t[a + 3] < MIN_W || t[b + 3] < MIN_W || t[c + 3] < MIN_W) {
+            return;
+        }
+        float minX = Math.min(t[a], Math.min(t[b], t[c]));
+        float minY = Math.min(t[a + 1], Math.min(t[b + 1], t[c + 1]));
+        float maxX = Math.max(t[a], Math.max(t[b], t[c]));
+        float maxY = Math.max(t[a + 1], Math.max(t[b + 1], t[c + 1]));
+        // Pixels whose centers can be inside, clamped to the buffer
+        int x0 = Math.max((int) Math.ceil(minX - 0.5f), 0);
+        int y0 = Math.max((int) Math.ceil(minY - 0.5f), 0);
+        int x1 = Math.min((int) Math.floor(maxX - 0.5f), width - 1);
+        int y1 = Math.min((int) Math.floor(maxY - 0.5f), height - 1);
+        if (x0 > x1 || y0 > y1) {
+            return;
+        }
+        if (triangleCount * 9 == triangles.length) {
+            triangles = Arrays.copyOf(triangles, triangles.length * 2);
+            triangleBounds = Arrays.copyOf(triangleBounds, triangleBounds.length * 2);
+        }
+        int offset = triangleCount * 9;
+        triangles[offset] = t[a];
+        triangles[offset + 1] = t[a + 1];
+        triangles[offset + 2] = t[a + 2];
+        triangles[offset + 3] = t[b];
+        triangles[offset + 4] = t[b + 1];
+        triangles[offset + 5] = t[b + 2];
+        triangles[offset + 6] = t[c];
+        triangles[offset + 7] = t[c + 1];
+        triangles[offset + 8] = t[c + 2];
+        int boundsOffset = triangleCount * 4;
+        triangleBounds[boundsOffset] = x0;
+        triangleBounds[boundsOffset + 1] = y0;
+        triangleBounds[boundsOffset + 2] = x1;
+        triangleBounds[boundsOffset + 3] = y1;
+        triangleCount++;
+    }
+
+    /**
+     * Rasterize the occluders added since {@link #begin(Matrix4fc)}, and build the depth pyramid that
+     * {@link #isVisible} tests against.
+     */
+    public void finish() {
+        Arrays.fill(levels[0], 1.0f);
+        int bands = (height + BAND_ROWS - 1) / BAND_ROWS;
+        if (triangleCount < PARALLEL_THRESHOLD) {
+            rasterize(0, height);
+        } else {
+            ForkJoinPool.commonPool().invoke(new Bands(0, bands));
+        }
+        for (int level = 1; level < levels.length; level++) {
+            downsample(level);
+        }
+    }
+
+    /**
+     * Rasterize every triangle into the rows from rowFrom up to rowTo.
+     */
+    private void rasterize(int rowFrom, int rowTo) {
+        float[] depth = levels[0];
+        for (int triangle = 0; triangle < triangleCount; triangle++) {
+            int boundsOffset = triangle * 4;
+            int y0 = Math.max(triangleBounds[boundsOffset + 1], rowFrom);
+            int y1 = Math.min(triangleBounds[boundsOffset + 3], rowTo - 1);
+            if (y0 > y1) {
+                continue;
+            }
+            int x0 = triangleBounds[boundsOffset];
+            int x1 = triangleBounds[boundsOffset + 2];
+            int offset = triangle * 9;
+            float ax = triangles[offset], ay = triangles[offset + 1], az = triangles[offset + 2];
+            float bx = triangles[offset + 3], by = triangles[offset + 4], bz = triangles[offset + 5];
+            float cx = triangles[offset + 6], cy = triangles[offset + 7], cz = triangles[offset + 8];
+            float area = (bx - ax) * (cy - ay) - (by - ay) * (cx - ax);
+            if (area == 0.0f) {
+                continue;
+            }
+            // Face both ways, so the edge functions are positive inside whichever way the triangle winds
+            float sign = area > 0.0f ? 1.0f : -1.0f;
+            float inverseArea = 1.0f / (area * sign);
+            // Edge functions e = a * x + b * y + c, each zero along one edge and positive inside
+            float a0 = (by - cy) * sign, b0 = (cx - bx) * sign, c0 = (bx * cy - by * cx) * sign;
+            float a1 = (cy - ay) * sign, b1 = (ax - cx) * sign, c1 = (cx * ay - cy * ax) * sign;
+            float a2 = (ay - by) * sign, b2 = (bx - ax) * sign, c2 = (ax * by - ay * bx) * sign;
+            // Depth is a plane over the window, z = dzdx * x + dzdy * y + z0
+            float dzdx = (a0 * az + a1 * bz + a2 * cz) * inverseArea;
+            float dzdy = (b0 * az + b1 * bz + b2 * cz) * inverseArea;
+            float z0 = (c0 * az + c1 * bz + c2 * cz) * inverseArea;
+            for (int y = y0; y <= y1; y++) {
+                float py = y + 0.5f;
+                // Narrow the row down to the pixels inside all three edges, so only covered pixels are visited
+                float from = x0;
+                float to = x1;
+                from = Math.max(from, edgeStart(a0, b0 * py + c0, to));
+                from = Math.max(from, edgeStart(a1, b1 * py + c1, to));
+                from = Math.max(from, edgeStart(a2, b2 * py + c2, to));
+                to = Math.min(to, edgeEnd(a0, b0 * py + c0, from));
+                to = Math.min(to, edgeEnd(a1, b1 * py + c1, from));
+                to = Math.min(to, edgeEnd(a2, b2 * py + c2, from));
+                int spanFrom = (int) Math.ceil(from);
+                int spanTo = (int) Math.floor(to);
+                float z = dzdy * py + z0 + dzdx * 0.5f;
+                int row = y * width;
+                for (int x = spanFrom; x <= spanTo; x++) {
+                    depth[row + x] = Math.min(depth[row + x], z + dzdx * x);
+                }
+            }
+        }
+    }
+
+    /**
+     * @return the first pixel x at which an edge function a * (x + 0.5) + rest is non-negative, or past the end of
+     * the row if there is none
+     */
+    private static float edgeStart(float a, float rest, float end) {
+        if (a > 0.0f) {
+            return -rest / a - 0.5f;
+        }
+        return a == 0.0f && rest < 0.0f ? end + 1.0f : Float.NEGATIVE_INFINITY;
+    }
+
+    /**
+     * @return the last pixel x at which an edge function a * (x + 0.5) + rest is non-negative, or before the start of
+     * the row if there is none
+     */
+    private static float edgeEnd(float a, float rest, float start) {
+        if (a < 0.0f) {
+            return -rest / a - 0.5f;
+        }
+        return a == 0.0f && rest < 0.0f ? start - 1.0f : Float.POSITIVE_INFINITY;
+    }
+
+    /**
+     * Fill a level of the pyramid with the farthest depth of each 2x2 block of the level below.
+     */
+    private void downsample(int level) {
+        float[] source = levels[level - 1];
+        int sourceWidth = levelWidths[level - 1];
+        int sourceHeight = levelHeights[level - 1];
+        float[] target = levels[level];
+        int targetWidth = levelWidths[level];
+        for (int y = 0; y < levelHeights[level]; y++) {
+            int row0 = 2 * y * sourceWidth;
+            // An odd row or column at the edge is paired with itself
+            int row1 = Math.min(2 * y + 1, sourceHeight - 1) * sourceWidth;
+            for (int x = 0; x < targetWidth; x++) {
+                int x0 = 2 * x;
+                int x1 = Math.min(2 * x + 1, sourceWidth - 1);
+                target[y * targetWidth + x] = Math.max(Math.max(source[row0 + x0], source[row0 + x1]),
+                        Math.max(source[row1 + x0], source[row1 + x1]));
+            }
+        }
+    }
+
+    /**
+     * Test whether any part of a box could be in front of the occluders.
+     *
+     * @return false only if the box is certainly hidden
+     */
+    public boolean isVisible(float minX, float minY, float minZ, float maxX, float maxY, float maxZ) {
+        float[] m = matrix;
+        float windowMinX = Float.POSITIVE_INFINITY, windowMinY = Float.POSITIVE_INFINITY;
+        float windowMaxX = Float.NEGATIVE_INFINITY, windowMaxY = Float.NEGATIVE_INFINITY;
+        float nearestDepth = Float.POSITIVE_INFINITY;
+        for (int corner = 0; corner < 8; corner++) {
+            float x = (corner & 1) == 0 ? minX : maxX;
+            float y = (corner & 2) == 0 ? minY : maxY;
+            float z = (corner & 4) == 0 ? minZ : maxZ;
+            float w = m[3] * x + m[7] * y + m[11] * z + m[15];
+            float clipZ = m[2] * x + m[6] * y + m[10] * z + m[14];
+            if (w < MIN_W || clipZ < -w) {
+                // The box reaches past the near plane, so it can't be hidden
+                return true;
+            }
+            float inverseW = 1.0f / w;
+            float windowX = ((m[0] * x + m[4] * y + m[8] * z + m[12]) * inverseW * 0.5f + 0.5f) * width;
+            float windowY = ((m[1] * x + m[5] * y + m[9] * z + m[13]) * inverseW * 0.5f + 0.5f) * height;
+            windowMinX = Math.min(windowMinX, windowX);
+            windowMinY = Math.min(windowMinY, windowY);
+            windowMaxX = Math.max(windowMaxX, windowX);
+            windowMaxY = Math.max(windowMaxY, windowY);
+            nearestDepth = Math.min(nearestDepth, clipZ * inverseW * 0.5f + 0.5f);
+        }
+        int x0 = Math.max((int) Math.floor(windowMinX), 0);
+        int y0 = Math.max((int) Math.floor(windowMinY), 0);
+        int x1 = Math.min((int) Math.floor(windowMaxX), width - 1);
+        int y1 = Math.min((int) Math.floor(windowMaxY), height - 1);
+        if (x0 > x1 || y0 > y1) {
+            // Off screen, which is for the frustum test to decide
+            return true;
+        }
+        // Go up the pyramid until the rectangle covers at most 2x2 texels
+        int level = 0;
+        while (level < levels.length - 1 && ((x1 >> level) - (x0 >> level) > 1 || (y1 >> level) - (y0 >> level) > 1)) {
+            level++;
+        }
+        float[] depth = levels[level];
+        int levelWidth = levelWidths[level];
+        for (int y = y0 >> level; y <= y1 >> level; y++) {
+            for (int x = x0 >> level; x <= x1 >> level; x++) {
+                if (nearestDepth <= depth[y * levelWidth + x]) {
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+
+    /**
+     * @param x X Coordinate of a pixel, from the left
+     * @param y Y Coordinate of a pixel, from the bottom
+     * @return the depth of the nearest occluder at the pixel, 1 if there is none
+     */
+    public float getDepth(int x, int y) {
+        return levels[0][y * width + x];
+    }
+
+    /**
+     * @return the width of the depth buffer, in pixels
+     */
+    public int getWidth() {
+        return width;
+    }
+
+    /**
+     * @return the height of the depth buffer, in pixels
+     */
+    public int getHeight() {
+        return height;
+    }
+
+    /**
+     * @return the number of occluder triangles rasterized by the last {@link #finish()}
+     */
+    public int getTriangleCount() {
+        return triangleCount;
+    }
+
+    /**
+     * A range of bands of rows, split in half until it is a single band.
+     */
+    private final class Bands extends RecursiveAction {
+        private final int from;
+        private final int to;
+
+        private Bands(int from, int to) {
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override
+        protected void compute() {
+            if (to - from == 1) {
+                rasterize(from * BAND_ROWS, Math.min((from + 1) * BAND_ROWS, height));
+                return;
+            }
+            int middle = (from + to) >>> 1;
+            invokeAll(new Bands(from, middle), new Bands(middle, to));
+        }
+    }
+}
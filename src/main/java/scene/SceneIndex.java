@@ -0,0 +1,295 @@
+package scene;
+
+import org.joml.FrustumIntersection;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * A registry of objects with world-space bounding boxes, kept in a uniform grid for frustum culling.
+ * <p>
+ * Each object lives in the grid cell containing the center of its box. Each cell keeps the union of its objects'
+ * boxes, so a whole cell can be rejected, or accepted without testing its objects, with a single frustum test.
+ * Moving an object only touches the cells it leaves and enters.
+ * <p>
+ * Object ids are small ints that can be used to index arrays, and are reused after removal.
+ * Not thread safe.
+ */
+public class SceneIndex {
+    private static final int INITIAL_CAPACITY = 256;
+
+    private final float cellSize;
+    private final Map<Long, Cell> cells = new HashMap<>();
+    // Same cells as above, in a list so the cull loop doesn't need an iterator
+    private final List<Cell> cellList = new ArrayList<>();
+
+    // Per object: min x, y, z and max x, y, z of its box
+    private float[] bounds = new float[INITIAL_CAPACITY * 6];
+    private Cell[] cellOf = new Cell[INITIAL_CAPACITY];
+    private int[] slotInCell = new int[INITIAL_CAPACITY];
+    private int[] freeIds = new int[INITIAL_CAPACITY];
+    private int freeIdCount;
+    private int nextId;
+    private int objectCount;
+
+    // Results of the last cull
+    private int[] visible = new int[INITIAL_CAPACITY];
+    private int visibleCount;
+    private int culledCount;
+    private int occludedCount;
+
+    /**
+     * Create an empty index.
+     *
+     * @param cellSize The size of a grid cell along each axis, in world units
+     */
+    public SceneIndex(float cellSize) {
+        this.cellSize = cellSize;
+    }
+
+    /**
+     * Add an object.
+     *
+     * @return the id of the object
+     */
+    public int add(float minX, float minY, float minZ, float maxX, float maxY, float maxZ) {
+        int id;
+        if (freeIdCount > 0) {
+            id = freeIds[--freeIdCount];
+        } else {
+            id = nextId++;
+            if (id == cellOf.length) {
+                grow();
+            }
+        }
+        setBounds(id, minX, minY, minZ, maxX, maxY, maxZ);
+        insert(id, cellFor(id));
+        objectCount++;
+        return id;
+    }
+
+    /**
+     * Move or resize an object.
+     */
+    public void update(int id, float minX, float minY, float minZ, float maxX, float maxY, float maxZ) {
+        Cell cell = cellOf(id);
+        setBounds(id, minX, minY, minZ, maxX, maxY, maxZ);
+        Cell newCell = cellFor(id);
+        if (newCell != cell) {
+            cell.remove(slotInCell[id]);
+            insert(id, newCell);
+        } else {
+            cell.boundsDirty = true;
+        }
+    }
+
+    /**
+     * Remove an object. Its id may be handed out again by a later add.
+     */
+    public void remove(int id) {
+        cellOf(id).remove(slotInCell[id]);
+        cellOf[id] = null;
+        freeIds[freeIdCount++] = id;
+        objectCount--;
+    }
+
+    private Cell cellOf(int id) {
+        if (id < 0 || id >= nextId || cellOf[id] == null) {
+            throw new IllegalArgumentException("No object with id " + id);
+        }
+        return cellOf[id];
+    }
+
+    private void setBounds(int id, float minX, float minY, float minZ, float maxX, float maxY, float maxZ) {
+        int offset = id * 6;
+        bounds[offset] = minX;
+        bounds[offset + 1] = minY;
+        bounds[offset + 2] = minZ;
+        bounds[offset + 3] = maxX;
+        bounds[offset + 4] = maxY;
+        bounds[offset + 5] = maxZ;
+    }
+
+    private Cell cellFor(int id) {
+        int offset = id * 6;
+        int x = (int) Math.floor((bounds[offset] + bounds[offset + 3]) * 0.5f / cellSize);
+        int y = (int) Math.floor((bounds[offset + 1] + bounds[offset + 4]) * 0.5f / cellSize);
+        int z = (int) Math.floor((bounds[offset + 2] + bounds[offset + 5]) * 0.5f / cellSize);
+        long key = (x & 0x1FFFFFL) | (y & 0x1FFFFFL) << 21 | (z & 0x1FFFFFL) << 42;
+        Cell cell = cells.get(key);
+        if (cell == null) {
+            cell = new Cell();
+            cells.put(key, cell);
+            cellList.add(cell);
+        }
+        return cell;
+    }
+
+    private void insert(int id, Cell cell) {
+        cellOf[id] = cell;
+        slotInCell[id] = cell.add(id);
+    }
+
+    private void grow() {
+        int capacity = cellOf.length * 2;
+        bounds = Arrays.copyOf(bounds, capacity * 6);
+        cellOf = Arrays.copyOf(cellOf, capacity);
+        slotInCell = Arrays.copyOf(slotInCell, capacity);
+        freeIds = Arrays.copyOf(freeIds, capacity);
+    }
+
+    /**
+     * Find the objects inside or touching a frustum.
+     * The results are available from {@link #getVisible()} until the next cull.
+     *
+     * @param frustum The frustum, usually built from the camera's view-projection matrix
+     * @return the number of visible objects
+     */
+    public int cull(FrustumIntersection frustum) {
+        visibleCount = 0;
+        if (visible.length < objectCount) {
+            visible = new int[cellOf.length];
+        }
+        for (int c = 0; c < cellList.size(); c++) {
+            Cell cell = cellList.get(c);
+            if (cell.count == 0) {
+                continue;
+            }
+            if (cell.boundsDirty) {
+                cell.updateBounds();
+            }
+            float[] b = cell.bounds;
+            int result = frustum.intersectAab(b[0], b[1], b[2], b[3], b[4], b[5]);
+            if (result == FrustumIntersection.INSIDE) {
+                // The whole cell is visible, no need to test its objects
+                System.arraycopy(cell.objects, 0, visible, visibleCount, cell.count);
+                visibleCount += cell.count;
+            } else if (result == FrustumIntersection.INTERSECT) {
+                for (int i = 0; i < cell.count; i++) {
+                    int offset = cell.objects[i] * 6;
+                    if (frustum.testAab(bounds[offset], bounds[offset + 1], bounds[offset + 2],
+                            bounds[offset + 3], bounds[offset + 4], bounds[offset + 5])) {
+                        visible[visibleCount++] = cell.objects[i];
+                    }
+                }
+            }
+        }
+        culledCount = objectCount - visibleCount;
+        occludedCount = 0;
+        return visibleCount;
+    }
+
+    /**
+     * Drop the objects found visible by the last cull that are hidden behind the occluders. Call after
+     * {@link #cull(FrustumIntersection)} and once the occluders have been rasterized.
+     *
+     * @param occlusion The culler holding this frame's occluders
+     * @return the number of objects still visible
+     */
+    public int cullOccluded(OcclusionCuller occlusion) {
+        int kept = 0;
+        for (int i = 0; i < visibleCount; i++) {
+            int offset = visible[i] * 6;
+            if (occlusion.isVisible(bounds[offset], bounds[offset + 1], bounds[offset + 2],
+                    bounds[offset + 3], bounds[offset + 4], bounds[offset + 5])) {
+                visible[kept++] = visible[i];
+            }
+        }
+        occludedCount = visibleCount - kept;
+        visibleCount = kept;
+        return visibleCount;
+    }
+
+    /**
+     * @return the ids of the objects found visible by the last cull, the first {@link #getVisibleCount()} are valid
+     */
+    public int[] getVisible() {
+        return visible;
+    }
+
+    /**
+     * @return the number of objects found visible by the last cull
+     */
+    public int getVisibleCount() {
+        return visibleCount;
+    }
+
+    /**
+     * @return the number of objects rejected by the last cull
+     */
+    public int getCulledCount() {
+        return culledCount;
+    }
+
+    /**
+     * @return the number of objects inside the frustum but rejected by the last {@link #cullOccluded}
+     */
+    public int getOccludedCount() {
+        return occludedCount;
+    }
+
+    /**
+     * @return the number of objects in the index
+     */
+    public int size() {
+        return objectCount;
+    }
+
+    /**
+     * @return the bounds of every object, 6 floats per id: min x, y, z then max x, y, z
+     */
+    float[] bounds() {
+        return bounds;
+    }
+
+    /**
+     * @return one more than the largest id handed out so far
+     */
+    int idLimit() {
+        return nextId;
+    }
+
+    /**
+     * A grid cell, holding the ids of the objects centered in it and the union of their boxes.
+     */
+    private final class Cell {
+        private int[] objects = new int[8];
+        private int count;
+        private final float[] bounds = new float[6];
+        private boolean boundsDirty;
+
+        private int add(int id) {
+            if (count == objects.length) {
+                objects = Arrays.copyOf(objects, count * 2);
+            }
+            objects[count] = id;
+            boundsDirty = true;
+            return count++;
+        }
+
+        private void remove(int slot) {
+            // Move the last object into the hole
+            int last = objects[--count];
+            objects[slot] = last;
+            slotInCell[last] = slot;
+            boundsDirty = true;
+        }
+
+        private void updateBounds() {
+            float[] all = SceneIndex.this.bounds;
+            Arrays.fill(bounds, 0, 3, Float.POSITIVE_INFINITY);
+            Arrays.fill(bounds, 3, 6, Float.NEGATIVE_INFINITY);
+            for (int i = 0; i < count; i++) {
+                int offset = objects[i] * 6;
+                for (int k = 0; k < 3; k++) {
+                    bounds[k] = Math.min(bounds[k], all[offset + k]);
+                    bounds[k + 3] = Math.max(bounds[k + 3], all[offset + k + 3]);
+                }
+            }
+            boundsDirty = false;
+        }
+    }
+}
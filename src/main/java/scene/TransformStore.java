@@ -0,0 +1,363 @@
+package scene;
+
+import org.joml.Quaternionf;
+import org.joml.Quaternionfc;
+import org.joml.Vector3f;
+
+import java.nio.FloatBuffer;
+import java.util.Arrays;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * The transforms of any number of entities, stored as a struct of arrays, and their model matrices.
+ * <p>
+ * Each component (position x, rotation w, ...) is a primitive array indexed by the entity's slot in the dense range
+ * [0, size). Entities are kept packed in that range: removing one moves the last into its place, the way
+ * {@link shapes.CubeBatch} keeps its instances. Entity ids stay the same through this, a sparse array maps them to
+ * their dense slot. Going over every transform is then a straight walk through a few arrays, with no objects to
+ * chase, which is what keeps large scenes cheap.
+ * <p>
+ * Setting a transform only marks it dirty. {@link #update(FloatBuffer)} then recomputes the model matrices of the
+ * dirty entities, split over the common fork join pool when there are enough of them, and writes each straight into
+ * an instance buffer at its dense slot, 16 floats in column-major order. That is the layout of the per-instance
+ * matrix in {@code CubeBatch}, so the buffer can go to the GPU as is.
+ */
+public class TransformStore {
+    // Below this many dirty transforms, updating on one thread is quicker than splitting the work
+    private static final int PARALLEL_THRESHOLD = 4096;
+    private static final int BATCH_SIZE = 1024;
+    private static final int MATRIX_FLOATS = 16;
+    private static final int INITIAL_CAPACITY = 64;
+
+    // Components, by dense slot
+    private float[] positionX, positionY, positionZ;
+    private float[] rotationX, rotationY, rotationZ, rotationW;
+    private float[] scaleX, scaleY, scaleZ;
+    private int[] entityOfSlot;
+    private int size;
+
+    // Dense slot of each entity id, or -1 for ids not in use
+    private int[] slotOfEntity;
+    private int[] freeEntities;
+    private int freeEntityCount;
+    private int nextEntity;
+
+    // Entities changed since the last update, each listed once
+    private boolean[] dirty;
+    private int[] dirtyEntities;
+    private int dirtyCount;
+    // Slots written by the last update, [dirtyFrom, dirtyTo)
+    private int dirtyFrom;
+    private int dirtyTo;
+
+    public TransformStore() {
+        allocate(INITIAL_CAPACITY);
+    }
+
+    private void allocate(int capacity) {
+        positionX = new float[capacity];
+        positionY = new float[capacity];
+        positionZ = new float[capacity];
+        rotationX = new float[capacity];
+        rotationY = new float[capacity];
+        rotationZ = new float[capacity];
+        rotationW = new float[capacity];
+        scaleX = new float[capacity];
+        scaleY = new float[capacity];
+        scaleZ = new float[capacity];
+        entityOfSlot = new int[capacity];
+        slotOfEntity = new int[capacity];
+        freeEntities = new int[capacity];
+        dirty = new boolean[capacity];
+        dirtyEntities = new int[capacity];
+    }
+
+    private void grow() {
+        int capacity = entityOfSlot.length * 2;
+        positionX = Arrays.copyOf(positionX, capacity);
+        positionY = Arrays.copyOf(positionY, capacity);
+        positionZ = Arrays.copyOf(positionZ, capacity);
+        rotationX = Arrays.copyOf(rotationX, capacity);
+        rotationY = Arrays.copyOf(rotationY, capacity);
+        rotationZ = Arrays.copyOf(rotationZ, capacity);
+        rotationW = Arrays.copyOf(rotationW, capacity);
+        scaleX = Arrays.copyOf(scaleX, capacity);
+        scaleY = Arrays.copyOf(scaleY, capacity);
+        scaleZ = Arrays.copyOf(scaleZ, capacity);
+        entityOfSlot = Arrays.copyOf(entityOfSlot, capacity);
+        slotOfEntity = Arrays.copyOf(slotOfEntity, capacity);
+        freeEntities = Arrays.copyOf(freeEntities, capacity);
+        dirty = Arrays.copyOf(dirty, capacity);
+        dirtyEntities = Arrays.copyOf(dirtyEntities, capacity);
+    }
+
+    /**
+     * Add an entity with the identity transform.
+     *
+     * @return the id of the entity
+     */
+    public int create() {
+        if (size == entityOfSlot.length) {
+            grow();
+        }
+        int entity = freeEntityCount > 0 ? freeEntities[--freeEntityCount] : nextEntity++;
+        int slot = size++;
+        slotOfEntity[entity] = slot;
+        entityOfSlot[slot] = entity;
+        positionX[slot] = 0.0f;
+        positionY[slot] = 0.0f;
+        positionZ[slot] = 0.0f;
+        rotationX[slot] = 0.0f;
+        rotationY[slot] = 0.0f;
+        rotationZ[slot] = 0.0f;
+        rotationW[slot] = 1.0f;
+        scaleX[slot] = 1.0f;
+        scaleY[slot] = 1.0f;
+        scaleZ[slot] = 1.0f;
+        markDirty(entity);
+        return entity;
+    }
+
+    /**
+     * Remove an entity. Its id may be handed out again by a later {@link #create()}.
+     *
+     * @param entity The id of the entity
+     */
+    public void destroy(int entity) {
+        int slot = slotOf(entity);
+        int last = size - 1;
+        // Keep the slots packed by moving the last entity into the hole
+        if (slot != last) {
+            positionX[slot] = positionX[last];
+            positionY[slot] = positionY[last];
+            positionZ[slot] = positionZ[last];
+            rotationX[slot] = rotationX[last];
+            rotationY[slot] = rotationY[last];
+            rotationZ[slot] = rotationZ[last];
+            rotationW[slot] = rotationW[last];
+            scaleX[slot] = scaleX[last];
+            scaleY[slot] = scaleY[last];
+            scaleZ[slot] = scaleZ[last];
+            int moved = entityOfSlot[last];
+            entityOfSlot[slot] = moved;
+            slotOfEntity[moved] = slot;
+            // Its matrix has to be written to its new slot
+            markDirty(moved);
+        }
+        // Left marked if it was, so the id isn't listed twice if it comes back before the next update
+        slotOfEntity[entity] = -1;
+        freeEntities[freeEntityCount++] = entity;
+        size--;
+    }
+
+    private int slotOf(int entity) {
+        if (entity < 0 || entity >= nextEntity || slotOfEntity[entity] < 0) {
+            throw new IllegalArgumentException("No entity with id " + entity);
+        }
+        return slotOfEntity[entity];
+    }
+
+    private void markDirty(int entity) {
+        if (!dirty[entity]) {
+            dirty[entity] = true;
+            dirtyEntities[dirtyCount++] = entity;
+        }
+    }
+
+    /**
+     * Mark every entity dirty, e.g. when the buffer written to by {@link #update(FloatBuffer)} was replaced.
+     */
+    public void markAllDirty() {
+        for (int slot = 0; slot < size; slot++) {
+            markDirty(entityOfSlot[slot]);
+        }
+    }
+
+    /**
+     * @param entity The id of the entity
+     * @return true if the entity exists
+     */
+    public boolean isAlive(int entity) {
+        return entity >= 0 && entity < nextEntity && slotOfEntity[entity] >= 0;
+    }
+
+    public void setPosition(int entity, float x, float y, float z) {
+        int slot = slotOf(entity);
+        positionX[slot] = x;
+        positionY[slot] = y;
+        positionZ[slot] = z;
+        markDirty(entity);
+    }
+
+    /**
+     * Set the rotation of an entity.
+     *
+     * @param entity The id of the entity
+     * @param x      X component of the unit quaternion
+     * @param y      Y component of the unit quaternion
+     * @param z      Z component of the unit quaternion
+     * @param w      W component of the unit quaternion
+     */
+    public void setRotation(int entity, float x, float y, float z, float w) {
+        int slot = slotOf(entity);
+        rotationX[slot] = x;
+        rotationY[slot] = y;
+        rotationZ[slot] = z;
+        rotationW[slot] = w;
+        markDirty(entity);
+    }
+
+    public void setRotation(int entity, Quaternionfc rotation) {
+        setRotation(entity, rotation.x(), rotation.y(), rotation.z(), rotation.w());
+    }
+
+    public void setScale(int entity, float x, float y, float z) {
+        int slot = slotOf(entity);
+        scaleX[slot] = x;
+        scaleY[slot] = y;
+        scaleZ[slot] = z;
+        markDirty(entity);
+    }
+
+    public void setScale(int entity, float scale) {
+        setScale(entity, scale, scale, scale);
+    }
+
+    public Vector3f getPosition(int entity, Vector3f out) {
+        int slot = slotOf(entity);
+        return out.set(positionX[slot], positionY[slot], positionZ[slot]);
+    }
+
+    public Quaternionf getRotation(int entity, Quaternionf out) {
+        int slot = slotOf(entity);
+        return out.set(rotationX[slot], rotationY[slot], rotationZ[slot], rotationW[slot]);
+    }
+
+    public Vector3f getScale(int entity, Vector3f out) {
+        int slot = slotOf(entity);
+        return out.set(scaleX[slot], scaleY[slot], scaleZ[slot]);
+    }
+
+    /**
+     * Recompute the model matrices of the entities changed since the last call.
+     *
+     * @param matrices The buffer to write to, 16 floats per dense slot from index 0, big enough for {@link #size()}
+     *                 slots. Its position and limit are left alone.
+     * @return the number of matrices written
+     */
+    public int update(FloatBuffer matrices) {
+        // Drop destroyed entities from the list, and find the range of slots about to be written
+        int count = 0;
+        int from = Integer.MAX_VALUE;
+        int to = 0;
+        for (int i = 0; i < dirtyCount; i++) {
+            int entity = dirtyEntities[i];
+            dirty[entity] = false;
+            int slot = slotOfEntity[entity];
+            if (slot >= 0) {
+                dirtyEntities[count++] = slot;
+                from = Math.min(from, slot);
+                to = Math.max(to, slot + 1);
+            }
+        }
+        dirtyCount = 0;
+        dirtyFrom = count > 0 ? from : 0;
+        dirtyTo = to;
+
+        // The list now holds slots
+        if (count < PARALLEL_THRESHOLD) {
+            writeMatrices(dirtyEntities, 0, count, matrices);
+        } else {
+            ForkJoinPool.commonPool().invoke(new Batch(dirtyEntities, 0, count, matrices));
+        }
+        return count;
+    }
+
+    /**
+     * Write the translation * rotation * scale matrices of a range of slots.
+     */
+    private void writeMatrices(int[] slots, int from, int to, FloatBuffer matrices) {
+        for (int i = from; i < to; i++) {
+            int slot = slots[i];
+            float x = rotationX[slot], y = rotationY[slot], z = rotationZ[slot], w = rotationW[slot];
+            float xx = x * x, yy = y * y, zz = z * z;
+            float xy = x * y, xz = x * z, yz = y * z;
+            float wx = w * x, wy = w * y, wz = w * z;
+            float sx = scaleX[slot], sy = scaleY[slot], sz = scaleZ[slot];
+            int offset = slot * MATRIX_FLOATS;
+            matrices.put(offset, (1.0f - 2.0f * (yy + zz)) * sx);
+            matrices.put(offset + 1, 2.0f * (xy + wz) * sx);
+            matrices.put(offset + 2, 2.0f * (xz - wy) * sx);
+            matrices.put(offset + 3, 0.0f);
+            matrices.put(offset + 4, 2.0f * (xy - wz) * sy);
+            matrices.put(offset + 5, (1.0f - 2.0f * (xx + zz)) * sy);
+            matrices.put(offset + 6, 2.0f * (yz + wx) * sy);
+            matrices.put(offset + 7, 0.0f);
+            matrices.put(offset + 8, 2.0f * (xz + wy) * sz);
+            matrices.put(offset + 9, 2.0f * (yz - wx) * sz);
+            matrices.put(offset + 10, (1.0f - 2.0f * (xx + yy)) * sz);
+            matrices.put(offset + 11, 0.0f);
+            matrices.put(offset + 12, positionX[slot]);
+            matrices.put(offset + 13, positionY[slot]);
+            matrices.put(offset + 14, positionZ[slot]);
+            matrices.put(offset + 15, 1.0f);
+        }
+    }
+
+    /**
+     * @return the first slot written by the last {@link #update(FloatBuffer)}
+     */
+    public int getDirtyFrom() {
+        return dirtyFrom;
+    }
+
+    /**
+     * @return one past the last slot written by the last {@link #update(FloatBuffer)}, or 0 if none were
+     */
+    public int getDirtyTo() {
+        return dirtyTo;
+    }
+
+    /**
+     * @return the number of entities
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * @param slot A dense slot, from 0 to {@link #size()}
+     * @return the id of the entity in the slot
+     */
+    public int getEntity(int slot) {
+        return entityOfSlot[slot];
+    }
+
+    /**
+     * A range of the dirty slots, split in half until it is small enough to update on one thread.
+     */
+    private final class Batch extends RecursiveAction {
+        private final int[] slots;
+        private final int from;
+        private final int to;
+        private final FloatBuffer matrices;
+
+        private Batch(int[] slots, int from, int to, FloatBuffer matrices) {
+            this.slots = slots;
+            this.from = from;
+            this.to = to;
+            this.matrices = matrices;
+        }
+
+        @Override
+        protected void compute() {
+            if (to - from <= BATCH_SIZE) {
+                writeMatrices(slots, from, to, matrices);
+                return;
+            }
+            int middle = (from + to) >>> 1;
+            invokeAll(new Batch(slots, from, middle, matrices), new Batch(slots, middle, to, matrices));
+        }
+    }
+}
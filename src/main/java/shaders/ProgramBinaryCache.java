@@ -0,0 +1,173 @@
+package shaders;
+
+import org.lwjgl.BufferUtils;
+import org.lwjgl.system.MemoryUtil;
+import org.lwjgl.util.xxhash.XXHash;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Linked program binaries saved on disk, keyed by a hash of everything that went into them.
+ * <p>
+ * Each entry is one file holding a small header and the binary as the driver returned it. The header has the
+ * binary's format and length, and a hash of the binary, so truncated or corrupted files are noticed and thrown away
+ * instead of handed to the driver. The driver can still reject a valid entry, e.g. after a driver update, in which
+ * case the program is compiled from source as if the entry was missing.
+ * <p>
+ * The cache is only an optimization: failing to read or write it is never an error.
+ * Safe to use from any thread, entries are written to a temporary file and moved into place.
+ */
+public class ProgramBinaryCache {
+    private static final int MAGIC = 0x4C57_5042; // "LWPB"
+    private static final int VERSION = 1;
+    // Magic, version, format, length, and the hash of the binary
+    private static final int HEADER_BYTES = 4 * Integer.BYTES + Long.BYTES;
+    private static final long SEED = 0;
+
+    private final Path directory;
+
+    /**
+     * @param directory The directory to keep entries in, it is created when the first entry is saved
+     */
+    public ProgramBinaryCache(Path directory) {
+        this.directory = directory;
+    }
+
+    /**
+     * Hash a program's inputs into a cache key.
+     * The key should cover the shader sources as well as the GL vendor, renderer and version, since a binary is
+     * only good for the driver that made it.
+     *
+     * @param parts The inputs of the program
+     * @return the key
+     */
+    public static long key(String... parts) {
+        ByteBuffer bytes = MemoryUtil.memUTF8(String.join("\0", parts), false);
+        try {
+            return XXHash.XXH3_64bits(bytes);
+        } finally {
+            MemoryUtil.memFree(bytes);
+        }
+    }
+
+    /**
+     * Load a saved binary.
+     *
+     * @param key The key of the program
+     * @return the binary, or null if there is no valid entry for the key
+     */
+    public Binary load(long key) {
+        Path path = path(key);
+        if (!Files.isRegularFile(path)) {
+            return null;
+        }
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            long size = channel.size();
+            if (size < HEADER_BYTES || size > Integer.MAX_VALUE) {
+                return discard(path);
+            }
+            ByteBuffer file = BufferUtils.createByteBuffer((int) size);
+            while (file.hasRemaining() && channel.read(file) >= 0) {
+                // Keep reading until the whole file is in
+            }
+            file.flip().order(ByteOrder.LITTLE_ENDIAN);
+            if (file.remaining() != size || file.getInt() != MAGIC || file.getInt() != VERSION) {
+                return discard(path);
+            }
+            int format = file.getInt();
+            int length = file.getInt();
+            long hash = file.getLong();
+            if (length != file.remaining()) {
+                return discard(path);
+            }
+            ByteBuffer binary = file.slice();
+            if (XXHash.XXH3_64bits(binary) != hash) {
+                return discard(path);
+            }
+            return new Binary(format, binary);
+        } catch (IOException e) {
+            return null;
+        }
+    }
+
+    private Binary discard(Path path) {
+        try {
+            Files.deleteIfExists(path);
+        } catch (IOException e) {
+            // Left for the next save to overwrite
+        }
+        return null;
+    }
+
+    /**
+     * Save a binary, replacing any previous entry for the key.
+     *
+     * @param key    The key of the program
+     * @param format The binary format reported by the driver
+     * @param binary The binary, from its position to its limit
+     * @return true if the entry was saved
+     */
+    public boolean save(long key, int format, ByteBuffer binary) {
+        ByteBuffer header = BufferUtils.createByteBuffer(HEADER_BYTES).order(ByteOrder.LITTLE_ENDIAN);
+        header.putInt(MAGIC).putInt(VERSION).putInt(format).putInt(binary.remaining())
+                .putLong(XXHash.XXH3_64bits(binary))
+                .flip();
+        Path path = path(key);
+        Path temporary = null;
+        try {
+            Files.createDirectories(directory);
+            temporary = Files.createTempFile(directory, Long.toHexString(key), ".tmp");
+            try (FileChannel channel = FileChannel.open(temporary, StandardOpenOption.WRITE)) {
+                ByteBuffer data = binary.duplicate();
+                while (header.hasRemaining() || data.hasRemaining()) {
+                    channel.write(new ByteBuffer[]{header, data});
+                }
+            }
+            Files.move(temporary, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            return true;
+        } catch (IOException e) {
+            if (temporary != null) {
+                discard(temporary);
+            }
+            return false;
+        }
+    }
+
+    private Path path(long key) {
+        return directory.resolve("%016x.bin".formatted(key));
+    }
+
+    /**
+     * A program binary and the driver's format for it.
+     */
+    public static final class Binary {
+        private final int format;
+        private final ByteBuffer data;
+
+        private Binary(int format, ByteBuffer data) {
+            this.format = format;
+            this.data = data;
+        }
+
+        /**
+         * @return the binary format, to pass to glProgramBinary
+         */
+        public int getFormat() {
+            return format;
+        }
+
+        /**
+         * @return the binary, a direct buffer
+         */
+        public ByteBuffer getData() {
+            return data;
+        }
+    }
+}
@@ -0,0 +1,134 @@
+package shaders;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Loads GLSL sources from the Shaders folder on the classpath, and splices in the files they {@code #include}.
+ * <p>
+ * Resources are read as streams, so this works the same from the build output and from inside a jar. Sources can
+ * also be read from a folder on disk instead, e.g. to pick up edits without rebuilding.
+ * A file is included once, however many files include it. {@code #line} directives keep the line numbers in compiler
+ * errors in step with the file each line came from: one starts every included file at its line 1, and one after each
+ * include goes back to the including file. The second number of the directive is the index of the file in
+ * {@link Source#getFiles()}.
+ * <p>
+ * Stateless, safe to use from any thread.
+ */
+public final class ShaderSources {
+    private static final String ROOT = "Shaders/";
+    // Matches #include "common.glsl"
+    private static final Pattern INCLUDE = Pattern.compile("^\\s*#\\s*include\\s+\"([^\"]+)\"\\s*$");
+
+    private ShaderSources() {
+    }
+
+    /**
+     * Load a shader and everything it includes.
+     *
+     * @param name The path of the shader inside the Shaders folder
+     * @return the preprocessed source
+     */
+    public static Source load(String name) {
+        return load(name, null);
+    }
+
+    /**
+     * Load a shader and everything it includes from a folder on disk.
+     *
+     * @param name      The path of the shader inside the folder
+     * @param directory The folder to read from, or null for the Shaders folder on the classpath
+     * @return the preprocessed source
+     */
+    public static Source load(String name, Path directory) {
+        Source source = new Source();
+        append(name, directory, source, new ArrayDeque<>());
+        return source;
+    }
+
+    private static InputStream open(String name, Path directory) throws IOException {
+        if (directory == null) {
+            return ShaderSources.class.getClassLoader().getResourceAsStream(ROOT + name);
+        }
+        try {
+            return Files.newInputStream(directory.resolve(name));
+        } catch (NoSuchFileException e) {
+            return null;
+        }
+    }
+
+    private static void append(String name, Path directory, Source source, Deque<String> including) {
+        if (including.contains(name)) {
+            throw new IllegalStateException("Shader include cycle: " + String.join(" -> ", including) + " -> " + name);
+        }
+        if (source.files.contains(name)) {
+            return;
+        }
+        int file = source.files.size();
+        source.files.add(name);
+        including.push(name);
+        if (file > 0) {
+            // The loaded file starts at line 1 as it is, and its #version has to stay the first thing in it
+            source.text.append("#line 1 ").append(file).append('\n');
+        }
+
+        try (InputStream stream = open(name, directory)) {
+            if (stream == null) {
+                throw new IllegalStateException("Shader source not found: " + name);
+            }
+            BufferedReader reader = new BufferedReader(new InputStreamReader(stream, StandardCharsets.UTF_8));
+            String line;
+            int lineNumber = 0;
+            while ((line = reader.readLine()) != null) {
+                lineNumber++;
+                Matcher matcher = INCLUDE.matcher(line);
+                if (matcher.matches()) {
+                    append(matcher.group(1), directory, source, including);
+                    source.text.append("#line ").append(lineNumber + 1).append(' ').append(file).append('\n');
+                } else {
+                    source.text.append(line).append('\n');
+                }
+            }
+        } catch (IOException e) {
+            throw new IllegalStateException("Failed to load shader source " + name, e);
+        }
+        including.pop();
+    }
+
+    /**
+     * A shader source with its includes spliced in.
+     */
+    public static final class Source {
+        private final StringBuilder text = new StringBuilder();
+        private final List<String> files = new ArrayList<>();
+
+        private Source() {
+        }
+
+        /**
+         * @return the GLSL to compile
+         */
+        public String getText() {
+            return text.toString();
+        }
+
+        /**
+         * @return the files the source was built from, the loaded file first
+         */
+        public List<String> getFiles() {
+            return files;
+        }
+    }
+}
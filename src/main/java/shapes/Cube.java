@@ -1,17 +1,37 @@
 package shapes;
 
-import org.lwjgl.BufferUtils;
+import memory.LinearArena;
+import memory.Memory;
 import org.lwjgl.opengl.*;
+import rendering.GLRenderBackend;
+import rendering.GpuResources;
+import rendering.RenderBackend;
+import rendering.RenderQueue;
+import rendering.VertexLayout;
+import rendering.VertexPacking;
 
+import java.nio.ByteBuffer;
 import java.nio.FloatBuffer;
-import java.nio.IntBuffer;
 
 public class Cube {
-    private final int vaoId;
-    private final int vboId;
-    private final int eboId;
+    // Positions can be anywhere, so they stay full floats
+    private static final VertexLayout LAYOUT = VertexLayout.builder()
+            .add(0, 3, VertexLayout.Type.FLOAT, false)
+            .build();
+
+    private static final String CATEGORY = "cube meshes";
+
+    private final RenderBackend backend;
+    private final GpuResources resources;
+    // Whether the registry was made for this cube alone, and is deleted along with it
+    private final boolean ownsResources;
+    // Handles in the registry
+    private final int vao;
+    private final int vbo;
+    private final int ebo;
     private final float[] vertices;
     private final int[] indices;
+    private final int indexType;
 
     /**
      * Creates a cube of given size at given location.
@@ -23,8 +43,90 @@ public class Cube {
      * @param size The size of the cube to create
      */
     public Cube(float x, float y, float z, float size) {
+        this(GLRenderBackend.INSTANCE, x, y, z, size);
+    }
+
+    /**
+     * Creates a cube of given size at given location, using the given backend for its buffers and draw calls.
+     * This location will be the center of the cube.
+     *
+     * @param backend The backend to issue graphics calls through
+     * @param x       X Coordinate
+     * @param y       Y Coordinate
+     * @param z       Z Coordinate
+     * @param size    The size of the cube to create
+     */
+    public Cube(RenderBackend backend, float x, float y, float z, float size) {
+        this(new GpuResources(backend), true, x, y, z, size);
+    }
+
+    /**
+     * Creates a cube of given size at given location, with its buffers owned by the given registry.
+     * This location will be the center of the cube.
+     *
+     * @param resources The registry to create the buffers in
+     * @param x         X Coordinate
+     * @param y         Y Coordinate
+     * @param z         Z Coordinate
+     * @param size      The size of the cube to create
+     */
+    public Cube(GpuResources resources, float x, float y, float z, float size) {
+        this(resources, false, x, y, z, size);
+    }
+
+    private Cube(GpuResources resources, boolean ownsResources, float x, float y, float z, float size) {
+        this.backend = resources.getBackend();
+        this.resources = resources;
+        this.ownsResources = ownsResources;
+        vertices = createVertices(x, y, z, size);
+        indices = createIndices();
+
+        vao = resources.createVertexArray(CATEGORY);
+        backend.bindVertexArray(resources.vertexArray(vao));
+
+        // 8 vertices only need 16-bit indices
+        indexType = VertexPacking.indexType(vertices.length / 3);
+
+        // The data only has to last until it is uploaded, so it is staged in this thread's scratch arena
+        LinearArena scratch = Memory.thread();
+        long mark = scratch.mark();
+        try {
+            vbo = resources.createBuffer(CATEGORY);
+            backend.bindBuffer(GL15.GL_ARRAY_BUFFER, resources.buffer(vbo));
+            FloatBuffer vertices_buffer = scratch.allocateFloats(vertices.length);
+            vertices_buffer.put(vertices).flip();
+            backend.bufferData(GL15.GL_ARRAY_BUFFER, vertices_buffer, GL15.GL_STATIC_DRAW);
+            resources.setSize(vbo, (long) vertices.length * Float.BYTES);
+
+            ebo = resources.createBuffer(CATEGORY);
+            backend.bindBuffer(GL15.GL_ELEMENT_ARRAY_BUFFER, resources.buffer(ebo));
+            ByteBuffer indicesBuffer = scratch.allocate(indices.length * VertexPacking.indexBytes(indexType));
+            VertexPacking.putIndices(indicesBuffer, indices, indexType);
+            indicesBuffer.flip();
+            resources.setSize(ebo, indicesBuffer.remaining());
+            backend.bufferData(GL15.GL_ELEMENT_ARRAY_BUFFER, indicesBuffer, GL15.GL_STATIC_DRAW);
+        } finally {
+            scratch.reset(mark);
+        }
+
+        // Enabling the attributes is part of the vertex array's state, so it only needs doing once
+        LAYOUT.apply(backend);
+        backend.bindBuffer(GL15.GL_ARRAY_BUFFER, 0);
+        backend.bindVertexArray(0);
+    }
+
+    /**
+     * Creates the 8 corner vertices of a cube of given size at given location.
+     *
+     * @param x    X Coordinate of the center
+     * @param y    Y Coordinate of the center
+     * @param z    Z Coordinate of the center
+     * @param size The size of the cube, the distance from the center to each face
+     * @return the x, y, z positions of the corners
+     */
+    public static float[] createVertices(float x, float y, float z, float size) {
         // Create the vertices based on the x, y, z, and size.
-        vertices = new float[]{
+        return new float[]{
                 // Front face
                 x - size, y + size, z + size, // 0
                 x - size, y - size, z + size, // 1
@@ -36,8 +138,15 @@ public class Cube {
                 x + size, y - size, z - size, // 6
                 x + size, y + size, z - size, // 7
         };
-        // Create the indices for the cube. using the x, y, z, and size.
-        indices = new int[] {
+    }
+
+    /**
+     * Creates the triangle indices into the vertices from {@link #createVertices(float, float, float, float)}.
+     *
+     * @return 36 indices, two triangles per face
+     */
+    public static int[] createIndices() {
+        return new int[] {
                 0, 1, 2, 2, 3, 0,  // Front face
                 4, 5, 6, 6, 7, 4,  // Back face
                 0, 1, 5, 5, 4, 0,  // Bottom face
@@ -45,38 +154,18 @@ public class Cube {
                 0, 3, 7, 7, 4, 0,  // Left face
                 1, 2, 6, 6, 5, 1   // Right face
         };
-
-        // Use LWJGL
-        vaoId = GL45.glCreateVertexArrays();
-        GL45.glBindVertexArray(vaoId);
-
-        vboId = GL15.glGenBuffers();
-        GL15.glBindBuffer(GL15.GL_ARRAY_BUFFER, vboId);
-        FloatBuffer vertices_buffer = BufferUtils.createFloatBuffer(vertices.length);
-        vertices_buffer.put(vertices).flip();
-        GL15.glBufferData(GL15.GL_ARRAY_BUFFER, vertices_buffer, GL15.GL_STATIC_DRAW);
-
-        eboId = GL15.glGenBuffers();
-        GL15.glBindBuffer(GL15.GL_ELEMENT_ARRAY_BUFFER, eboId);
-        IntBuffer indicesBuffer = BufferUtils.createIntBuffer(indices.length);
-        indicesBuffer.put(indices).flip();
-        GL15.glBufferData(GL15.GL_ELEMENT_ARRAY_BUFFER, indicesBuffer, GL15.GL_STATIC_DRAW);
-
-        GL20.glVertexAttribPointer(0, 3, GL11.GL_FLOAT, false, 0, 0);
-        GL15.glBindBuffer(GL15.GL_ARRAY_BUFFER, 0);
-        GL30.glBindVertexArray(0);
     }
 
     public int getVboId() {
-        return vboId;
+        return resources.buffer(vbo);
     }
 
     public int getVaoId() {
-        return vaoId;
+        return resources.vertexArray(vao);
     }
 
     public int getEboId() {
-        return eboId;
+        return resources.buffer(ebo);
     }
 
     public float[] getVertices() {
@@ -88,10 +177,32 @@ public class Cube {
     }
 
     public void draw() {
-        GL30.glBindVertexArray(vaoId);
-        GL20.glEnableVertexAttribArray(0);
-        GL11.glDrawElements(GL11.GL_TRIANGLES, indices.length, GL11.GL_UNSIGNED_INT, 0);
-        GL20.glDisableVertexAttribArray(0);
-        GL30.glBindVertexArray(0);
+        backend.bindVertexArray(resources.vertexArray(vao));
+        backend.drawElements(GL11.GL_TRIANGLES, indices.length, indexType, 0);
+        backend.bindVertexArray(0);
+    }
+
+    /**
+     * Queue the cube to be drawn with the given program.
+     *
+     * @param queue   The queue to add the draw to
+     * @param program The GL name of the shader program to draw with
+     * @param depth   The distance from the camera to the cube
+     */
+    public void draw(RenderQueue queue, int program, float depth) {
+        queue.add(program, resources.vertexArray(vao), 0, depth, GL11.GL_TRIANGLES, indices.length, indexType, 0);
+    }
+
+    /**
+     * Release the buffers and vertex array of the cube. With a shared registry they are deleted by its next
+     * {@link GpuResources#endFrame()}, otherwise right away.
+     */
+    public void delete() {
+        resources.release(vao);
+        resources.release(vbo);
+        resources.release(ebo);
+        if (ownsResources) {
+            resources.delete();
+        }
     }
 }
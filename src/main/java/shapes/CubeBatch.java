@@ -0,0 +1,453 @@
+package shapes;
+
+import memory.LinearArena;
+import memory.Memory;
+import org.joml.Matrix4f;
+import org.lwjgl.opengl.GL11;
+import org.lwjgl.opengl.GL15;
+import org.lwjgl.opengl.GL31;
+import org.lwjgl.system.MemoryUtil;
+import rendering.GLRenderBackend;
+import rendering.GpuResources;
+import rendering.RenderBackend;
+import rendering.RenderQueue;
+import rendering.StreamingBuffer;
+import rendering.VertexLayout;
+import rendering.VertexPacking;
+import scene.TransformStore;
+
+import java.nio.ByteBuffer;
+import java.nio.FloatBuffer;
+import java.util.Arrays;
+
+/**
+ * Draws any number of cubes with a single instanced draw call.
+ * <p>
+ * All cubes share one unit cube mesh (a {@link Cube} of size 1 at the origin). Each cube is an instance with its own
+ * model matrix, stored in a single instance buffer that feeds vertex attributes 1 to 4 (see the instanced vertex shader).
+ * Adding, removing and updating cubes only marks part of that buffer dirty, and the dirty range is uploaded on the next
+ * {@link #draw()}. Given a {@link StreamingBuffer}, the dirty range is written into its mapped memory and copied into
+ * the instance buffer on the GPU, rather than handed to the driver with glBufferSubData.
+ * <p>
+ * Instead of adding cubes one by one, a batch can also draw a cube for every entity of a {@link TransformStore},
+ * see {@link #update(TransformStore)}.
+ */
+public class CubeBatch {
+    /**
+     * The attribute location of the first column of the per-instance model matrix.
+     */
+    public static final int MODEL_ATTRIBUTE = 1;
+
+    /*
+     The corners of the unit cube are all -1 or 1, so normalized shorts hold them exactly,
+     in 8 bytes a vertex instead of 12.
+    */
+    private static final VertexLayout MESH_LAYOUT = VertexLayout.builder()
+            .add(0, 3, VertexLayout.Type.SHORT, true)
+            .build();
+    // One column-major 4x4 model matrix per instance
+    private static final VertexLayout INSTANCE_LAYOUT = VertexLayout.builder()
+            .addMatrix4(MODEL_ATTRIBUTE, 1)
+            .build();
+    private static final int INSTANCE_FLOATS = 16;
+    private static final int INSTANCE_BYTES = INSTANCE_LAYOUT.getStride();
+    private static final int INITIAL_CAPACITY = 64;
+
+    private static final String MESH_CATEGORY = "cube meshes";
+    private static final String INSTANCE_CATEGORY = "cube instances";
+
+    private final RenderBackend backend;
+    private final GpuResources resources;
+    // Whether the registry was made for this batch alone, and is deleted along with it
+    private final boolean ownsResources;
+    // Handles in the registry
+    private final int vao;
+    private final int vbo;
+    private final int ebo;
+    private final int instanceVbo;
+    private final int indexCount;
+    private final int indexType;
+    // Where changed instances are staged on their way to the instance buffer, or null to upload them directly
+    private final StreamingBuffer stream;
+
+    // CPU copy of the instance buffer, instances are kept tightly packed in [0, count)
+    private FloatBuffer instances;
+    private int capacity;
+    private int count;
+    // Capacity of the GPU buffer, in instances
+    private int gpuCapacity;
+
+    // Ids handed out to callers stay valid while instances move around inside the buffer
+    private int[] indexOfId;
+    private int[] idOfIndex;
+    private int[] freeIds;
+    private int freeIdCount;
+    private int nextId;
+
+    // Range of instances [dirtyFrom, dirtyTo) changed since the last upload
+    private int dirtyFrom = Integer.MAX_VALUE;
+    private int dirtyTo = 0;
+
+    // The store the instances were last taken from, if any
+    private TransformStore transforms;
+
+    /**
+     * Create an empty batch that talks to OpenGL directly.
+     */
+    public CubeBatch() {
+        this(GLRenderBackend.INSTANCE);
+    }
+
+    /**
+     * Create an empty batch, using the given backend for its buffers and draw calls.
+     *
+     * @param backend The backend to issue graphics calls through
+     */
+    public CubeBatch(RenderBackend backend) {
+        this(new GpuResources(backend), true, null);
+    }
+
+    /**
+     * Create an empty batch, with its buffers and vertex array owned by the given registry.
+     *
+     * @param resources The registry to create the buffers in
+     */
+    public CubeBatch(GpuResources resources) {
+        this(resources, false, null);
+    }
+
+    /**
+     * Create an empty batch, with its buffers and vertex array owned by the given registry, that stages its uploads
+     * in a streaming buffer. The caller ends the stream's frames, after the frame's draws.
+     *
+     * @param resources The registry to create the buffers in
+     * @param stream    The buffer to stage changed instances in
+     */
+    public CubeBatch(GpuResources resources, StreamingBuffer stream) {
+        this(resources, false, stream);
+    }
+
+    private CubeBatch(GpuResources resources, boolean ownsResources, StreamingBuffer stream) {
+        this.backend = resources.getBackend();
+        this.resources = resources;
+        this.ownsResources = ownsResources;
+        this.stream = stream;
+        this.capacity = INITIAL_CAPACITY;
+        this.instances = Memory.pool().allocateFloats(capacity * INSTANCE_FLOATS);
+        this.indexOfId = new int[capacity];
+        this.idOfIndex = new int[capacity];
+        this.freeIds = new int[capacity];
+
+        float[] vertices = Cube.createVertices(0.0f, 0.0f, 0.0f, 1.0f);
+        int[] indices = Cube.createIndices();
+        indexCount = indices.length;
+
+        vao = resources.createVertexArray(MESH_CATEGORY);
+        backend.bindVertexArray(resources.vertexArray(vao));
+
+        // The shared mesh, staged in this thread's scratch arena until it is uploaded
+        int vertexCount = vertices.length / 3;
+        indexType = VertexPacking.indexType(vertexCount);
+        LinearArena scratch = Memory.thread();
+        long mark = scratch.mark();
+        try {
+            vbo = resources.createBuffer(MESH_CATEGORY);
+            backend.bindBuffer(GL15.GL_ARRAY_BUFFER, resources.buffer(vbo));
+            ByteBuffer verticesBuffer = scratch.allocate(vertexCount * MESH_LAYOUT.getStride());
+            for (int i = 0; i < vertexCount; i++) {
+                verticesBuffer.putShort(VertexPacking.packSnorm16(vertices[i * 3]))
+                        .putShort(VertexPacking.packSnorm16(vertices[i * 3 + 1]))
+                        .putShort(VertexPacking.packSnorm16(vertices[i * 3 + 2]))
+                        .putShort((short) 0);
+            }
+            verticesBuffer.flip();
+            resources.setSize(vbo, verticesBuffer.remaining());
+            backend.bufferData(GL15.GL_ARRAY_BUFFER, verticesBuffer, GL15.GL_STATIC_DRAW);
+            MESH_LAYOUT.apply(backend);
+
+            ebo = resources.createBuffer(MESH_CATEGORY);
+            backend.bindBuffer(GL15.GL_ELEMENT_ARRAY_BUFFER, resources.buffer(ebo));
+            ByteBuffer indicesBuffer = scratch.allocate(indices.length * VertexPacking.indexBytes(indexType));
+            VertexPacking.putIndices(indicesBuffer, indices, indexType);
+            indicesBuffer.flip();
+            resources.setSize(ebo, indicesBuffer.remaining());
+            backend.bufferData(GL15.GL_ELEMENT_ARRAY_BUFFER, indicesBuffer, GL15.GL_STATIC_DRAW);
+        } finally {
+            scratch.reset(mark);
+        }
+
+        /*
+         The per-instance model matrix.
+         A mat4 attribute takes up four consecutive locations, one per column.
+         A divisor of 1 advances the attribute once per instance instead of once per vertex.
+        */
+        instanceVbo = resources.createBuffer(INSTANCE_CATEGORY);
+        backend.bindBuffer(GL15.GL_ARRAY_BUFFER, resources.buffer(instanceVbo));
+        backend.bufferData(GL15.GL_ARRAY_BUFFER, (long) capacity * INSTANCE_BYTES, GL15.GL_DYNAMIC_DRAW);
+        resources.setSize(instanceVbo, (long) capacity * INSTANCE_BYTES);
+        gpuCapacity = capacity;
+        INSTANCE_LAYOUT.apply(backend);
+
+        backend.bindBuffer(GL15.GL_ARRAY_BUFFER, 0);
+        backend.bindVertexArray(0);
+    }
+
+    /**
+     * Add a cube of given size at given location.
+     *
+     * @param x    X Coordinate of the center
+     * @param y    Y Coordinate of the center
+     * @param z    Z Coordinate of the center
+     * @param size The size of the cube, the distance from the center to each face
+     * @return an id for the cube, to update or remove it with
+     */
+    public int add(float x, float y, float z, float size) {
+        int id = add();
+        update(id, x, y, z, size);
+        return id;
+    }
+
+    /**
+     * Add a cube with the given model matrix.
+     *
+     * @param model The transform of the unit cube
+     * @return an id for the cube, to update or remove it with
+     */
+    public int add(Matrix4f model) {
+        int id = add();
+        update(id, model);
+        return id;
+    }
+
+    private int add() {
+        if (transforms != null) {
+            throw new IllegalStateException("The batch is drawing the entities of a transform store");
+        }
+        if (count == capacity) {
+            grow();
+        }
+        int id = freeIdCount > 0 ? freeIds[--freeIdCount] : nextId++;
+        indexOfId[id] = count;
+        idOfIndex[count] = id;
+        count++;
+        return id;
+    }
+
+    /**
+     * Move and resize a cube.
+     *
+     * @param id   The id returned when the cube was added
+     * @param x    X Coordinate of the center
+     * @param y    Y Coordinate of the center
+     * @param z    Z Coordinate of the center
+     * @param size The size of the cube, the distance from the center to each face
+     */
+    public void update(int id, float x, float y, float z, float size) {
+        int index = indexOf(id);
+        int offset = index * INSTANCE_FLOATS;
+        // Write the translate * scale matrix directly, column by column
+        for (int i = 0; i < INSTANCE_FLOATS; i++) {
+            instances.put(offset + i, 0.0f);
+        }
+        instances.put(offset, size);
+        instances.put(offset + 5, size);
+        instances.put(offset + 10, size);
+        instances.put(offset + 12, x);
+        instances.put(offset + 13, y);
+        instances.put(offset + 14, z);
+        instances.put(offset + 15, 1.0f);
+        markDirty(index);
+    }
+
+    /**
+     * Replace the model matrix of a cube.
+     *
+     * @param id    The id returned when the cube was added
+     * @param model The transform of the unit cube
+     */
+    public void update(int id, Matrix4f model) {
+        int index = indexOf(id);
+        model.get(index * INSTANCE_FLOATS, instances);
+        markDirty(index);
+    }
+
+    /**
+     * Remove a cube. Its id may be handed out again by a later add.
+     *
+     * @param id The id returned when the cube was added
+     */
+    public void remove(int id) {
+        int index = indexOf(id);
+        int last = count - 1;
+        // Keep the instances packed by moving the last one into the hole
+        if (index != last) {
+            for (int i = 0; i < INSTANCE_FLOATS; i++) {
+                instances.put(index * INSTANCE_FLOATS + i, instances.get(last * INSTANCE_FLOATS + i));
+            }
+            int movedId = idOfIndex[last];
+            idOfIndex[index] = movedId;
+            indexOfId[movedId] = index;
+            markDirty(index);
+        }
+        indexOfId[id] = -1;
+        freeIds[freeIdCount++] = id;
+        count--;
+    }
+
+    /**
+     * Make the batch draw a cube for every entity of a store, in the store's dense order, replacing any cubes added
+     * by id. The model matrices of entities changed since the last call are computed straight into the instance
+     * buffer. Ids handed out by earlier adds are no longer valid afterwards.
+     *
+     * @param transforms The transforms of the cubes
+     */
+    public void update(TransformStore transforms) {
+        if (this.transforms != transforms) {
+            // Whatever is in the buffer came from somewhere else
+            this.transforms = transforms;
+            transforms.markAllDirty();
+            nextId = 0;
+            freeIdCount = 0;
+        }
+        while (capacity < transforms.size()) {
+            grow();
+        }
+        count = transforms.size();
+        if (transforms.update(instances) > 0) {
+            markDirty(transforms.getDirtyFrom());
+            markDirty(transforms.getDirtyTo() - 1);
+        }
+    }
+
+    private int indexOf(int id) {
+        if (id < 0 || id >= nextId || indexOfId[id] < 0) {
+            throw new IllegalArgumentException("No cube with id " + id);
+        }
+        return indexOfId[id];
+    }
+
+    private void markDirty(int index) {
+        dirtyFrom = Math.min(dirtyFrom, index);
+        dirtyTo = Math.max(dirtyTo, index + 1);
+    }
+
+    private void grow() {
+        capacity *= 2;
+        FloatBuffer grown = Memory.pool().allocateFloats(capacity * INSTANCE_FLOATS);
+        instances.clear();
+        grown.put(instances).clear();
+        Memory.pool().free(instances);
+        instances = grown;
+        indexOfId = Arrays.copyOf(indexOfId, capacity);
+        idOfIndex = Arrays.copyOf(idOfIndex, capacity);
+        freeIds = Arrays.copyOf(freeIds, capacity);
+    }
+
+    /**
+     * Upload the instances changed since the last upload.
+     * If the batch outgrew its GPU buffer, the buffer is reallocated and uploaded in full.
+     */
+    private void upload() {
+        boolean reallocate = gpuCapacity < capacity;
+        // Instances removed from the end don't need uploading
+        dirtyTo = Math.min(dirtyTo, count);
+        if (reallocate) {
+            dirtyFrom = 0;
+            dirtyTo = count;
+        }
+        if (reallocate || dirtyFrom < dirtyTo) {
+            backend.bindBuffer(GL15.GL_ARRAY_BUFFER, resources.buffer(instanceVbo));
+            if (reallocate) {
+                backend.bufferData(GL15.GL_ARRAY_BUFFER, (long) capacity * INSTANCE_BYTES, GL15.GL_DYNAMIC_DRAW);
+                resources.setSize(instanceVbo, (long) capacity * INSTANCE_BYTES);
+                gpuCapacity = capacity;
+            }
+            if (dirtyFrom < dirtyTo && !stage()) {
+                instances.limit(dirtyTo * INSTANCE_FLOATS).position(dirtyFrom * INSTANCE_FLOATS);
+                backend.bufferSubData(GL15.GL_ARRAY_BUFFER, (long) dirtyFrom * INSTANCE_BYTES, instances);
+                instances.clear();
+            }
+            backend.bindBuffer(GL15.GL_ARRAY_BUFFER, 0);
+        }
+        dirtyFrom = Integer.MAX_VALUE;
+        dirtyTo = 0;
+    }
+
+    /**
+     * Copy the dirty instances into the streaming buffer, and from there into the instance buffer on the GPU.
+     *
+     * @return false if there is no streaming buffer, or no room left in it this frame
+     */
+    private boolean stage() {
+        if (stream == null) {
+            return false;
+        }
+        int bytes = (dirtyTo - dirtyFrom) * INSTANCE_BYTES;
+        long offset = stream.allocate(bytes, Float.BYTES);
+        if (offset < 0) {
+            return false;
+        }
+        MemoryUtil.memCopy(MemoryUtil.memAddress0(instances) + (long) dirtyFrom * INSTANCE_BYTES,
+                MemoryUtil.memAddress0(stream.getBuffer()) + offset, bytes);
+        stream.flush();
+        backend.bindBuffer(GL31.GL_COPY_READ_BUFFER, stream.getBufferId());
+        backend.bindBuffer(GL31.GL_COPY_WRITE_BUFFER, resources.buffer(instanceVbo));
+        backend.copyBufferSubData(GL31.GL_COPY_READ_BUFFER, GL31.GL_COPY_WRITE_BUFFER, offset,
+                (long) dirtyFrom * INSTANCE_BYTES, bytes);
+        backend.bindBuffer(GL31.GL_COPY_READ_BUFFER, 0);
+        backend.bindBuffer(GL31.GL_COPY_WRITE_BUFFER, 0);
+        return true;
+    }
+
+    /**
+     * Upload any pending changes and draw every cube in the batch with one draw call.
+     * The instanced shader program must be bound.
+     */
+    public void draw() {
+        upload();
+        if (count == 0) {
+            return;
+        }
+        backend.bindVertexArray(resources.vertexArray(vao));
+        backend.drawElementsInstanced(GL11.GL_TRIANGLES, indexCount, indexType, 0, count);
+        backend.bindVertexArray(0);
+    }
+
+    /**
+     * Upload any pending changes and queue every cube in the batch as one instanced draw.
+     *
+     * @param queue   The queue to add the draw to
+     * @param program The GL name of the instanced shader program to draw with
+     */
+    public void draw(RenderQueue queue, int program) {
+        upload();
+        if (count == 0) {
+            return;
+        }
+        // The cubes can be anywhere, so the batch doesn't have a depth of its own
+        queue.addInstanced(program, resources.vertexArray(vao), 0, 0.0f, GL11.GL_TRIANGLES, indexCount, indexType, 0, count);
+    }
+
+    /**
+     * Release the buffers and vertex array of the batch. With a shared registry they are deleted by its next
+     * {@link GpuResources#endFrame()}, otherwise right away.
+     */
+    public void delete() {
+        resources.release(vao);
+        resources.release(vbo);
+        resources.release(ebo);
+        resources.release(instanceVbo);
+        Memory.pool().free(instances);
+        instances = null;
+        if (ownsResources) {
+            resources.delete();
+        }
+    }
+
+    /**
+     * @return the number of cubes in the batch
+     */
+    public int size() {
+        return count;
+    }
+}
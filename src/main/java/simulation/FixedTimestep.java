@@ -0,0 +1,80 @@
+package simulation;
+
+/**
+ * Works out how many fixed steps to run to keep up with real time.
+ * <p>
+ * Real time goes into an accumulator, and every whole step's worth is taken back out as a tick. If the simulation falls
+ * too far behind, e.g. after a long hitch or because ticks cost more than they cover, the backlog beyond
+ * {@code maxTicksPerUpdate} is dropped instead of making the next frame even slower trying to catch up.
+ */
+public class FixedTimestep {
+    private final long tickNanos;
+    private final int maxTicksPerUpdate;
+    private long lastTime = -1;
+    private long accumulator;
+    private long droppedTicks;
+
+    /**
+     * @param ticksPerSecond    The rate of the simulation
+     * @param maxTicksPerUpdate The most ticks to run in one update before dropping the rest
+     */
+    public FixedTimestep(double ticksPerSecond, int maxTicksPerUpdate) {
+        if (ticksPerSecond <= 0 || maxTicksPerUpdate < 1) {
+            throw new IllegalArgumentException("Need a positive tick rate and at least one tick per update");
+        }
+        this.tickNanos = Math.round(1_000_000_000.0 / ticksPerSecond);
+        this.maxTicksPerUpdate = maxTicksPerUpdate;
+    }
+
+    /**
+     * Account for the time passed since the last call.
+     *
+     * @param now The current time, from {@link System#nanoTime()}
+     * @return the number of ticks to run now
+     */
+    public int advance(long now) {
+        if (lastTime < 0) {
+            lastTime = now;
+        }
+        accumulator += now - lastTime;
+        lastTime = now;
+
+        long due = accumulator / tickNanos;
+        if (due > maxTicksPerUpdate) {
+            droppedTicks += due - maxTicksPerUpdate;
+            due = maxTicksPerUpdate;
+            // Keep the fraction of a tick, so the interpolation stays smooth
+            accumulator = accumulator % tickNanos + due * tickNanos;
+        }
+        accumulator -= due * tickNanos;
+        return (int) due;
+    }
+
+    /**
+     * @return how far real time is into the next tick, from 0 to 1
+     */
+    public float getAlpha() {
+        return (float) accumulator / tickNanos;
+    }
+
+    /**
+     * @return the length of a tick, in nanoseconds
+     */
+    public long getTickNanos() {
+        return tickNanos;
+    }
+
+    /**
+     * @return the length of a tick, in seconds
+     */
+    public float getTickSeconds() {
+        return tickNanos / 1_000_000_000.0f;
+    }
+
+    /**
+     * @return the number of ticks skipped so far because the simulation fell too far behind
+     */
+    public long getDroppedTicks() {
+        return droppedTicks;
+    }
+}
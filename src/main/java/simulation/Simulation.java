@@ -0,0 +1,28 @@
+package simulation;
+
+/**
+ * Something advanced in fixed steps by a {@link SimulationRunner}.
+ * <p>
+ * Its visible state is a flat array of floats, e.g. positions and angles, which the runner copies out after each tick
+ * and the renderer interpolates between. Values that shouldn't be interpolated, like ids, don't belong in it.
+ */
+public interface Simulation {
+    /**
+     * @return the number of floats in the state
+     */
+    int getStateSize();
+
+    /**
+     * Advance the simulation by one step.
+     *
+     * @param dt The length of a step, in seconds, always the same
+     */
+    void tick(float dt);
+
+    /**
+     * Copy the current state out.
+     *
+     * @param state An array of {@link #getStateSize()} floats to write to
+     */
+    void writeState(float[] state);
+}
@@ -0,0 +1,156 @@
+package simulation;
+
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Runs a {@link Simulation} at a fixed rate, independent of the frame rate, and lets the renderer interpolate
+ * between its last two states.
+ * <p>
+ * The simulation can be stepped from the render loop with {@link #update(long)}, or run on its own thread with
+ * {@link #start()}. Either way its states reach the renderer through a {@link StateBuffer}, and the renderer calls
+ * {@link #interpolate(float[], long)} once per frame. What is drawn is one tick behind the simulation, which is what
+ * makes the motion smooth whatever the two rates are.
+ */
+public class SimulationRunner implements AutoCloseable {
+    private final Simulation simulation;
+    private final FixedTimestep timestep;
+    private final StateBuffer buffer;
+    private final float[] previous;
+    private final float[] current;
+    private volatile long tick;
+
+    private Thread thread;
+    private volatile boolean running;
+    private volatile RuntimeException failure;
+
+    /**
+     * @param simulation        The simulation to run
+     * @param ticksPerSecond    The rate to run it at
+     * @param maxTicksPerUpdate The most ticks to run at once when catching up, see {@link FixedTimestep}
+     */
+    public SimulationRunner(Simulation simulation, double ticksPerSecond, int maxTicksPerUpdate) {
+        this.simulation = simulation;
+        this.timestep = new FixedTimestep(ticksPerSecond, maxTicksPerUpdate);
+        this.buffer = new StateBuffer(simulation.getStateSize());
+        this.previous = new float[simulation.getStateSize()];
+        this.current = new float[simulation.getStateSize()];
+
+        // Publish the starting state, so there is something to draw before the first tick
+        simulation.writeState(current);
+        System.arraycopy(current, 0, previous, 0, current.length);
+        publish(System.nanoTime());
+    }
+
+    /**
+     * Run the ticks due by now, and publish the resulting state.
+     * Call this from the render loop, or let {@link #start()} call it on a thread of its own.
+     *
+     * @param now The current time, from {@link System#nanoTime()}
+     */
+    public void update(long now) {
+        int due = timestep.advance(now);
+        float dt = timestep.getTickSeconds();
+        for (int i = 0; i < due; i++) {
+            System.arraycopy(current, 0, previous, 0, current.length);
+            simulation.tick(dt);
+            simulation.writeState(current);
+            tick++;
+        }
+        if (due > 0) {
+            // The new state is where the simulation was a fraction of a tick ago
+            publish(now - (long) (timestep.getAlpha() * timestep.getTickNanos()));
+        }
+    }
+
+    private void publish(long time) {
+        StateBuffer.Snapshot snapshot = buffer.getBack();
+        System.arraycopy(previous, 0, snapshot.previous, 0, previous.length);
+        System.arraycopy(current, 0, snapshot.current, 0, current.length);
+        snapshot.tick = tick;
+        snapshot.time = time;
+        buffer.publish();
+    }
+
+    /**
+     * Run the simulation on its own thread until {@link #close()}.
+     * Don't call {@link #update(long)} once started.
+     */
+    public void start() {
+        if (thread != null) {
+            throw new IllegalStateException("Simulation already started");
+        }
+        running = true;
+        thread = new Thread(this::runThread, "Simulation");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    private void runThread() {
+        try {
+            while (running) {
+                update(System.nanoTime());
+                // Sleep until the next tick is due
+                long untilNextTick = (long) ((1.0f - timestep.getAlpha()) * timestep.getTickNanos());
+                LockSupport.parkNanos(untilNextTick);
+            }
+        } catch (RuntimeException e) {
+            failure = e;
+        }
+    }
+
+    /**
+     * @return true if the simulation runs on its own thread, see {@link #start()}
+     */
+    public boolean isRunning() {
+        return running;
+    }
+
+    /**
+     * Interpolate the state to show at the given time, between the last two published states.
+     *
+     * @param out Where to write the interpolated state
+     * @param now The current time, from {@link System#nanoTime()}
+     * @throws IllegalStateException if the simulation thread failed
+     */
+    public void interpolate(float[] out, long now) {
+        if (failure != null) {
+            throw new IllegalStateException("Simulation failed", failure);
+        }
+        StateBuffer.Snapshot snapshot = buffer.acquire();
+        float alpha = Math.min(1.0f, Math.max(0.0f, (float) (now - snapshot.time) / timestep.getTickNanos()));
+        for (int i = 0; i < out.length; i++) {
+            out[i] = snapshot.previous[i] + (snapshot.current[i] - snapshot.previous[i]) * alpha;
+        }
+    }
+
+    /**
+     * @return the number of ticks run so far
+     */
+    public long getTick() {
+        return tick;
+    }
+
+    /**
+     * @return the number of ticks skipped because the simulation fell too far behind
+     */
+    public long getDroppedTicks() {
+        return timestep.getDroppedTicks();
+    }
+
+    /**
+     * Stop the simulation thread, if it was started, and wait for it to finish its tick.
+     */
+    @Override
+    public void close() {
+        running = false;
+        if (thread != null) {
+            LockSupport.unpark(thread);
+            try {
+                thread.join();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            thread = null;
+        }
+    }
+}
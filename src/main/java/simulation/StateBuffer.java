@@ -0,0 +1,76 @@
+package simulation;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * A lock-free triple buffer of simulation snapshots, between one writer and one reader thread.
+ * <p>
+ * The writer fills in its back snapshot and publishes it, swapping it with the middle one. The reader swaps the middle
+ * one with its front snapshot when there is something new. Neither side ever waits for the other, and the reader
+ * always gets the latest complete snapshot.
+ */
+public class StateBuffer {
+    private static final int INDEX_MASK = 3;
+    private static final int FRESH = 4;
+
+    private final Snapshot[] snapshots = new Snapshot[3];
+    // Index of the middle snapshot, plus FRESH if it was published since the reader last took it
+    private final AtomicInteger middle = new AtomicInteger(1);
+    private int back = 0;
+    private int front = 2;
+
+    /**
+     * @param stateSize The number of floats in the simulation state
+     */
+    public StateBuffer(int stateSize) {
+        for (int i = 0; i < snapshots.length; i++) {
+            snapshots[i] = new Snapshot(stateSize);
+        }
+    }
+
+    /**
+     * @return the snapshot the writer may fill in, until it calls {@link #publish()}
+     */
+    public Snapshot getBack() {
+        return snapshots[back];
+    }
+
+    /**
+     * Hand the back snapshot to the reader.
+     */
+    public void publish() {
+        back = middle.getAndSet(back | FRESH) & INDEX_MASK;
+    }
+
+    /**
+     * Get the latest published snapshot. It stays valid until the next call.
+     *
+     * @return the snapshot, or an empty one with a tick of -1 if nothing was published yet
+     */
+    public Snapshot acquire() {
+        if ((middle.get() & FRESH) != 0) {
+            front = middle.getAndSet(front) & INDEX_MASK;
+        }
+        return snapshots[front];
+    }
+
+    /**
+     * The state after a tick, along with the state before it, so the reader can interpolate between them.
+     */
+    public static final class Snapshot {
+        final float[] previous;
+        final float[] current;
+        long tick = -1;
+        // When the tick was taken, from System.nanoTime()
+        long time;
+
+        private Snapshot(int stateSize) {
+            previous = new float[stateSize];
+            current = new float[stateSize];
+        }
+
+        public long getTick() {
+            return tick;
+        }
+    }
+}
@@ -0,0 +1,118 @@
+package voxel;
+
+/**
+ * A cube of {@value #SIZE} x {@value #SIZE} x {@value #SIZE} blocks.
+ * Blocks are stored as block ids in a flat primitive array, 0 being air.
+ * <p>
+ * A chunk belongs to the render thread. Workers never see it, they mesh a {@link #snapshot} of it instead.
+ */
+public class Chunk {
+    public static final int SIZE = 16;
+    public static final int VOLUME = SIZE * SIZE * SIZE;
+    /**
+     * The size of a snapshot along each axis, the chunk plus a one block border on each side.
+     */
+    public static final int PADDED_SIZE = SIZE + 2;
+
+    public static final short AIR = 0;
+
+    private final int chunkX, chunkY, chunkZ;
+    private final short[] blocks = new short[VOLUME];
+    private int solidBlocks;
+    // Incremented on every change, so meshes of an older state can be told apart
+    private int version;
+
+    /**
+     * Create an empty chunk.
+     *
+     * @param chunkX X Coordinate of the chunk, in chunks
+     * @param chunkY Y Coordinate of the chunk, in chunks
+     * @param chunkZ Z Coordinate of the chunk, in chunks
+     */
+    public Chunk(int chunkX, int chunkY, int chunkZ) {
+        this.chunkX = chunkX;
+        this.chunkY = chunkY;
+        this.chunkZ = chunkZ;
+    }
+
+    static int index(int x, int y, int z) {
+        return x + (y + z * SIZE) * SIZE;
+    }
+
+    static int paddedIndex(int x, int y, int z) {
+        return (x + 1) + ((y + 1) + (z + 1) * PADDED_SIZE) * PADDED_SIZE;
+    }
+
+    /**
+     * Get a block, using coordinates local to this chunk.
+     */
+    public short getBlock(int x, int y, int z) {
+        return blocks[index(x, y, z)];
+    }
+
+    /**
+     * Set a block, using coordinates local to this chunk.
+     *
+     * @return true if the block changed
+     */
+    public boolean setBlock(int x, int y, int z, short block) {
+        int index = index(x, y, z);
+        short old = blocks[index];
+        if (old == block) {
+            return false;
+        }
+        if (old == AIR) {
+            solidBlocks++;
+        } else if (block == AIR) {
+            solidBlocks--;
+        }
+        blocks[index] = block;
+        version++;
+        return true;
+    }
+
+    /**
+     * Mark the chunk as changed without changing its blocks, e.g. when a block bordering it changed.
+     * Meshes built before this are then out of date.
+     */
+    void invalidate() {
+        version++;
+    }
+
+    /**
+     * Copy this chunk's blocks into a padded snapshot, which has a one block border for the neighbouring chunks' blocks.
+     * The border is filled in by {@link World} from the neighbours.
+     *
+     * @param snapshot An array of {@value #PADDED_SIZE} x {@value #PADDED_SIZE} x {@value #PADDED_SIZE} blocks
+     */
+    void copyInto(short[] snapshot) {
+        for (int z = 0; z < SIZE; z++) {
+            for (int y = 0; y < SIZE; y++) {
+                System.arraycopy(blocks, index(0, y, z), snapshot, paddedIndex(0, y, z), SIZE);
+            }
+        }
+    }
+
+    /**
+     * @return true if every block in the chunk is air
+     */
+    public boolean isEmpty() {
+        return solidBlocks == 0;
+    }
+
+    public int getChunkX() {
+        return chunkX;
+    }
+
+    public int getChunkY() {
+        return chunkY;
+    }
+
+    public int getChunkZ() {
+        return chunkZ;
+    }
+
+    public int getVersion() {
+        return version;
+    }
+}
@@ -0,0 +1,77 @@
+package voxel;
+
+/**
+ * The finished mesh of a chunk, ready to be uploaded by the render thread.
+ * Vertices are x, y, z world positions, indices are triangles.
+ * <p>
+ * The mesh holds every level of detail of the chunk, finest first. The levels share one vertex array, and each
+ * level is its own range of the index array, so all of them can live in the same pair of buffers.
+ */
+public final class ChunkMesh {
+    private final long key;
+    private final int version;
+    private final float[] vertices;
+    private final int[] indices;
+    // Where each level's indices start, with the total index count at the end
+    private final int[] levelIndexOffsets;
+
+    ChunkMesh(long key, int version, float[] vertices, int[] indices, int[] levelIndexOffsets) {
+        this.key = key;
+        this.version = version;
+        this.vertices = vertices;
+        this.indices = indices;
+        this.levelIndexOffsets = levelIndexOffsets;
+    }
+
+    /**
+     * @return the key of the chunk this mesh was built from, see {@link World#key(int, int, int)}
+     */
+    public long getKey() {
+        return key;
+    }
+
+    /**
+     * @return the version of the chunk this mesh was built from
+     */
+    public int getVersion() {
+        return version;
+    }
+
+    public float[] getVertices() {
+        return vertices;
+    }
+
+    public int[] getIndices() {
+        return indices;
+    }
+
+    /**
+     * @return the number of levels of detail
+     */
+    public int getLevelCount() {
+        return levelIndexOffsets.length - 1;
+    }
+
+    /**
+     * @param level The level of detail, 0 being the finest
+     * @return the index of the level's first index in {@link #getIndices()}
+     */
+    public int getIndexOffset(int level) {
+        return levelIndexOffsets[level];
+    }
+
+    /**
+     * @param level The level of detail, 0 being the finest
+     * @return the number of indices of the level
+     */
+    public int getIndexCount(int level) {
+        return levelIndexOffsets[level + 1] - levelIndexOffsets[level];
+    }
+
+    /**
+     * @return true if the chunk had no visible faces
+     */
+    public boolean isEmpty() {
+        return getIndexCount(0) == 0;
+    }
+}
@@ -0,0 +1,74 @@
+package voxel;
+
+import memory.Memory;
+
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Meshes chunks on a pool of worker threads.
+ * <p>
+ * The render thread submits chunk snapshots and later polls for finished meshes, so meshing never blocks a frame.
+ * Only plain vertex and index arrays come back, the render thread does all uploading.
+ */
+public class ChunkMesher implements AutoCloseable {
+    private final ForkJoinPool pool;
+    private final ThreadLocal<GreedyMesher> meshers = ThreadLocal.withInitial(GreedyMesher::new);
+    private final ConcurrentLinkedQueue<ChunkMesh> completed = new ConcurrentLinkedQueue<>();
+    private final AtomicInteger pending = new AtomicInteger();
+
+    /**
+     * Create a mesher with a worker for every core but one, which is left for the render thread.
+     */
+    public ChunkMesher() {
+        this(Math.max(1, Runtime.getRuntime().availableProcessors() - 1));
+    }
+
+    /**
+     * Create a mesher with the given number of workers.
+     *
+     * @param threads The number of worker threads
+     */
+    public ChunkMesher(int threads) {
+        pool = new ForkJoinPool(threads, Memory.workerThreads("chunk-mesher"), null, false);
+    }
+
+    /**
+     * Queue a chunk snapshot for meshing. See {@link GreedyMesher#mesh} for the parameters.
+     */
+    void submit(short[] snapshot, long key, int version, int originX, int originY, int originZ) {
+        pending.incrementAndGet();
+        pool.execute(() -> {
+            try {
+                completed.add(meshers.get().mesh(snapshot, key, version, originX, originY, originZ));
+            } finally {
+                pending.decrementAndGet();
+            }
+        });
+    }
+
+    /**
+     * Take the next finished mesh.
+     *
+     * @return the mesh, or null if none has finished
+     */
+    public ChunkMesh poll() {
+        return completed.poll();
+    }
+
+    /**
+     * @return the number of chunks still being meshed
+     */
+    public int getPending() {
+        return pending.get();
+    }
+
+    /**
+     * Stop the workers. Chunks still queued are dropped.
+     */
+    @Override
+    public void close() {
+        pool.shutdownNow();
+    }
+}
@@ -0,0 +1,517 @@
+package voxel;
+
+import memory.LinearArena;
+import memory.Memory;
+import org.joml.FrustumIntersection;
+import org.joml.Matrix4fc;
+import org.lwjgl.opengl.GL11;
+import rendering.DrawCommandBuffer;
+import rendering.GpuResources;
+import rendering.MeshArena;
+import rendering.RenderQueue;
+import rendering.StateTracker;
+import rendering.VertexLayout;
+import rendering.VertexPacking;
+import scene.LodSelector;
+import scene.OcclusionCuller;
+import scene.SceneIndex;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Owns the GPU buffers of every meshed chunk and draws the ones inside the view frustum.
+ * Lives on the render thread.
+ * <p>
+ * Chunk meshes share a few {@link MeshArena}s, one per vertex layout and index type, and each arena's visible
+ * chunks are drawn with a single multi-draw call, so the number of draw calls doesn't grow with the number of chunks.
+ * <p>
+ * Chunks hidden behind nearer terrain are skipped too: the nearest visible chunks are drawn into a small depth
+ * buffer on the CPU, and every visible chunk's box is tested against it before being queued.
+ * <p>
+ * Each chunk is uploaded with all of its levels of detail, and is drawn at the coarsest one that looks no
+ * different from full detail by more than a few pixels.
+ */
+public class ChunkRenderer {
+    // A grid cell covers 4x4x4 chunks
+    private static final float CELL_SIZE = Chunk.SIZE * 4;
+
+    /*
+     Vertices sit on whole block coordinates, so as long as those fit in a short they are stored as plain
+     (not normalized) shorts, which the GPU turns back into the same floats. That is 8 bytes a vertex instead of 12.
+     Chunks further out than that fall back to floats.
+    */
+    private static final VertexLayout SHORT_POSITIONS = VertexLayout.builder()
+            .add(0, 3, VertexLayout.Type.SHORT, false)
+            .build();
+    private static final VertexLayout FLOAT_POSITIONS = VertexLayout.builder()
+            .add(0, 3, VertexLayout.Type.FLOAT, false)
+            .build();
+
+    /*
+     Level L is meshed from blocks 2^L wide, so a surface can be off by up to 2^L - 1 blocks.
+     Being off by 8 pixels is hard to spot on blocky terrain, and the 20% hysteresis keeps chunks at the edge
+     of a level from switching back and forth as the camera moves a little.
+    */
+    private static final float MAX_PIXEL_ERROR = 8.0f;
+    private static final float LOD_HYSTERESIS = 0.2f;
+    private static final String CATEGORY = "chunk meshes";
+    // Arenas start with room for about 16 chunks of rolling hills, and double when full
+    private static final int ARENA_INITIAL_VERTICES = 16 * 1024;
+    private static final int ARENA_INITIAL_INDICES = 32 * 1024;
+
+    /*
+     The nearest chunks hide the most. The occlusion depth buffer is kept at 128x128, because filling it costs in
+     proportion to its pixels, and a gap in the terrain narrower than one of them (about 6 pixels of an 800 pixel
+     window) is too small to show much through anyway.
+    */
+    private static final int OCCLUSION_SIZE = 128;
+    private static final int MAX_OCCLUDERS = 16;
+
+    private final GpuResources resources;
+    // Indexed by arenaIndex(), created when first needed
+    private final MeshArena[] arenas = new MeshArena[4];
+    private final DrawCommandBuffer[] commandBuffers = new DrawCommandBuffer[4];
+    // Visible chunks as depth bits << 32 | position in the visible list, sorted to draw front to back
+    private long[] drawOrder = new long[64];
+    private final Map<Long, ChunkBuffers> chunks = new HashMap<>();
+    // Bounds of every chunk mesh, and the chunks by their id in it
+    private final SceneIndex sceneIndex = new SceneIndex(CELL_SIZE);
+    private ChunkBuffers[] chunksById = new ChunkBuffers[64];
+    private final LodSelector lodSelector = new LodSelector(levelErrors(), MAX_PIXEL_ERROR, LOD_HYSTERESIS);
+    private final int[] levelCounts = new int[GreedyMesher.LEVELS];
+    private final OcclusionCuller occlusionCuller = new OcclusionCuller(OCCLUSION_SIZE, OCCLUSION_SIZE);
+    // The nearest visible chunks, by their squared distance, nearest first
+    private final int[] occluderIds = new int[MAX_OCCLUDERS];
+    private final float[] occluderDistances = new float[MAX_OCCLUDERS];
+    /*
+     The camera version the visible chunks were last worked out for, and whether anything else they depend on has
+     changed since. The draw commands are rebuilt only when the visible chunks or their levels have changed.
+    */
+    private int visibleCameraVersion;
+    private boolean visibilityDirty = true;
+    private boolean commandsDirty = true;
+
+    /**
+     * @param resources The registry to create the chunk buffers in
+     */
+    public ChunkRenderer(GpuResources resources) {
+        this.resources = resources;
+    }
+
+    private static int arenaIndex(boolean shortPositions, int indexType) {
+        return (shortPositions ? 0 : 2) + (indexType == GL11.GL_UNSIGNED_SHORT ? 0 : 1);
+    }
+
+    private MeshArena arena(int index, VertexLayout layout, int indexType) {
+        if (arenas[index] == null) {
+            arenas[index] = new MeshArena(resources, layout, indexType, ARENA_INITIAL_VERTICES, ARENA_INITIAL_INDICES,
+                    CATEGORY);
+            commandBuffers[index] = new DrawCommandBuffer(resources, indexType);
+        }
+        return arenas[index];
+    }
+
+    private static float[] levelErrors() {
+        float[] errors = new float[GreedyMesher.LEVELS];
+        for (int level = 0; level < errors.length; level++) {
+            errors[level] = (1 << level) - 1;
+        }
+        return errors;
+    }
+
+    /**
+     * Set the projection the levels of detail are chosen for.
+     *
+     * @param fieldOfView    The vertical field of view, in radians
+     * @param viewportHeight The height of the viewport, in pixels
+     */
+    public void setLodProjection(float fieldOfView, int viewportHeight) {
+        lodSelector.setProjection(fieldOfView, viewportHeight);
+        visibilityDirty = true;
+    }
+
+    /**
+     * Upload meshes finished by the mesher, skipping ones made out of date by later changes.
+     * Uploads are capped so that a burst of finished chunks is spread over a few frames.
+     *
+     * @param mesher     The mesher to take finished meshes from
+     * @param world      The world the meshes were built from
+     * @param maxUploads The most meshes to upload this call
+     * @param tracker    The tracker the chunks are drawn through, invalidated if an arena bound its vertex array
+     * @return the number of meshes uploaded
+     */
+    public int uploadCompleted(ChunkMesher mesher, World world, int maxUploads, StateTracker tracker) {
+        int arenaChanges = getArenaChanges();
+        int uploaded = 0;
+        ChunkMesh mesh;
+        while (uploaded < maxUploads && (mesh = mesher.poll()) != null) {
+            if (world.isCurrent(mesh)) {
+                upload(mesh);
+                uploaded++;
+            }
+        }
+        if (getArenaChanges() != arenaChanges) {
+            tracker.invalidate();
+        }
+        return uploaded;
+    }
+
+    /**
+     * @return the number of arenas created or rebuilt so far, each of which bound a vertex array to point it at the
+     * arena's buffers
+     */
+    private int getArenaChanges() {
+        int changes = 0;
+        for (MeshArena arena : arenas) {
+            if (arena != null) {
+                changes += 1 + arena.getRebuilds();
+            }
+        }
+        return changes;
+    }
+
+    /**
+     * Upload a chunk mesh, replacing the chunk's previous mesh. Creating or growing an arena for it binds a vertex
+     * array outside any state tracker, which {@link #uploadCompleted} takes care of.
+     *
+     * @param mesh The finished mesh
+     */
+    public void upload(ChunkMesh mesh) {
+        ChunkBuffers buffers = chunks.get(mesh.getKey());
+        visibilityDirty = true;
+        commandsDirty = true;
+        if (mesh.isEmpty()) {
+            if (buffers != null) {
+                arenas[buffers.arena].remove(buffers.meshId);
+                chunks.remove(mesh.getKey());
+                sceneIndex.remove(buffers.sceneId);
+                chunksById[buffers.sceneId] = null;
+            }
+            return;
+        }
+
+        // Fit the bounding box to the mesh, chunks are often mostly empty
+        float[] v = mesh.getVertices();
+        float minX = Float.POSITIVE_INFINITY, minY = Float.POSITIVE_INFINITY, minZ = Float.POSITIVE_INFINITY;
+        float maxX = Float.NEGATIVE_INFINITY, maxY = Float.NEGATIVE_INFINITY, maxZ = Float.NEGATIVE_INFINITY;
+        for (int i = 0; i < v.length; i += 3) {
+            minX = Math.min(minX, v[i]);
+            minY = Math.min(minY, v[i + 1]);
+            minZ = Math.min(minZ, v[i + 2]);
+            maxX = Math.max(maxX, v[i]);
+            maxY = Math.max(maxY, v[i + 1]);
+            maxZ = Math.max(maxZ, v[i + 2]);
+        }
+        if (buffers == null) {
+            buffers = new ChunkBuffers(sceneIndex.add(minX, minY, minZ, maxX, maxY, maxZ));
+            chunks.put(mesh.getKey(), buffers);
+            if (buffers.sceneId >= chunksById.length) {
+                chunksById = Arrays.copyOf(chunksById, Math.max(chunksById.length * 2, buffers.sceneId + 1));
+            }
+            chunksById[buffers.sceneId] = buffers;
+        } else {
+            sceneIndex.update(buffers.sceneId, minX, minY, minZ, maxX, maxY, maxZ);
+            arenas[buffers.arena].remove(buffers.meshId);
+        }
+
+        boolean shortPositions = fitsInShort(minX) && fitsInShort(minY) && fitsInShort(minZ)
+                && fitsInShort(maxX) && fitsInShort(maxY) && fitsInShort(maxZ);
+        VertexLayout layout = shortPositions ? SHORT_POSITIONS : FLOAT_POSITIONS;
+        int vertexCount = v.length / 3;
+        int indexType = VertexPacking.indexType(vertexCount);
+        int arenaIndex = arenaIndex(shortPositions, indexType);
+        MeshArena arena = arena(arenaIndex, layout, indexType);
+
+        /*
+         Meshes can be large, so stage them in this thread's scratch arena rather than in buffers the GC frees.
+         After the first few uploads the arena has grown big enough, and staging stops allocating at all.
+        */
+        LinearArena scratch = Memory.thread();
+        long mark = scratch.mark();
+        try {
+            ByteBuffer vertices = scratch.allocate(vertexCount * layout.getStride());
+            ByteBuffer indices = scratch.allocate(mesh.getIndices().length * VertexPacking.indexBytes(indexType));
+            for (int i = 0; i < v.length; i += 3) {
+                if (shortPositions) {
+                    vertices.putShort((short) v[i]).putShort((short) v[i + 1]).putShort((short) v[i + 2])
+                            .putShort((short) 0);
+                } else {
+                    vertices.putFloat(v[i]).putFloat(v[i + 1]).putFloat(v[i + 2]);
+                }
+            }
+            vertices.flip();
+            VertexPacking.putIndices(indices, mesh.getIndices(), indexType);
+            indices.flip();
+            buffers.meshId = arena.add(vertices, indices);
+            buffers.arena = arenaIndex;
+        } finally {
+            scratch.reset(mark);
+        }
+        for (int level = 0; level < buffers.levelCounts.length; level++) {
+            // Levels past the ones in the mesh fall back to its coarsest
+            int meshLevel = Math.min(level, mesh.getLevelCount() - 1);
+            buffers.levelFirstIndices[level] = mesh.getIndexOffset(meshLevel);
+            buffers.levelCounts[level] = mesh.getIndexCount(meshLevel);
+        }
+        // The full detail level only covers what the blocks do, coarser ones can cover more and hide too much
+        buffers.vertices = v;
+        buffers.indices = mesh.getIndices();
+        buffers.occluderIndexCount = mesh.getIndexCount(0);
+        buffers.centerX = (minX + maxX) * 0.5f;
+        buffers.centerY = (minY + maxY) * 0.5f;
+        buffers.centerZ = (minZ + maxZ) * 0.5f;
+    }
+
+    private static boolean fitsInShort(float value) {
+        return value >= Short.MIN_VALUE && value <= Short.MAX_VALUE;
+    }
+
+    /**
+     * Work out which chunks the camera sees, and at which levels of detail: {@link #cull}, {@link #cullOccluded} and
+     * {@link #selectLevels} in one go. This is skipped when neither the camera nor any chunk has changed since the
+     * last call, since it would come to the same result.
+     *
+     * @param cameraVersion  A number that changes whenever the camera's matrices do
+     * @param frustum        The view frustum
+     * @param viewProjection The view-projection matrix of the camera
+     * @param eyeX           X Coordinate of the camera
+     * @param eyeY           Y Coordinate of the camera
+     * @param eyeZ           Z Coordinate of the camera
+     * @return true if the visible chunks were worked out again, false if the last ones still hold
+     */
+    public boolean updateVisibility(int cameraVersion, FrustumIntersection frustum, Matrix4fc viewProjection,
+                                    float eyeX, float eyeY, float eyeZ) {
+        if (!visibilityDirty && cameraVersion == visibleCameraVersion) {
+            return false;
+        }
+        cull(frustum);
+        cullOccluded(viewProjection, eyeX, eyeY, eyeZ);
+        selectLevels(eyeX, eyeY, eyeZ);
+        visibleCameraVersion = cameraVersion;
+        visibilityDirty = false;
+        return true;
+    }
+
+    /**
+     * Find the chunks inside a frustum, which are the ones the next {@link #draw()} will draw.
+     *
+     * @param frustum The view frustum
+     * @return the number of visible chunks
+     */
+    public int cull(FrustumIntersection frustum) {
+        commandsDirty = true;
+        return sceneIndex.cull(frustum);
+    }
+
+    /**
+     * Drop the chunks found visible by the last {@link #cull(FrustumIntersection)} that are hidden behind the
+     * nearest ones.
+     *
+     * @param viewProjection The view-projection matrix of the camera
+     * @param eyeX           X Coordinate of the camera
+     * @param eyeY           Y Coordinate of the camera
+     * @param eyeZ           Z Coordinate of the camera
+     * @return the number of chunks still visible
+     */
+    public int cullOccluded(Matrix4fc viewProjection, float eyeX, float eyeY, float eyeZ) {
+        int count = sceneIndex.getVisibleCount();
+        int[] visible = sceneIndex.getVisible();
+        int occluderCount = 0;
+        for (int i = 0; i < count; i++) {
+            ChunkBuffers buffers = chunksById[visible[i]];
+            float dx = buffers.centerX - eyeX;
+            float dy = buffers.centerY - eyeY;
+            float dz = buffers.centerZ - eyeZ;
+            float distance = dx * dx + dy * dy + dz * dz;
+            if (occluderCount == MAX_OCCLUDERS && distance >= occluderDistances[MAX_OCCLUDERS - 1]) {
+                continue;
+            }
+            // Insert into the sorted list, dropping the farthest once it is full
+            int slot = Math.min(occluderCount, MAX_OCCLUDERS - 1);
+            while (slot > 0 && occluderDistances[slot - 1] > distance) {
+                occluderDistances[slot] = occluderDistances[slot - 1];
+                occluderIds[slot] = occluderIds[slot - 1];
+                slot--;
+            }
+            occluderDistances[slot] = distance;
+            occluderIds[slot] = visible[i];
+            occluderCount = Math.min(occluderCount + 1, MAX_OCCLUDERS);
+        }
+
+        occlusionCuller.begin(viewProjection);
+        for (int i = 0; i < occluderCount; i++) {
+            ChunkBuffers buffers = chunksById[occluderIds[i]];
+            occlusionCuller.addOccluder(buffers.vertices, buffers.indices, 0, buffers.occluderIndexCount);
+        }
+        occlusionCuller.finish();
+        commandsDirty = true;
+        return sceneIndex.cullOccluded(occlusionCuller);
+    }
+
+    /**
+     * Choose the level of detail of each chunk found visible by the last {@link #cull(FrustumIntersection)}.
+     *
+     * @param eyeX X Coordinate of the camera
+     * @param eyeY Y Coordinate of the camera
+     * @param eyeZ Z Coordinate of the camera
+     */
+    public void selectLevels(float eyeX, float eyeY, float eyeZ) {
+        lodSelector.select(sceneIndex, eyeX, eyeY, eyeZ);
+        commandsDirty = true;
+    }
+
+    /**
+     * Queue the chunks found visible by the last {@link #cull(FrustumIntersection)} to be drawn, at the levels of
+     * detail chosen by the last {@link #selectLevels(float, float, float)}. The draw commands are only rebuilt and
+     * uploaded when those or the chunks have changed since the last draw, otherwise the last ones are queued again.
+     *
+     * @param queue   The queue to add the draws to
+     * @param program The GL name of a shader program taking world positions at attribute 0
+     * @param eyeX    X Coordinate of the camera
+     * @param eyeY    Y Coordinate of the camera
+     * @param eyeZ    Z Coordinate of the camera
+     */
+    public void draw(RenderQueue queue, int program, float eyeX, float eyeY, float eyeZ) {
+        if (commandsDirty) {
+            buildCommands(eyeX, eyeY, eyeZ);
+            commandsDirty = false;
+        }
+        for (int i = 0; i < arenas.length; i++) {
+            DrawCommandBuffer commands = commandBuffers[i];
+            if (commands != null && commands.size() > 0) {
+                queue.addMultiDraw(program, arenas[i].getVertexArray(), 0, 0.0f, GL11.GL_TRIANGLES,
+                        arenas[i].getIndexType(), commands);
+            }
+        }
+    }
+
+    private void buildCommands(float eyeX, float eyeY, float eyeZ) {
+        int count = sceneIndex.getVisibleCount();
+        int[] visible = sceneIndex.getVisible();
+        Arrays.fill(levelCounts, 0);
+        if (drawOrder.length < count) {
+            drawOrder = new long[Math.max(count, drawOrder.length * 2)];
+        }
+        for (int i = 0; i < count; i++) {
+            ChunkBuffers buffers = chunksById[visible[i]];
+            float dx = buffers.centerX - eyeX;
+            float dy = buffers.centerY - eyeY;
+            float dz = buffers.centerZ - eyeZ;
+            // Squared distance sorts the same as distance, and positive floats sort the same as their bits
+            float depth = dx * dx + dy * dy + dz * dz;
+            drawOrder[i] = (long) Float.floatToRawIntBits(depth) << 32 | i;
+        }
+        // Front to back within each multi-draw, so near chunks fill the depth buffer first
+        Arrays.sort(drawOrder, 0, count);
+
+        for (DrawCommandBuffer commands : commandBuffers) {
+            if (commands != null) {
+                commands.clear();
+            }
+        }
+        for (int i = 0; i < count; i++) {
+            int id = visible[(int) drawOrder[i]];
+            ChunkBuffers buffers = chunksById[id];
+            int level = lodSelector.getLevel(id);
+            levelCounts[level]++;
+            MeshArena arena = arenas[buffers.arena];
+            commandBuffers[buffers.arena].add(buffers.levelCounts[level], 1,
+                    arena.getFirstIndex(buffers.meshId) + buffers.levelFirstIndices[level],
+                    arena.getBaseVertex(buffers.meshId), 0);
+        }
+        for (DrawCommandBuffer commands : commandBuffers) {
+            if (commands != null && commands.size() > 0) {
+                commands.upload();
+            }
+        }
+    }
+
+    /**
+     * Release the buffers of every chunk, to be deleted by the registry's next {@link GpuResources#endFrame()}.
+     */
+    public void delete() {
+        for (ChunkBuffers buffers : chunks.values()) {
+            sceneIndex.remove(buffers.sceneId);
+        }
+        chunks.clear();
+        Arrays.fill(chunksById, null);
+        visibilityDirty = true;
+        commandsDirty = true;
+        for (int i = 0; i < arenas.length; i++) {
+            if (arenas[i] != null) {
+                arenas[i].delete();
+                commandBuffers[i].delete();
+                arenas[i] = null;
+                commandBuffers[i] = null;
+            }
+        }
+    }
+
+    /**
+     * @return the number of chunks with a mesh on the GPU
+     */
+    public int getChunkCount() {
+        return chunks.size();
+    }
+
+    /**
+     * @return the number of chunks drawn by the last {@link #cull(FrustumIntersection)}
+     */
+    public int getVisibleCount() {
+        return sceneIndex.getVisibleCount();
+    }
+
+    /**
+     * @return the number of chunks skipped by the last {@link #cull(FrustumIntersection)} for being outside the frustum
+     */
+    public int getCulledCount() {
+        return sceneIndex.getCulledCount();
+    }
+
+    /**
+     * @return the number of chunks inside the frustum skipped by the last {@link #cullOccluded} for being hidden
+     */
+    public int getOccludedCount() {
+        return sceneIndex.getOccludedCount();
+    }
+
+    /**
+     * @return the number of occluder triangles drawn into the depth buffer by the last {@link #cullOccluded}
+     */
+    public int getOccluderTriangleCount() {
+        return occlusionCuller.getTriangleCount();
+    }
+
+    /**
+     * @param level The level of detail, 0 being the finest
+     * @return the number of chunks the last {@link #draw} queued at that level
+     */
+    public int getLevelCount(int level) {
+        return levelCounts[level];
+    }
+
+    /**
+     * The vertex array and buffers of a single chunk.
+     */
+    private static final class ChunkBuffers {
+        private final int sceneId;
+        // Which arena the mesh is in, and its id there
+        private int arena;
+        private int meshId;
+        // The first index and index count of each level, counted from the mesh's first index
+        private final int[] levelFirstIndices = new int[GreedyMesher.LEVELS];
+        private final int[] levelCounts = new int[GreedyMesher.LEVELS];
+        private float centerX, centerY, centerZ;
+        // The mesh, kept to draw the chunk as an occluder, its first occluderIndexCount indices are full detail
+        private float[] vertices;
+        private int[] indices;
+        private int occluderIndexCount;
+
+        private ChunkBuffers(int sceneId) {
+            this.sceneId = sceneId;
+        }
+    }
+}
@@ -0,0 +1,236 @@
+package voxel;
+
+import java.util.Arrays;
+
+import static voxel.Chunk.SIZE;
+
+/**
+ * Turns a chunk snapshot into a mesh, along with coarser versions of it for drawing the chunk from further away.
+ * <p>
+ * Only faces between a solid block and air are emitted, and neighbouring faces of the same block type
+ * on the same plane are merged into as few rectangles as possible. A flat 16x16 floor becomes 1 quad on top
+ * instead of 256.
+ * <p>
+ * Each coarser level of detail halves the resolution: a cell of 2x2x2 blocks of the level before is solid if at
+ * least half of them are, and the result is meshed the same way with bigger blocks. Small features disappear first,
+ * and flat ground stays flat, so coarse levels have far fewer faces. See {@link ChunkMesh} for how levels are stored.
+ * <p>
+ * A mesher keeps its scratch arrays between calls, so each worker thread should use its own.
+ */
+public class GreedyMesher {
+    /**
+     * The number of levels of detail built per chunk, the last one meshes the chunk as 4x4x4 cells of 4 blocks.
+     */
+    public static final int LEVELS = 3;
+
+    private final short[] mask = new short[SIZE * SIZE];
+    // Downsampled snapshots, with a border like the full one, for levels 1 and up
+    private final short[][] levelSnapshots = new short[LEVELS][];
+    private final int[] origin = new int[3];
+    private final int[] position = new int[3];
+    private final int[] step = new int[3];
+    private final float[] corner = new float[3];
+    private float[] vertices = new float[1024];
+    private int[] indices = new int[1536];
+    private int vertexCount;
+    private int indexCount;
+
+    public GreedyMesher() {
+        for (int level = 1; level < LEVELS; level++) {
+            int padded = (SIZE >> level) + 2;
+            levelSnapshots[level] = new short[padded * padded * padded];
+        }
+    }
+
+    /**
+     * Build the mesh of a chunk, at every level of detail.
+     *
+     * @param snapshot The chunk's blocks with a one block border, see {@link Chunk#copyInto(short[])}
+     * @param key      The key of the chunk
+     * @param version  The version of the chunk the snapshot was taken from
+     * @param originX  X world coordinate of the chunk's first block
+     * @param originY  Y world coordinate of the chunk's first block
+     * @param originZ  Z world coordinate of the chunk's first block
+     * @return the mesh
+     */
+    public ChunkMesh mesh(short[] snapshot, long key, int version, int originX, int originY, int originZ) {
+        vertexCount = 0;
+        indexCount = 0;
+        origin[0] = originX;
+        origin[1] = originY;
+        origin[2] = originZ;
+
+        int[] levelIndexOffsets = new int[LEVELS + 1];
+        short[] levelSnapshot = snapshot;
+        for (int level = 0; level < LEVELS; level++) {
+            int size = SIZE >> level;
+            if (level > 0) {
+                downsample(levelSnapshot, size * 2, levelSnapshots[level], size);
+                levelSnapshot = levelSnapshots[level];
+            }
+            meshLevel(levelSnapshot, size, 1 << level);
+            levelIndexOffsets[level + 1] = indexCount;
+        }
+        return new ChunkMesh(key, version, Arrays.copyOf(vertices, vertexCount * 3), Arrays.copyOf(indices, indexCount),
+                levelIndexOffsets);
+    }
+
+    /**
+     * Halve the resolution of a padded snapshot. A cell is solid if at least half of its blocks are, and takes the
+     * type of the first solid one. Border cells are taken from the 2x2 blocks of the border they cover.
+     */
+    private static void downsample(short[] source, int sourceSize, short[] target, int targetSize) {
+        int sourcePadded = sourceSize + 2;
+        int targetPadded = targetSize + 2;
+        for (int z = -1; z <= targetSize; z++) {
+            int z0 = sourceStart(z, targetSize, sourceSize);
+            int z1 = sourceEnd(z, targetSize, sourceSize);
+            for (int y = -1; y <= targetSize; y++) {
+                int y0 = sourceStart(y, targetSize, sourceSize);
+                int y1 = sourceEnd(y, targetSize, sourceSize);
+                for (int x = -1; x <= targetSize; x++) {
+                    int x0 = sourceStart(x, targetSize, sourceSize);
+                    int x1 = sourceEnd(x, targetSize, sourceSize);
+                    short first = Chunk.AIR;
+                    int solid = 0;
+                    int total = 0;
+                    for (int sz = z0; sz <= z1; sz++) {
+                        for (int sy = y0; sy <= y1; sy++) {
+                            for (int sx = x0; sx <= x1; sx++) {
+                                short block = source[paddedIndex(sx, sy, sz, sourcePadded)];
+                                if (block != Chunk.AIR) {
+                                    if (solid++ == 0) {
+                                        first = block;
+                                    }
+                                }
+                                total++;
+                            }
+                        }
+                    }
+                    target[paddedIndex(x, y, z, targetPadded)] = solid * 2 >= total ? first : Chunk.AIR;
+                }
+            }
+        }
+    }
+
+    // The range of source blocks a target cell covers along one axis; border cells map to the border layer
+    private static int sourceStart(int cell, int targetSize, int sourceSize) {
+        return cell < 0 ? -1 : cell == targetSize ? sourceSize : cell * 2;
+    }
+
+    private static int sourceEnd(int cell, int targetSize, int sourceSize) {
+        return cell < 0 ? -1 : cell == targetSize ? sourceSize : cell * 2 + 1;
+    }
+
+    private static int paddedIndex(int x, int y, int z, int paddedSize) {
+        return (x + 1) + ((y + 1) + (z + 1) * paddedSize) * paddedSize;
+    }
+
+    /**
+     * Mesh one level: a padded snapshot of {@code size} cells along each axis, each {@code scale} blocks wide.
+     */
+    private void meshLevel(short[] snapshot, int size, int scale) {
+        int paddedSize = size + 2;
+        // Sweep a plane along each axis, once for faces pointing backwards and once for faces pointing forwards
+        for (int d = 0; d < 3; d++) {
+            int u = (d + 1) % 3;
+            int v = (d + 2) % 3;
+            Arrays.fill(step, 0);
+            step[d] = 1;
+            int neighbourOffset = step[0] + (step[1] + step[2] * paddedSize) * paddedSize;
+
+            for (int direction = -1; direction <= 1; direction += 2) {
+                for (int slice = 0; slice < size; slice++) {
+                    // Build the mask of visible faces on this slice
+                    position[d] = slice;
+                    for (int j = 0; j < size; j++) {
+                        position[v] = j;
+                        for (int i = 0; i < size; i++) {
+                            position[u] = i;
+                            int index = paddedIndex(position[0], position[1], position[2], paddedSize);
+                            short block = snapshot[index];
+                            short neighbour = snapshot[index + direction * neighbourOffset];
+                            mask[i + j * size] = block != Chunk.AIR && neighbour == Chunk.AIR ? block : Chunk.AIR;
+                        }
+                    }
+
+                    // Merge the mask into rectangles
+                    int plane = direction > 0 ? slice + 1 : slice;
+                    for (int j = 0; j < size; j++) {
+                        for (int i = 0; i < size; ) {
+                            short block = mask[i + j * size];
+                            if (block == Chunk.AIR) {
+                                i++;
+                                continue;
+                            }
+                            // Grow as wide as possible, then as tall as every row allows
+                            int width = 1;
+                            while (i + width < size && mask[i + width + j * size] == block) {
+                                width++;
+                            }
+                            int height = 1;
+                            grow:
+                            while (j + height < size) {
+                                for (int k = 0; k < width; k++) {
+                                    if (mask[i + k + (j + height) * size] != block) {
+                                        break grow;
+                                    }
+                                }
+                                height++;
+                            }
+
+                            emitQuad(d, u, v, plane * scale, i * scale, j * scale, width * scale, height * scale,
+                                    direction > 0);
+
+                            for (int h = 0; h < height; h++) {
+                                Arrays.fill(mask, i + (j + h) * size, i + width + (j + h) * size, Chunk.AIR);
+                            }
+                            i += width;
+                        }
+                    }
+                }
+            }
+        }
+    }
+
+    private void emitQuad(int d, int u, int v, int plane, int i, int j, int width, int height, boolean front) {
+        ensureCapacity();
+        int first = vertexCount;
+        for (int c = 0; c < 4; c++) {
+            // Corners in counter-clockwise order when looking at the face from the positive side of the axis
+            int du = c == 1 || c == 2 ? width : 0;
+            int dv = c >= 2 ? height : 0;
+            corner[d] = origin[d] + plane;
+            corner[u] = origin[u] + i + du;
+            corner[v] = origin[v] + j + dv;
+            vertices[vertexCount * 3] = corner[0];
+            vertices[vertexCount * 3 + 1] = corner[1];
+            vertices[vertexCount * 3 + 2] = corner[2];
+            vertexCount++;
+        }
+        // Faces pointing backwards are seen from the other side, so flip their winding
+        if (front) {
+            putIndices(first, first + 1, first + 2, first + 2, first + 3, first);
+        } else {
+            putIndices(first, first + 3, first + 2, first + 2, first + 1, first);
+        }
+    }
+
+    private void putIndices(int a, int b, int c, int d, int e, int f) {
+        indices[indexCount++] = a;
+        indices[indexCount++] = b;
+        indices[indexCount++] = c;
+        indices[indexCount++] = d;
+        indices[indexCount++] = e;
+        indices[indexCount++] = f;
+    }
+
+    private void ensureCapacity() {
+        if ((vertexCount + 4) * 3 > vertices.length) {
+            vertices = Arrays.copyOf(vertices, vertices.length * 2);
+        }
+        if (indexCount + 6 > indices.length) {
+            indices = Arrays.copyOf(indices, indices.length * 2);
+        }
+    }
+}
@@ -0,0 +1,161 @@
+package voxel;
+
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * A world of blocks, split into {@link Chunk}s which are created as blocks are set.
+ * <p>
+ * Changing a block marks its chunk (and the neighbouring chunk, if the block is on the border) as needing a new mesh.
+ * {@link #scheduleMeshing(ChunkMesher)} hands snapshots of those chunks to the background mesher.
+ * The world itself is only ever touched from the render thread.
+ */
+public class World {
+    private static final int KEY_BITS = 21;
+    private static final long KEY_MASK = (1L << KEY_BITS) - 1;
+
+    private final Map<Long, Chunk> chunks = new HashMap<>();
+    private final Set<Chunk> dirty = new LinkedHashSet<>();
+
+    /**
+     * Pack chunk coordinates into a single key.
+     *
+     * @param chunkX X Coordinate of the chunk, in chunks
+     * @param chunkY Y Coordinate of the chunk, in chunks
+     * @param chunkZ Z Coordinate of the chunk, in chunks
+     * @return the key of the chunk
+     */
+    public static long key(int chunkX, int chunkY, int chunkZ) {
+        return (chunkX & KEY_MASK) | (chunkY & KEY_MASK) << KEY_BITS | (chunkZ & KEY_MASK) << (2 * KEY_BITS);
+    }
+
+    /**
+     * Get a chunk, if it exists.
+     *
+     * @return the chunk, or null if no block in it was ever set
+     */
+    public Chunk getChunk(int chunkX, int chunkY, int chunkZ) {
+        return chunks.get(key(chunkX, chunkY, chunkZ));
+    }
+
+    /**
+     * Get a block, using world coordinates.
+     *
+     * @return the block id, or {@link Chunk#AIR} if the chunk doesn't exist
+     */
+    public short getBlock(int x, int y, int z) {
+        Chunk chunk = getChunk(Math.floorDiv(x, Chunk.SIZE), Math.floorDiv(y, Chunk.SIZE), Math.floorDiv(z, Chunk.SIZE));
+        if (chunk == null) {
+            return Chunk.AIR;
+        }
+        return chunk.getBlock(Math.floorMod(x, Chunk.SIZE), Math.floorMod(y, Chunk.SIZE), Math.floorMod(z, Chunk.SIZE));
+    }
+
+    /**
+     * Set a block, using world coordinates.
+     */
+    public void setBlock(int x, int y, int z, short block) {
+        int chunkX = Math.floorDiv(x, Chunk.SIZE);
+        int chunkY = Math.floorDiv(y, Chunk.SIZE);
+        int chunkZ = Math.floorDiv(z, Chunk.SIZE);
+        Chunk chunk = getChunk(chunkX, chunkY, chunkZ);
+        if (chunk == null) {
+            if (block == Chunk.AIR) {
+                return;
+            }
+            chunk = new Chunk(chunkX, chunkY, chunkZ);
+            chunks.put(key(chunkX, chunkY, chunkZ), chunk);
+        }
+
+        int localX = Math.floorMod(x, Chunk.SIZE);
+        int localY = Math.floorMod(y, Chunk.SIZE);
+        int localZ = Math.floorMod(z, Chunk.SIZE);
+        if (!chunk.setBlock(localX, localY, localZ, block)) {
+            return;
+        }
+        dirty.add(chunk);
+
+        // Faces of the neighbouring chunk touching this block may have appeared or disappeared
+        if (localX == 0) invalidate(chunkX - 1, chunkY, chunkZ);
+        if (localX == Chunk.SIZE - 1) invalidate(chunkX + 1, chunkY, chunkZ);
+        if (localY == 0) invalidate(chunkX, chunkY - 1, chunkZ);
+        if (localY == Chunk.SIZE - 1) invalidate(chunkX, chunkY + 1, chunkZ);
+        if (localZ == 0) invalidate(chunkX, chunkY, chunkZ - 1);
+        if (localZ == Chunk.SIZE - 1) invalidate(chunkX, chunkY, chunkZ + 1);
+    }
+
+    private void invalidate(int chunkX, int chunkY, int chunkZ) {
+        Chunk chunk = getChunk(chunkX, chunkY, chunkZ);
+        if (chunk != null) {
+            chunk.invalidate();
+            dirty.add(chunk);
+        }
+    }
+
+    /**
+     * Submit every changed chunk to the mesher.
+     * Each chunk is copied, along with the blocks bordering it, so the workers never read a chunk that is being changed.
+     *
+     * @param mesher The mesher to submit to
+     * @return the number of chunks submitted
+     */
+    public int scheduleMeshing(ChunkMesher mesher) {
+        int submitted = dirty.size();
+        for (Chunk chunk : dirty) {
+            short[] snapshot = new short[Chunk.PADDED_SIZE * Chunk.PADDED_SIZE * Chunk.PADDED_SIZE];
+            chunk.copyInto(snapshot);
+            copyBorders(chunk, snapshot);
+            mesher.submit(snapshot, key(chunk.getChunkX(), chunk.getChunkY(), chunk.getChunkZ()), chunk.getVersion(),
+                    chunk.getChunkX() * Chunk.SIZE, chunk.getChunkY() * Chunk.SIZE, chunk.getChunkZ() * Chunk.SIZE);
+        }
+        dirty.clear();
+        return submitted;
+    }
+
+    /**
+     * Copy the layer of blocks touching each of the 6 faces of a chunk into the border of its snapshot.
+     * The mesher only looks along the axes, so edges and corners of the border are left as air.
+     */
+    private void copyBorders(Chunk chunk, short[] snapshot) {
+        int last = Chunk.SIZE - 1;
+        Chunk[] neighbours = {
+                getChunk(chunk.getChunkX() - 1, chunk.getChunkY(), chunk.getChunkZ()),
+                getChunk(chunk.getChunkX() + 1, chunk.getChunkY(), chunk.getChunkZ()),
+                getChunk(chunk.getChunkX(), chunk.getChunkY() - 1, chunk.getChunkZ()),
+                getChunk(chunk.getChunkX(), chunk.getChunkY() + 1, chunk.getChunkZ()),
+                getChunk(chunk.getChunkX(), chunk.getChunkY(), chunk.getChunkZ() - 1),
+                getChunk(chunk.getChunkX(), chunk.getChunkY(), chunk.getChunkZ() + 1),
+        };
+        for (int a = 0; a < Chunk.SIZE; a++) {
+            for (int b = 0; b < Chunk.SIZE; b++) {
+                if (neighbours[0] != null) snapshot[Chunk.paddedIndex(-1, a, b)] = neighbours[0].getBlock(last, a, b);
+                if (neighbours[1] != null) snapshot[Chunk.paddedIndex(Chunk.SIZE, a, b)] = neighbours[1].getBlock(0, a, b);
+                if (neighbours[2] != null) snapshot[Chunk.paddedIndex(a, -1, b)] = neighbours[2].getBlock(a, last, b);
+                if (neighbours[3] != null) snapshot[Chunk.paddedIndex(a, Chunk.SIZE, b)] = neighbours[3].getBlock(a, 0, b);
+                if (neighbours[4] != null) snapshot[Chunk.paddedIndex(a, b, -1)] = neighbours[4].getBlock(a, b, last);
+                if (neighbours[5] != null) snapshot[Chunk.paddedIndex(a, b, Chunk.SIZE)] = neighbours[5].getBlock(a, b, 0);
+            }
+        }
+    }
+
+    /**
+     * Check whether a mesh was built from the latest state of its chunk.
+     * Meshes finish out of order, so an older one can arrive after its chunk changed again.
+     *
+     * @param mesh A finished mesh
+     * @return true if the mesh is up to date and should be uploaded
+     */
+    public boolean isCurrent(ChunkMesh mesh) {
+        Chunk chunk = chunks.get(mesh.getKey());
+        return chunk != null && chunk.getVersion() == mesh.getVersion();
+    }
+
+    /**
+     * @return the number of chunks in the world
+     */
+    public int getChunkCount() {
+        return chunks.size();
+    }
+}
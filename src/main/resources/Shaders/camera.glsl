@@ -0,0 +1,2 @@
+// Combined projection * view matrix of the camera
+uniform mat4 viewProjection;
@@ -0,0 +1,11 @@
+#version 330 core
+layout (location = 0) in vec3 aPos;
+// Per-instance model matrix, takes up locations 1 to 4
+layout (location = 1) in mat4 aModel;
+
+#include "camera.glsl"
+
+void main()
+{
+    gl_Position = viewProjection * aModel * vec4(aPos, 1.0);
+}
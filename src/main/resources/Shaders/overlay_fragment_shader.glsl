@@ -0,0 +1,12 @@
+#version 330 core
+in vec2 uv;
+in vec4 color;
+out vec4 FragColor;
+
+// How much of each texel a glyph covers, solid shapes sample a fully covered texel
+uniform sampler2D glyphs;
+
+void main()
+{
+    FragColor = vec4(color.rgb, color.a * texture(glyphs, uv).r);
+}
\ No newline at end of file
@@ -0,0 +1,17 @@
+#version 330 core
+layout (location = 0) in vec2 aPos;
+layout (location = 1) in vec2 aUv;
+layout (location = 2) in vec4 aColor;
+
+// Maps pixels, from the top left of the window, to clip space
+uniform mat4 projection;
+
+out vec2 uv;
+out vec4 color;
+
+void main()
+{
+    uv = aUv;
+    color = aColor;
+    gl_Position = projection * vec4(aPos, 0.0, 1.0);
+}
\ No newline at end of file
@@ -0,0 +1,17 @@
+#version 330 core
+in vec3 worldPosition;
+out vec4 FragColor;
+
+// Every block texture is a layer of the same array texture
+uniform sampler2DArray blocks;
+uniform int layer;
+
+void main()
+{
+    // The face the fragment is on, from how the world position changes across the screen
+    vec3 normal = abs(cross(dFdx(worldPosition), dFdy(worldPosition)));
+    // One repeat of the texture per block, projected along the axis the face looks down
+    vec2 uv = normal.x > normal.y && normal.x > normal.z ? worldPosition.zy
+            : normal.y > normal.z ? worldPosition.xz : worldPosition.xy;
+    FragColor = texture(blocks, vec3(uv, layer));
+}
\ No newline at end of file
@@ -1,9 +1,13 @@
 #version 330 core
 layout (location = 0) in vec3 aPos;
 
-uniform mat4 projection;
+#include "camera.glsl"
+
+// Chunk vertices are in world space, which is also where their texture coordinates come from
+out vec3 worldPosition;
 
 void main()
 {
-    gl_Position = projection * vec4(aPos, 1.0);
-}
\ No newline at end of file
+    worldPosition = aPos;
+    gl_Position = viewProjection * vec4(aPos, 1.0);
+}
@@ -0,0 +1,97 @@
+import org.joml.Vector3f;
+import org.junit.jupiter.api.Test;
+
+import java.util.function.Consumer;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class CameraTest {
+    private static final float EPSILON = 1e-5f;
+
+    private final Camera camera = new Camera();
+
+    /**
+     * Check that a change rebuilds the matrices exactly once, when they are next asked for.
+     */
+    private void assertRebuiltOnce(Consumer<Camera> change) {
+        int version = camera.getVersion();
+        change.accept(camera);
+        camera.getViewProjectionMatrix();
+        int changed = camera.getVersion();
+        assertNotEquals(version, changed);
+        camera.getViewMatrix();
+        camera.getProjectionMatrix();
+        camera.getFrustum();
+        assertEquals(changed, camera.getVersion());
+    }
+
+    @Test
+    void readingTheMatricesDoesNotRebuildThem() {
+        int version = camera.getVersion();
+        assertSame(camera.getViewMatrix(), camera.getViewMatrix());
+        camera.getProjectionMatrix();
+        camera.getViewProjectionMatrix();
+        camera.getFrustum();
+        camera.getDirection(new Vector3f());
+        camera.getX();
+        camera.getYaw();
+        assertEquals(version, camera.getVersion());
+    }
+
+    @Test
+    void movingRotatingAndSettingRebuildTheMatrices() {
+        assertRebuiltOnce(c -> c.move(1.0f, 0.0f, 0.0f));
+        assertRebuiltOnce(c -> c.rotate(0.0f, 0.5f, 0.0f));
+        assertRebuiltOnce(c -> c.setX(3.0f));
+        assertRebuiltOnce(c -> c.setY(3.0f));
+        assertRebuiltOnce(c -> c.setZ(3.0f));
+        assertRebuiltOnce(c -> c.setPitch(0.1f));
+        assertRebuiltOnce(c -> c.setYaw(0.1f));
+        assertRebuiltOnce(c -> c.setRoll(0.1f));
+        assertRebuiltOnce(c -> c.setPerspective((float) Math.toRadians(90.0f), 2.0f, 0.5f, 50.0f));
+        // Several changes between reads are a single rebuild
+        assertRebuiltOnce(c -> {
+            c.move(0.0f, 1.0f, 0.0f);
+            c.rotate(0.1f, 0.0f, 0.0f);
+            c.setPerspective(1.0f, 1.0f, 0.1f, 10.0f);
+        });
+    }
+
+    @Test
+    void settingTheSameValueKeepsTheMatrices() {
+        camera.setX(2.0f);
+        camera.setPitch(0.3f);
+        int version = camera.getVersion();
+        camera.setX(2.0f);
+        camera.setY(0.0f);
+        camera.setPitch(0.3f);
+        camera.setRoll(0.0f);
+        assertEquals(version, camera.getVersion());
+    }
+
+    @Test
+    void rebuiltMatricesFollowTheCamera() {
+        // Starts at the origin looking down -z
+        assertTrue(camera.getFrustum().testPoint(0.0f, 0.0f, -5.0f));
+        assertFalse(camera.getFrustum().testPoint(0.0f, 0.0f, 5.0f));
+
+        camera.move(1.0f, 2.0f, 3.0f);
+        Vector3f eye = camera.getViewMatrix().transformPosition(new Vector3f(1.0f, 2.0f, 3.0f));
+        assertEquals(0.0f, eye.length(), EPSILON);
+
+        // Turned around, it sees behind where it started
+        camera.rotate(0.0f, (float) Math.PI, 0.0f);
+        assertFalse(camera.getFrustum().testPoint(1.0f, 2.0f, -2.0f));
+        assertTrue(camera.getFrustum().testPoint(1.0f, 2.0f, 8.0f));
+        Vector3f direction = camera.getDirection(new Vector3f());
+        assertEquals(1.0f, direction.z, EPSILON);
+
+        // A far plane closer than the point drops it
+        camera.setPerspective((float) Math.toRadians(60.0f), 1.0f, 0.1f, 4.0f);
+        assertFalse(camera.getFrustum().testPoint(1.0f, 2.0f, 8.0f));
+    }
+}
@@ -0,0 +1,127 @@
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import rendering.GpuResources;
+import rendering.RecordingRenderBackend;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.function.BooleanSupplier;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class ShaderManagerTest {
+    private static final String[] FILES = {"camera.glsl", "instanced_vertex_shader.glsl", "fragment_shader.glsl",
+            "vertex_shader.glsl", "terrain_fragment_shader.glsl"};
+    private static final long TIMEOUT_NANOS = TimeUnit.SECONDS.toNanos(10);
+
+    @TempDir
+    Path cache;
+    @TempDir
+    Path sources;
+
+    private final RecordingRenderBackend backend = new RecordingRenderBackend();
+    private final GpuResources resources = new GpuResources(backend);
+    private ShaderManager manager;
+    private ShaderProgram instanced;
+    private ShaderProgram chunks;
+
+    @BeforeEach
+    void load() throws IOException {
+        // A copy of the Shaders folder to edit, the programs themselves are first loaded from the classpath
+        for (String file : FILES) {
+            try (InputStream stream = getClass().getClassLoader().getResourceAsStream("Shaders/" + file)) {
+                Files.copy(stream, sources.resolve(file));
+            }
+        }
+        manager = new ShaderManager(resources, cache);
+        CompletableFuture<ShaderProgram> instancedProgram = manager.load("instanced_vertex_shader.glsl",
+                "fragment_shader.glsl");
+        CompletableFuture<ShaderProgram> chunkProgram = manager.load("vertex_shader.glsl",
+                "terrain_fragment_shader.glsl");
+        manager.finish();
+        instanced = instancedProgram.join();
+        chunks = chunkProgram.join();
+    }
+
+    @AfterEach
+    void delete() {
+        manager.delete();
+        resources.endFrame();
+    }
+
+    private void append(String file, String text) throws IOException {
+        Files.writeString(sources.resolve(file), text, StandardOpenOption.APPEND);
+    }
+
+    private void touch(String file) throws IOException {
+        Files.write(sources.resolve(file), Files.readAllBytes(sources.resolve(file)));
+    }
+
+    /**
+     * Run frames until the condition holds, as the render thread would.
+     */
+    private void updateUntil(BooleanSupplier condition) throws InterruptedException {
+        long deadline = System.nanoTime() + TIMEOUT_NANOS;
+        while (!condition.getAsBoolean()) {
+            assertTrue(System.nanoTime() < deadline, "timed out waiting for the reload");
+            manager.update();
+            resources.endFrame();
+            Thread.sleep(10);
+        }
+    }
+
+    @Test
+    void onlyProgramsWhoseSourcesChangedAreReloaded() throws IOException, InterruptedException {
+        manager.watch(sources);
+        int instancedId = instanced.getId();
+        int chunksId = chunks.getId();
+
+        // Saving a file as it was leaves its program alone
+        touch("fragment_shader.glsl");
+        append("vertex_shader.glsl", "// edited\n");
+        updateUntil(() -> manager.getReloads() == 1);
+        assertEquals(instancedId, instanced.getId());
+        assertNotEquals(chunksId, chunks.getId());
+
+        // Both programs include the camera
+        chunksId = chunks.getId();
+        append("camera.glsl", "// edited\n");
+        updateUntil(() -> manager.getReloads() == 3);
+        assertNotEquals(instancedId, instanced.getId());
+        assertNotEquals(chunksId, chunks.getId());
+        assertEquals(0, manager.getReloadFailures());
+    }
+
+    @Test
+    void aBrokenReloadKeepsThePreviousVersion() throws IOException, InterruptedException {
+        manager.watch(sources);
+        int instancedId = instanced.getId();
+        int chunksId = chunks.getId();
+
+        append("camera.glsl", "#include \"missing.glsl\"\n");
+        updateUntil(() -> manager.getReloadFailures() == 2);
+        assertEquals(0, manager.getReloads());
+        assertEquals(instancedId, instanced.getId());
+        assertEquals(chunksId, chunks.getId());
+    }
+
+    @Test
+    void reloadedProgramsLeaveNothingBehind() throws IOException, InterruptedException {
+        manager.watch(sources);
+        append("camera.glsl", "// edited\n");
+        updateUntil(() -> manager.getReloads() == 2);
+
+        manager.delete();
+        resources.endFrame();
+        assertEquals(0, resources.getLiveCount());
+    }
+}
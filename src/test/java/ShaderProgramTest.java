@@ -0,0 +1,86 @@
+import com.sun.management.ThreadMXBean;
+import org.joml.Matrix4f;
+import org.junit.jupiter.api.Test;
+import rendering.RecordingRenderBackend;
+
+import java.lang.management.ManagementFactory;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+class ShaderProgramTest {
+    private static final int FRAMES = 10_000;
+    private static final int RUNS = 20;
+
+    private static final String VERTEX_SHADER = """
+            #version 330 core
+            layout (location = 0) in vec3 aPos;
+            uniform mat4 viewProjection;
+            void main()
+            {
+                gl_Position = viewProjection * vec4(aPos, 1.0);
+            }""";
+    private static final String FRAGMENT_SHADER = """
+            #version 330 core
+            out vec4 FragColor;
+            uniform int layer;
+            void main()
+            {
+                FragColor = vec4(float(layer));
+            }""";
+
+    private static ShaderProgram createProgram(RecordingRenderBackend backend) {
+        ShaderProgram program = new ShaderProgram(backend);
+        program.attachVertexShader(VERTEX_SHADER);
+        program.attachFragmentShader(FRAGMENT_SHADER);
+        program.link();
+        return program;
+    }
+
+    private static void frames(ShaderProgram program, Matrix4f matrix, int first, int count) {
+        for (int frame = first; frame < first + count; frame++) {
+            // A new value every frame, so every upload goes through to the backend
+            program.setUniform("viewProjection", matrix.translation(frame, 0.0f, 0.0f));
+            program.setUniform("layer", frame);
+        }
+    }
+
+    @Test
+    void uploadingUniformsDoesNotAllocate() {
+        RecordingRenderBackend backend = new RecordingRenderBackend();
+        ShaderProgram program = createProgram(backend);
+        Matrix4f matrix = new Matrix4f();
+        ThreadMXBean threads = (ThreadMXBean) ManagementFactory.getThreadMXBean();
+        long thread = Thread.currentThread().getId();
+
+        /*
+         The JIT can allocate a few bytes on this thread whenever it swaps in newly compiled code, which may happen
+         during any run. An allocation on the upload path itself would show up in every run, so take the least.
+        */
+        long allocated = Long.MAX_VALUE;
+        for (int run = 0; run < RUNS; run++) {
+            long before = threads.getThreadAllocatedBytes(thread);
+            frames(program, matrix, run * FRAMES, FRAMES);
+            allocated = Math.min(allocated, threads.getThreadAllocatedBytes(thread) - before);
+        }
+
+        assertEquals(0, allocated, "bytes allocated uploading uniforms for " + FRAMES + " frames");
+    }
+
+    @Test
+    void unchangedUniformsAreNotUploaded() {
+        RecordingRenderBackend backend = new RecordingRenderBackend();
+        ShaderProgram program = createProgram(backend);
+        Matrix4f matrix = new Matrix4f().translation(1.0f, 2.0f, 3.0f);
+        program.setUniform("viewProjection", matrix);
+        program.setUniform("layer", 1);
+
+        long calls = backend.getCalls();
+        program.setUniform("viewProjection", new Matrix4f(matrix));
+        program.setUniform("layer", 1);
+        program.setUniform("missing", matrix);
+        assertEquals(calls, backend.getCalls());
+
+        program.setUniform("layer", 2);
+        assertEquals(calls + 1, backend.getCalls());
+    }
+}
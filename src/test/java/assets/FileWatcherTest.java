@@ -0,0 +1,50 @@
+package assets;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Set;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+
+class FileWatcherTest {
+    private static final long DEBOUNCE_MILLIS = 100;
+
+    @TempDir
+    Path directory;
+
+    @Test
+    void changesAreReportedOncePerFileAfterTheFolderIsQuiet() throws IOException, InterruptedException {
+        Files.createDirectory(directory.resolve("include"));
+        LinkedBlockingQueue<Set<String>> reports = new LinkedBlockingQueue<>();
+        try (FileWatcher watcher = new FileWatcher(directory, DEBOUNCE_MILLIS, reports::add)) {
+            // Several writes to the same file, like an editor saving it
+            for (int i = 0; i < 3; i++) {
+                Files.writeString(directory.resolve("main.glsl"), "void main() {}\n".repeat(i + 1));
+            }
+            Files.writeString(directory.resolve("include/camera.glsl"), "uniform mat4 viewProjection;\n");
+
+            assertEquals(Set.of("main.glsl", "include/camera.glsl"), reports.poll(10, TimeUnit.SECONDS));
+            assertNull(reports.poll(DEBOUNCE_MILLIS * 3, TimeUnit.MILLISECONDS));
+        }
+    }
+
+    @Test
+    void filesInNewFoldersAreWatchedToo() throws IOException, InterruptedException {
+        LinkedBlockingQueue<Set<String>> reports = new LinkedBlockingQueue<>();
+        try (FileWatcher watcher = new FileWatcher(directory, DEBOUNCE_MILLIS, reports::add)) {
+            Files.createDirectory(directory.resolve("new"));
+            // Give the watcher a moment to start watching the new folder
+            Thread.sleep(DEBOUNCE_MILLIS);
+            Files.writeString(directory.resolve("new/file.glsl"), "// new\n");
+
+            assertEquals(Set.of("new/file.glsl"), reports.poll(10, TimeUnit.SECONDS));
+        }
+    }
+}
@@ -0,0 +1,137 @@
+package assets;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class MeshFileTest {
+    private static final int STRIDE = MeshFile.VERTEX_FLOATS * Float.BYTES;
+    private static final float[] BOUNDS = {-1.0f, -2.0f, -3.0f, 1.0f, 2.0f, 3.0f};
+    // Big enough that the file is mapped rather than read
+    private static final int LARGE_VERTICES = 16 * 1024;
+    private static final int SMALL_VERTICES = 64;
+
+    @TempDir
+    Path directory;
+
+    /**
+     * A strip of vertices with varied but repeatable values, and two triangles per vertex.
+     */
+    private static ByteBuffer vertices(int count) {
+        ByteBuffer vertices = ByteBuffer.allocateDirect(count * STRIDE).order(ByteOrder.nativeOrder());
+        for (int i = 0; i < count * MeshFile.VERTEX_FLOATS; i++) {
+            vertices.putFloat((float) Math.sin(i) * (i % 7));
+        }
+        return vertices.flip();
+    }
+
+    private static ByteBuffer indices(int vertexCount) {
+        ByteBuffer indices = ByteBuffer.allocateDirect(vertexCount * 6 * Integer.BYTES).order(ByteOrder.nativeOrder());
+        for (int i = 0; i < vertexCount * 6; i++) {
+            indices.putInt((i * 31) % vertexCount);
+        }
+        return indices.flip();
+    }
+
+    private Path write(String name, int vertexCount, int compressionLevel) throws IOException {
+        Path path = directory.resolve(name);
+        MeshFile.write(path, vertexCount, BOUNDS, vertices(vertexCount), indices(vertexCount), compressionLevel);
+        return path;
+    }
+
+    private static void assertRoundTrip(int vertexCount, MeshData mesh) {
+        try {
+            assertEquals(vertexCount, mesh.getVertexCount());
+            assertEquals(vertexCount * 6, mesh.getIndexCount());
+            assertEquals(STRIDE, mesh.getVertexStride());
+            assertArrayEquals(BOUNDS, mesh.getBounds());
+            assertEquals(vertices(vertexCount), mesh.getVertices());
+            assertEquals(indices(vertexCount), mesh.getIndices());
+        } finally {
+            mesh.free();
+        }
+    }
+
+    @Test
+    void roundTripsThroughTheReadAndMapPaths() throws IOException {
+        for (int vertexCount : new int[]{SMALL_VERTICES, LARGE_VERTICES}) {
+            for (int level : new int[]{0, 3}) {
+                Path path = write("mesh-" + vertexCount + "-" + level + ".mesh", vertexCount, level);
+                assertRoundTrip(vertexCount, MeshLoader.load(path));
+            }
+        }
+    }
+
+    @Test
+    void compressedFilesAreSmaller() throws IOException {
+        long raw = Files.size(write("raw.mesh", LARGE_VERTICES, 0));
+        long compressed = Files.size(write("compressed.mesh", LARGE_VERTICES, 3));
+        assertEquals(MeshFile.HEADER_BYTES + (long) LARGE_VERTICES * (STRIDE + 6 * Integer.BYTES), raw);
+        assertTrue(compressed < raw, compressed + " compressed bytes, " + raw + " raw");
+    }
+
+    @Test
+    void badFilesAreRejected() throws IOException {
+        Path notMesh = directory.resolve("not.mesh");
+        Files.write(notMesh, new byte[MeshFile.HEADER_BYTES]);
+        assertEquals("Not a mesh file",
+                assertThrows(IllegalStateException.class, () -> MeshLoader.load(notMesh)).getMessage());
+
+        Path truncated = write("truncated.mesh", SMALL_VERTICES, 0);
+        byte[] bytes = Files.readAllBytes(truncated);
+        Files.write(truncated, Arrays.copyOf(bytes, bytes.length - 4));
+        assertEquals("Mesh file is truncated or corrupt",
+                assertThrows(IllegalStateException.class, () -> MeshLoader.load(truncated)).getMessage());
+
+        // The version is the second int of the header, little-endian
+        Path version = write("version.mesh", SMALL_VERTICES, 0);
+        bytes = Files.readAllBytes(version);
+        bytes[Integer.BYTES] = (byte) (MeshFile.VERSION + 1);
+        Files.write(version, bytes);
+        assertEquals("Unsupported mesh file version " + (MeshFile.VERSION + 1),
+                assertThrows(IllegalStateException.class, () -> MeshLoader.load(version)).getMessage());
+    }
+
+    @Test
+    void loaderHandsBackMeshesAndErrors() throws IOException, InterruptedException {
+        Path mesh = write("loaded.mesh", LARGE_VERTICES, 3);
+        Path missing = directory.resolve("missing.mesh");
+        try (MeshLoader loader = new MeshLoader(2)) {
+            loader.submit(mesh);
+            loader.submit(missing);
+            long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(10);
+            while (loader.getPending() > 0) {
+                assertTrue(System.nanoTime() < deadline, "timed out waiting for the loader");
+                Thread.sleep(1);
+            }
+
+            for (int i = 0; i < 2; i++) {
+                MeshLoader.Result result = loader.poll();
+                assertNotNull(result);
+                if (result.getPath().equals(mesh)) {
+                    assertNull(result.getError());
+                    assertRoundTrip(LARGE_VERTICES, result.getMesh());
+                } else {
+                    assertEquals(missing, result.getPath());
+                    assertNull(result.getMesh());
+                    assertTrue(result.getError() instanceof IOException);
+                }
+            }
+            assertNull(loader.poll());
+        }
+    }
+}
@@ -0,0 +1,95 @@
+package assets;
+
+import org.junit.jupiter.api.Test;
+import org.lwjgl.system.MemoryUtil;
+import rendering.GpuResources;
+import rendering.RecordingRenderBackend;
+import rendering.TextureManager;
+
+import java.nio.ByteBuffer;
+import java.util.EnumSet;
+import java.util.Set;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class TextureDecoderTest {
+    @Test
+    void transcodesToTheBestFormatTheBackendSupports() {
+        // The recording backend supports every compressed format, like a GPU with all of them would
+        TextureManager manager = new TextureManager(new GpuResources(new RecordingRenderBackend()), 0, 1, 1);
+        try {
+            Set<TextureFormat> formats = manager.getFormats();
+            assertEquals(EnumSet.allOf(TextureFormat.class), formats);
+            assertEquals(TextureFormat.BC7, TextureDecoder.chooseTranscodeTarget(formats));
+        } finally {
+            manager.delete();
+        }
+    }
+
+    @Test
+    void transcodeFallsBackInOrder() {
+        Set<TextureFormat> formats = EnumSet.allOf(TextureFormat.class);
+        formats.remove(TextureFormat.BC7);
+        assertEquals(TextureFormat.ASTC_4X4, TextureDecoder.chooseTranscodeTarget(formats));
+        formats.remove(TextureFormat.ASTC_4X4);
+        assertEquals(TextureFormat.ETC2, TextureDecoder.chooseTranscodeTarget(formats));
+        formats.remove(TextureFormat.ETC2);
+        assertEquals(TextureFormat.BC3, TextureDecoder.chooseTranscodeTarget(formats));
+        formats.remove(TextureFormat.BC3);
+        assertEquals(TextureFormat.RGBA8, TextureDecoder.chooseTranscodeTarget(formats));
+        assertEquals(TextureFormat.RGBA8, TextureDecoder.chooseTranscodeTarget(EnumSet.noneOf(TextureFormat.class)));
+    }
+
+    @Test
+    void mipLevelsAverageRoundingToNearest() {
+        // 2 by 2 pixels, whose channels average to 1.5, 2.25, 0.75 and 255
+        ByteBuffer pixels = MemoryUtil.memAlloc(2 * 2 * 4);
+        pixels.put(new byte[]{0, 0, 0, (byte) 255, 1, 3, 1, (byte) 255, 2, 3, 1, (byte) 255, 3, 3, 1, (byte) 255})
+                .flip();
+        TextureData data = TextureDecoder.fromRgba(pixels, 2, 2, 0);
+        try {
+            assertEquals(TextureFormat.RGBA8, data.getFormat());
+            assertEquals(2, data.getLevelCount());
+            assertEquals(0, data.getFirstLevel());
+            ByteBuffer level = data.getLevel(1);
+            assertEquals(2, level.get(0));
+            assertEquals(2, level.get(1));
+            assertEquals(1, level.get(2));
+            assertEquals((byte) 255, level.get(3));
+        } finally {
+            data.free();
+            MemoryUtil.memFree(pixels);
+        }
+    }
+
+    @Test
+    void decodingCanStartAtAnyLevel() {
+        ByteBuffer pixels = MemoryUtil.memCalloc(8 * 4 * 4);
+        TextureData data = TextureDecoder.fromRgba(pixels, 8, 4, 2);
+        try {
+            // 8 by 4, 4 by 2, 2 by 1 and 1 by 1, from the third on
+            assertEquals(4, data.getLevelCount());
+            assertEquals(2, data.getFirstLevel());
+            assertEquals(2 * 4, data.getLevel(2).remaining());
+            assertEquals(4, data.getLevel(3).remaining());
+        } finally {
+            data.free();
+            MemoryUtil.memFree(pixels);
+        }
+    }
+
+    @Test
+    void recognisesKtx2Files() {
+        ByteBuffer file = MemoryUtil.memCalloc(16);
+        try {
+            assertFalse(TextureDecoder.isKtx2(file));
+            file.put(new byte[]{(byte) 0xAB, 'K', 'T', 'X', ' ', '2', '0', (byte) 0xBB, '\r', '\n', 0x1A, '\n'})
+                    .rewind();
+            assertTrue(TextureDecoder.isKtx2(file));
+        } finally {
+            MemoryUtil.memFree(file);
+        }
+    }
+}
@@ -0,0 +1,74 @@
+package capture;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+class ReplayerTest {
+    @TempDir
+    Path directory;
+
+    private Path writeCapture(int frames, boolean commands) throws IOException {
+        Path path = directory.resolve("session.capture");
+        CapturedFrame frame = new CapturedFrame(1);
+        try (CaptureWriter writer = new CaptureWriter(path, 1, commands)) {
+            for (int i = 0; i < frames; i++) {
+                frame.setInput(i * 1000L, 0.016f, CapturedFrame.KEY_FORWARD);
+                frame.setCamera(0.0f, 0.0f, -i, 0.0f, 0.0f, 0.0f);
+                frame.getState()[0] = i;
+                frame.setCommands(10, 5, 2);
+                writer.write(frame);
+            }
+        }
+        return path;
+    }
+
+    /**
+     * Moves the camera one forward a frame and takes the captured commands, except where told otherwise.
+     */
+    private static Replayer.Target target(List<Integer> keys, int wrongCameraFrame, int wrongCommandsFrame) {
+        return (captured, replayed) -> {
+            int frame = keys.size();
+            keys.add(captured.getKeys());
+            float z = frame == wrongCameraFrame ? 1.0f : -frame;
+            replayed.setCamera(0.0f, 0.0f, z, 0.0f, 0.0f, 0.0f);
+            replayed.setCommands(10, frame == wrongCommandsFrame ? 6 : 5, 2);
+            return 100 + frame;
+        };
+    }
+
+    @Test
+    void replaysEveryFrameAndCountsTheOnesThatDiverged() throws IOException {
+        List<Integer> keys = new ArrayList<>();
+        long[] frameTimes = new long[4];
+        try (CaptureReader reader = new CaptureReader(writeCapture(4, true))) {
+            assertEquals(2, new Replayer(reader).run(target(keys, 1, 3), frameTimes));
+        }
+        assertEquals(List.of(CapturedFrame.KEY_FORWARD, CapturedFrame.KEY_FORWARD, CapturedFrame.KEY_FORWARD,
+                CapturedFrame.KEY_FORWARD), keys);
+        assertArrayEquals(new long[]{100, 101, 102, 103}, frameTimes);
+    }
+
+    @Test
+    void commandsAreOnlyComparedIfTheyWereCaptured() throws IOException {
+        try (CaptureReader reader = new CaptureReader(writeCapture(4, false))) {
+            assertEquals(1, new Replayer(reader).run(target(new ArrayList<>(), 1, 3), new long[4]));
+        }
+    }
+
+    @Test
+    void rejectsTooFewFrameTimes() throws IOException {
+        try (CaptureReader reader = new CaptureReader(writeCapture(4, true))) {
+            assertThrows(IllegalArgumentException.class,
+                    () -> new Replayer(reader).run(target(new ArrayList<>(), -1, -1), new long[3]));
+        }
+    }
+}
@@ -0,0 +1,84 @@
+package memory;
+
+import org.junit.jupiter.api.Test;
+import org.lwjgl.system.MemoryUtil;
+
+import java.nio.ByteBuffer;
+import java.nio.FloatBuffer;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+class BufferPoolTest {
+    private final CountingAllocator allocator = new CountingAllocator();
+    private final BufferPool pool = new BufferPool(allocator, "buffer pool test");
+
+    @Test
+    void freedBuffersAreReusedBySizeClass() {
+        ByteBuffer a = pool.allocate(100);
+        long address = MemoryUtil.memAddress(a);
+        pool.free(a);
+        // 100 and 128 bytes are both in the 128 byte class
+        ByteBuffer b = pool.allocate(128);
+        assertEquals(address, MemoryUtil.memAddress(b));
+        assertEquals(128, b.capacity());
+        // A float buffer of the same size comes from the same class
+        pool.free(b);
+        FloatBuffer floats = pool.allocateFloats(32);
+        assertEquals(address, MemoryUtil.memAddress(floats));
+        pool.free(floats);
+        assertEquals(1, allocator.getMallocs());
+
+        // Another class needs another block
+        pool.free(pool.allocate(129));
+        assertEquals(2, allocator.getMallocs());
+        pool.trim();
+        assertEquals(0, allocator.getLive());
+    }
+
+    @Test
+    void statsCountSizeClasses() {
+        ByteBuffer a = pool.allocate(10);
+        MemoryStats stats = pool.getStats();
+        // Everything below 64 bytes takes the smallest class
+        assertEquals(64, stats.getInUse());
+        assertEquals(64, stats.getReserved());
+        pool.free(a);
+        assertEquals(0, stats.getInUse());
+        assertEquals(64, stats.getReserved());
+        assertEquals(64, stats.getPeak());
+        pool.trim();
+        assertEquals(0, stats.getReserved());
+    }
+
+    @Test
+    void largeBuffersGoStraightBack() {
+        int large = (1 << 20) + 1;
+        pool.free(pool.allocate(large));
+        assertEquals(0, allocator.getLive());
+        pool.free(pool.allocate(large));
+        assertEquals(2, allocator.getMallocs());
+        assertEquals(0, pool.getStats().getReserved());
+    }
+
+    @Test
+    void classesOnlyKeepSoManyBytes() {
+        // 4 MiB per class, four 1 MiB blocks
+        ByteBuffer[] buffers = new ByteBuffer[6];
+        for (int i = 0; i < buffers.length; i++) {
+            buffers[i] = pool.allocate(1 << 20);
+        }
+        for (ByteBuffer buffer : buffers) {
+            pool.free(buffer);
+        }
+        assertEquals(4, allocator.getLive());
+        assertEquals(4L << 20, pool.getStats().getReserved());
+        pool.trim();
+        assertEquals(0, allocator.getLive());
+    }
+
+    @Test
+    void freeingNullDoesNothing() {
+        pool.free(null);
+        assertEquals(0, pool.getStats().getInUse());
+    }
+}
@@ -0,0 +1,38 @@
+package memory;
+
+/**
+ * Takes memory from the system allocator and counts the blocks it hands out, for tests to check when arenas and
+ * pools go to the native allocator.
+ */
+class CountingAllocator implements NativeAllocator {
+    private int mallocs;
+    private int frees;
+
+    @Override
+    public long malloc(long bytes) {
+        mallocs++;
+        return StandardAllocator.SYSTEM.malloc(bytes);
+    }
+
+    @Override
+    public void free(long address) {
+        frees++;
+        StandardAllocator.SYSTEM.free(address);
+    }
+
+    @Override
+    public String getName() {
+        return "counting";
+    }
+
+    int getMallocs() {
+        return mallocs;
+    }
+
+    /**
+     * @return the number of blocks handed out and not freed yet
+     */
+    int getLive() {
+        return mallocs - frees;
+    }
+}
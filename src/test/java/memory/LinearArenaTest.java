@@ -0,0 +1,109 @@
+package memory;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.lwjgl.system.MemoryUtil;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.FloatBuffer;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+class LinearArenaTest {
+    private static final int BLOCK = 1024;
+    // Blocks made for a single allocation have room to align it as well
+    private static final int ALIGNMENT = 16;
+
+    private final CountingAllocator allocator = new CountingAllocator();
+    private final LinearArena arena = new LinearArena(allocator, BLOCK, "linear arena test");
+
+    @AfterEach
+    void close() {
+        arena.close();
+        assertEquals(0, allocator.getLive());
+        assertEquals(0, arena.getStats().getReserved());
+    }
+
+    @Test
+    void allocationsAreAligned() {
+        arena.allocate(1);
+        assertEquals(0, MemoryUtil.memAddress(arena.allocate(3)) % 16);
+        arena.allocateAddress(1, 1);
+        assertEquals(0, arena.allocateAddress(8, 64) % 64);
+        FloatBuffer floats = arena.allocateFloats(5);
+        assertEquals(5, floats.capacity());
+        assertEquals(0, MemoryUtil.memAddress(floats) % 16);
+        assertEquals(ByteOrder.nativeOrder(), arena.allocate(4).order());
+    }
+
+    @Test
+    void allocationsDontOverlap() {
+        ByteBuffer a = arena.allocate(100);
+        ByteBuffer b = arena.allocate(100);
+        for (int i = 0; i < 100; i++) {
+            a.put(i, (byte) 1);
+            b.put(i, (byte) 2);
+        }
+        for (int i = 0; i < 100; i++) {
+            assertEquals(1, a.get(i));
+        }
+    }
+
+    @Test
+    void blocksAreKeptAcrossResets() {
+        for (int frame = 0; frame < 10; frame++) {
+            // Three blocks' worth, and one allocation bigger than a block
+            for (int i = 0; i < 3; i++) {
+                arena.allocate(BLOCK - 64);
+            }
+            arena.allocate(4 * BLOCK);
+            arena.reset();
+        }
+        assertEquals(4, allocator.getMallocs());
+        assertEquals(0, arena.getStats().getInUse());
+        assertEquals(3L * BLOCK + 4 * BLOCK + ALIGNMENT, arena.getStats().getReserved());
+    }
+
+    @Test
+    void aTooSmallBlockIsReplaced() {
+        arena.allocate(BLOCK / 2);
+        arena.allocate(BLOCK / 2 + ALIGNMENT);
+        arena.reset();
+        arena.allocate(BLOCK / 2);
+        // The second block only holds a block, so it makes way for a bigger one
+        arena.allocate(2 * BLOCK);
+        assertEquals(3, allocator.getMallocs());
+        assertEquals(2, allocator.getLive());
+        assertEquals(BLOCK + 2L * BLOCK + ALIGNMENT, arena.getStats().getReserved());
+    }
+
+    @Test
+    void resetToAMarkFreesWhatCameAfter() {
+        long first = arena.allocateAddress(100, 16);
+        long mark = arena.mark();
+        long second = arena.allocateAddress(100, 16);
+        // Into a second block
+        arena.allocateAddress(BLOCK, 16);
+        arena.reset(mark);
+        assertEquals(second, arena.allocateAddress(100, 16));
+        assertEquals(first + 112, second);
+        arena.reset();
+        assertEquals(first, arena.allocateAddress(100, 16));
+    }
+
+    @Test
+    void statsFollowTheArena() {
+        arena.allocate(100);
+        long mark = arena.mark();
+        arena.allocate(200);
+        MemoryStats stats = arena.getStats();
+        assertEquals(2, stats.getAllocations());
+        long peak = stats.getInUse();
+        assertEquals(peak, stats.getPeak());
+        arena.reset(mark);
+        assertEquals(100, stats.getInUse());
+        assertEquals(peak, stats.getPeak());
+        assertEquals(BLOCK, stats.getReserved());
+    }
+}
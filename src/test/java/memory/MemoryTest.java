@@ -0,0 +1,54 @@
+package memory;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotSame;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class MemoryTest {
+    @Test
+    void releasingTheThreadArenaFreesItAndDropsItsStats() {
+        LinearArena arena = Memory.thread();
+        assertSame(arena, Memory.thread());
+        arena.allocate(1024);
+        MemoryStats stats = arena.getStats();
+        assertTrue(stats.getReserved() > 0);
+        assertTrue(Memory.summary().contains(stats.getName()));
+
+        Memory.releaseThread();
+        assertEquals(0, stats.getReserved());
+        assertFalse(Memory.summary().contains(stats.toString()));
+        // The next use starts over
+        LinearArena next = Memory.thread();
+        assertNotSame(arena, next);
+        Memory.releaseThread();
+        // Nothing to release twice
+        Memory.releaseThread();
+    }
+
+    @Test
+    void poolWorkersReleaseTheirArenasWhenTheyRetire() throws InterruptedException {
+        ForkJoinPool pool = new ForkJoinPool(2, Memory.workerThreads("memory-test"), null, false);
+        MemoryStats[] stats = new MemoryStats[1];
+        pool.submit(() -> {
+            LinearArena scratch = Memory.thread();
+            long mark = scratch.mark();
+            scratch.allocate(4096);
+            scratch.reset(mark);
+            stats[0] = scratch.getStats();
+        }).join();
+        assertTrue(stats[0].getName().startsWith("thread memory-test-"));
+        assertTrue(Memory.summary().contains(stats[0].getName()));
+
+        pool.shutdown();
+        assertTrue(pool.awaitTermination(10, TimeUnit.SECONDS));
+        assertEquals(0, stats[0].getReserved());
+        assertFalse(Memory.summary().contains(stats[0].getName()));
+    }
+}
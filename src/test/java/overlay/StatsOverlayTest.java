@@ -0,0 +1,69 @@
+package overlay;
+
+import memory.LinearArena;
+import memory.Memory;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import profiling.FrameProfiler;
+import rendering.GpuResources;
+import rendering.RecordingRenderBackend;
+import rendering.StateTracker;
+import rendering.TextureManager;
+import voxel.ChunkRenderer;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class StatsOverlayTest {
+    private static final long REFRESH_NANOS = 250_000_000L;
+
+    private final RecordingRenderBackend backend = new RecordingRenderBackend();
+    private final GpuResources resources = new GpuResources(backend);
+    private final GlyphAtlas atlas = GlyphAtlas.empty();
+    private final OverlayRenderer overlay = new OverlayRenderer(resources, atlas);
+    private final FrameProfiler profiler = new FrameProfiler(16, "a", "b");
+    private final ChunkRenderer chunks = new ChunkRenderer(resources);
+    private final StateTracker tracker = new StateTracker(backend);
+    private final TextureManager textures = new TextureManager(resources, 1024 * 1024);
+    private final LinearArena frame = new LinearArena(Memory.allocator(), 64 * 1024, "stats overlay test");
+    private final StatsOverlay stats = new StatsOverlay(overlay, profiler);
+
+    @AfterEach
+    void delete() {
+        overlay.delete();
+        chunks.delete();
+        textures.delete();
+        atlas.free();
+        frame.close();
+    }
+
+    private boolean update(long now) {
+        boolean built = stats.update(now, frame, 60.0, chunks, tracker, textures);
+        frame.reset();
+        return built;
+    }
+
+    @Test
+    void statsAreLaidOutAFewTimesASecond() {
+        long now = System.nanoTime();
+        assertTrue(update(now));
+        assertEquals(1, overlay.getBuildCount());
+        assertFalse(update(now + REFRESH_NANOS - 1));
+        assertEquals(1, overlay.getBuildCount());
+        assertTrue(update(now + REFRESH_NANOS));
+        assertEquals(2, overlay.getBuildCount());
+    }
+
+    @Test
+    void withoutAFontOnlyTheBackgroundAndGraphAreDrawn() {
+        for (int i = 0; i < 3; i++) {
+            profiler.beginFrame();
+            profiler.endFrame();
+        }
+        update(System.nanoTime());
+        // The background, a bar for each frame and the target line
+        assertEquals(1 + 3 + 1, overlay.getQuadCount());
+        assertEquals(0, overlay.getDroppedQuads());
+    }
+}
@@ -0,0 +1,209 @@
+package physics;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Random;
+import java.util.Set;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class BroadphaseTest {
+    // Enough objects that rebuilding and finding pairs are split over the pool
+    private static final int OBJECTS = 5000;
+    private static final float SPACE = 100.0f;
+    private static final float CELL_SIZE = 2.0f;
+    private static final int QUERIES = 500;
+
+    private final Random random = new Random(42);
+    private final Broadphase broadphase = new Broadphase(CELL_SIZE);
+    private float[] boxes = new float[OBJECTS * 6];
+
+    /**
+     * Random boxes, mostly around the cell size, a few much larger than a cell and a few flat or a single point.
+     */
+    private void fill() {
+        for (int i = 0; i < OBJECTS; i++) {
+            float size = i % 500 == 0 ? 40.0f : i % 97 == 0 ? 0.0f : 0.1f + random.nextFloat() * 4.0f;
+            setBox(i, size);
+            assertEquals(i, broadphase.add(boxes[i * 6], boxes[i * 6 + 1], boxes[i * 6 + 2], boxes[i * 6 + 3],
+                    boxes[i * 6 + 4], boxes[i * 6 + 5]));
+        }
+    }
+
+    private void setBox(int id, float size) {
+        for (int axis = 0; axis < 3; axis++) {
+            float min = random.nextFloat() * SPACE - SPACE / 2.0f;
+            boxes[id * 6 + axis] = min;
+            boxes[id * 6 + axis + 3] = min + size * random.nextFloat();
+        }
+    }
+
+    private static boolean overlaps(float[] boxes, int id, float minX, float minY, float minZ, float maxX,
+                                    float maxY, float maxZ) {
+        int o = id * 6;
+        return boxes[o] <= maxX && minX <= boxes[o + 3] && boxes[o + 1] <= maxY && minY <= boxes[o + 4]
+                && boxes[o + 2] <= maxZ && minZ <= boxes[o + 5];
+    }
+
+    private Set<Long> bruteForcePairs(boolean[] alive) {
+        Set<Long> pairs = new HashSet<>();
+        for (int a = 0; a < OBJECTS; a++) {
+            for (int b = a + 1; b < OBJECTS; b++) {
+                int o = b * 6;
+                if (alive[a] && alive[b] && overlaps(boxes, a, boxes[o], boxes[o + 1], boxes[o + 2], boxes[o + 3],
+                        boxes[o + 4], boxes[o + 5])) {
+                    pairs.add(pair(a, b));
+                }
+            }
+        }
+        return pairs;
+    }
+
+    private static long pair(int a, int b) {
+        return (long) Math.min(a, b) << 32 | Math.max(a, b);
+    }
+
+    private Set<Long> foundPairs() {
+        int count = broadphase.findPairs();
+        assertEquals(count, broadphase.getPairCount());
+        int[] pairs = broadphase.getPairs();
+        Set<Long> found = new HashSet<>();
+        for (int i = 0; i < count; i++) {
+            // Each pair is reported once
+            assertTrue(found.add(pair(pairs[i * 2], pairs[i * 2 + 1])));
+        }
+        return found;
+    }
+
+    @Test
+    void pairsMatchBruteForce() {
+        fill();
+        boolean[] alive = new boolean[OBJECTS];
+        Arrays.fill(alive, true);
+        Set<Long> expected = bruteForcePairs(alive);
+        assertTrue(expected.size() > 100, expected.size() + " pairs");
+        assertEquals(expected, foundPairs());
+
+        // Move some objects and remove others, the next pairs see all of it
+        for (int i = 0; i < OBJECTS; i += 10) {
+            setBox(i, 3.0f);
+            broadphase.update(i, boxes[i * 6], boxes[i * 6 + 1], boxes[i * 6 + 2], boxes[i * 6 + 3],
+                    boxes[i * 6 + 4], boxes[i * 6 + 5]);
+        }
+        for (int i = 5; i < OBJECTS; i += 50) {
+            broadphase.remove(i);
+            alive[i] = false;
+        }
+        assertEquals(bruteForcePairs(alive), foundPairs());
+    }
+
+    @Test
+    void boxQueriesMatchBruteForce() {
+        fill();
+        int[] results = new int[OBJECTS];
+        for (int query = 0; query < QUERIES; query++) {
+            float minX = random.nextFloat() * SPACE - SPACE / 2.0f;
+            float minY = random.nextFloat() * SPACE - SPACE / 2.0f;
+            float minZ = random.nextFloat() * SPACE - SPACE / 2.0f;
+            float size = random.nextFloat() * 10.0f;
+            Set<Integer> expected = new HashSet<>();
+            for (int i = 0; i < OBJECTS; i++) {
+                if (overlaps(boxes, i, minX, minY, minZ, minX + size, minY + size, minZ + size)) {
+                    expected.add(i);
+                }
+            }
+
+            int count = broadphase.query(minX, minY, minZ, minX + size, minY + size, minZ + size, results, 0,
+                    results.length);
+            Set<Integer> found = new HashSet<>();
+            for (int i = 0; i < count; i++) {
+                assertTrue(found.add(results[i]), "reported twice: " + results[i]);
+            }
+            assertEquals(expected, found);
+        }
+    }
+
+    @Test
+    void rayHitsMatchBruteForce() {
+        fill();
+        RayHit hit = new RayHit();
+        for (int ray = 0; ray < QUERIES; ray++) {
+            float originX = random.nextFloat() * SPACE - SPACE / 2.0f;
+            float originY = random.nextFloat() * SPACE - SPACE / 2.0f;
+            float originZ = random.nextFloat() * SPACE - SPACE / 2.0f;
+            float directionX = (float) random.nextGaussian();
+            float directionY = (float) random.nextGaussian();
+            float directionZ = (float) random.nextGaussian();
+            float maxDistance = 50.0f;
+
+            float length = (float) Math.sqrt(directionX * directionX + directionY * directionY
+                    + directionZ * directionZ);
+            float nearest = maxDistance;
+            for (int i = 0; i < OBJECTS; i++) {
+                nearest = Math.min(nearest, distance(i, originX, originY, originZ, directionX / length,
+                        directionY / length, directionZ / length));
+            }
+
+            boolean found = broadphase.raycast(originX, originY, originZ, directionX, directionY, directionZ,
+                    maxDistance, hit);
+            assertEquals(nearest < maxDistance, found);
+            assertEquals(nearest, hit.getDistance(), 1.0e-4f);
+            if (found) {
+                assertEquals(hit.getDistance(), distance(hit.getObject(), originX, originY, originZ,
+                        directionX / length, directionY / length, directionZ / length), 1.0e-4f);
+            }
+        }
+    }
+
+    /**
+     * @return how far along a unit ray it enters an object's box, 0 if it starts inside, infinity if it misses
+     */
+    private float distance(int id, float originX, float originY, float originZ, float directionX, float directionY,
+                           float directionZ) {
+        float near = 0.0f;
+        float far = Float.POSITIVE_INFINITY;
+        float[] origin = {originX, originY, originZ};
+        float[] direction = {directionX, directionY, directionZ};
+        for (int axis = 0; axis < 3; axis++) {
+            float t0 = (boxes[id * 6 + axis] - origin[axis]) / direction[axis];
+            float t1 = (boxes[id * 6 + axis + 3] - origin[axis]) / direction[axis];
+            near = Math.max(near, Math.min(t0, t1));
+            far = Math.min(far, Math.max(t0, t1));
+        }
+        return near <= far ? near : Float.POSITIVE_INFINITY;
+    }
+
+    @Test
+    void removedIdsAreReused() {
+        int first = broadphase.add(0.0f, 0.0f, 0.0f, 1.0f, 1.0f, 1.0f);
+        int second = broadphase.add(0.5f, 0.5f, 0.5f, 1.5f, 1.5f, 1.5f);
+        assertEquals(1, broadphase.findPairs());
+
+        broadphase.remove(first);
+        assertFalse(broadphase.isAlive(first));
+        assertEquals(1, broadphase.getObjectCount());
+        assertEquals(0, broadphase.findPairs());
+        assertThrows(IllegalArgumentException.class, () -> broadphase.remove(first));
+        assertThrows(IllegalArgumentException.class, () -> broadphase.update(first, 0, 0, 0, 1, 1, 1));
+
+        assertEquals(first, broadphase.add(1.0f, 1.0f, 1.0f, 2.0f, 2.0f, 2.0f));
+        assertTrue(broadphase.isAlive(second));
+        assertEquals(1, broadphase.findPairs());
+    }
+
+    @Test
+    void rejectsBadCellSizesAndRays() {
+        assertThrows(IllegalArgumentException.class, () -> new Broadphase(0.0f));
+        assertThrows(IllegalArgumentException.class, () -> new Broadphase(Float.NaN));
+        RayHit hit = new RayHit();
+        assertThrows(IllegalArgumentException.class,
+                () -> broadphase.raycast(0.0f, 0.0f, 0.0f, 0.0f, 0.0f, 0.0f, 1.0f, hit));
+        assertThrows(IllegalArgumentException.class,
+                () -> broadphase.raycast(0.0f, 0.0f, 0.0f, 1.0f, 0.0f, 0.0f, Float.POSITIVE_INFINITY, hit));
+    }
+}
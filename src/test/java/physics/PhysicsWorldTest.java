@@ -0,0 +1,160 @@
+package physics;
+
+import org.joml.Vector3f;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import voxel.World;
+
+import java.util.HashSet;
+import java.util.Random;
+import java.util.Set;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class PhysicsWorldTest {
+    private static final short STONE = 1;
+    private static final float EPSILON = 1.0e-4f;
+
+    private final World world = new World();
+    private final Broadphase objects = new Broadphase(2.0f);
+    private final PhysicsWorld physics = new PhysicsWorld(world, objects);
+    private final RayHit hit = new RayHit();
+    private final Vector3f movement = new Vector3f();
+
+    /**
+     * A floor at y = -1 from -8 to 8, crossing chunk borders, and a wall at x = 4 two blocks high.
+     */
+    @BeforeEach
+    void build() {
+        for (int x = -8; x <= 8; x++) {
+            for (int z = -8; z <= 8; z++) {
+                world.setBlock(x, -1, z, STONE);
+            }
+        }
+        for (int z = -8; z <= 8; z++) {
+            world.setBlock(4, 0, z, STONE);
+            world.setBlock(4, 1, z, STONE);
+        }
+    }
+
+    @Test
+    void raysStopAtTheFirstSolidBlock() {
+        assertTrue(physics.raycast(0.5f, 0.5f, 0.5f, 1.0f, 0.0f, 0.0f, 100.0f, hit));
+        assertTrue(hit.isBlock());
+        assertEquals(STONE, hit.getBlock());
+        assertEquals(4, hit.getBlockX());
+        assertEquals(0, hit.getBlockY());
+        assertEquals(3.5f, hit.getDistance(), EPSILON);
+        assertEquals(-1, hit.getNormalX());
+
+        // Straight down onto the floor, from a direction that isn't unit length
+        assertTrue(physics.raycast(-2.5f, 3.0f, -2.5f, 0.0f, -5.0f, 0.0f, 100.0f, hit));
+        assertEquals(-1, hit.getBlockY());
+        assertEquals(3.0f, hit.getDistance(), EPSILON);
+        assertEquals(1, hit.getNormalY());
+
+        // A diagonal ray hits the floor where it crosses y = 0
+        assertTrue(physics.raycast(0.5f, 2.0f, 0.5f, 1.0f, -1.0f, 0.0f, 100.0f, hit));
+        assertEquals(2, hit.getBlockX());
+        assertEquals(2.0f * (float) Math.sqrt(2.0), hit.getDistance(), EPSILON);
+
+        // Too short, or pointing at nothing
+        assertFalse(physics.raycast(0.5f, 0.5f, 0.5f, 1.0f, 0.0f, 0.0f, 3.0f, hit));
+        assertEquals(3.0f, hit.getDistance());
+        assertFalse(physics.raycast(0.5f, 0.5f, 0.5f, 0.0f, 1.0f, 0.0f, 100.0f, hit));
+    }
+
+    @Test
+    void raysHitObjectsInFrontOfBlocks() {
+        int object = objects.add(2.0f, 0.0f, 0.0f, 3.0f, 1.0f, 1.0f);
+        assertTrue(physics.raycast(0.5f, 0.5f, 0.5f, 1.0f, 0.0f, 0.0f, 100.0f, hit));
+        assertFalse(hit.isBlock());
+        assertEquals(object, hit.getObject());
+        assertEquals(1.5f, hit.getDistance(), EPSILON);
+
+        // Behind the wall, the wall is hit first
+        objects.update(object, 6.0f, 0.0f, 0.0f, 7.0f, 1.0f, 1.0f);
+        assertTrue(physics.raycast(0.5f, 0.5f, 0.5f, 1.0f, 0.0f, 0.0f, 100.0f, hit));
+        assertTrue(hit.isBlock());
+    }
+
+    @Test
+    void boxesStopAtFloorsAndWallsAndSlideAlongThem() {
+        // Falling onto the floor
+        physics.sweep(0.2f, 0.5f, 0.2f, 0.8f, 1.5f, 0.8f, 0.0f, -2.0f, 0.0f, movement);
+        assertEquals(-0.5f, movement.y, EPSILON);
+
+        // Resting on the floor, moving into the wall diagonally: stopped along X, slides along Z
+        physics.sweep(0.2f, 0.0f, 0.2f, 0.8f, 1.0f, 0.8f, 5.0f, -1.0f, 2.0f, movement);
+        assertEquals(3.2f, movement.x, EPSILON);
+        assertEquals(0.0f, movement.y, EPSILON);
+        assertEquals(2.0f, movement.z, EPSILON);
+
+        // Objects are in the way too
+        objects.add(-3.0f, 0.0f, -1.0f, -2.0f, 1.0f, 2.0f);
+        physics.sweep(0.2f, 0.0f, 0.2f, 0.8f, 1.0f, 0.8f, -5.0f, 0.0f, 0.0f, movement);
+        assertEquals(-2.2f, movement.x, EPSILON);
+    }
+
+    @Test
+    void boxesCanMoveOutOfWhatTheyOverlap() {
+        // Half inside the wall, moving away from it
+        physics.sweep(3.5f, 0.0f, 0.2f, 4.5f, 1.0f, 0.8f, -1.0f, 0.0f, 0.0f, movement);
+        assertEquals(-1.0f, movement.x, EPSILON);
+    }
+
+    @Test
+    void batchesMatchSingleQueries() {
+        Random random = new Random(7);
+        for (int i = 0; i < 200; i++) {
+            float x = random.nextFloat() * 16.0f - 8.0f;
+            float y = random.nextFloat() * 4.0f;
+            float z = random.nextFloat() * 16.0f - 8.0f;
+            objects.add(x, y, z, x + 0.5f, y + 0.5f, z + 0.5f);
+        }
+
+        // Enough rays and boxes to be split over the pool
+        int count = 256;
+        float[] directions = new float[count * 3];
+        float[] corners = new float[count * 2];
+        RayBatch rays = new RayBatch(count);
+        OverlapBatch boxes = new OverlapBatch(count, 16);
+        for (int i = 0; i < count; i++) {
+            for (int axis = 0; axis < 3; axis++) {
+                directions[i * 3 + axis] = random.nextFloat() - 0.5f;
+            }
+            assertEquals(i, rays.add(0.5f, 3.0f, 0.5f, directions[i * 3], directions[i * 3 + 1],
+                    directions[i * 3 + 2], 20.0f));
+            corners[i * 2] = random.nextFloat() * 16.0f - 8.0f;
+            corners[i * 2 + 1] = random.nextFloat() * 16.0f - 8.0f;
+            assertEquals(i, boxes.add(corners[i * 2], 0.0f, corners[i * 2 + 1], corners[i * 2] + 2.0f, 2.0f,
+                    corners[i * 2 + 1] + 2.0f));
+        }
+        physics.raycast(rays);
+        physics.query(boxes);
+
+        int[] results = new int[64];
+        for (int i = 0; i < count; i++) {
+            RayHit batched = rays.getHit(i);
+            physics.raycast(0.5f, 3.0f, 0.5f, directions[i * 3], directions[i * 3 + 1], directions[i * 3 + 2],
+                    20.0f, hit);
+            assertEquals(hit.getDistance(), batched.getDistance(), EPSILON);
+            assertEquals(hit.getObject(), batched.getObject());
+            assertEquals(hit.getBlock(), batched.getBlock());
+
+            int found = objects.query(corners[i * 2], 0.0f, corners[i * 2 + 1], corners[i * 2] + 2.0f, 2.0f,
+                    corners[i * 2 + 1] + 2.0f, results, 0, results.length);
+            assertFalse(boxes.isFull(i));
+            assertEquals(found, boxes.getResultCount(i));
+            Set<Integer> expected = new HashSet<>();
+            Set<Integer> batchedResults = new HashSet<>();
+            for (int result = 0; result < found; result++) {
+                expected.add(results[result]);
+                batchedResults.add(boxes.getResult(i, result));
+            }
+            assertEquals(expected, batchedResults);
+        }
+    }
+}
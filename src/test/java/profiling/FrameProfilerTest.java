@@ -0,0 +1,87 @@
+package profiling;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class FrameProfilerTest {
+    private static final long MILLIS = 1_000_000L;
+    private static final int WARMUP_FRAMES = 60;
+
+    private long now;
+    private final FrameProfiler profiler = new FrameProfiler(() -> now, 128, "update", "draw");
+
+    private void frame(long updateNanos, long drawNanos) {
+        profiler.beginFrame();
+        profiler.begin(0);
+        now += updateNanos;
+        profiler.end(0);
+        profiler.begin(1);
+        now += drawNanos;
+        profiler.end(1);
+        profiler.endFrame();
+    }
+
+    @Test
+    void framesMuchSlowerThanTheMedianAreHitches() {
+        // A slow frame during warmup isn't judged, the median means nothing yet
+        frame(90 * MILLIS, 10 * MILLIS);
+        for (int i = 1; i < WARMUP_FRAMES; i++) {
+            frame(6 * MILLIS, 4 * MILLIS);
+        }
+        assertEquals(0, profiler.getHitchCount());
+
+        // Under twice the median isn't a hitch, over it is
+        frame(9 * MILLIS, 9 * MILLIS);
+        assertEquals(0, profiler.getHitchCount());
+        frame(6 * MILLIS, 19 * MILLIS);
+        assertEquals(1, profiler.getHitchCount());
+        assertEquals(25 * MILLIS, profiler.getLastFrameTime());
+
+        // The record in the ring is flagged
+        long[] record = new long[profiler.getRing().getRecordLength()];
+        assertTrue(profiler.getRing().read(WARMUP_FRAMES + 1, record));
+        assertEquals(WARMUP_FRAMES + 1, record[0]);
+        assertEquals(25 * MILLIS, record[1]);
+        assertEquals(1, record[2]);
+        assertEquals(6 * MILLIS, record[3]);
+        assertEquals(19 * MILLIS, record[4]);
+    }
+
+    @Test
+    void shortFramesAreNeverHitches() {
+        // Ten times the median, but a 5 ms frame doesn't matter
+        for (int i = 0; i < WARMUP_FRAMES; i++) {
+            frame(MILLIS / 4, MILLIS / 4);
+        }
+        frame(2 * MILLIS, 3 * MILLIS);
+        assertEquals(0, profiler.getHitchCount());
+    }
+
+    @Test
+    void phasesAreTimedAndPercentilesKept() {
+        for (int i = 0; i < 100; i++) {
+            frame(i < 99 ? 2 * MILLIS : 40 * MILLIS, 3 * MILLIS);
+        }
+        assertEquals(100, profiler.getFrameCount());
+        assertEquals(100, profiler.getFrameTimes().getCount());
+        assertEquals(5 * MILLIS, profiler.getFrameTimes().getPercentile(50), 5 * MILLIS / 16.0);
+        assertEquals(43 * MILLIS, profiler.getFrameTimes().getMax());
+        assertEquals(40 * MILLIS, profiler.getPhaseTimes(0).getMax());
+        assertEquals(3 * MILLIS, profiler.getPhaseTimes(1).getPercentile(99), 3 * MILLIS / 16.0);
+
+        long[] recent = new long[10];
+        assertEquals(10, profiler.getRecentFrameTimes(recent));
+        assertEquals(43 * MILLIS, recent[9]);
+    }
+
+    @Test
+    void phasesMustNest() {
+        profiler.beginFrame();
+        profiler.begin(0);
+        assertThrows(IllegalStateException.class, () -> profiler.end(1));
+        assertThrows(IllegalStateException.class, profiler::endFrame);
+    }
+}
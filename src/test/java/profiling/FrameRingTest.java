@@ -0,0 +1,53 @@
+package profiling;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class FrameRingTest {
+    private static final int CAPACITY = 4;
+
+    private final FrameRing ring = new FrameRing(CAPACITY, 2);
+    private final long[] out = new long[2];
+
+    private void write(long sequence) {
+        int offset = ring.claim();
+        ring.data()[offset] = sequence;
+        ring.data()[offset + 1] = sequence * 10;
+        ring.publish();
+    }
+
+    @Test
+    void onlyTheLastCapacityRecordsCanBeRead() {
+        for (long sequence = 0; sequence < 10; sequence++) {
+            write(sequence);
+        }
+        assertEquals(10, ring.getWritten());
+        for (long sequence = 6; sequence < 10; sequence++) {
+            assertTrue(ring.read(sequence, out));
+            assertArrayEquals(new long[]{sequence, sequence * 10}, out);
+        }
+        // Overwritten, and not written yet
+        assertFalse(ring.read(5, out));
+        assertFalse(ring.read(10, out));
+    }
+
+    @Test
+    void aRecordBeingOverwrittenIsReportedLost() {
+        for (long sequence = 0; sequence < 10; sequence++) {
+            write(sequence);
+        }
+        // The writer has started on record 10, in the slot of record 6, but not published it
+        int offset = ring.claim();
+        ring.data()[offset] = -1;
+        assertFalse(ring.read(6, out));
+        assertTrue(ring.read(7, out));
+        assertArrayEquals(new long[]{7, 70}, out);
+        ring.publish();
+        assertTrue(ring.read(10, out));
+        assertEquals(-1, out[0]);
+    }
+}
@@ -0,0 +1,80 @@
+package profiling;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class HistogramTest {
+    private static final long MILLIS = 1_000_000L;
+
+    private final Histogram histogram = new Histogram();
+
+    @Test
+    void anEmptyHistogramReportsZeros() {
+        assertEquals(0, histogram.getPercentile(50));
+        assertEquals(0, histogram.getCount());
+        assertEquals(0, histogram.getMin());
+        assertEquals(0, histogram.getMax());
+        assertEquals(0.0, histogram.getMean());
+    }
+
+    @Test
+    void percentilesAreWithinASubBucketOfTheExactValue() {
+        int count = 100_000;
+        for (long value = 1; value <= count; value++) {
+            histogram.record(value * 997);
+        }
+        for (double percentile : new double[]{1, 10, 50, 90, 95, 99, 99.9}) {
+            long exact = (long) Math.ceil(percentile / 100.0 * count) * 997;
+            long reported = histogram.getPercentile(percentile);
+            // Values keep their 5 highest bits, so a bucket is at most 1/16 of its values wide
+            assertTrue(reported >= exact && reported <= exact + exact / 16,
+                    "p" + percentile + " is " + reported + ", exactly " + exact);
+        }
+        assertEquals(997L * count, histogram.getPercentile(100));
+        assertEquals(997, histogram.getMin());
+        assertEquals(997L * count, histogram.getMax());
+        assertEquals(997.0 * (count + 1) / 2, histogram.getMean(), 1e-6);
+    }
+
+    @Test
+    void smallValuesAreExact() {
+        for (long value = 0; value < 32; value++) {
+            histogram.reset();
+            histogram.record(value);
+            histogram.record(1_000_000);
+            assertEquals(value, histogram.getPercentile(50));
+        }
+    }
+
+    @Test
+    void aRareSpikeOnlyShowsInTheTail() {
+        // 990 smooth frames and 10 hitches
+        for (int i = 0; i < 990; i++) {
+            histogram.record(16 * MILLIS);
+        }
+        for (int i = 0; i < 10; i++) {
+            histogram.record(100 * MILLIS);
+        }
+        long p50 = histogram.getPercentile(50);
+        assertTrue(p50 >= 16 * MILLIS && p50 <= 17 * MILLIS, "p50 " + p50);
+        assertEquals(p50, histogram.getPercentile(95));
+        assertEquals(p50, histogram.getPercentile(99));
+        long p999 = histogram.getPercentile(99.9);
+        assertTrue(p999 >= 100 * MILLIS - 100 * MILLIS / 16, "p99.9 " + p999);
+        // Never past the largest value actually recorded
+        assertEquals(100 * MILLIS, histogram.getPercentile(100));
+        assertEquals(100 * MILLIS, histogram.getMax());
+    }
+
+    @Test
+    void negativeValuesCountAsZeroAndResetForgetsEverything() {
+        histogram.record(-5);
+        assertEquals(0, histogram.getMin());
+        assertEquals(1, histogram.getCount());
+        histogram.reset();
+        assertEquals(0, histogram.getCount());
+        assertEquals(0, histogram.getPercentile(99));
+    }
+}
@@ -0,0 +1,128 @@
+package rendering;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class GpuResourcesTest {
+    private final RecordingRenderBackend backend = new RecordingRenderBackend();
+    private final GpuResources resources = new GpuResources(backend);
+
+    @Test
+    void handlesReachTheirObjects() {
+        int buffer = resources.createBuffer("meshes");
+        int vertexArray = resources.createVertexArray("meshes");
+        assertTrue(resources.isValid(buffer));
+        assertNotEquals(0, resources.buffer(buffer));
+        assertNotEquals(0, resources.vertexArray(vertexArray));
+        assertEquals(2, resources.getLiveCount());
+        assertFalse(resources.isValid(0));
+        assertFalse(resources.isValid(-1));
+    }
+
+    @Test
+    void handlesAreCheckedForTheirKind() {
+        int buffer = resources.createBuffer("meshes");
+        assertThrows(IllegalArgumentException.class, () -> resources.vertexArray(buffer));
+        assertThrows(IllegalArgumentException.class, () -> resources.texture(buffer));
+        assertThrows(IllegalArgumentException.class, () -> resources.register(GpuResources.Kind.BUFFER, 0, "meshes"));
+    }
+
+    @Test
+    void releasedHandlesGoStaleRightAway() {
+        int buffer = resources.createBuffer("meshes");
+        int name = resources.buffer(buffer);
+        resources.release(buffer);
+        assertFalse(resources.isValid(buffer));
+        assertThrows(IllegalStateException.class, () -> resources.buffer(buffer));
+        assertThrows(IllegalStateException.class, () -> resources.release(buffer));
+        // The object itself lives until the end of the frame
+        assertEquals(1, resources.getLiveCount());
+        resources.endFrame();
+        assertEquals(0, resources.getLiveCount());
+        assertEquals(1, resources.getDeletedLastFrame());
+        assertNotEquals(0, name);
+    }
+
+    @Test
+    void slotsAreReusedWithANewGeneration() {
+        int first = resources.createBuffer("meshes");
+        resources.release(first);
+        resources.endFrame();
+        int second = resources.createBuffer("meshes");
+        // Same slot, but the old handle doesn't reach the new object
+        assertNotEquals(first, second);
+        assertFalse(resources.isValid(first));
+        assertTrue(resources.isValid(second));
+        assertThrows(IllegalStateException.class, () -> resources.buffer(first));
+    }
+
+    @Test
+    void objectsAreDeletedOnceEveryReferenceIsReleased() {
+        int texture = resources.createTexture("textures");
+        resources.retain(texture);
+        resources.release(texture);
+        resources.endFrame();
+        assertTrue(resources.isValid(texture));
+        assertEquals(0, resources.getDeletedLastFrame());
+        resources.release(texture);
+        resources.endFrame();
+        assertEquals(1, resources.getDeletedLastFrame());
+    }
+
+    @Test
+    void memoryIsTrackedByCategory() {
+        int a = resources.createBuffer("meshes");
+        int b = resources.createBuffer("meshes");
+        int texture = resources.createTexture("textures");
+        resources.setSize(a, 100);
+        resources.setSize(b, 50);
+        resources.setSize(texture, 1000);
+        // A resize replaces the old size
+        resources.setSize(a, 200);
+        assertEquals(250, resources.getMemory("meshes"));
+        assertEquals(1000, resources.getMemory("textures"));
+        assertEquals(1250, resources.getTotalMemory());
+        assertEquals(0, resources.getMemory("nothing"));
+
+        resources.release(a);
+        resources.endFrame();
+        assertEquals(50, resources.getMemory("meshes"));
+        // The most the category ever took up is kept
+        assertTrue(resources.summary().contains(" 250 peak"));
+    }
+
+    @Test
+    void deleteReportsWhatWasNeverReleased() {
+        int buffer = resources.createBuffer("meshes");
+        resources.setSize(buffer, 64);
+        resources.release(resources.createTexture("textures"));
+        String leaks = resources.delete();
+        assertTrue(leaks.startsWith("1 GPU objects were never released"));
+        assertTrue(leaks.contains("meshes: 1 objects, 64 bytes"));
+        assertFalse(leaks.contains("textures"));
+        assertEquals(0, resources.getLiveCount());
+        assertNull(new GpuResources(backend).delete());
+    }
+
+    @Test
+    void growsPastItsInitialSlots() {
+        int[] handles = new int[200];
+        for (int i = 0; i < handles.length; i++) {
+            handles[i] = resources.createBuffer("meshes");
+        }
+        for (int handle : handles) {
+            assertTrue(resources.isValid(handle));
+        }
+        for (int handle : handles) {
+            resources.release(handle);
+        }
+        resources.endFrame();
+        assertEquals(200, resources.getDeletedLastFrame());
+    }
+}
@@ -0,0 +1,90 @@
+package rendering;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.lwjgl.opengl.GL11;
+import org.lwjgl.system.MemoryUtil;
+
+import java.nio.ByteBuffer;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class MeshArenaTest {
+    private static final VertexLayout LAYOUT = VertexLayout.builder()
+            .add(0, 3, VertexLayout.Type.FLOAT, false)
+            .build();
+
+    private final GpuResources resources = new GpuResources(new RecordingRenderBackend());
+    private final MeshArena arena = new MeshArena(resources, LAYOUT, GL11.GL_UNSIGNED_SHORT, 16, 32, "meshes");
+    private final ByteBuffer vertices = MemoryUtil.memCalloc(64 * LAYOUT.getStride());
+    private final ByteBuffer indices = MemoryUtil.memCalloc(128 * Short.BYTES);
+
+    @AfterEach
+    void free() {
+        arena.delete();
+        resources.endFrame();
+        MemoryUtil.memFree(vertices);
+        MemoryUtil.memFree(indices);
+    }
+
+    private int add(int vertexCount, int indexCount) {
+        vertices.clear().limit(vertexCount * LAYOUT.getStride());
+        indices.clear().limit(indexCount * Short.BYTES);
+        return arena.add(vertices, indices);
+    }
+
+    @Test
+    void meshesArePackedOneAfterAnother() {
+        int a = add(4, 6);
+        int b = add(8, 12);
+        assertEquals(0, arena.getBaseVertex(a));
+        assertEquals(0, arena.getFirstIndex(a));
+        assertEquals(4, arena.getBaseVertex(b));
+        assertEquals(6, arena.getFirstIndex(b));
+        assertEquals(2, arena.getMeshCount());
+        assertEquals(12, arena.getVerticesUsed());
+        assertEquals(18, arena.getIndicesUsed());
+        assertEquals(0, arena.getRebuilds());
+    }
+
+    @Test
+    void removedRangesAreReused() {
+        int a = add(4, 6);
+        add(4, 6);
+        arena.remove(a);
+        assertThrows(IllegalArgumentException.class, () -> arena.getBaseVertex(a));
+        int c = add(4, 6);
+        assertEquals(a, c);
+        assertEquals(0, arena.getBaseVertex(c));
+        assertEquals(0, arena.getRebuilds());
+    }
+
+    @Test
+    void growsWhenFull() {
+        int a = add(10, 20);
+        int b = add(10, 20);
+        assertTrue(arena.getVertexCapacity() >= 20);
+        assertTrue(arena.getIndexCapacity() >= 40);
+        assertEquals(2, arena.getRebuilds());
+        assertEquals(0, arena.getBaseVertex(a));
+        assertEquals(10, arena.getBaseVertex(b));
+    }
+
+    @Test
+    void compactMovesMeshesToTheFront() {
+        int a = add(4, 6);
+        int b = add(4, 6);
+        arena.remove(a);
+        arena.compact();
+        assertEquals(0, arena.getBaseVertex(b));
+        assertEquals(0, arena.getFirstIndex(b));
+        assertEquals(16, arena.getVertexCapacity());
+        // The vertex and index buffers are rebuilt separately
+        assertEquals(2, arena.getRebuilds());
+        // The old buffers go at the end of the frame, leaving the vertex array and the two new buffers
+        resources.endFrame();
+        assertEquals(3, resources.getLiveCount());
+    }
+}
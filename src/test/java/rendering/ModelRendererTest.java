@@ -0,0 +1,82 @@
+package rendering;
+
+import assets.MeshFile;
+import assets.MeshLoader;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.file.Path;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class ModelRendererTest {
+    private static final float[] BOUNDS = {0.0f, 0.0f, 0.0f, 1.0f, 1.0f, 0.0f};
+
+    @TempDir
+    Path directory;
+
+    /**
+     * Write a single triangle.
+     */
+    private Path write(String name, int compressionLevel) throws IOException {
+        ByteBuffer vertices = ByteBuffer.allocateDirect(3 * MeshFile.VERTEX_FLOATS * Float.BYTES)
+                .order(ByteOrder.nativeOrder());
+        float[][] corners = {{0.0f, 0.0f}, {1.0f, 0.0f}, {0.0f, 1.0f}};
+        for (float[] corner : corners) {
+            vertices.putFloat(corner[0]).putFloat(corner[1]).putFloat(0.0f);
+            vertices.putFloat(0.0f).putFloat(0.0f).putFloat(1.0f);
+        }
+        ByteBuffer indices = ByteBuffer.allocateDirect(3 * Integer.BYTES).order(ByteOrder.nativeOrder());
+        indices.putInt(0).putInt(1).putInt(2);
+        Path path = directory.resolve(name);
+        MeshFile.write(path, 3, BOUNDS, vertices.flip(), indices.flip(), compressionLevel);
+        return path;
+    }
+
+    private static void awaitLoads(ModelRenderer models) throws InterruptedException {
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(10);
+        while (models.getPending() > 0) {
+            assertTrue(System.nanoTime() < deadline, "timed out waiting for the loader");
+            Thread.sleep(1);
+        }
+    }
+
+    @Test
+    void loadedModelsAreUploadedAndDrawnTogether() throws IOException, InterruptedException {
+        RecordingRenderBackend backend = new RecordingRenderBackend();
+        GpuResources resources = new GpuResources(backend);
+        StateTracker tracker = new StateTracker(backend);
+        RenderQueue queue = new RenderQueue();
+        try (MeshLoader loader = new MeshLoader(2)) {
+            ModelRenderer models = new ModelRenderer(resources, loader);
+            // Nothing is drawn until something has been uploaded
+            models.draw(queue, 1);
+            assertEquals(0, queue.size());
+
+            models.load(write("plain.mesh", 0));
+            models.load(write("compressed.mesh", 3));
+            models.load(directory.resolve("missing.mesh"));
+            awaitLoads(models);
+
+            assertEquals(2, models.update(tracker));
+            assertEquals(2, models.getModelCount());
+            assertEquals(1, models.getFailedCount());
+            assertEquals(0, models.update(tracker));
+
+            // Both models in one multi-draw
+            models.draw(queue, 1);
+            assertEquals(1, queue.size());
+            queue.submit(tracker);
+            assertEquals(1, tracker.getDrawCalls());
+
+            models.delete();
+            resources.endFrame();
+            assertEquals(0, resources.getLiveCount());
+        }
+    }
+}
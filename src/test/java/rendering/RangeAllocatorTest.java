@@ -0,0 +1,226 @@
+package rendering;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+class RangeAllocatorTest {
+    @Test
+    void allocatesFromTheFront() {
+        RangeAllocator allocator = new RangeAllocator(100);
+        int a = allocator.allocate(10);
+        int b = allocator.allocate(20);
+        assertEquals(0, allocator.getOffset(a));
+        assertEquals(10, allocator.getOffset(b));
+        assertEquals(20, allocator.getSize(b));
+        assertEquals(30, allocator.getUsed());
+        assertEquals(70, allocator.getLargestFree());
+        assertEquals(1, allocator.getFreeRangeCount());
+    }
+
+    @Test
+    void returnsNoSpaceWhenNothingFits() {
+        RangeAllocator allocator = new RangeAllocator(10);
+        allocator.allocate(6);
+        assertEquals(RangeAllocator.NO_SPACE, allocator.allocate(5));
+        // An exact fit uses up the last free range
+        int rest = allocator.allocate(4);
+        assertEquals(6, allocator.getOffset(rest));
+        assertEquals(0, allocator.getFreeRangeCount());
+        assertEquals(RangeAllocator.NO_SPACE, allocator.allocate(1));
+        assertEquals(RangeAllocator.NO_SPACE, new RangeAllocator(0).allocate(1));
+    }
+
+    @Test
+    void takesTheFirstFreeRangeThatFits() {
+        RangeAllocator allocator = new RangeAllocator(100);
+        int a = allocator.allocate(10);
+        allocator.allocate(10);
+        int c = allocator.allocate(30);
+        allocator.allocate(10);
+        // Holes of 10 at 0 and 30 at 20, and 40 at the end
+        allocator.free(a);
+        allocator.free(c);
+        assertEquals(3, allocator.getFreeRangeCount());
+
+        // Too big for the first hole, so the second, rather than the end
+        int d = allocator.allocate(25);
+        assertEquals(20, allocator.getOffset(d));
+        // Fits the first hole
+        int e = allocator.allocate(5);
+        assertEquals(0, allocator.getOffset(e));
+        // Fits only the end
+        int f = allocator.allocate(35);
+        assertEquals(60, allocator.getOffset(f));
+    }
+
+    @Test
+    void freeMergesWithThePreviousRange() {
+        RangeAllocator allocator = new RangeAllocator(30);
+        int a = allocator.allocate(10);
+        int b = allocator.allocate(10);
+        allocator.allocate(10);
+        allocator.free(a);
+        allocator.free(b);
+        assertEquals(1, allocator.getFreeRangeCount());
+        assertEquals(20, allocator.getLargestFree());
+        assertEquals(0, allocator.getOffset(allocator.allocate(20)));
+    }
+
+    @Test
+    void freeMergesWithTheNextRange() {
+        RangeAllocator allocator = new RangeAllocator(30);
+        allocator.allocate(10);
+        int b = allocator.allocate(10);
+        int c = allocator.allocate(10);
+        allocator.free(c);
+        allocator.free(b);
+        assertEquals(1, allocator.getFreeRangeCount());
+        assertEquals(20, allocator.getLargestFree());
+        assertEquals(10, allocator.getOffset(allocator.allocate(20)));
+    }
+
+    @Test
+    void freeMergesWithBothRanges() {
+        RangeAllocator allocator = new RangeAllocator(50);
+        int a = allocator.allocate(10);
+        int b = allocator.allocate(10);
+        int c = allocator.allocate(10);
+        allocator.allocate(10);
+        allocator.free(a);
+        allocator.free(c);
+        assertEquals(3, allocator.getFreeRangeCount());
+        allocator.free(b);
+        assertEquals(2, allocator.getFreeRangeCount());
+        assertEquals(30, allocator.getLargestFree());
+        assertEquals(0, allocator.getOffset(allocator.allocate(30)));
+    }
+
+    @Test
+    void freeKeepsSeparateRangesApart() {
+        RangeAllocator allocator = new RangeAllocator(50);
+        int a = allocator.allocate(10);
+        allocator.allocate(10);
+        int c = allocator.allocate(10);
+        allocator.allocate(10);
+        // Free out of order, each lands between the ranges around it
+        allocator.free(c);
+        allocator.free(a);
+        assertEquals(3, allocator.getFreeRangeCount());
+        assertEquals(10, allocator.getLargestFree());
+        assertEquals(0, allocator.getOffset(allocator.allocate(10)));
+        assertEquals(20, allocator.getOffset(allocator.allocate(10)));
+        assertEquals(40, allocator.getOffset(allocator.allocate(10)));
+        assertEquals(0, allocator.getFreeRangeCount());
+    }
+
+    @Test
+    void freeRangesGrowPastTheirInitialRoom() {
+        RangeAllocator allocator = new RangeAllocator(1000);
+        int[] ids = new int[1000];
+        for (int i = 0; i < ids.length; i++) {
+            ids[i] = allocator.allocate(1);
+        }
+        // Every other one, 500 separate holes
+        for (int i = 0; i < ids.length; i += 2) {
+            allocator.free(ids[i]);
+        }
+        assertEquals(500, allocator.getFreeRangeCount());
+        assertEquals(500, allocator.getUsed());
+        for (int i = 1; i < ids.length; i += 2) {
+            allocator.free(ids[i]);
+        }
+        assertEquals(1, allocator.getFreeRangeCount());
+        assertEquals(1000, allocator.getLargestFree());
+    }
+
+    @Test
+    void compactPacksInOffsetOrderAndReportsMoves() {
+        RangeAllocator allocator = new RangeAllocator(100);
+        int a = allocator.allocate(10);
+        int b = allocator.allocate(20);
+        int c = allocator.allocate(5);
+        int d = allocator.allocate(15);
+        allocator.free(a);
+        allocator.free(c);
+        // Takes the last id freed, c's, and the first hole, a's, so ids are no longer in offset order
+        int e = allocator.allocate(5);
+        assertEquals(c, e);
+        assertEquals(0, allocator.getOffset(e));
+
+        List<int[]> moves = new ArrayList<>();
+        allocator.compact(100, (id, oldOffset, newOffset, size) -> moves.add(new int[]{id, oldOffset, newOffset,
+                size}));
+
+        assertEquals(3, moves.size());
+        assertMove(moves.get(0), e, 0, 0, 5);
+        assertMove(moves.get(1), b, 10, 5, 20);
+        assertMove(moves.get(2), d, 35, 25, 15);
+        assertEquals(0, allocator.getOffset(e));
+        assertEquals(5, allocator.getOffset(b));
+        assertEquals(25, allocator.getOffset(d));
+        assertEquals(1, allocator.getFreeRangeCount());
+        assertEquals(60, allocator.getLargestFree());
+        assertEquals(40, allocator.getOffset(allocator.allocate(60)));
+    }
+
+    private static void assertMove(int[] move, int id, int oldOffset, int newOffset, int size) {
+        assertEquals(id, move[0], "id");
+        assertEquals(oldOffset, move[1], "old offset");
+        assertEquals(newOffset, move[2], "new offset");
+        assertEquals(size, move[3], "size");
+    }
+
+    @Test
+    void compactCanGrowAndShrinkTheSpace() {
+        RangeAllocator allocator = new RangeAllocator(10);
+        int a = allocator.allocate(6);
+        int b = allocator.allocate(4);
+        allocator.free(a);
+        allocator.compact(40, (id, oldOffset, newOffset, size) -> { });
+        assertEquals(40, allocator.getCapacity());
+        assertEquals(0, allocator.getOffset(b));
+        assertEquals(36, allocator.getLargestFree());
+
+        // Shrinking to exactly what is used leaves no free range
+        allocator.compact(4, (id, oldOffset, newOffset, size) -> { });
+        assertEquals(0, allocator.getFreeRangeCount());
+        assertThrows(IllegalArgumentException.class, () -> allocator.compact(3, (id, oldOffset, newOffset, size) -> {
+        }));
+    }
+
+    @Test
+    void idsAreReusedAfterFree() {
+        RangeAllocator allocator = new RangeAllocator(100);
+        int a = allocator.allocate(10);
+        int b = allocator.allocate(10);
+        allocator.free(a);
+        assertThrows(IllegalArgumentException.class, () -> allocator.getOffset(a));
+        assertThrows(IllegalArgumentException.class, () -> allocator.free(a));
+        int c = allocator.allocate(30);
+        assertEquals(a, c);
+        assertEquals(20, allocator.getOffset(c));
+        assertEquals(10, allocator.getOffset(b));
+    }
+
+    @Test
+    void idsGrowPastTheirInitialRoom() {
+        RangeAllocator allocator = new RangeAllocator(1000);
+        for (int i = 0; i < 200; i++) {
+            assertEquals(i, allocator.allocate(5));
+        }
+        assertEquals(199 * 5, allocator.getOffset(199));
+    }
+
+    @Test
+    void rejectsEmptyRanges() {
+        RangeAllocator allocator = new RangeAllocator(10);
+        assertThrows(IllegalArgumentException.class, () -> allocator.allocate(0));
+        assertThrows(IllegalArgumentException.class, () -> allocator.allocate(-1));
+        assertThrows(IllegalArgumentException.class, () -> allocator.free(0));
+    }
+}
@@ -0,0 +1,80 @@
+package rendering;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.lwjgl.opengl.GL11;
+import org.lwjgl.opengl.GL30;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+class StateTrackerTest {
+    private final RecordingRenderBackend backend = new RecordingRenderBackend();
+    private final StateTracker tracker = new StateTracker(backend);
+
+    @BeforeEach
+    void beginFrame() {
+        tracker.beginFrame();
+    }
+
+    private void assertBinds(int changes, int skipped) {
+        assertEquals(changes, tracker.getStateChanges(), "state changes");
+        assertEquals(skipped, tracker.getStateChangesSkipped(), "state changes skipped");
+    }
+
+    @Test
+    void repeatedBindsAreSkipped() {
+        tracker.useProgram(1);
+        tracker.bindVertexArray(2);
+        tracker.bindTexture(GL11.GL_TEXTURE_2D, 3);
+        tracker.useProgram(1);
+        tracker.bindVertexArray(2);
+        tracker.bindTexture(GL11.GL_TEXTURE_2D, 3);
+        assertBinds(3, 3);
+
+        tracker.useProgram(4);
+        tracker.bindVertexArray(5);
+        tracker.bindTexture(GL11.GL_TEXTURE_2D, 6);
+        assertBinds(6, 3);
+    }
+
+    @Test
+    void texturesAreRememberedPerTarget() {
+        tracker.bindTexture(GL30.GL_TEXTURE_2D_ARRAY, 1);
+        tracker.bindTexture(GL11.GL_TEXTURE_2D, 2);
+        // Binding the 2D texture left the array texture bound
+        tracker.bindTexture(GL30.GL_TEXTURE_2D_ARRAY, 1);
+        tracker.bindTexture(GL11.GL_TEXTURE_2D, 2);
+        assertBinds(2, 2);
+        tracker.bindTexture(GL30.GL_TEXTURE_2D_ARRAY, 2);
+        assertBinds(3, 2);
+    }
+
+    @Test
+    void invalidateForgetsEverything() {
+        tracker.useProgram(1);
+        tracker.bindVertexArray(2);
+        tracker.bindTexture(GL11.GL_TEXTURE_2D, 3);
+        tracker.invalidate();
+        tracker.useProgram(1);
+        tracker.bindVertexArray(2);
+        tracker.bindTexture(GL11.GL_TEXTURE_2D, 3);
+        assertBinds(6, 0);
+    }
+
+    @Test
+    void stateIsKeptFromOneSubmitToTheNext() {
+        RenderQueue queue = new RenderQueue();
+        queue.add(1, 2, 0, 0.0f, GL11.GL_TRIANGLES, 36, GL11.GL_UNSIGNED_SHORT, 0);
+        tracker.bindTexture(GL30.GL_TEXTURE_2D_ARRAY, 3);
+        queue.submit(tracker);
+        assertBinds(3, 0);
+
+        // The next frame draws the same, and binds nothing
+        tracker.beginFrame();
+        queue.add(1, 2, 0, 0.0f, GL11.GL_TRIANGLES, 36, GL11.GL_UNSIGNED_SHORT, 0);
+        tracker.bindTexture(GL30.GL_TEXTURE_2D_ARRAY, 3);
+        queue.submit(tracker);
+        assertBinds(0, 3);
+        assertEquals(1, tracker.getDrawCalls());
+    }
+}
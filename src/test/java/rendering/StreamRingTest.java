@@ -0,0 +1,91 @@
+package rendering;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+class StreamRingTest {
+    @Test
+    void allocationsAreAligned() {
+        StreamRing ring = new StreamRing(3, 256);
+        assertEquals(0, ring.allocate(10, 16));
+        assertEquals(16, ring.allocate(4, 16));
+        // An alignment of 1 packs right after the last allocation
+        assertEquals(20, ring.allocate(3, 1));
+        assertEquals(24, ring.allocate(8, 8));
+        assertEquals(64, ring.allocate(1, 64));
+        // The padding counts as used
+        assertEquals(65, ring.getUsed());
+    }
+
+    @Test
+    void offsetsAreFromTheStartOfTheBuffer() {
+        StreamRing ring = new StreamRing(3, 256);
+        ring.allocate(100, 4);
+        ring.advance(0);
+        assertEquals(1, ring.getRegion());
+        assertEquals(256, ring.getRegionStart());
+        assertEquals(256, ring.allocate(10, 4));
+        assertEquals(272, ring.allocate(10, 16));
+        assertEquals(768, ring.getCapacity());
+    }
+
+    @Test
+    void fullRegionReturnsMinusOne() {
+        StreamRing ring = new StreamRing(2, 64);
+        assertEquals(0, ring.allocate(60, 4));
+        assertEquals(-1, ring.allocate(8, 4));
+        // Fits before alignment, not after
+        assertEquals(-1, ring.allocate(2, 8));
+        // A failed allocation leaves the region as it was
+        assertEquals(60, ring.getUsed());
+        assertEquals(60, ring.allocate(4, 4));
+        assertEquals(-1, ring.allocate(1, 1));
+        assertEquals(-1, new StreamRing(1, 64).allocate(65, 1));
+    }
+
+    @Test
+    void advanceReturnsTheFenceOfTheRegionReentered() {
+        StreamRing ring = new StreamRing(3, 64);
+        // Nothing has been fenced yet
+        assertEquals(0, ring.advance(101));
+        assertEquals(0, ring.advance(102));
+        // Back in region 0, which the first frame fenced
+        assertEquals(101, ring.advance(103));
+        assertEquals(0, ring.getRegion());
+        assertEquals(102, ring.advance(104));
+        assertEquals(103, ring.advance(105));
+        assertEquals(2, ring.getRegion());
+    }
+
+    @Test
+    void advanceFreesTheRegion() {
+        StreamRing ring = new StreamRing(2, 64);
+        ring.allocate(32, 4);
+        assertEquals(0, ring.advance(7));
+        assertEquals(0, ring.getUsed());
+        assertArrayEquals(new long[]{7, 0}, ring.getFences());
+        // The fence returned is handed over, and the region it guarded forgets it
+        assertEquals(7, ring.advance(8));
+        assertArrayEquals(new long[]{0, 8}, ring.getFences());
+        // Regions the GPU won't read have no fence to wait on
+        assertEquals(8, ring.advance(0));
+        assertEquals(0, ring.advance(0));
+        assertArrayEquals(new long[]{0, 0}, ring.getFences());
+    }
+
+    @Test
+    void aSingleRegionWaitsOnItself() {
+        StreamRing ring = new StreamRing(1, 64);
+        assertEquals(5, ring.advance(5));
+        assertEquals(0, ring.getRegion());
+    }
+
+    @Test
+    void rejectsEmptyRings() {
+        assertThrows(IllegalArgumentException.class, () -> new StreamRing(0, 64));
+        assertThrows(IllegalArgumentException.class, () -> new StreamRing(3, 0));
+    }
+}
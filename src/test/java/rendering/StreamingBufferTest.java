@@ -0,0 +1,127 @@
+package rendering;
+
+import org.junit.jupiter.api.Test;
+import org.lwjgl.opengl.GL11;
+import org.lwjgl.opengl.GL15;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class StreamingBufferTest {
+    private static final int REGION_BYTES = 256;
+    private static final int REGIONS = 3;
+    private static final String CATEGORY = "stream";
+
+    /**
+     * A context without buffer storage, that logs the uploads and draws it is asked for, in order.
+     */
+    private static final class OldContext extends RecordingRenderBackend {
+        private final List<String> log = new ArrayList<>();
+        private final List<Byte> uploaded = new ArrayList<>();
+
+        @Override
+        public boolean supportsBufferStorage() {
+            return false;
+        }
+
+        @Override
+        public void bufferData(int target, long size, int usage) {
+            super.bufferData(target, size, usage);
+            log.add("orphan " + size);
+        }
+
+        @Override
+        public void bufferSubData(int target, long offset, ByteBuffer data) {
+            super.bufferSubData(target, offset, data);
+            log.add("upload " + offset + " " + data.remaining());
+            for (int i = data.position(); i < data.limit(); i++) {
+                uploaded.add(data.get(i));
+            }
+        }
+
+        @Override
+        public void drawArrays(int mode, int first, int count) {
+            super.drawArrays(mode, first, count);
+            log.add("draw");
+        }
+    }
+
+    @Test
+    void olderContextsUploadBeforeTheDraw() {
+        OldContext backend = new OldContext();
+        GpuResources resources = new GpuResources(backend);
+        StreamingBuffer stream = new StreamingBuffer(resources, GL15.GL_ARRAY_BUFFER, REGION_BYTES, REGIONS, CATEGORY);
+        assertFalse(stream.isPersistent());
+        backend.log.clear();
+
+        long offset = stream.allocate(8, 4);
+        stream.getBuffer().putInt((int) offset, 1).putInt((int) offset + 4, 2);
+        stream.flush();
+        backend.drawArrays(GL11.GL_TRIANGLES, 0, 3);
+        // A second batch of writes in the same frame goes into the storage the first one orphaned
+        long second = stream.allocate(4, 4);
+        stream.getBuffer().putInt((int) second, 3);
+        stream.flush();
+        // Nothing new to flush
+        stream.flush();
+        backend.drawArrays(GL11.GL_TRIANGLES, 0, 3);
+        stream.endFrame();
+        assertEquals(List.of("orphan " + REGION_BYTES * REGIONS, "upload 0 8", "draw", "upload 8 4", "draw"),
+                backend.log);
+        assertEquals(12, backend.uploaded.size());
+
+        // The next frame writes to the next region, and orphans again
+        backend.log.clear();
+        assertEquals(REGION_BYTES, stream.allocate(4, 4));
+        stream.flush();
+        stream.endFrame();
+        assertEquals(List.of("orphan " + REGION_BYTES * REGIONS, "upload " + REGION_BYTES + " 4"), backend.log);
+
+        // A frame that writes nothing uploads nothing
+        backend.log.clear();
+        stream.flush();
+        stream.endFrame();
+        assertTrue(backend.log.isEmpty());
+        stream.delete();
+    }
+
+    @Test
+    void persistentWritesNeedNoUploads() {
+        RecordingRenderBackend backend = new RecordingRenderBackend();
+        GpuResources resources = new GpuResources(backend);
+        StreamingBuffer stream = new StreamingBuffer(resources, GL15.GL_ARRAY_BUFFER, REGION_BYTES, REGIONS, CATEGORY);
+        assertTrue(stream.isPersistent());
+
+        for (int frame = 0; frame < REGIONS * 2; frame++) {
+            assertEquals((long) (frame % REGIONS) * REGION_BYTES, stream.allocate(16, 16));
+            long uploaded = backend.getBytesUploaded();
+            stream.flush();
+            assertEquals(uploaded, backend.getBytesUploaded());
+            stream.endFrame();
+        }
+        assertEquals(REGIONS * 2, backend.getFences());
+        // The recording backend signals fences right away
+        assertEquals(0, stream.getFenceWaits());
+        // A region only holds so much
+        assertEquals(-1, stream.allocate(REGION_BYTES + 1, 1));
+        stream.delete();
+    }
+
+    @Test
+    void theBufferIsTrackedByTheRegistry() {
+        GpuResources resources = new GpuResources(new RecordingRenderBackend());
+        StreamingBuffer stream = new StreamingBuffer(resources, GL15.GL_ARRAY_BUFFER, REGION_BYTES, REGIONS, CATEGORY);
+        assertEquals(1, resources.getLiveCount());
+        assertEquals((long) REGION_BYTES * REGIONS, resources.getMemory(CATEGORY));
+
+        stream.delete();
+        resources.endFrame();
+        assertEquals(0, resources.getLiveCount());
+        assertEquals(null, resources.delete());
+    }
+}
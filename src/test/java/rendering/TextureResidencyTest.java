@@ -0,0 +1,216 @@
+package rendering;
+
+import assets.TextureDecoder;
+import org.junit.jupiter.api.Test;
+import org.lwjgl.system.MemoryUtil;
+
+import java.nio.ByteBuffer;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class TextureResidencyTest {
+    // Four levels of 64, 16, 4 and 1 bytes, the last two of which are the tail
+    private static final long[] LEVEL_BYTES = {64, 16, 4, 1};
+    private static final int TAIL = 2;
+    private static final long TAIL_BYTES = 5;
+
+    @Test
+    void everythingFitsInALargeBudget() {
+        TextureResidency residency = new TextureResidency(1_000);
+        int a = residency.add(LEVEL_BYTES, TAIL);
+        int b = residency.add(LEVEL_BYTES, TAIL);
+        residency.request(a, 0, 1);
+        residency.request(b, 1, 1);
+        residency.plan();
+
+        assertEquals(0, residency.getTarget(a));
+        assertEquals(1, residency.getTarget(b));
+        assertEquals(85 + 21, residency.getPlannedBytes());
+        // Nothing has been made resident yet, only the tails are
+        assertEquals(2 * TAIL_BYTES, residency.getResidentBytes());
+    }
+
+    @Test
+    void tailsStayResidentOverBudget() {
+        TextureResidency residency = new TextureResidency(0);
+        int a = residency.add(LEVEL_BYTES, TAIL);
+        int b = residency.add(LEVEL_BYTES, TAIL);
+        residency.request(a, 0, 1);
+        residency.request(b, 0, 1);
+        residency.plan();
+
+        assertEquals(TAIL, residency.getTarget(a));
+        assertEquals(TAIL, residency.getTarget(b));
+        assertEquals(2 * TAIL_BYTES, residency.getPlannedBytes());
+        assertEquals(0, residency.getAvailableBytes());
+    }
+
+    @Test
+    void leastRecentlyUsedAreCutBackFirst() {
+        // The tails, one texture at level 0 and one at level 1
+        TextureResidency residency = new TextureResidency(3 * TAIL_BYTES + 80 + 16);
+        int a = residency.add(LEVEL_BYTES, TAIL);
+        int b = residency.add(LEVEL_BYTES, TAIL);
+        int c = residency.add(LEVEL_BYTES, TAIL);
+        residency.request(a, 0, 1);
+        residency.request(b, 0, 2);
+        residency.request(c, 0, 3);
+        residency.plan();
+
+        assertEquals(2, residency.getTarget(a));
+        assertEquals(1, residency.getTarget(b));
+        assertEquals(0, residency.getTarget(c));
+        assertEquals(residency.getBudget(), residency.getPlannedBytes());
+
+        // Using the oldest texture again moves it to the front, and the others a level back each
+        residency.request(a, 0, 4);
+        residency.plan();
+        assertEquals(0, residency.getTarget(a));
+        assertEquals(2, residency.getTarget(b));
+        assertEquals(1, residency.getTarget(c));
+    }
+
+    @Test
+    void cutBackGoesALevelAtATime() {
+        // Room for one texture at level 1, not level 0
+        TextureResidency residency = new TextureResidency(2 * TAIL_BYTES + 16 + 63);
+        int a = residency.add(LEVEL_BYTES, TAIL);
+        int b = residency.add(LEVEL_BYTES, TAIL);
+        residency.request(a, 0, 1);
+        residency.request(b, 0, 2);
+        residency.plan();
+
+        // b gets as fine a level as fits, and a makes do with what is left
+        assertEquals(1, residency.getTarget(b));
+        assertEquals(1, residency.getTarget(a));
+    }
+
+    @Test
+    void requestsInAFrameKeepTheFinestLevel() {
+        TextureResidency residency = new TextureResidency(1_000);
+        int id = residency.add(LEVEL_BYTES, TAIL);
+        residency.request(id, 1, 1);
+        residency.request(id, 0, 1);
+        residency.request(id, 2, 1);
+        residency.plan();
+        assertEquals(0, residency.getTarget(id));
+
+        // A new frame starts over
+        residency.request(id, 1, 2);
+        residency.plan();
+        assertEquals(1, residency.getTarget(id));
+        assertEquals(2, residency.getLastUsed(id));
+
+        // Levels past the coarsest are clamped, and never go coarser than the tail
+        residency.request(id, 10, 3);
+        residency.plan();
+        assertEquals(TAIL, residency.getTarget(id));
+    }
+
+    @Test
+    void residentBytesFollowTheLevelsReported() {
+        TextureResidency residency = new TextureResidency(1_000);
+        int id = residency.add(LEVEL_BYTES, TAIL);
+        assertEquals(TAIL, residency.getResident(id));
+        residency.setResident(id, 0);
+        assertEquals(85, residency.getResidentBytes());
+        residency.setResident(id, 1);
+        assertEquals(21, residency.getResidentBytes());
+        assertThrows(IllegalArgumentException.class, () -> residency.setResident(id, 3));
+
+        residency.remove(id);
+        assertEquals(0, residency.getResidentBytes());
+        assertThrows(IllegalArgumentException.class, () -> residency.getTarget(id));
+    }
+
+    @Test
+    void removedIdsAreReused() {
+        TextureResidency residency = new TextureResidency(1_000);
+        int a = residency.add(LEVEL_BYTES, TAIL);
+        int b = residency.add(LEVEL_BYTES, TAIL);
+        residency.remove(a);
+        int c = residency.add(new long[]{4, 1}, 0);
+        assertEquals(a, c);
+        assertEquals(5, residency.getBytes(c, 0));
+        assertEquals(TAIL_BYTES, residency.getBytes(b, TAIL));
+    }
+
+    @Test
+    void rejectsBadArguments() {
+        assertThrows(IllegalArgumentException.class, () -> new TextureResidency(-1));
+        TextureResidency residency = new TextureResidency(1_000);
+        assertThrows(IllegalArgumentException.class, () -> residency.add(LEVEL_BYTES, 4));
+        assertThrows(IllegalArgumentException.class, () -> residency.request(0, 0, 1));
+    }
+
+    private static int loadBlank(TextureManager manager, int size) {
+        return manager.load((firstLevel, formats) -> {
+            ByteBuffer pixels = MemoryUtil.memCalloc(size * size * 4);
+            try {
+                return TextureDecoder.fromRgba(pixels, size, size, firstLevel);
+            } finally {
+                MemoryUtil.memFree(pixels);
+            }
+        });
+    }
+
+    private static void waitUntilReady(TextureManager manager, StateTracker tracker, int id)
+            throws InterruptedException {
+        long deadline = System.nanoTime() + 10_000_000_000L;
+        while (!manager.isReady(id)) {
+            assertTrue(System.nanoTime() < deadline, "texture " + id + " never loaded");
+            Thread.sleep(1);
+            manager.update(tracker);
+        }
+    }
+
+    @Test
+    void managerKeepsLevelsOf32PixelsAndSmaller() throws InterruptedException {
+        RecordingRenderBackend backend = new RecordingRenderBackend();
+        StateTracker tracker = new StateTracker(backend);
+        TextureManager manager = new TextureManager(new GpuResources(backend), 0, 1, 1);
+        try {
+            int large = loadBlank(manager, 256);
+            int small = loadBlank(manager, 32);
+            waitUntilReady(manager, tracker, large);
+            waitUntilReady(manager, tracker, small);
+
+            // 256 is cut back to 32 by 32, level 3, and 32 by 32 textures are all tail
+            assertEquals(3, manager.getResidentLevel(large));
+            assertEquals(0, manager.getResidentLevel(small));
+            // 32, 16, 8, 4, 2 and 1 pixels square in RGBA8
+            long tailBytes = 4 * (1024 + 256 + 64 + 16 + 4 + 1);
+            assertEquals(2 * tailBytes, manager.getResidentBytes());
+        } finally {
+            manager.delete();
+        }
+    }
+
+    @Test
+    void managerStreamsLevelsInWithinTheBudget() throws InterruptedException {
+        RecordingRenderBackend backend = new RecordingRenderBackend();
+        StateTracker tracker = new StateTracker(backend);
+        TextureManager manager = new TextureManager(new GpuResources(backend), 1L << 20, 1, 1);
+        try {
+            int id = loadBlank(manager, 256);
+            waitUntilReady(manager, tracker, id);
+            assertEquals(0, manager.getResidentLevel(id));
+            assertTrue(manager.getResidentBytes() <= manager.getBudget());
+
+            // Cutting the budget back to nothing rebuilds the array from the tail on
+            manager.setBudget(0);
+            long deadline = System.nanoTime() + 10_000_000_000L;
+            while (manager.getResidentLevel(id) != 3) {
+                assertTrue(System.nanoTime() < deadline, "texture never cut back");
+                manager.touch(id, 0);
+                manager.update(tracker);
+                Thread.sleep(1);
+            }
+            assertEquals(1, manager.getRebuildCount());
+        } finally {
+            manager.delete();
+        }
+    }
+}
@@ -0,0 +1,195 @@
+package rendering;
+
+import org.joml.Vector3f;
+import org.junit.jupiter.api.Test;
+import org.lwjgl.opengl.GL11;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class VertexPackingTest {
+    // The error the octahedral mapping promises at 16 bits per component
+    private static final double MAX_NORMAL_ERROR_DEGREES = 0.03;
+
+    private static void assertHalf(int expected, float value) {
+        assertEquals((short) expected, VertexPacking.floatToHalf(value), () -> "half of " + value);
+    }
+
+    @Test
+    void everyHalfRoundTrips() {
+        for (int bits = 0; bits <= 0xFFFF; bits++) {
+            short half = (short) bits;
+            float value = VertexPacking.halfToFloat(half);
+            if (Float.isNaN(value)) {
+                assertTrue(Float.isNaN(VertexPacking.halfToFloat(VertexPacking.floatToHalf(value))));
+            } else {
+                assertEquals(half, VertexPacking.floatToHalf(value), "half " + Integer.toHexString(bits));
+            }
+        }
+    }
+
+    @Test
+    void halfToFloatIsExact() {
+        assertEquals(1.0f, VertexPacking.halfToFloat((short) 0x3C00));
+        assertEquals(-2.0f, VertexPacking.halfToFloat((short) 0xC000));
+        assertEquals(65504.0f, VertexPacking.halfToFloat((short) 0x7BFF));
+        // Smallest subnormal and largest subnormal
+        assertEquals(0x1.0p-24f, VertexPacking.halfToFloat((short) 0x0001));
+        assertEquals(1023 * 0x1.0p-24f, VertexPacking.halfToFloat((short) 0x03FF));
+        assertEquals(-0.0f, VertexPacking.halfToFloat((short) 0x8000));
+        assertEquals(Float.POSITIVE_INFINITY, VertexPacking.halfToFloat((short) 0x7C00));
+        assertEquals(Float.NEGATIVE_INFINITY, VertexPacking.halfToFloat((short) 0xFC00));
+    }
+
+    @Test
+    void floatToHalfRoundsTiesToEven() {
+        // Halfway between 1 and the next half, which is odd, so down to 1
+        assertHalf(0x3C00, 1.0f + 0x1.0p-11f);
+        // Halfway between the first and second half above 1, up to the even second
+        assertHalf(0x3C02, 1.0f + 3 * 0x1.0p-11f);
+        // Just either side of halfway goes to the nearest
+        assertHalf(0x3C01, Math.nextUp(1.0f + 0x1.0p-11f));
+        assertHalf(0x3C01, Math.nextDown(1.0f + 3 * 0x1.0p-11f));
+        // Rounding up carries into the exponent
+        assertHalf(0x4000, Math.nextDown(2.0f));
+    }
+
+    @Test
+    void floatToHalfRoundsSubnormalsTiesToEven() {
+        // Halfway between zero and the smallest subnormal, down to the even zero
+        assertHalf(0x0000, 0x1.0p-25f);
+        assertHalf(0x0001, Math.nextUp(0x1.0p-25f));
+        // Halfway between the first and second subnormal, up to the even second
+        assertHalf(0x0002, 3 * 0x1.0p-25f);
+        // Halfway between the largest subnormal and the smallest normal, up to the even normal
+        assertHalf(0x0400, 2047 * 0x1.0p-25f);
+        assertHalf(0x0400, 0x1.0p-14f);
+        assertHalf(0x8001, -0x1.0p-24f);
+    }
+
+    @Test
+    void floatToHalfFlushesTinyValuesToSignedZero() {
+        assertHalf(0x0000, 1.0e-10f);
+        assertHalf(0x8000, -1.0e-10f);
+        assertHalf(0x0000, Float.MIN_VALUE);
+        assertHalf(0x8000, -0.0f);
+    }
+
+    @Test
+    void floatToHalfOverflowsToInfinity() {
+        assertHalf(0x7BFF, 65504.0f);
+        assertHalf(0x7BFF, 65519.0f);
+        // Halfway between the largest half and the next power of two rounds to even, which is infinity
+        assertHalf(0x7C00, 65520.0f);
+        assertHalf(0x7C00, 1.0e6f);
+        assertHalf(0xFC00, -1.0e6f);
+        assertHalf(0x7C00, Float.MAX_VALUE);
+        assertHalf(0x7C00, Float.POSITIVE_INFINITY);
+        assertHalf(0xFC00, Float.NEGATIVE_INFINITY);
+        assertTrue(Float.isNaN(VertexPacking.halfToFloat(VertexPacking.floatToHalf(Float.NaN))));
+    }
+
+    @Test
+    void snorm16MatchesGl() {
+        assertEquals(32767, VertexPacking.packSnorm16(1.0f));
+        assertEquals(-32767, VertexPacking.packSnorm16(-1.0f));
+        assertEquals(0, VertexPacking.packSnorm16(0.0f));
+        assertEquals(32767, VertexPacking.packSnorm16(2.0f));
+        assertEquals(-32767, VertexPacking.packSnorm16(-2.0f));
+        assertEquals(16384, VertexPacking.packSnorm16(0.5f));
+        assertEquals(1.0f, VertexPacking.unpackSnorm16((short) 32767));
+        assertEquals(-1.0f, VertexPacking.unpackSnorm16((short) -32767));
+        // GL clamps the one value below -1
+        assertEquals(-1.0f, VertexPacking.unpackSnorm16(Short.MIN_VALUE));
+        for (int value = Short.MIN_VALUE + 1; value <= Short.MAX_VALUE; value++) {
+            assertEquals((short) value, VertexPacking.packSnorm16(VertexPacking.unpackSnorm16((short) value)));
+        }
+    }
+
+    private static double angleDegrees(Vector3f a, Vector3f b) {
+        // acos of a float dot product can't resolve angles this small, atan2 in doubles can
+        double crossX = (double) a.y * b.z - (double) a.z * b.y;
+        double crossY = (double) a.z * b.x - (double) a.x * b.z;
+        double crossZ = (double) a.x * b.y - (double) a.y * b.x;
+        double dot = (double) a.x * b.x + (double) a.y * b.y + (double) a.z * b.z;
+        return Math.toDegrees(Math.atan2(Math.sqrt(crossX * crossX + crossY * crossY + crossZ * crossZ), dot));
+    }
+
+    private static void assertNormalRoundTrips(Vector3f normal, Vector3f unpacked) {
+        int packed = VertexPacking.packOctahedral(normal.x, normal.y, normal.z);
+        VertexPacking.unpackOctahedral(packed, unpacked);
+        double error = angleDegrees(normal, unpacked);
+        assertTrue(error < MAX_NORMAL_ERROR_DEGREES, () -> normal + " came back as " + unpacked + ", " + error
+                + " degrees off");
+    }
+
+    @Test
+    void octahedralStaysWithinErrorBound() {
+        Vector3f unpacked = new Vector3f();
+        Random random = new Random(42);
+        for (int i = 0; i < 100_000; i++) {
+            Vector3f normal = new Vector3f((float) random.nextGaussian(), (float) random.nextGaussian(),
+                    (float) random.nextGaussian()).normalize();
+            assertNormalRoundTrips(normal, unpacked);
+        }
+    }
+
+    @Test
+    void octahedralHandlesAxesAndFoldEdges() {
+        Vector3f unpacked = new Vector3f();
+        float[] signs = {-1.0f, 1.0f};
+        for (float sign : signs) {
+            assertNormalRoundTrips(new Vector3f(sign, 0.0f, 0.0f), unpacked);
+            assertNormalRoundTrips(new Vector3f(0.0f, sign, 0.0f), unpacked);
+            assertNormalRoundTrips(new Vector3f(0.0f, 0.0f, sign), unpacked);
+            for (float other : signs) {
+                // On the equator, where the fold starts, and below it, where u or v is zero
+                assertNormalRoundTrips(new Vector3f(sign, other, 0.0f).normalize(), unpacked);
+                assertNormalRoundTrips(new Vector3f(sign, 0.0f, -1.0f).normalize(), unpacked);
+                assertNormalRoundTrips(new Vector3f(0.0f, other, -1.0f).normalize(), unpacked);
+                assertNormalRoundTrips(new Vector3f(sign, other, -1.0f).normalize(), unpacked);
+                assertNormalRoundTrips(new Vector3f(sign, other, -1.0e-4f).normalize(), unpacked);
+            }
+        }
+        // Straight down folds to a corner of the square
+        int packed = VertexPacking.packOctahedral(0.0f, 0.0f, -1.0f);
+        assertEquals(32767, Math.abs((short) packed));
+        assertEquals(32767, Math.abs((short) (packed >> 16)));
+        assertEquals(-1.0f, VertexPacking.unpackOctahedral(packed, unpacked).z, 1.0e-6f);
+    }
+
+    @Test
+    void octahedralPutsUInTheLowBits() {
+        int packed = VertexPacking.packOctahedral(1.0f, 0.0f, 0.0f);
+        assertEquals(32767, (short) packed);
+        assertEquals(0, (short) (packed >> 16));
+    }
+
+    @Test
+    void indexTypeSwitchesPast65536Vertices() {
+        assertEquals(GL11.GL_UNSIGNED_SHORT, VertexPacking.indexType(0));
+        assertEquals(GL11.GL_UNSIGNED_SHORT, VertexPacking.indexType(65535));
+        // Indices 0 to 65535 still fit in a short
+        assertEquals(GL11.GL_UNSIGNED_SHORT, VertexPacking.indexType(65536));
+        assertEquals(GL11.GL_UNSIGNED_INT, VertexPacking.indexType(65537));
+        assertEquals(Short.BYTES, VertexPacking.indexBytes(GL11.GL_UNSIGNED_SHORT));
+        assertEquals(Integer.BYTES, VertexPacking.indexBytes(GL11.GL_UNSIGNED_INT));
+    }
+
+    @Test
+    void putIndicesWritesTheIndexType() {
+        ByteBuffer buffer = ByteBuffer.allocate(16).order(ByteOrder.nativeOrder());
+        VertexPacking.putIndices(buffer, new int[]{0, 65535}, GL11.GL_UNSIGNED_SHORT);
+        assertEquals(4, buffer.position());
+        assertEquals(65535, buffer.getShort(2) & 0xFFFF);
+
+        buffer.clear();
+        VertexPacking.putIndices(buffer, new int[]{1, 65536}, GL11.GL_UNSIGNED_INT);
+        assertEquals(8, buffer.position());
+        assertEquals(65536, buffer.getInt(4));
+    }
+}
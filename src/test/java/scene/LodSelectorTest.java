@@ -0,0 +1,82 @@
+package scene;
+
+import org.joml.FrustumIntersection;
+import org.joml.Matrix4f;
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+class LodSelectorTest {
+    // Level 1 is off by up to a unit, level 2 by two
+    private static final float[] ERRORS = {0.0f, 1.0f, 2.0f};
+
+    // Without a projection a unit covers a pixel at a distance of one, so the budget is the distance
+    private final LodSelector selector = new LodSelector(ERRORS, 1.0f, 0.25f);
+
+    @Test
+    void picksTheCoarsestLevelWithinBudget() {
+        assertEquals(0, selector.selectLevel(0, 0.0f));
+        assertEquals(0, selector.selectLevel(0, 1.0f));
+        assertEquals(1, selector.selectLevel(0, 2.0f));
+        assertEquals(2, selector.selectLevel(0, 10.0f));
+    }
+
+    @Test
+    void switchingHasHysteresis() {
+        // Coarser needs the error a quarter under the budget
+        assertEquals(1, selector.selectLevel(1, 2.5f));
+        assertEquals(2, selector.selectLevel(1, 2.7f));
+        // Finer needs it a quarter over
+        assertEquals(2, selector.selectLevel(2, 1.7f));
+        assertEquals(1, selector.selectLevel(2, 1.5f));
+        assertEquals(1, selector.selectLevel(1, 0.85f));
+        assertEquals(0, selector.selectLevel(1, 0.75f));
+    }
+
+    @Test
+    void theProjectionScalesTheBudget() {
+        // A 90 degree view 200 pixels high, 100 pixels per unit at a distance of one
+        selector.setProjection((float) Math.toRadians(90.0), 200);
+        assertEquals(0, selector.selectLevel(0, 10.0f));
+        assertEquals(1, selector.selectLevel(0, 200.0f));
+        assertEquals(2, selector.selectLevel(0, 1000.0f));
+    }
+
+    @Test
+    void selectsByTheDistanceToTheNearestPointOfEachBox() {
+        SceneIndex index = new SceneIndex(16.0f);
+        // Along -z in front of a camera at the origin, the second reaching back to 1.5 away
+        int near = index.add(-0.5f, -0.5f, -1.5f, 0.5f, 0.5f, -0.5f);
+        int middle = index.add(-0.5f, -0.5f, -20.0f, 0.5f, 0.5f, -1.5f);
+        int far = index.add(-0.5f, -0.5f, -21.0f, 0.5f, 0.5f, -20.0f);
+        Matrix4f viewProjection = new Matrix4f().perspective((float) Math.toRadians(90.0), 1.0f, 0.1f, 100.0f);
+        index.cull(new FrustumIntersection(viewProjection));
+        assertEquals(3, index.getVisibleCount());
+
+        selector.select(index, 0.0f, 0.0f, 0.0f);
+        assertEquals(0, selector.getLevel(near));
+        assertEquals(1, selector.getLevel(middle));
+        assertEquals(2, selector.getLevel(far));
+    }
+
+    @Test
+    void manyObjectsAreSelectedInParallelTheSame() {
+        SceneIndex index = new SceneIndex(16.0f);
+        int count = 4096;
+        int[] ids = new int[count];
+        for (int i = 0; i < count; i++) {
+            float z = -1.0f - i * 0.01f;
+            ids[i] = index.add(-0.1f, -0.1f, z - 0.01f, 0.1f, 0.1f, z);
+        }
+        Matrix4f viewProjection = new Matrix4f().perspective((float) Math.toRadians(90.0), 1.0f, 0.1f, 100.0f);
+        index.cull(new FrustumIntersection(viewProjection));
+        assertEquals(count, index.getVisibleCount());
+
+        selector.select(index, 0.0f, 0.0f, 0.0f);
+        for (int i = 0; i < count; i++) {
+            float distance = 1.0f + i * 0.01f;
+            assertEquals(new LodSelector(ERRORS, 1.0f, 0.25f).selectLevel(0, distance), selector.getLevel(ids[i]),
+                    "object " + i);
+        }
+    }
+}
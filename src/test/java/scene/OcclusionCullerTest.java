@@ -0,0 +1,164 @@
+package scene;
+
+import org.joml.Matrix4f;
+import org.joml.Vector3f;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class OcclusionCullerTest {
+    private static final int SIZE = 64;
+    private static final float NEAR = 0.1f;
+    private static final float FAR = 100.0f;
+
+    // A camera at the origin looking down -z, which sees from -5 to 5 at z = -5
+    private final Matrix4f viewProjection = new Matrix4f().perspective((float) Math.toRadians(90.0), 1.0f, NEAR, FAR);
+    private final OcclusionCuller culler = new OcclusionCuller(SIZE, SIZE);
+
+    @BeforeEach
+    void begin() {
+        culler.begin(viewProjection);
+    }
+
+    /**
+     * Add a square facing the camera, split into cells by cells pairs of triangles.
+     */
+    private void addWall(float halfSize, float z, int cells) {
+        float[] vertices = new float[(cells + 1) * (cells + 1) * 3];
+        for (int row = 0; row <= cells; row++) {
+            for (int column = 0; column <= cells; column++) {
+                int vertex = (row * (cells + 1) + column) * 3;
+                vertices[vertex] = -halfSize + 2 * halfSize * column / cells;
+                vertices[vertex + 1] = -halfSize + 2 * halfSize * row / cells;
+                vertices[vertex + 2] = z;
+            }
+        }
+        int[] indices = new int[cells * cells * 6];
+        for (int row = 0; row < cells; row++) {
+            for (int column = 0; column < cells; column++) {
+                int corner = row * (cells + 1) + column;
+                int index = (row * cells + column) * 6;
+                indices[index] = corner;
+                indices[index + 1] = corner + 1;
+                indices[index + 2] = corner + cells + 2;
+                indices[index + 3] = corner;
+                indices[index + 4] = corner + cells + 2;
+                indices[index + 5] = corner + cells + 1;
+            }
+        }
+        culler.addOccluder(vertices, indices, 0, indices.length);
+    }
+
+    private int countCovered() {
+        int covered = 0;
+        for (int y = 0; y < SIZE; y++) {
+            for (int x = 0; x < SIZE; x++) {
+                if (culler.getDepth(x, y) < 1.0f) {
+                    covered++;
+                }
+            }
+        }
+        return covered;
+    }
+
+    private float windowDepth(float z) {
+        Vector3f ndc = viewProjection.transformProject(new Vector3f(0.0f, 0.0f, z));
+        return ndc.z * 0.5f + 0.5f;
+    }
+
+    @Test
+    void rasterizesPixelsWhoseCentersAreCovered() {
+        addWall(2.0f, -5.0f, 1);
+        culler.finish();
+
+        assertEquals(2, culler.getTriangleCount());
+        // The wall spans 0.3 to 0.7 of the buffer, 19.2 to 44.8, which holds the centers of pixels 19 to 44
+        assertEquals(26 * 26, countCovered());
+        assertEquals(1.0f, culler.getDepth(18, 32));
+        assertEquals(1.0f, culler.getDepth(32, 45));
+        assertEquals(windowDepth(-5.0f), culler.getDepth(19, 19), 1e-6f);
+        assertEquals(windowDepth(-5.0f), culler.getDepth(44, 44), 1e-6f);
+    }
+
+    @Test
+    void keepsTheNearestOccluder() {
+        // Covers 0.375 to 0.625 of the buffer, in front of the middle of the far one
+        addWall(0.5f, -2.0f, 1);
+        addWall(2.0f, -5.0f, 1);
+        culler.finish();
+        assertEquals(windowDepth(-2.0f), culler.getDepth(32, 32), 1e-6f);
+        assertEquals(windowDepth(-5.0f), culler.getDepth(20, 32), 1e-6f);
+    }
+
+    @Test
+    void rasterizingInParallelGivesTheSameDepth() {
+        // Enough triangles to be split into bands on the fork join pool
+        addWall(2.0f, -5.0f, 32);
+        culler.finish();
+        assertTrue(culler.getTriangleCount() >= 512);
+        assertEquals(26 * 26, countCovered());
+        // Depth is interpolated across each triangle in floats, which adds up to a little more error
+        assertEquals(windowDepth(-5.0f), culler.getDepth(32, 32), 1e-4f);
+    }
+
+    @Test
+    void boxFullyBehindAnOccluderIsHidden() {
+        addWall(2.0f, -5.0f, 1);
+        culler.finish();
+        assertFalse(culler.isVisible(-0.5f, -0.5f, -10.0f, 0.5f, 0.5f, -8.0f));
+        // Large enough on screen to be tested against a coarser level of the pyramid
+        assertFalse(culler.isVisible(-2.0f, -2.0f, -10.0f, 2.0f, 2.0f, -9.0f));
+    }
+
+    @Test
+    void boxPartlyBehindAnOccluderIsVisible() {
+        addWall(2.0f, -5.0f, 1);
+        culler.finish();
+        // The wall hides up to 3.2 either side at z = -8, the box reaches past that
+        assertTrue(culler.isVisible(1.0f, -0.5f, -10.0f, 6.0f, 0.5f, -8.0f));
+        // Spanning the wall's edge and the background around it, so the coarse texels hold the far plane
+        assertTrue(culler.isVisible(-6.0f, -6.0f, -10.0f, 6.0f, 6.0f, -9.0f));
+    }
+
+    @Test
+    void boxInFrontOfAnOccluderIsVisible() {
+        addWall(2.0f, -5.0f, 1);
+        culler.finish();
+        assertTrue(culler.isVisible(-0.5f, -0.5f, -3.0f, 0.5f, 0.5f, -2.0f));
+        // Cutting through the wall
+        assertTrue(culler.isVisible(-0.5f, -0.5f, -6.0f, 0.5f, 0.5f, -4.0f));
+    }
+
+    @Test
+    void boxStraddlingTheNearPlaneIsVisible() {
+        addWall(2.0f, -0.5f, 1);
+        culler.finish();
+        // Right behind the wall in x and y, but reaching behind the camera
+        assertTrue(culler.isVisible(-0.1f, -0.1f, -1.0f, 0.1f, 0.1f, 1.0f));
+        assertTrue(culler.isVisible(-0.1f, -0.1f, -1.0f, 0.1f, 0.1f, -NEAR / 2));
+    }
+
+    @Test
+    void occludersStraddlingTheNearPlaneAreSkipped() {
+        float[] vertices = {
+                -2.0f, -2.0f, 1.0f,
+                2.0f, -2.0f, 1.0f,
+                0.0f, 2.0f, -5.0f
+        };
+        culler.addOccluder(vertices, new int[]{0, 1, 2}, 0, 3);
+        culler.finish();
+        assertEquals(0, culler.getTriangleCount());
+        assertEquals(0, countCovered());
+        assertTrue(culler.isVisible(-0.5f, -0.5f, -10.0f, 0.5f, 0.5f, -8.0f));
+    }
+
+    @Test
+    void nothingIsHiddenWithoutOccluders() {
+        culler.finish();
+        assertEquals(0, countCovered());
+        assertTrue(culler.isVisible(-0.5f, -0.5f, -99.0f, 0.5f, 0.5f, -98.0f));
+    }
+}
@@ -0,0 +1,118 @@
+package scene;
+
+import org.joml.FrustumIntersection;
+import org.joml.Matrix4f;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.Arrays;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+class SceneIndexTest {
+    private static final float CELL_SIZE = 4.0f;
+
+    // Sees the box from -10 to 10 along every axis
+    private final FrustumIntersection frustum =
+            new FrustumIntersection(new Matrix4f().ortho(-10.0f, 10.0f, -10.0f, 10.0f, -10.0f, 10.0f));
+    private SceneIndex index;
+
+    @BeforeEach
+    void createIndex() {
+        index = new SceneIndex(CELL_SIZE);
+    }
+
+    /**
+     * Add a unit cube with its min corner at the given position.
+     */
+    private int addCube(float x, float y, float z) {
+        return index.add(x, y, z, x + 1.0f, y + 1.0f, z + 1.0f);
+    }
+
+    private void moveCube(int id, float x, float y, float z) {
+        index.update(id, x, y, z, x + 1.0f, y + 1.0f, z + 1.0f);
+    }
+
+    private int[] cull() {
+        int count = index.cull(frustum);
+        assertEquals(count, index.getVisibleCount());
+        int[] visible = Arrays.copyOf(index.getVisible(), count);
+        Arrays.sort(visible);
+        return visible;
+    }
+
+    @Test
+    void cullCountsVisibleAndCulledObjects() {
+        int a = addCube(0.0f, 0.0f, 0.0f);
+        int b = addCube(-5.0f, 3.0f, 8.0f);
+        addCube(20.0f, 0.0f, 0.0f);
+        int d = addCube(9.5f, 0.0f, 0.0f);
+        addCube(0.0f, -30.0f, 0.0f);
+
+        assertArrayEquals(new int[] {a, b, d}, cull());
+        assertEquals(2, index.getCulledCount());
+        assertEquals(5, index.size());
+    }
+
+    @Test
+    void movedObjectsFollowTheirNewCell() {
+        int a = addCube(0.0f, 0.0f, 0.0f);
+        int b = addCube(1.0f, 1.0f, 1.0f);
+        int c = addCube(2.0f, 2.0f, 2.0f);
+        assertArrayEquals(new int[] {a, b, c}, cull());
+
+        // Out of the frustum, into another cell, then back into a third one
+        moveCube(a, 50.0f, 0.0f, 0.0f);
+        assertArrayEquals(new int[] {b, c}, cull());
+        assertEquals(1, index.getCulledCount());
+        moveCube(a, -6.0f, 0.0f, 0.0f);
+        assertArrayEquals(new int[] {a, b, c}, cull());
+
+        // The objects left behind are still found after the old cell filled the hole
+        moveCube(b, 50.0f, 0.0f, 0.0f);
+        assertArrayEquals(new int[] {a, c}, cull());
+    }
+
+    @Test
+    void movesWithinACellUpdateItsBounds() {
+        // Both in the cell from 8 to 12 along x, only the first position is in the frustum
+        int a = addCube(8.5f, 0.0f, 0.0f);
+        assertArrayEquals(new int[] {a}, cull());
+        moveCube(a, 10.5f, 0.0f, 0.0f);
+        assertArrayEquals(new int[0], cull());
+        moveCube(a, 8.5f, 0.0f, 0.0f);
+        assertArrayEquals(new int[] {a}, cull());
+    }
+
+    @Test
+    void removedObjectsAreNoLongerFound() {
+        int a = addCube(0.0f, 0.0f, 0.0f);
+        int b = addCube(1.0f, 0.0f, 0.0f);
+        int c = addCube(2.0f, 0.0f, 0.0f);
+        index.remove(a);
+
+        assertArrayEquals(new int[] {b, c}, cull());
+        assertEquals(0, index.getCulledCount());
+        assertEquals(2, index.size());
+        assertThrows(IllegalArgumentException.class, () -> index.remove(a));
+        assertThrows(IllegalArgumentException.class, () -> moveCube(a, 0.0f, 0.0f, 0.0f));
+
+        // The id is handed out again
+        assertEquals(a, addCube(50.0f, 0.0f, 0.0f));
+        assertArrayEquals(new int[] {b, c}, cull());
+        assertEquals(1, index.getCulledCount());
+    }
+
+    @Test
+    void objectsSpanningCellsAreReportedOnce() {
+        // Covers many cells, and the whole frustum
+        int a = index.add(-30.0f, -30.0f, -30.0f, 30.0f, 30.0f, 30.0f);
+        // Partly in the frustum, partly out, and across a cell boundary
+        int b = index.add(6.0f, -1.0f, -1.0f, 14.0f, 1.0f, 1.0f);
+
+        assertArrayEquals(new int[] {a, b}, cull());
+        assertEquals(0, index.getCulledCount());
+    }
+}
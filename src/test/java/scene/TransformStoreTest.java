@@ -0,0 +1,142 @@
+package scene;
+
+import org.joml.Matrix4f;
+import org.joml.Quaternionf;
+import org.joml.Vector3f;
+import org.junit.jupiter.api.Test;
+
+import java.nio.FloatBuffer;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class TransformStoreTest {
+    private final TransformStore store = new TransformStore();
+
+    private static FloatBuffer matrices(int count) {
+        return FloatBuffer.allocate(count * 16);
+    }
+
+    /**
+     * Check the matrix at a slot against JOML's.
+     */
+    private void assertMatrix(FloatBuffer matrices, int entity, int slot) {
+        Matrix4f expected = new Matrix4f().translationRotateScale(store.getPosition(entity, new Vector3f()),
+                store.getRotation(entity, new Quaternionf()), store.getScale(entity, new Vector3f()));
+        float[] values = expected.get(new float[16]);
+        for (int i = 0; i < 16; i++) {
+            assertEquals(values[i], matrices.get(slot * 16 + i), 1e-6f, "element " + i + " of slot " + slot);
+        }
+    }
+
+    @Test
+    void matricesMatchJoml() {
+        Random random = new Random(1);
+        FloatBuffer matrices = matrices(100);
+        for (int i = 0; i < 100; i++) {
+            int entity = store.create();
+            store.setPosition(entity, random.nextFloat() * 100 - 50, random.nextFloat() * 100 - 50,
+                    random.nextFloat() * 100 - 50);
+            store.setRotation(entity, new Quaternionf().rotateXYZ(random.nextFloat() * 6, random.nextFloat() * 6,
+                    random.nextFloat() * 6));
+            store.setScale(entity, random.nextFloat() * 2, random.nextFloat() * 2, random.nextFloat() * 2);
+        }
+        assertEquals(100, store.update(matrices));
+        for (int slot = 0; slot < store.size(); slot++) {
+            assertMatrix(matrices, store.getEntity(slot), slot);
+        }
+    }
+
+    @Test
+    void onlyChangedEntitiesAreWritten() {
+        FloatBuffer matrices = matrices(10);
+        int[] entities = new int[10];
+        for (int i = 0; i < entities.length; i++) {
+            entities[i] = store.create();
+        }
+        assertEquals(10, store.update(matrices));
+        assertEquals(0, store.update(matrices));
+        assertEquals(0, store.getDirtyTo());
+
+        store.setPosition(entities[3], 1.0f, 2.0f, 3.0f);
+        store.setScale(entities[6], 2.0f);
+        // Changed twice, written once
+        store.setPosition(entities[3], 4.0f, 5.0f, 6.0f);
+        assertEquals(2, store.update(matrices));
+        assertEquals(3, store.getDirtyFrom());
+        assertEquals(7, store.getDirtyTo());
+        assertEquals(4.0f, matrices.get(3 * 16 + 12));
+    }
+
+    @Test
+    void destroyKeepsTheSlotsPacked() {
+        FloatBuffer matrices = matrices(4);
+        int a = store.create();
+        int b = store.create();
+        int c = store.create();
+        store.setPosition(c, 7.0f, 0.0f, 0.0f);
+        store.update(matrices);
+
+        store.destroy(a);
+        assertFalse(store.isAlive(a));
+        assertEquals(2, store.size());
+        // The last entity moved into the hole, and its matrix is written there
+        assertEquals(c, store.getEntity(0));
+        assertEquals(b, store.getEntity(1));
+        assertEquals(1, store.update(matrices));
+        assertEquals(7.0f, matrices.get(12));
+        assertMatrix(matrices, c, 0);
+        assertThrows(IllegalArgumentException.class, () -> store.setPosition(a, 0.0f, 0.0f, 0.0f));
+    }
+
+    @Test
+    void idsAreReusedAfterDestroy() {
+        int a = store.create();
+        store.create();
+        store.destroy(a);
+        // Destroyed before the update, so nothing is left to write for it
+        int c = store.create();
+        assertEquals(a, c);
+        assertTrue(store.isAlive(c));
+        assertEquals(new Vector3f(), store.getPosition(c, new Vector3f()));
+        assertEquals(2, store.update(matrices(2)));
+    }
+
+    @Test
+    void markAllDirtyRewritesEverything() {
+        FloatBuffer matrices = matrices(5);
+        for (int i = 0; i < 5; i++) {
+            store.create();
+        }
+        store.update(matrices);
+        store.markAllDirty();
+        assertEquals(5, store.update(matrices(5)));
+    }
+
+    @Test
+    void manyChangesAreWrittenInParallelAndMatch() {
+        int count = 10_000;
+        FloatBuffer matrices = matrices(count);
+        for (int i = 0; i < count; i++) {
+            int entity = store.create();
+            store.setPosition(entity, i, -i, i * 0.5f);
+            store.setRotation(entity, new Quaternionf().rotationY(i * 0.001f));
+        }
+        assertEquals(count, store.update(matrices));
+        for (int slot = 0; slot < count; slot += 97) {
+            assertMatrix(matrices, store.getEntity(slot), slot);
+        }
+    }
+
+    @Test
+    void growsPastItsInitialCapacity() {
+        for (int i = 0; i < 1000; i++) {
+            assertEquals(i, store.create());
+        }
+        assertEquals(1000, store.size());
+        assertEquals(1000, store.update(matrices(1000)));
+    }
+}
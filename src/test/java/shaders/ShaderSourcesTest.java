@@ -0,0 +1,83 @@
+package shaders;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+class ShaderSourcesTest {
+    @TempDir
+    Path directory;
+
+    private void write(String name, String text) throws IOException {
+        Files.writeString(directory.resolve(name), text);
+    }
+
+    @Test
+    void includedLinesAreNumberedInTheirOwnFile() throws IOException {
+        write("main.glsl", "#version 330 core\n#include \"camera.glsl\"\nvoid main() {}\n");
+        write("camera.glsl", "uniform mat4 viewProjection;\nvec4 project(vec3 p);\n");
+
+        ShaderSources.Source source = ShaderSources.load("main.glsl", directory);
+
+        assertEquals(List.of("main.glsl", "camera.glsl"), source.getFiles());
+        assertEquals("""
+                #version 330 core
+                #line 1 1
+                uniform mat4 viewProjection;
+                vec4 project(vec3 p);
+                #line 3 0
+                void main() {}
+                """, source.getText());
+    }
+
+    @Test
+    void nestedIncludesReturnToTheirIncluder() throws IOException {
+        write("main.glsl", "#version 330 core\n#include \"a.glsl\"\nvoid main() {}\n");
+        write("a.glsl", "// a\n#include \"b.glsl\"\nfloat a;\n");
+        write("b.glsl", "float b;\n");
+
+        ShaderSources.Source source = ShaderSources.load("main.glsl", directory);
+
+        assertEquals(List.of("main.glsl", "a.glsl", "b.glsl"), source.getFiles());
+        assertEquals("""
+                #version 330 core
+                #line 1 1
+                // a
+                #line 1 2
+                float b;
+                #line 3 1
+                float a;
+                #line 3 0
+                void main() {}
+                """, source.getText());
+    }
+
+    @Test
+    void filesAreIncludedOnce() throws IOException {
+        write("main.glsl", "#version 330 core\n#include \"a.glsl\"\n#include \"a.glsl\"\n");
+        write("a.glsl", "float a;\n");
+
+        assertEquals("""
+                #version 330 core
+                #line 1 1
+                float a;
+                #line 3 0
+                #line 4 0
+                """, ShaderSources.load("main.glsl", directory).getText());
+    }
+
+    @Test
+    void includeCyclesAreRejected() throws IOException {
+        write("a.glsl", "#include \"b.glsl\"\n");
+        write("b.glsl", "#include \"a.glsl\"\n");
+        assertThrows(IllegalStateException.class, () -> ShaderSources.load("a.glsl", directory));
+        assertThrows(IllegalStateException.class, () -> ShaderSources.load("missing.glsl", directory));
+    }
+}
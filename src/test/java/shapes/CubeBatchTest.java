@@ -0,0 +1,248 @@
+package shapes;
+
+import org.joml.Matrix4f;
+import org.junit.jupiter.api.Test;
+import org.lwjgl.opengl.GL15;
+import rendering.GpuResources;
+import rendering.RecordingRenderBackend;
+import rendering.StreamingBuffer;
+import scene.TransformStore;
+
+import java.nio.ByteBuffer;
+import java.nio.FloatBuffer;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+class CubeBatchTest {
+    private static final int INSTANCE_FLOATS = 16;
+    private static final int INSTANCE_BYTES = INSTANCE_FLOATS * Float.BYTES;
+
+    /**
+     * Logs the instance uploads, copies and draws it is asked for, in order, and keeps what the uploads wrote.
+     */
+    private static final class LoggingBackend extends RecordingRenderBackend {
+        private final List<String> log = new ArrayList<>();
+        // The instance buffer as the GPU would see it, the mesh is uploaded as bytes so only instances land here
+        private final float[] instances = new float[256 * INSTANCE_FLOATS];
+
+        @Override
+        public void bufferData(int target, long size, int usage) {
+            super.bufferData(target, size, usage);
+            log.add("allocate " + size);
+        }
+
+        @Override
+        public void bufferSubData(int target, long offset, FloatBuffer data) {
+            super.bufferSubData(target, offset, data);
+            log.add("upload " + offset + " " + (long) data.remaining() * Float.BYTES);
+            for (int i = data.position(); i < data.limit(); i++) {
+                instances[(int) (offset / Float.BYTES) + i - data.position()] = data.get(i);
+            }
+        }
+
+        /**
+         * @return the x translation of each of the first count instances
+         */
+        private float[] translationsX(int count) {
+            float[] x = new float[count];
+            for (int i = 0; i < count; i++) {
+                x[i] = instances[i * INSTANCE_FLOATS + 12];
+            }
+            return x;
+        }
+
+        @Override
+        public void copyBufferSubData(int readTarget, int writeTarget, long readOffset, long writeOffset, long size) {
+            super.copyBufferSubData(readTarget, writeTarget, readOffset, writeOffset, size);
+            log.add("copy " + readOffset + " " + writeOffset + " " + size);
+        }
+
+        @Override
+        public void drawElementsInstanced(int mode, int count, int type, long indices, int instanceCount) {
+            super.drawElementsInstanced(mode, count, type, indices, instanceCount);
+            log.add("draw " + instanceCount);
+        }
+    }
+
+    @Test
+    void streamedInstancesAreCopiedOnTheGpuBeforeTheDraw() {
+        LoggingBackend backend = new LoggingBackend();
+        GpuResources resources = new GpuResources(backend);
+        StreamingBuffer stream = new StreamingBuffer(resources, GL15.GL_ARRAY_BUFFER, 64 * INSTANCE_BYTES, 3,
+                "instance stream");
+        CubeBatch batch = new CubeBatch(resources, stream);
+        batch.add(1.0f, 2.0f, 3.0f, 0.5f);
+        int second = batch.add(4.0f, 5.0f, 6.0f, 0.5f);
+        backend.log.clear();
+
+        batch.draw();
+        stream.endFrame();
+        assertEquals(List.of("copy 0 0 " + 2 * INSTANCE_BYTES, "draw 2"), backend.log);
+        // The instances went through the mapped memory, the translation is the last column
+        ByteBuffer staged = stream.getBuffer();
+        assertEquals(4.0f, staged.getFloat(INSTANCE_BYTES + 12 * Float.BYTES));
+
+        // The next frame stages only the changed instance, in the next region
+        backend.log.clear();
+        batch.update(second, 7.0f, 8.0f, 9.0f, 0.5f);
+        batch.draw();
+        stream.endFrame();
+        assertEquals(List.of("copy " + 64 * INSTANCE_BYTES + " " + INSTANCE_BYTES + " " + INSTANCE_BYTES, "draw 2"),
+                backend.log);
+
+        batch.delete();
+        stream.delete();
+        resources.endFrame();
+        assertEquals(0, resources.getLiveCount());
+    }
+
+    @Test
+    void instancesThatDontFitTheStreamAreUploadedDirectly() {
+        LoggingBackend backend = new LoggingBackend();
+        GpuResources resources = new GpuResources(backend);
+        StreamingBuffer stream = new StreamingBuffer(resources, GL15.GL_ARRAY_BUFFER, INSTANCE_BYTES, 3,
+                "instance stream");
+        CubeBatch batch = new CubeBatch(resources, stream);
+        batch.add(1.0f, 2.0f, 3.0f, 0.5f);
+        batch.add(4.0f, 5.0f, 6.0f, 0.5f);
+        backend.log.clear();
+
+        batch.draw();
+        assertEquals(List.of("upload 0 " + 2 * INSTANCE_BYTES, "draw 2"), backend.log);
+        batch.delete();
+        stream.delete();
+    }
+
+    @Test
+    void idsStayValidAfterRemoves() {
+        LoggingBackend backend = new LoggingBackend();
+        CubeBatch batch = new CubeBatch(backend);
+        int[] ids = new int[5];
+        for (int i = 0; i < ids.length; i++) {
+            ids[i] = batch.add(i, 0.0f, 0.0f, 0.5f);
+        }
+        // The last cube fills the first hole, then the new last one fills the second
+        batch.remove(ids[0]);
+        batch.remove(ids[2]);
+        assertEquals(3, batch.size());
+        assertThrows(IllegalArgumentException.class, () -> batch.remove(ids[0]));
+        assertThrows(IllegalArgumentException.class, () -> batch.update(ids[2], 0.0f, 0.0f, 0.0f, 1.0f));
+
+        // Every remaining id still reaches its own cube, wherever it was moved to
+        batch.update(ids[1], 11.0f, 0.0f, 0.0f, 0.5f);
+        batch.update(ids[3], 13.0f, 0.0f, 0.0f, 0.5f);
+        batch.update(ids[4], 14.0f, 0.0f, 0.0f, 0.5f);
+        batch.draw();
+        assertArrayEquals(new float[] {14.0f, 11.0f, 13.0f}, backend.translationsX(3));
+
+        // Freed ids are handed out again, for a cube at the end
+        int reused = batch.add(new Matrix4f().translation(20.0f, 0.0f, 0.0f));
+        assertEquals(ids[2], reused);
+        batch.draw();
+        assertArrayEquals(new float[] {14.0f, 11.0f, 13.0f, 20.0f}, backend.translationsX(4));
+        batch.delete();
+    }
+
+    @Test
+    void onlyTheDirtySpanIsUploaded() {
+        LoggingBackend backend = new LoggingBackend();
+        CubeBatch batch = new CubeBatch(backend);
+        int[] ids = new int[8];
+        for (int i = 0; i < ids.length; i++) {
+            ids[i] = batch.add(i, 0.0f, 0.0f, 0.5f);
+        }
+        backend.log.clear();
+        batch.draw();
+        assertEquals(List.of("upload 0 " + 8 * INSTANCE_BYTES, "draw 8"), backend.log);
+
+        // Two changes upload everything between them, once
+        backend.log.clear();
+        batch.update(ids[2], 2.0f, 1.0f, 0.0f, 0.5f);
+        batch.update(ids[5], 5.0f, 1.0f, 0.0f, 0.5f);
+        batch.draw();
+        assertEquals(List.of("upload " + 2 * INSTANCE_BYTES + " " + 4 * INSTANCE_BYTES, "draw 8"), backend.log);
+
+        // Nothing changed, nothing uploaded
+        backend.log.clear();
+        batch.draw();
+        assertEquals(List.of("draw 8"), backend.log);
+
+        // Removing the last cube leaves nothing to upload, removing another moves the last one into its place
+        backend.log.clear();
+        batch.remove(ids[7]);
+        batch.draw();
+        batch.remove(ids[1]);
+        batch.draw();
+        assertEquals(List.of("draw 7", "upload " + INSTANCE_BYTES + " " + INSTANCE_BYTES, "draw 6"), backend.log);
+        batch.delete();
+    }
+
+    @Test
+    void growingReallocatesOnceAndUploadsEverything() {
+        LoggingBackend backend = new LoggingBackend();
+        CubeBatch batch = new CubeBatch(backend);
+        for (int i = 0; i < 64; i++) {
+            batch.add(i, 0.0f, 0.0f, 0.5f);
+        }
+        batch.draw();
+
+        // Past the first 64 the buffer doubles, and the old instances go along with the new ones
+        backend.log.clear();
+        for (int i = 64; i < 100; i++) {
+            batch.add(i, 0.0f, 0.0f, 0.5f);
+        }
+        batch.draw();
+        assertEquals(List.of("allocate " + 128 * INSTANCE_BYTES, "upload 0 " + 100 * INSTANCE_BYTES, "draw 100"),
+                backend.log);
+        assertEquals(99.0f, backend.translationsX(100)[99]);
+
+        // Filling the rest of it doesn't reallocate again
+        backend.log.clear();
+        for (int i = 100; i < 128; i++) {
+            batch.add(i, 0.0f, 0.0f, 0.5f);
+        }
+        batch.draw();
+        assertEquals(List.of("upload " + 100 * INSTANCE_BYTES + " " + 28 * INSTANCE_BYTES, "draw 128"), backend.log);
+        batch.delete();
+    }
+
+    @Test
+    void transformsAreDrawnStraightFromTheStore() {
+        LoggingBackend backend = new LoggingBackend();
+        CubeBatch batch = new CubeBatch(backend);
+        TransformStore transforms = new TransformStore();
+        int[] entities = new int[4];
+        for (int i = 0; i < entities.length; i++) {
+            entities[i] = transforms.create();
+            transforms.setPosition(entities[i], i, 0.0f, 0.0f);
+        }
+        backend.log.clear();
+        batch.update(transforms);
+        batch.draw();
+        assertEquals(List.of("upload 0 " + 4 * INSTANCE_BYTES, "draw 4"), backend.log);
+        assertArrayEquals(new float[] {0.0f, 1.0f, 2.0f, 3.0f}, backend.translationsX(4));
+
+        // Only the moved entity's matrix is written and uploaded
+        backend.log.clear();
+        transforms.setPosition(entities[2], 12.0f, 0.0f, 0.0f);
+        batch.update(transforms);
+        batch.draw();
+        assertEquals(List.of("upload " + 2 * INSTANCE_BYTES + " " + INSTANCE_BYTES, "draw 4"), backend.log);
+
+        // A destroyed entity's slot is taken by the last one
+        backend.log.clear();
+        transforms.destroy(entities[0]);
+        batch.update(transforms);
+        batch.draw();
+        assertEquals(List.of("upload 0 " + INSTANCE_BYTES, "draw 3"), backend.log);
+        assertArrayEquals(new float[] {3.0f, 1.0f, 12.0f}, backend.translationsX(3));
+
+        // Cubes can't be added by id to a batch drawing a store
+        assertThrows(IllegalStateException.class, () -> batch.add(0.0f, 0.0f, 0.0f, 1.0f));
+        batch.delete();
+    }
+}
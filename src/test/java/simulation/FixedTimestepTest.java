@@ -0,0 +1,49 @@
+package simulation;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+class FixedTimestepTest {
+    private static final long TICK = 10_000_000L;
+
+    private final FixedTimestep timestep = new FixedTimestep(100.0, 5);
+
+    @Test
+    void runsAWholeTickForEveryTickOfTime() {
+        assertEquals(TICK, timestep.getTickNanos());
+        assertEquals(0.01f, timestep.getTickSeconds(), 1.0e-9f);
+        // The first call only starts the clock
+        assertEquals(0, timestep.advance(1_000L));
+        assertEquals(2, timestep.advance(1_000L + TICK * 5 / 2));
+        assertEquals(0.5f, timestep.getAlpha(), 1.0e-6f);
+        // The half tick left over counts towards the next one
+        assertEquals(1, timestep.advance(1_000L + TICK * 3));
+        assertEquals(0.0f, timestep.getAlpha(), 1.0e-6f);
+        assertEquals(0, timestep.advance(1_000L + TICK * 3 + TICK / 4));
+        assertEquals(0.25f, timestep.getAlpha(), 1.0e-6f);
+        assertEquals(0, timestep.getDroppedTicks());
+    }
+
+    @Test
+    void aLongHitchIsClampedAndTheRestDropped() {
+        timestep.advance(0L);
+        // Twelve and three quarter ticks of time, after a hitch
+        assertEquals(5, timestep.advance(TICK * 51 / 4));
+        assertEquals(7, timestep.getDroppedTicks());
+        // Only the backlog is dropped, the fraction of a tick stays
+        assertEquals(0.75f, timestep.getAlpha(), 1.0e-6f);
+        assertEquals(1, timestep.advance(TICK * 51 / 4 + TICK / 4));
+        assertEquals(0.0f, timestep.getAlpha(), 1.0e-6f);
+
+        assertEquals(5, timestep.advance(TICK * 100));
+        assertEquals(7 + 82, timestep.getDroppedTicks());
+    }
+
+    @Test
+    void rejectsBadRates() {
+        assertThrows(IllegalArgumentException.class, () -> new FixedTimestep(0.0, 5));
+        assertThrows(IllegalArgumentException.class, () -> new FixedTimestep(60.0, 0));
+    }
+}
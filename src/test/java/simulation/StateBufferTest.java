@@ -0,0 +1,90 @@
+package simulation;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotSame;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class StateBufferTest {
+    private static final int STATE_SIZE = 64;
+    private static final int TICKS = 200_000;
+
+    private final StateBuffer buffer = new StateBuffer(STATE_SIZE);
+
+    private void publish(long tick) {
+        StateBuffer.Snapshot back = buffer.getBack();
+        back.tick = tick;
+        back.current[0] = tick;
+        buffer.publish();
+    }
+
+    @Test
+    void nothingIsDeliveredBeforeTheFirstPublish() {
+        assertEquals(-1, buffer.acquire().getTick());
+        assertEquals(-1, buffer.acquire().getTick());
+    }
+
+    @Test
+    void theReaderGetsTheLatestSnapshotOnce() {
+        publish(1);
+        StateBuffer.Snapshot first = buffer.acquire();
+        assertEquals(1, first.getTick());
+        // Without a new publish the reader keeps the same snapshot, and the writer never writes to it
+        assertSame(first, buffer.acquire());
+        assertNotSame(first, buffer.getBack());
+
+        // Snapshots published in between are skipped, not queued
+        publish(2);
+        publish(3);
+        StateBuffer.Snapshot latest = buffer.acquire();
+        assertEquals(3, latest.getTick());
+        assertEquals(3.0f, latest.current[0]);
+        assertSame(latest, buffer.acquire());
+        assertNotSame(latest, buffer.getBack());
+
+        publish(4);
+        assertEquals(4, buffer.acquire().getTick());
+    }
+
+    @Test
+    void concurrentReadsNeverSeeATornOrOlderSnapshot() throws InterruptedException {
+        AtomicReference<String> failure = new AtomicReference<>();
+        Thread writer = new Thread(() -> {
+            for (int tick = 0; tick < TICKS; tick++) {
+                StateBuffer.Snapshot back = buffer.getBack();
+                back.tick = tick;
+                Arrays.fill(back.current, tick);
+                buffer.publish();
+            }
+        }, "state-buffer-writer");
+        writer.start();
+
+        long last = -1;
+        int reads = 0;
+        while (last < TICKS - 1 && failure.get() == null) {
+            StateBuffer.Snapshot snapshot = buffer.acquire();
+            long tick = snapshot.getTick();
+            if (tick < last) {
+                failure.set("went back from tick " + last + " to " + tick);
+            }
+            for (float value : snapshot.current) {
+                // Before the first publish the snapshot is empty
+                if (tick >= 0 && value != tick) {
+                    failure.set("tick " + tick + " holds state of tick " + value);
+                }
+            }
+            last = tick;
+            reads++;
+        }
+        writer.join();
+        assertNull(failure.get());
+        assertEquals(TICKS - 1, last);
+        assertTrue(reads > 0);
+    }
+}
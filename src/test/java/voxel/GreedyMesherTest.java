@@ -0,0 +1,122 @@
+package voxel;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static voxel.Chunk.PADDED_SIZE;
+import static voxel.Chunk.SIZE;
+
+class GreedyMesherTest {
+    private static final short STONE = 1;
+    private static final short DIRT = 2;
+
+    private final GreedyMesher mesher = new GreedyMesher();
+    private final short[] snapshot = new short[PADDED_SIZE * PADDED_SIZE * PADDED_SIZE];
+
+    private void set(int x, int y, int z, short block) {
+        snapshot[Chunk.paddedIndex(x, y, z)] = block;
+    }
+
+    private ChunkMesh mesh() {
+        return mesher.mesh(snapshot, 0L, 0, 0, 0, 0);
+    }
+
+    private static int quads(ChunkMesh mesh, int level) {
+        return mesh.getIndexCount(level) / 6;
+    }
+
+    /**
+     * @return the total area of a level's quads, which is the visible surface however it was merged
+     */
+    private static float area(ChunkMesh mesh, int level) {
+        float[] vertices = mesh.getVertices();
+        int[] indices = mesh.getIndices();
+        int end = mesh.getIndexOffset(level) + mesh.getIndexCount(level);
+        float area = 0.0f;
+        for (int i = mesh.getIndexOffset(level); i < end; i += 6) {
+            // The first and third index of a quad are opposite corners, whichever way it winds
+            int a = indices[i] * 3;
+            int c = indices[i + 2] * 3;
+            float dx = Math.abs(vertices[c] - vertices[a]);
+            float dy = Math.abs(vertices[c + 1] - vertices[a + 1]);
+            float dz = Math.abs(vertices[c + 2] - vertices[a + 2]);
+            // The face lies on a grid plane, so one of the three is 0
+            area += dx * dy + dy * dz + dz * dx;
+        }
+        return area;
+    }
+
+    @Test
+    void anEmptyChunkHasNoFaces() {
+        ChunkMesh mesh = mesh();
+        assertTrue(mesh.isEmpty());
+        assertEquals(GreedyMesher.LEVELS, mesh.getLevelCount());
+    }
+
+    @Test
+    void aSingleBlockHasSixFaces() {
+        set(3, 4, 5, STONE);
+        ChunkMesh mesh = mesh();
+        assertEquals(6, quads(mesh, 0));
+        assertEquals(6.0f, area(mesh, 0));
+        // One block of eight isn't enough to fill a coarser cell
+        assertEquals(0, quads(mesh, 1));
+    }
+
+    @Test
+    void aFullChunkIsOneQuadPerSide() {
+        for (int z = 0; z < SIZE; z++) {
+            for (int y = 0; y < SIZE; y++) {
+                for (int x = 0; x < SIZE; x++) {
+                    set(x, y, z, STONE);
+                }
+            }
+        }
+        ChunkMesh mesh = mesh();
+        for (int level = 0; level < GreedyMesher.LEVELS; level++) {
+            assertEquals(6, quads(mesh, level));
+            assertEquals(6.0f * SIZE * SIZE, area(mesh, level));
+        }
+    }
+
+    @Test
+    void adjacentBlocksDropTheSharedFaceAndMerge() {
+        set(3, 4, 5, STONE);
+        set(4, 4, 5, STONE);
+        ChunkMesh mesh = mesh();
+        // The two ends, and one 2x1 quad on each of the four long sides
+        assertEquals(6, quads(mesh, 0));
+        assertEquals(10.0f, area(mesh, 0));
+    }
+
+    @Test
+    void differentBlocksDropTheSharedFaceButDontMerge() {
+        set(3, 4, 5, STONE);
+        set(4, 4, 5, DIRT);
+        ChunkMesh mesh = mesh();
+        assertEquals(10, quads(mesh, 0));
+        assertEquals(10.0f, area(mesh, 0));
+    }
+
+    @Test
+    void facesAgainstTheNeighbouringChunkAreHidden() {
+        // A block on the +X edge, with the neighbouring chunk's block next to it in the border
+        set(SIZE - 1, 0, 0, STONE);
+        set(SIZE, 0, 0, STONE);
+        // Border blocks are only looked at, never meshed, even with air next to them
+        set(-1, 8, 8, STONE);
+        assertEquals(5, quads(mesh(), 0));
+
+        // Without the neighbour the face shows, on the chunk's edge in world space
+        set(SIZE, 0, 0, Chunk.AIR);
+        ChunkMesh mesh = mesher.mesh(snapshot, 0L, 0, SIZE, 0, 0);
+        assertEquals(6, quads(mesh, 0));
+        float maxX = 0.0f;
+        float[] vertices = mesh.getVertices();
+        for (int i = 0; i < vertices.length; i += 3) {
+            maxX = Math.max(maxX, vertices[i]);
+        }
+        assertEquals(2.0f * SIZE, maxX);
+    }
+}